@@ -0,0 +1,271 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.transitime.applications.Core;
+import org.transitime.applications.GtfsFileProcessor;
+import org.transitime.core.AvlProcessor;
+import org.transitime.core.TemporalMatch;
+import org.transitime.core.VehicleState;
+import org.transitime.core.dataCache.VehicleStateManager;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.db.structs.AvlReport.AssignmentType;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+
+/**
+ * Sets up everything that the benchmarks need: a synthetic GTFS configuration
+ * processed into an in-memory database, a Core using that configuration, and
+ * a vehicle that has been matched to its block by processing a few AVL
+ * reports so that it is predictable. This is done once per JVM since JMH
+ * runs each benchmark in its own forked JVM and since there can only be a
+ * single Core.
+ * <p>
+ * The configuration is processed the same way as for a real agency, using
+ * GtfsFileProcessor, so that the trip patterns, stop paths, and travel times
+ * are what the core would normally be working with.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class BenchmarkEnvironment {
+
+	private final Core core;
+	private final Block block;
+	private final Trip trip;
+	private final VehicleState vehicleState;
+
+	// An AVL report for the vehicle that has not yet been processed. For
+	// benchmarking the matching of a new report.
+	private final AvlReport nextAvlReport;
+
+	// Size of the synthetic configuration
+	private static final int NUM_ROUTES = 20;
+	private static final int STOPS_PER_ROUTE = 30;
+	private static final int BLOCKS_PER_ROUTE = 6;
+
+	// How many AVL reports to process before the vehicle is considered
+	// to be well matched
+	private static final int NUM_INITIAL_AVL_REPORTS = 7;
+
+	private static final String AGENCY_ID = "benchmark";
+	public static final String VEHICLE_ID = "benchmarkVehicle";
+
+	private static BenchmarkEnvironment singleton = null;
+
+	// Need to set the config params before any of the transitime classes
+	// are loaded since they read in their params when loaded
+	static {
+		System.setProperty("transitime.core.agencyId", AGENCY_ID);
+		System.setProperty("transitime.hibernate.configFile",
+				copyResourceToTempFile("hsql_benchmark_hibernate.cfg.xml")
+						.getPath());
+		System.setProperty("transitime.db.storeDataInDatabase", "false");
+		// So that GtfsFileProcessor doesn't call System.exit() when done
+		System.setProperty("transitime.core.integrationTest", "true");
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Returns the environment, creating it if it hasn't yet been created
+	 * for this JVM.
+	 *
+	 * @return the environment
+	 */
+	public static synchronized BenchmarkEnvironment getInstance() {
+		if (singleton == null)
+			singleton = new BenchmarkEnvironment();
+		return singleton;
+	}
+
+	/**
+	 * Hibernate needs the config file to be a regular file and not a
+	 * resource within the benchmarks jar so copy it to a temp file.
+	 *
+	 * @param resourceName
+	 * @return the temp file
+	 */
+	private static File copyResourceToTempFile(String resourceName) {
+		try (InputStream in = BenchmarkEnvironment.class.getClassLoader()
+				.getResourceAsStream(resourceName)) {
+			if (in == null)
+				throw new IllegalStateException("Could not find resource "
+						+ resourceName);
+			File file = File.createTempFile("transitime-benchmark", ".xml");
+			file.deleteOnExit();
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return file;
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not copy resource "
+					+ resourceName, e);
+		}
+	}
+
+	private BenchmarkEnvironment() {
+		// Write the synthetic GTFS data and process it into the database
+		File gtfsDirectory;
+		try {
+			gtfsDirectory = Files.createTempDirectory("transitime-gtfs")
+					.toFile();
+			new SyntheticGtfs(NUM_ROUTES, STOPS_PER_ROUTE, BLOCKS_PER_ROUTE)
+					.write(gtfsDirectory);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write GTFS data", e);
+		}
+		GtfsFileProcessor.main(new String[] { "-gtfsDirectoryName",
+				gtfsDirectory.getPath(), "-storeNewRevs" });
+
+		core = Core.createCore();
+		if (core == null)
+			throw new IllegalStateException("Could not create Core");
+
+		// Use a trip in the middle of the day for the first block
+		block = core.getDbConfig().getBlock(SyntheticGtfs.SERVICE_ID,
+				SyntheticGtfs.getBlockId(0, 0));
+		trip = getTrip(block, 10 * 60 * 60);
+
+		// Process AVL reports at the middle of each stop path so that the
+		// vehicle is matched and predictable
+		for (int i = 1; i <= NUM_INITIAL_AVL_REPORTS; ++i) {
+			AvlReport avlReport = createAvlReport(i);
+			core.setSystemTime(avlReport.getTime());
+			AvlProcessor.getInstance().processAvlReport(avlReport);
+		}
+		nextAvlReport = createAvlReport(NUM_INITIAL_AVL_REPORTS + 1);
+		core.setSystemTime(nextAvlReport.getTime());
+
+		vehicleState = VehicleStateManager.getInstance().getVehicleState(
+				VEHICLE_ID);
+		if (!vehicleState.isPredictable())
+			throw new IllegalStateException("Vehicle " + VEHICLE_ID
+					+ " was not matched to block " + block.getId()
+					+ " so it is not predictable. " + vehicleState);
+	}
+
+	/**
+	 * Returns the first trip of the block that starts at or after the
+	 * specified time.
+	 *
+	 * @param block
+	 * @param secsIntoDay
+	 * @return the trip
+	 */
+	private static Trip getTrip(Block block, int secsIntoDay) {
+		for (Trip trip : block.getTrips())
+			if (trip.getStartTime() >= secsIntoDay)
+				return trip;
+		throw new IllegalStateException("No trip for block " + block.getId()
+				+ " starts after " + secsIntoDay + " secs into the day");
+	}
+
+	/**
+	 * Creates an AVL report for the vehicle that is halfway along the
+	 * specified stop path of the trip, for the time halfway between the
+	 * scheduled times of the stops at each end of the stop path.
+	 *
+	 * @param stopPathIndex
+	 * @return the AVL report
+	 */
+	private AvlReport createAvlReport(int stopPathIndex) {
+		List<Location> locations =
+				trip.getStopPath(stopPathIndex).getLocations();
+		Location location = locations.get(locations.size() / 2);
+
+		int secsIntoDay = (trip.getScheduleTime(stopPathIndex - 1).getTime()
+				+ trip.getScheduleTime(stopPathIndex).getTime()) / 2;
+		long time = core.getTime().getEpochTime(secsIntoDay,
+				System.currentTimeMillis());
+
+		AvlReport avlReport = new AvlReport(VEHICLE_ID, time,
+				location.getLat(), location.getLon(), "Benchmark");
+		avlReport.setAssignment(block.getId(), AssignmentType.BLOCK_ID);
+		return avlReport;
+	}
+
+	/**
+	 * Creates a separate VehicleState, not managed by VehicleStateManager,
+	 * whose previous and current matches are the last two matches of the
+	 * benchmark vehicle. Since those AVL reports are on consecutive stop
+	 * paths the vehicle has crossed a stop, so generating the
+	 * arrivals/departures for it actually determines the times instead of
+	 * returning right away.
+	 *
+	 * @return the vehicle state
+	 */
+	public VehicleState createStopCrossingVehicleState() {
+		TemporalMatch match = vehicleState.getMatch();
+		TemporalMatch previousMatch = vehicleState.getPreviousMatch();
+		if (previousMatch == null
+				|| previousMatch.getStopPathIndex() == match
+						.getStopPathIndex())
+			throw new IllegalStateException("Last two matches for vehicle "
+					+ VEHICLE_ID + " are not on different stop paths. "
+					+ vehicleState);
+
+		VehicleState crossingVehicleState = new VehicleState(VEHICLE_ID);
+		crossingVehicleState.setAvlReport(
+				vehicleState.getPreviousAvlReportFromSuccessfulMatch());
+		crossingVehicleState.setBlock(vehicleState.getBlock(),
+				vehicleState.getAssignmentMethod(),
+				vehicleState.getAssignmentId(), true);
+		crossingVehicleState.setMatch(previousMatch);
+		crossingVehicleState.setAvlReport(vehicleState.getAvlReport());
+		crossingVehicleState.setMatch(match);
+		return crossingVehicleState;
+	}
+
+	/************************** Getter Methods ***************************/
+
+	public Core getCore() {
+		return core;
+	}
+
+	public Block getBlock() {
+		return block;
+	}
+
+	public Trip getTrip() {
+		return trip;
+	}
+
+	public VehicleState getVehicleState() {
+		return vehicleState;
+	}
+
+	public AvlReport getNextAvlReport() {
+		return nextAvlReport;
+	}
+
+	/**
+	 * Returns the stop path that the next AVL report is on.
+	 *
+	 * @return the stop path
+	 */
+	public StopPath getNextStopPath() {
+		return trip.getStopPath(NUM_INITIAL_AVL_REPORTS + 1);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitime.core.VehicleState;
+import org.transitime.ipc.data.IpcDataCodec;
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.data.IpcVehicle;
+import org.transitime.ipc.data.IpcVehicleComplete;
+import org.transitime.ipc.data.SyntheticIpcData;
+
+/**
+ * Benchmarks for serializing the IPC objects that are returned to the API via
+ * RMI. Java serialization is what RMI uses for most calls. For the large
+ * collections of all predictions and all vehicles the compact binary format
+ * of IpcDataCodec is compared to Java serialization, both for encoding on
+ * the server and for decoding on the client.
+ *
+ * @author SkiBu Smith
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IpcSerializationBenchmark {
+
+	private IpcVehicle ipcVehicle;
+	private ArrayList<IpcPrediction> predictions;
+
+	// Predictions and vehicles for an entire agency, plus the encoded
+	// versions of them for the decoding benchmarks
+	private ArrayList<IpcPredictionsForRouteStopDest> allPredictions;
+	private ArrayList<IpcVehicleComplete> allVehicles;
+	private byte[] allPredictionsSerialized;
+	private byte[] allVehiclesSerialized;
+	private byte[] allPredictionsEncoded;
+	private byte[] allVehiclesEncoded;
+
+	// Size of the agency for the all predictions and all vehicles benchmarks
+	private static final int NUM_ROUTES = 50;
+	private static final int STOPS_PER_ROUTE = 60;
+	private static final int PREDS_PER_STOP = 3;
+	private static final int NUM_VEHICLES = 1000;
+
+	/********************** Member Functions **************************/
+
+	@Setup
+	public void setup() throws IOException {
+		VehicleState vehicleState =
+				BenchmarkEnvironment.getInstance().getVehicleState();
+		ipcVehicle = new IpcVehicle(vehicleState);
+		predictions = new ArrayList<IpcPrediction>(vehicleState.getPredictions());
+
+		SyntheticIpcData syntheticIpcData = new SyntheticIpcData(NUM_ROUTES,
+				STOPS_PER_ROUTE, PREDS_PER_STOP, NUM_VEHICLES);
+		allPredictions = syntheticIpcData.createPredictions();
+		allVehicles = syntheticIpcData.createVehicles();
+		allPredictionsSerialized = serialize(allPredictions);
+		allVehiclesSerialized = serialize(allVehicles);
+		allPredictionsEncoded = IpcDataCodec.encodePredictions(allPredictions);
+		allVehiclesEncoded = IpcDataCodec.encodeVehicles(allVehicles);
+	}
+
+	/**
+	 * Serializes the object the same way that RMI does.
+	 *
+	 * @param object
+	 * @return the serialized bytes
+	 * @throws IOException
+	 */
+	private static byte[] serialize(Serializable object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes the object the same way that RMI does.
+	 *
+	 * @param bytes
+	 * @return the deserialized object
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private static Object deserialize(byte[] bytes) throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream in =
+				new ObjectInputStream(new ByteArrayInputStream(bytes));
+		return in.readObject();
+	}
+
+	@Benchmark
+	public byte[] serializeVehicle() throws IOException {
+		return serialize(ipcVehicle);
+	}
+
+	@Benchmark
+	public byte[] serializePredictions() throws IOException {
+		return serialize(predictions);
+	}
+
+	@Benchmark
+	public byte[] serializeAllPredictions() throws IOException {
+		return serialize(allPredictions);
+	}
+
+	@Benchmark
+	public Object deserializeAllPredictions() throws IOException,
+			ClassNotFoundException {
+		return deserialize(allPredictionsSerialized);
+	}
+
+	@Benchmark
+	public byte[] encodeAllPredictions() {
+		return IpcDataCodec.encodePredictions(allPredictions);
+	}
+
+	@Benchmark
+	public List<IpcPredictionsForRouteStopDest> decodeAllPredictions()
+			throws IOException {
+		return IpcDataCodec.decodePredictions(allPredictionsEncoded);
+	}
+
+	@Benchmark
+	public byte[] serializeAllVehicles() throws IOException {
+		return serialize(allVehicles);
+	}
+
+	@Benchmark
+	public Object deserializeAllVehicles() throws IOException,
+			ClassNotFoundException {
+		return deserialize(allVehiclesSerialized);
+	}
+
+	@Benchmark
+	public byte[] encodeAllVehicles() {
+		return IpcDataCodec.encodeVehicles(allVehicles);
+	}
+
+	@Benchmark
+	public List<IpcVehicleComplete> decodeAllVehicles() throws IOException {
+		return IpcDataCodec.decodeVehicles(allVehiclesEncoded);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitime.core.SpatialMatch;
+import org.transitime.core.SpatialMatcher;
+import org.transitime.core.TemporalMatch;
+import org.transitime.core.TemporalMatcher;
+import org.transitime.core.VehicleState;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.Trip;
+import org.transitime.db.structs.VectorWithHeading;
+import org.transitime.utils.Geo;
+
+/**
+ * Benchmarks for matching a new AVL report to the assignment of the vehicle.
+ * Covers the spatial matching to the stop paths of the currently active
+ * trips, the temporal matching that picks the best of the spatial matches,
+ * and the distance to segment calculation that the spatial matching spends
+ * much of its time in.
+ *
+ * @author SkiBu Smith
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchingBenchmark {
+
+	private AvlReport avlReport;
+	private Block block;
+	private List<Trip> tripsToInvestigate;
+	private VehicleState vehicleState;
+	private List<SpatialMatch> spatialMatches;
+	private Location location;
+	private VectorWithHeading segmentVector;
+
+	/********************** Member Functions **************************/
+
+	@Setup
+	public void setup() {
+		BenchmarkEnvironment environment = BenchmarkEnvironment.getInstance();
+		avlReport = environment.getNextAvlReport();
+		block = environment.getBlock();
+		tripsToInvestigate = block.getTripsCurrentlyActive(avlReport);
+
+		// The temporal matcher compares the new AVL report to the previous
+		// match so the new report needs to be part of the vehicle state
+		vehicleState = environment.getVehicleState();
+		vehicleState.setAvlReport(avlReport);
+		spatialMatches = SpatialMatcher.getSpatialMatches(avlReport, block,
+				tripsToInvestigate);
+		if (spatialMatches.isEmpty())
+			throw new IllegalStateException("No spatial matches for "
+					+ avlReport);
+
+		location = avlReport.getLocation();
+		segmentVector = environment.getNextStopPath().getSegmentVector(0);
+	}
+
+	@Benchmark
+	public List<SpatialMatch> spatialMatch() {
+		return SpatialMatcher.getSpatialMatches(avlReport, block,
+				tripsToInvestigate);
+	}
+
+	@Benchmark
+	public TemporalMatch temporalMatch() {
+		return TemporalMatcher.getInstance().getBestTemporalMatch(
+				vehicleState, spatialMatches);
+	}
+
+	@Benchmark
+	public double distanceToSegment() {
+		return Geo.distanceIfMatch(location, segmentVector);
+	}
+}
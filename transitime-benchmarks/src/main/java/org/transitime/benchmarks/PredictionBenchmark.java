@@ -0,0 +1,124 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.transitime.core.ArrivalDepartureGeneratorDefaultImpl;
+import org.transitime.core.PredictionGeneratorDefaultImpl;
+import org.transitime.core.VehicleState;
+import org.transitime.core.dataCache.PredictionDataCache;
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+
+/**
+ * Benchmarks for what is done once a vehicle has been matched: generating the
+ * predictions for the rest of the block, generating the arrivals/departures,
+ * and updating and reading the prediction cache that the API uses.
+ * <p>
+ * The arrival/departure generation is measured both for a vehicle that has
+ * crossed a stop since the previous AVL report and for the more common case
+ * where it has not, which returns right away.
+ *
+ * @author SkiBu Smith
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PredictionBenchmark {
+
+	private VehicleState vehicleState;
+	private PredictionGeneratorDefaultImpl predictionGenerator;
+	private ArrivalDepartureGeneratorDefaultImpl arrivalDepartureGenerator;
+	private VehicleState stopCrossingVehicleState;
+	private List<IpcPrediction> predictions;
+	private String routeShortName;
+	private String stopId;
+
+	/********************** Member Functions **************************/
+
+	@Setup
+	public void setup() {
+		vehicleState = BenchmarkEnvironment.getInstance().getVehicleState();
+		predictionGenerator = new PredictionGeneratorDefaultImpl();
+		arrivalDepartureGenerator = new ArrivalDepartureGeneratorDefaultImpl();
+		stopCrossingVehicleState = BenchmarkEnvironment.getInstance()
+				.createStopCrossingVehicleState();
+
+		predictions = predictionGenerator.generate(vehicleState);
+		if (predictions.isEmpty())
+			throw new IllegalStateException("No predictions generated for "
+					+ vehicleState);
+		PredictionDataCache.getInstance().updatePredictions(
+				vehicleState.getPredictions(), predictions);
+		vehicleState.setPredictions(predictions);
+
+		// Read predictions for a stop part way through the rest of the trip
+		IpcPrediction prediction = predictions.get(predictions.size() / 2);
+		routeShortName = prediction.getRouteShortName();
+		stopId = prediction.getStopId();
+	}
+
+	@Benchmark
+	public List<IpcPrediction> generatePredictions() {
+		return predictionGenerator.generate(vehicleState);
+	}
+
+	@Benchmark
+	public VehicleState generateArrivalDepartures() {
+		// Generating arrivals/departures remembers the last arrival so
+		// that later departures are after it. Reset it so that each
+		// invocation determines the times the same way.
+		stopCrossingVehicleState.setLastArrivalTime(0);
+		stopCrossingVehicleState.setArrivalToStoreToDb(null);
+		arrivalDepartureGenerator.generate(stopCrossingVehicleState);
+		return stopCrossingVehicleState;
+	}
+
+	@Benchmark
+	public VehicleState generateArrivalDeparturesNoStopCrossed() {
+		arrivalDepartureGenerator.generate(vehicleState);
+		return vehicleState;
+	}
+
+	@Benchmark
+	public void updatePredictionCache() {
+		PredictionDataCache.getInstance().updatePredictions(predictions,
+				predictions);
+	}
+
+	@Benchmark
+	public List<IpcPredictionsForRouteStopDest> getPredictionsFromCache() {
+		return PredictionDataCache.getInstance().getPredictions(
+				routeShortName, stopId);
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.transitime.utils.Time;
+
+/**
+ * Writes a synthetic GTFS configuration so that the benchmarks don't depend
+ * on data from a real agency and can be reproduced exactly. Each route is a
+ * line of evenly spaced stops going east, with a trip pattern for each
+ * direction. The shapes have a small bend between each pair of stops so that
+ * matching stops to the shapes and matching AVL reports to the stop paths
+ * does real work. Each block goes back and forth on its route from early in
+ * the morning until late at night. The single calendar covers from a month
+ * ago until a year from now so that the configuration is always current.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class SyntheticGtfs {
+
+	private final int numRoutes;
+	private final int stopsPerRoute;
+	private final int blocksPerRoute;
+
+	public static final String TIMEZONE = "America/Los_Angeles";
+	public static final String SERVICE_ID = "everyday";
+
+	private static final double BASE_LAT = 37.70;
+	private static final double BASE_LON = -122.50;
+	private static final double LAT_BETWEEN_ROUTES = 0.01;
+	// About 440m at this latitude
+	private static final double LON_BETWEEN_STOPS = 0.005;
+	private static final double SHAPE_BEND_LAT = 0.0002;
+
+	private static final int SECS_BETWEEN_STOPS = 120;
+	private static final int LAYOVER_SECS = 300;
+	private static final int FIRST_TRIP_SECS = 5 * Time.HOUR_IN_SECS;
+	private static final int LAST_TRIP_SECS = 23 * Time.HOUR_IN_SECS;
+	private static final int SECS_BETWEEN_BLOCKS = 10 * Time.MIN_IN_SECS;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param numRoutes
+	 * @param stopsPerRoute
+	 * @param blocksPerRoute
+	 */
+	public SyntheticGtfs(int numRoutes, int stopsPerRoute, int blocksPerRoute) {
+		this.numRoutes = numRoutes;
+		this.stopsPerRoute = stopsPerRoute;
+		this.blocksPerRoute = blocksPerRoute;
+	}
+
+	public static String getRouteId(int route) {
+		return "r" + route;
+	}
+
+	public static String getBlockId(int route, int block) {
+		return getRouteId(route) + "_b" + block;
+	}
+
+	private static String getStopId(int route, int stop) {
+		return getRouteId(route) + "_s" + stop;
+	}
+
+	private static String getShapeId(int route, int direction) {
+		return getRouteId(route) + "_d" + direction;
+	}
+
+	private static double getLat(int route) {
+		return BASE_LAT + route * LAT_BETWEEN_ROUTES;
+	}
+
+	private static double getLon(int stop) {
+		return BASE_LON + stop * LON_BETWEEN_STOPS;
+	}
+
+	/**
+	 * Returns time of day in GTFS HH:MM:SS format
+	 *
+	 * @param secsIntoDay
+	 * @return time string
+	 */
+	private static String getTimeStr(int secsIntoDay) {
+		return String.format("%02d:%02d:%02d", secsIntoDay / 3600,
+				(secsIntoDay / 60) % 60, secsIntoDay % 60);
+	}
+
+	private static PrintWriter createFile(File directory, String fileName)
+			throws IOException {
+		return new PrintWriter(new OutputStreamWriter(new FileOutputStream(
+				new File(directory, fileName)), "UTF-8"));
+	}
+
+	/**
+	 * Writes the GTFS files to the directory.
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	public void write(File directory) throws IOException {
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+
+		PrintWriter out = createFile(directory, "agency.txt");
+		out.println("agency_id,agency_name,agency_url,agency_timezone");
+		out.println("synthetic,Synthetic Transit,http://www.transitime.org,"
+				+ TIMEZONE);
+		out.close();
+
+		// Calendar covers from a month ago until a year from now
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+		dateFormat.setTimeZone(TimeZone.getTimeZone(TIMEZONE));
+		long now = System.currentTimeMillis();
+		out = createFile(directory, "calendar.txt");
+		out.println("service_id,monday,tuesday,wednesday,thursday,friday,"
+				+ "saturday,sunday,start_date,end_date");
+		out.println(SERVICE_ID + ",1,1,1,1,1,1,1,"
+				+ dateFormat.format(new Date(now - 30 * Time.MS_PER_DAY)) + ","
+				+ dateFormat.format(new Date(now + 365 * Time.MS_PER_DAY)));
+		out.close();
+
+		out = createFile(directory, "routes.txt");
+		out.println("route_id,route_short_name,route_long_name,route_type");
+		for (int route = 0; route < numRoutes; ++route)
+			out.println(getRouteId(route) + "," + route + ",Route " + route
+					+ ",3");
+		out.close();
+
+		out = createFile(directory, "stops.txt");
+		out.println("stop_id,stop_name,stop_lat,stop_lon");
+		for (int route = 0; route < numRoutes; ++route)
+			for (int stop = 0; stop < stopsPerRoute; ++stop)
+				out.println(getStopId(route, stop) + ",Route " + route
+						+ " Stop " + stop + "," + getLat(route) + ","
+						+ getLon(stop));
+		out.close();
+
+		writeShapes(directory);
+		writeTripsAndStopTimes(directory);
+	}
+
+	/**
+	 * Writes shapes.txt. Has a shape for each direction of each route with a
+	 * point at each stop plus a bend between each pair of stops.
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	private void writeShapes(File directory) throws IOException {
+		PrintWriter out = createFile(directory, "shapes.txt");
+		out.println("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence");
+		for (int route = 0; route < numRoutes; ++route) {
+			for (int direction = 0; direction < 2; ++direction) {
+				int sequence = 0;
+				for (int i = 0; i < stopsPerRoute; ++i) {
+					int stop = direction == 0 ? i : stopsPerRoute - 1 - i;
+					out.println(getShapeId(route, direction) + ","
+							+ getLat(route) + "," + getLon(stop) + ","
+							+ sequence++);
+					if (i < stopsPerRoute - 1) {
+						double midLon = (getLon(stop) + getLon(direction == 0 ?
+								stop + 1 : stop - 1)) / 2;
+						out.println(getShapeId(route, direction) + ","
+								+ (getLat(route) + SHAPE_BEND_LAT) + ","
+								+ midLon + "," + sequence++);
+					}
+				}
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Writes trips.txt and stop_times.txt. Each block goes back and forth on
+	 * its route, with a layover at the end of each trip.
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	private void writeTripsAndStopTimes(File directory) throws IOException {
+		PrintWriter tripsOut = createFile(directory, "trips.txt");
+		tripsOut.println("route_id,service_id,trip_id,direction_id,block_id,"
+				+ "shape_id");
+		PrintWriter stopTimesOut = createFile(directory, "stop_times.txt");
+		stopTimesOut.println("trip_id,arrival_time,departure_time,stop_id,"
+				+ "stop_sequence");
+
+		int tripDurationSecs = (stopsPerRoute - 1) * SECS_BETWEEN_STOPS;
+		for (int route = 0; route < numRoutes; ++route) {
+			for (int block = 0; block < blocksPerRoute; ++block) {
+				int tripStartSecs = FIRST_TRIP_SECS + block * SECS_BETWEEN_BLOCKS;
+				int tripNumber = 0;
+				while (tripStartSecs < LAST_TRIP_SECS) {
+					int direction = tripNumber % 2;
+					String tripId =
+							getBlockId(route, block) + "_t" + tripNumber;
+					tripsOut.println(getRouteId(route) + "," + SERVICE_ID + ","
+							+ tripId + "," + direction + ","
+							+ getBlockId(route, block) + ","
+							+ getShapeId(route, direction));
+
+					for (int i = 0; i < stopsPerRoute; ++i) {
+						int stop = direction == 0 ? i : stopsPerRoute - 1 - i;
+						String time =
+								getTimeStr(tripStartSecs + i * SECS_BETWEEN_STOPS);
+						stopTimesOut.println(tripId + "," + time + "," + time
+								+ "," + getStopId(route, stop) + "," + (i + 1));
+					}
+
+					tripStartSecs += tripDurationSecs + LAYOVER_SECS;
+					++tripNumber;
+				}
+			}
+		}
+
+		tripsOut.close();
+		stopTimesOut.close();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.transitime.core.BlockAssignmentMethod;
+import org.transitime.core.TemporalDifference;
+import org.transitime.db.structs.AvlReport.AssignmentType;
+import org.transitime.utils.Time;
+
+/**
+ * Creates predictions and vehicles for an entire agency so that the cost of
+ * transferring them via RMI can be benchmarked. Is in the ipc.data package
+ * because the constructors that take all of the members are only package
+ * visible.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class SyntheticIpcData {
+
+	private final int numRoutes;
+	private final int stopsPerRoute;
+	private final int predsPerStop;
+	private final int numVehicles;
+
+	private static final int NUM_STOPS = 1500;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param numRoutes
+	 * @param stopsPerRoute
+	 * @param predsPerStop
+	 *            Number of predictions for each route/stop
+	 * @param numVehicles
+	 */
+	public SyntheticIpcData(int numRoutes, int stopsPerRoute,
+			int predsPerStop, int numVehicles) {
+		this.numRoutes = numRoutes;
+		this.stopsPerRoute = stopsPerRoute;
+		this.predsPerStop = predsPerStop;
+		this.numVehicles = numVehicles;
+	}
+
+	/**
+	 * Creates predictions for every stop of every route.
+	 *
+	 * @return the predictions
+	 */
+	public ArrayList<IpcPredictionsForRouteStopDest> createPredictions() {
+		long now = System.currentTimeMillis();
+		ArrayList<IpcPredictionsForRouteStopDest> predictions =
+				new ArrayList<IpcPredictionsForRouteStopDest>();
+		for (int r = 0; r < numRoutes; ++r) {
+			String routeId = "route" + r;
+			for (int s = 0; s < stopsPerRoute; ++s) {
+				String stopId = "stop" + (r * 7 + s) % NUM_STOPS;
+				List<IpcPrediction> preds = new ArrayList<IpcPrediction>();
+				for (int p = 0; p < predsPerStop; ++p) {
+					preds.add(new IpcPrediction("vehicle" + (r * 20 + p),
+							routeId, stopId, s + 1, "trip" + r + "_" + p,
+							"pattern" + r, "block" + r + "_" + p, now + s
+									* Time.MS_PER_MIN + p * 10
+									* Time.MS_PER_MIN, 0L, p == 2, now - 15
+									* Time.MS_PER_SEC, now - 10
+									* Time.MS_PER_SEC, now - Time.MS_PER_HOUR,
+							false, null, (short) -1, Float.NaN, false, false,
+							s % 2 == 0));
+				}
+				predictions.add(new IpcPredictionsForRouteStopDest(routeId,
+						"R" + r, "Route " + r, r, stopId, "Stop " + s,
+						"Downtown", "0", Double.NaN, preds));
+			}
+		}
+		return predictions;
+	}
+
+	/**
+	 * Creates the complete info for every vehicle.
+	 *
+	 * @return the vehicles
+	 */
+	public ArrayList<IpcVehicleComplete> createVehicles() {
+		long now = System.currentTimeMillis();
+		ArrayList<IpcVehicleComplete> vehicles =
+				new ArrayList<IpcVehicleComplete>();
+		for (int v = 0; v < numVehicles; ++v) {
+			int r = v % numRoutes;
+			IpcAvl avl = new IpcAvl("vehicle" + v, now - v * 10,
+					37.7f + v * 0.0001f, -122.4f - v * 0.0001f, 8.5f, 270.0f,
+					"GTFS-rt", "block" + v, AssignmentType.BLOCK_ID, null,
+					null, -1);
+			vehicles.add(new IpcVehicleComplete("block" + v,
+					BlockAssignmentMethod.AVL_FEED_BLOCK_ASSIGNMENT, avl,
+					265.0f, "route" + r, "R" + r, "trip" + v, "pattern" + r,
+					"0", "Downtown", true, false, new TemporalDifference(
+							v * 1000 - 60000), false, false, 0L, "stop" + v
+							% NUM_STOPS, null, "3", v * 1000L, -1L,
+					now - Time.MS_PER_HOUR,
+					v % 10 == 0, "stop" + v % NUM_STOPS, v % 60 + 1,
+					"Route " + r, "stop0", "Downtown", 120.5, 2500.0, 2379.5));
+		}
+		return vehicles;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.applications;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.transitime.core.trace.TraceEvent;
+import org.transitime.core.trace.TraceRecorder;
+
+/**
+ * Converts a binary trace dump, created via the dumpToFile JMX operation
+ * of the TraceRecorder, to text written to stdout. Usage:
+ * <pre>
+ * ConvertTraceDumpToText dumpFile [vehicleId]
+ * </pre>
+ * If a vehicleId is specified then only the events for that vehicle are
+ * output.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ConvertTraceDumpToText {
+
+	/********************** Member Functions **************************/
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: ConvertTraceDumpToText dumpFile "
+					+ "[vehicleId]");
+			System.exit(-1);
+		}
+		String vehicleIdFilter = args.length > 1 ? args[1] : null;
+
+		try {
+			Map<String, List<TraceEvent>> eventsByVehicle =
+					TraceRecorder.readDump(new File(args[0]));
+			for (Map.Entry<String, List<TraceEvent>> entry
+					: eventsByVehicle.entrySet()) {
+				if (vehicleIdFilter != null
+						&& !vehicleIdFilter.equals(entry.getKey()))
+					continue;
+				for (TraceEvent event : entry.getValue())
+					System.out.println(event);
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read trace dump " + args[0] + ". "
+					+ e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
@@ -35,6 +35,7 @@ import org.transitime.configData.AgencyConfig;
 import org.transitime.configData.CoreConfig;
 import org.transitime.core.ServiceUtils;
 import org.transitime.core.TimeoutHandlerModule;
+import org.transitime.core.dataCache.DataChangeLog;
 import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.db.hibernate.DataDbLogger;
@@ -44,11 +45,15 @@ import org.transitime.db.structs.Agency;
 import org.transitime.gtfs.DbConfig;
 import org.transitime.ipc.servers.CommandsServer;
 import org.transitime.ipc.servers.ConfigServer;
+import org.transitime.ipc.servers.DataSubscriptionServer;
 import org.transitime.ipc.servers.PredictionsServer;
 import org.transitime.ipc.servers.ServerStatusServer;
 import org.transitime.ipc.servers.VehiclesServer;
 import org.transitime.modules.Module;
 import org.transitime.monitoring.PidFile;
+import org.transitime.monitoring.metrics.CloudwatchMetricsExporter;
+import org.transitime.monitoring.metrics.MetricsHttpServer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.SettableSystemTime;
 import org.transitime.utils.SystemTime;
 import org.transitime.utils.SystemCurrentTime;
@@ -65,16 +70,15 @@ public class Core {
 	
 	private static Core singleton = null;
 	
-	// Contains the configuration data read from database
-	private final DbConfig configData;
+	// Contains the configuration data read from database along with the
+	// objects derived from it. Volatile so that a new config rev can be
+	// swapped in while the system is running.
+	private volatile ConfigState configState;
 	
 	// For logging data such as AVL reports and arrival times to database
 	private final DataDbLogger dataDbLogger;
 
 	private final TimeoutHandlerModule timeoutHandlerModule;
-	
-	private final ServiceUtils service;
-	private final Time time;
 
 	// So that can access the current time, even when in playback mode
 	private SystemTime systemTime = new SystemCurrentTime();
@@ -95,6 +99,24 @@ public class Core {
 	
 	/********************** Member Functions **************************/
 
+	/**
+	 * The configuration data plus the objects that are derived from it. Kept
+	 * in a single immutable object so that when a new config rev is activated
+	 * all of them are swapped in at once. This way a thread can never see the
+	 * new DbConfig together with the ServiceUtils for the old one.
+	 */
+	private static class ConfigState {
+		private final DbConfig dbConfig;
+		private final ServiceUtils service;
+		private final Time time;
+		
+		private ConfigState(DbConfig dbConfig) {
+			this.dbConfig = dbConfig;
+			this.service = new ServiceUtils(dbConfig);
+			this.time = new Time(dbConfig);
+		}
+	}
+	
 	/**
 	 * Construct the Core object and read in the config data. This is private
 	 * so that the createCore() factory method must be used.
@@ -142,7 +164,7 @@ public class Core {
 		HibernateUtils.clearSessionFactory();
 		
 		// Read in all GTFS based config data from the database
-		configData = new DbConfig(agencyId);
+		DbConfig configData = new DbConfig(agencyId);
 		configData.read(configRev);
 		
 		// Create the DataDBLogger so that generated data can be stored
@@ -163,8 +185,7 @@ public class Core {
 		timeoutHandlerModule = new TimeoutHandlerModule(AgencyConfig.getAgencyId());
 		timeoutHandlerModule.start();
 		
-		service = new ServiceUtils(configData);
-		time = new Time(configData);
+		configState = new ConfigState(configData);
 	}
 	
 	/**
@@ -219,7 +240,27 @@ public class Core {
 	 * @return
 	 */
 	public DbConfig getDbConfig() {
-		return configData;
+		return configState.dbConfig;
+	}
+	
+	/**
+	 * Makes the new configuration data, which must already have been read
+	 * in, the one used by the system. The ServiceUtils and Time objects are
+	 * created for the new configuration first so that everything is swapped
+	 * in at once. Threads that already obtained the old DbConfig continue to
+	 * use it until they are done with it. VehicleStates still refer to the
+	 * blocks of the old configuration so they need to be matched to the new
+	 * blocks afterwards, which is done by ConfigRevUpdaterModule.
+	 * 
+	 * @param newConfigData
+	 *            The newly read in configuration data
+	 */
+	public void swapDbConfig(DbConfig newConfigData) {
+		int oldConfigRev = configState.dbConfig.getConfigRev();
+		configState = new ConfigState(newConfigData);
+		logger.info("Swapped in configuration data for configRev={}. "
+				+ "Previously was using configRev={}.",
+				newConfigData.getConfigRev(), oldConfigRev);
 	}
 	
 	/**
@@ -227,7 +268,7 @@ public class Core {
 	 * @return
 	 */
 	public ServiceUtils getServiceUtils() {
-		return service;
+		return configState.service;
 	}
 	
 	/**
@@ -237,7 +278,7 @@ public class Core {
 	 * @return
 	 */
 	public Time getTime() {
-		return time;
+		return configState.time;
 	}
 	
 	/**
@@ -366,6 +407,8 @@ public class Core {
 		ConfigServer.start(agencyId);
 		ServerStatusServer.start(agencyId);
 		CommandsServer.start(agencyId);
+		if (DataChangeLog.isEnabled())
+			DataSubscriptionServer.start(agencyId);
 	}
 	
 	/**
@@ -390,6 +433,11 @@ public class Core {
 			// For making sure logger configured properly
 			outputLoggerStatus();
 			
+			// Start reporting the processing metrics
+			MetricsRegistry.getInstance().start();
+			MetricsHttpServer.start();
+			CloudwatchMetricsExporter.start();
+			
 			// Initialize the core now
 			createCore();
 						
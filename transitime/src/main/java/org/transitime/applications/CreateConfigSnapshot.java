@@ -0,0 +1,102 @@
+/*
+ * This file is part of Transitime.org
+ * 
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.applications;
+
+import java.io.File;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.ConfigFileReader;
+import org.transitime.configData.AgencyConfig;
+import org.transitime.configData.CoreConfig;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.db.structs.ActiveRevisions;
+import org.transitime.db.structs.Agency;
+import org.transitime.gtfs.DbConfig;
+import org.transitime.gtfs.DbConfigSnapshot;
+
+/**
+ * Reads in all of the configuration data for the active config rev from the
+ * database and writes it to a snapshot file in the directory specified by
+ * transitime.core.configSnapshotDirectory. When the core system is started
+ * it then reads the configuration from the snapshot instead of from the
+ * database, which is much faster. Should be run whenever the GTFS data or
+ * the travel times are updated, since the snapshot is only used if it
+ * matches the active config rev and travel times rev.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class CreateConfigSnapshot {
+
+	// Read in configuration files. This should be done statically before
+	// the logback LoggerFactory.getLogger() is called so that logback can
+	// also be configured using a transitime config file. The files are
+	// specified using the java system property -Dtransitime.configFiles .
+	static {
+		ConfigFileReader.processConfig();
+	}
+	
+	private static final Logger logger = 
+			LoggerFactory.getLogger(CreateConfigSnapshot.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param args
+	 *            Not used
+	 */
+	public static void main(String[] args) {
+		String agencyId = AgencyConfig.getAgencyId();
+		String directory = CoreConfig.getConfigSnapshotDirectory();
+		if (directory == null || directory.isEmpty()) {
+			logger.error("transitime.core.configSnapshotDirectory not set so "
+					+ "cannot create config snapshot.");
+			System.exit(-1);
+		}
+		
+		try {
+			ActiveRevisions activeRevisions = ActiveRevisions.get(agencyId);
+			int configRev = activeRevisions.getConfigRev();
+			int travelTimesRev = activeRevisions.getTravelTimesRev();
+
+			// Use the same timezone as core so that dates are read in 
+			// properly. See Core for details.
+			TimeZone timeZone = Agency.getTimeZoneFromDb(agencyId);
+			TimeZone.setDefault(timeZone);
+			HibernateUtils.clearSessionFactory();
+
+			// Read the data from the db, not from an existing snapshot
+			DbConfig dbConfig = new DbConfig(agencyId);
+			dbConfig.read(configRev, false);
+			DbConfigSnapshot snapshot = dbConfig.createSnapshot();
+			
+			File file = 
+					DbConfigSnapshot.getFile(directory, agencyId, configRev);
+			snapshot.write(file, agencyId, configRev, travelTimesRev);
+		} catch (Exception e) {
+			logger.error("Error creating config snapshot for agencyId={}. {}",
+					agencyId, e.getMessage(), e);
+			System.exit(-1);
+		}
+		
+		// Hibernate sessions keep the program from exiting on its own
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of Transitime.org
+ * 
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.applications;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.ConfigFileReader;
+import org.transitime.configData.DbSetupConfig;
+import org.transitime.db.structs.TravelTimesForStopPath;
+import org.transitime.utils.IntervalTimer;
+
+/**
+ * Converts the travel times in the TravelTimesForStopPaths table from the
+ * old Java serialized format to the compact encoding. Travel times in the
+ * old format can still be read so running this is not required, but it
+ * reduces the size of the table. Before running the travelTimesEncoded
+ * column needs to have been added to the table.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class MigrateTravelTimesEncoding {
+
+	// Read in configuration files. This should be done statically before
+	// the logback LoggerFactory.getLogger() is called so that logback can
+	// also be configured using a transitime config file. The files are
+	// specified using the java system property -Dtransitime.configFiles .
+	static {
+		ConfigFileReader.processConfig();
+	}
+	
+	private static final Logger logger = 
+			LoggerFactory.getLogger(MigrateTravelTimesEncoding.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param args
+	 *            Not used. The db is specified by transitime.db.dbName
+	 */
+	public static void main(String[] args) {
+		logger.info("Converting travel times for dbName={} ...", 
+				DbSetupConfig.getDbName());
+		IntervalTimer timer = new IntervalTimer();
+		
+		try {
+			int rows = TravelTimesForStopPath.migrateLegacyTravelTimes(null);
+			logger.info("Converted travel times for {} rows in {} msec", 
+					rows, timer.elapsedMsec());
+		} catch (Exception e) {
+			logger.error("Error converting travel times for dbName={}. {}", 
+					DbSetupConfig.getDbName(), e.getMessage(), e);
+			System.exit(-1);
+		}
+		
+		System.exit(0);
+	}
+
+}
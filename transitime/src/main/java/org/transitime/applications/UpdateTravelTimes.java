@@ -289,18 +289,15 @@ public class UpdateTravelTimes {
 	 * 
 	 * @param session
 	 * @param agencyId
-	 * @param specialDaysOfWeek
-	 *            Not fully implemented. Should therefore be null for now.
 	 * @param beginTime
 	 * @param endTime
 	 */
 	private static void processTravelTimes(Session session, String agencyId,
-			List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
+			Date beginTime, Date endTime) {
 		// Read in historic data from db and put it into maps so that it can
 		// be processed.
 		TravelTimesProcessor processor = new TravelTimesProcessor();
-		processor.readAndProcessHistoricData(agencyId, specialDaysOfWeek,
-				beginTime, endTime);
+		processor.readAndProcessHistoricData(agencyId, beginTime, endTime);
 
 		// Read in the current Trips. This is done after the historical data
 		// is read in so that less memory is used at once.
@@ -326,13 +323,11 @@ public class UpdateTravelTimes {
 	 * the session is closed.
 	 * 
 	 * @param agencyId
-	 * @param specialDaysOfWeek
-	 *            Not fully implemented. Should therefore be null for now.
 	 * @param beginTime
 	 * @param endTime
 	 */
 	private static void manageSessionAndProcessTravelTimes(String agencyId,
-			List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
+			Date beginTime, Date endTime) {
 		// Get a database session
 		Session session = HibernateUtils.getSession(agencyId);
 		Transaction tx = null;
@@ -341,8 +336,7 @@ public class UpdateTravelTimes {
 			tx = session.beginTransaction();
 
 			// Actually do all the data processing
-			processTravelTimes(session, agencyId, specialDaysOfWeek, beginTime,
-					endTime);
+			processTravelTimes(session, agencyId, beginTime, endTime);
 			
 			// Make sure that everything actually written out to db
 			tx.commit();
@@ -374,11 +368,6 @@ public class UpdateTravelTimes {
 		String startDateStr = args[0];
 		String endDateStr = args.length > 1 ? args[1] : startDateStr;
 		
-		// Some params are hard coded simply to get things going
-//		List<Integer> specialDaysOfWeek = new ArrayList<Integer>();
-//		specialDaysOfWeek.add(java.util.Calendar.FRIDAY);
-		List<Integer> specialDaysOfWeek = null;
-		
 		// Set the timezone for the application. Must be done before
 		// determine begin and end time so that get the proper time of day.
 		int configRev = ActiveRevisions.get(agencyId).getConfigRev();
@@ -403,8 +392,7 @@ public class UpdateTravelTimes {
 				startDateStr, endDateStr);
 		
 		// Do all the work...
-		manageSessionAndProcessTravelTimes(agencyId, specialDaysOfWeek,
-				beginTime, endTime);
+		manageSessionAndProcessTravelTimes(agencyId, beginTime, endTime);
 		
 		// program won't just exit on its own, probably due to their being
 		// another thread still running. Not sure why. Probably has to do
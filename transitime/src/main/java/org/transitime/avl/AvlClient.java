@@ -69,19 +69,21 @@ public class AvlClient implements Runnable {
 	
 	/**
 	 * Filters out problematic AVL reports (such as for having invalid data,
-	 * being in the past, or too recent) and processes the ones that are good.
+	 * being in the past, or too recent). If report is too recent then the
+	 * vehicle location is still cached even though the report is not to be
+	 * fully processed.
 	 * 
-	 * (non-Javadoc)
-	 * @see java.lang.Runnable#run()
+	 * @param avlReport
+	 *            the AVL report to check
+	 * @return true if the AVL report should be processed
 	 */
-	@Override
-	public void run() {
+	public static boolean shouldProcess(AvlReport avlReport) {
 		// If the data is bad throw it out
 		String errorMsg = avlReport.validateData();
 		if (errorMsg != null) {
 			logger.error("Throwing away avlReport {} because {}", 
 					avlReport, errorMsg);
-			return;
+			return false;
 		}
 		
 		// See if should filter out report
@@ -97,7 +99,7 @@ public class AvlClient implements Runnable {
 						+ "vehicle. New AVL report is {}. Previous valid AVL "
 						+ "report is {}", 
 						avlReport, previousReportForVehicle);
-				return;
+				return false;
 			}
 			
 			// If previous report happened too recently then don't want to 
@@ -135,7 +137,7 @@ public class AvlClient implements Runnable {
 							avlReport);
 					
 					// Done here since not processing this AVL report
-					return;				
+					return false;				
 				}
 			}
 						
@@ -144,6 +146,22 @@ public class AvlClient implements Runnable {
 			avlReports.put(avlReport.getVehicleId(), avlReport);
 		}
 		
+		return true;
+	}
+	
+	/**
+	 * Filters out problematic AVL reports (such as for having invalid data,
+	 * being in the past, or too recent) and processes the ones that are good.
+	 * 
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		// If the report should be filtered out then done
+		if (!shouldProcess(avlReport))
+			return;
+		
 		// Process the report
 		logger.info("Thread={} AvlClient processing AVL data {}", 
 				Thread.currentThread().getName(), avlReport);	
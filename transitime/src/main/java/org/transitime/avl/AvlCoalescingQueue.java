@@ -0,0 +1,412 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.avl;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.db.structs.AvlReport;
+
+/**
+ * A "latest-wins" queue of AvlClient runnables that can be used with a
+ * ThreadPoolExecutor. There is at most one pending AVL report per vehicle.
+ * When a new AVL report is added for a vehicle that already has a report in
+ * the queue the pending report is replaced in place by the new one. This way
+ * the new report keeps the position in the queue of the old one and the old
+ * report, which is now superseded, is never processed.
+ * <p>
+ * This is useful for when a feed delivers a backlog of data, such as after a
+ * feed outage, since then only the latest report per vehicle is matched
+ * instead of minutes of stale data. It also means that the depth of the queue
+ * is bounded by the number of vehicles instead of by the rate that AVL reports
+ * are received.
+ * <p>
+ * Like AvlQueue this is a BlockingQueue<Runnable> instead of a
+ * BlockingQueue<AvlClient> since that is what the ThreadPoolExecutor expects.
+ * Therefore have to resort to casts.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class AvlCoalescingQueue extends AbstractQueue<Runnable> implements
+		BlockingQueue<Runnable> {
+
+	// The pending AvlClients, keyed on vehicle ID. A LinkedHashMap is used
+	// so that order is retained and so that when a pending report is
+	// replaced it keeps its position in the queue.
+	private final LinkedHashMap<String, Runnable> pendingPerVehicleMap =
+			new LinkedHashMap<String, Runnable>();
+
+	// Max number of vehicles that can have a pending AVL report
+	private final int capacity;
+
+	// For guarding pendingPerVehicleMap and for waiting
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	// Number of AVL reports that replaced a pending report for the vehicle
+	private final AtomicLong numCoalesced = new AtomicLong();
+
+	// Number of AVL reports that were dropped because they were older than
+	// the pending report for the vehicle
+	private final AtomicLong numDropped = new AtomicLong();
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(AvlCoalescingQueue.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructs the queue to have specified size.
+	 *
+	 * @param capacity
+	 *            How many vehicles can have a pending AVL report in the queue
+	 *            before it blocks.
+	 */
+	public AvlCoalescingQueue(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the AVL report for the runnable, which must be an AvlClient.
+	 *
+	 * @param runnable
+	 * @return the AVL report
+	 */
+	private static AvlReport getAvlReport(Runnable runnable) {
+		if (!(runnable instanceof AvlClient))
+			throw new IllegalArgumentException("Runnable must be AvlClient.");
+
+		return ((AvlClient) runnable).getAvlReport();
+	}
+
+	/**
+	 * If there is already a pending report for the vehicle then replaces it
+	 * in place with the new one, as long as the new one is not older. Must be
+	 * called while holding the lock.
+	 *
+	 * @param runnable
+	 * @return true if there was a pending report for the vehicle so that the
+	 *         new report has been handled
+	 */
+	private boolean coalesce(Runnable runnable) {
+		AvlReport avlReport = getAvlReport(runnable);
+		Runnable pending = pendingPerVehicleMap.get(avlReport.getVehicleId());
+		if (pending == null)
+			return false;
+
+		if (avlReport.getTime() >= getAvlReport(pending).getTime()) {
+			// New report supersedes the pending one. Since the key is
+			// already in the map put() keeps the existing queue position.
+			pendingPerVehicleMap.put(avlReport.getVehicleId(), runnable);
+			numCoalesced.incrementAndGet();
+			logger.debug("Replaced pending AVL report {} with newer one {}",
+					getAvlReport(pending), avlReport);
+		} else {
+			// New report is older than the pending one so ignore it
+			numDropped.incrementAndGet();
+			logger.debug("Dropping AVL report {} since it is older than the "
+					+ "pending one {}", avlReport, getAvlReport(pending));
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the runnable as a new pending report. Must be called while holding
+	 * the lock and only if there is room.
+	 *
+	 * @param runnable
+	 */
+	private void enqueue(Runnable runnable) {
+		pendingPerVehicleMap.put(getAvlReport(runnable).getVehicleId(),
+				runnable);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Removes the oldest pending report. Must be called while holding the lock
+	 * and only if the queue is not empty.
+	 *
+	 * @return the oldest pending report
+	 */
+	private Runnable dequeue() {
+		Iterator<Runnable> iterator =
+				pendingPerVehicleMap.values().iterator();
+		Runnable runnable = iterator.next();
+		iterator.remove();
+		notFull.signal();
+		return runnable;
+	}
+
+	/**
+	 * Replaces the pending report for the vehicle if there is one. Otherwise
+	 * adds the report if there is room. Used by ThreadPoolExecutor.
+	 */
+	@Override
+	public boolean offer(Runnable runnable) {
+		lock.lock();
+		try {
+			if (coalesce(runnable))
+				return true;
+			if (pendingPerVehicleMap.size() >= capacity)
+				return false;
+			enqueue(runnable);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the pending report for the vehicle if there is one. Otherwise
+	 * adds the report, waiting up to the specified time for room.
+	 */
+	@Override
+	public boolean offer(Runnable runnable, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (!coalesce(runnable)) {
+				if (pendingPerVehicleMap.size() < capacity) {
+					enqueue(runnable);
+					return true;
+				}
+				if (nanos <= 0)
+					return false;
+				nanos = notFull.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the pending report for the vehicle if there is one. Otherwise
+	 * adds the report, waiting for room if necessary.
+	 */
+	@Override
+	public void put(Runnable runnable) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (!coalesce(runnable)) {
+				if (pendingPerVehicleMap.size() < capacity) {
+					enqueue(runnable);
+					return;
+				}
+				notFull.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return pendingPerVehicleMap.isEmpty() ? null : dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Used by ThreadPoolExecutor.
+	 */
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (pendingPerVehicleMap.isEmpty()) {
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Used by ThreadPoolExecutor.
+	 */
+	@Override
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (pendingPerVehicleMap.isEmpty())
+				notEmpty.await();
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			return pendingPerVehicleMap.isEmpty() ? null
+					: pendingPerVehicleMap.values().iterator().next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the runnable if it is the pending one for its vehicle. Used by
+	 * ThreadPoolExecutor.remove().
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof AvlClient))
+			return false;
+
+		String vehicleId = ((AvlClient) o).getAvlReport().getVehicleId();
+		lock.lock();
+		try {
+			if (pendingPerVehicleMap.get(vehicleId) != o)
+				return false;
+			pendingPerVehicleMap.remove(vehicleId);
+			notFull.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return pendingPerVehicleMap.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return capacity - pendingPerVehicleMap.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		if (c == this)
+			throw new IllegalArgumentException();
+
+		lock.lock();
+		try {
+			int count = 0;
+			while (count < maxElements && !pendingPerVehicleMap.isEmpty()) {
+				c.add(dequeue());
+				++count;
+			}
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns iterator over a snapshot of the pending reports so that the
+	 * lock doesn't need to be held while iterating.
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		final List<Runnable> snapshot;
+		lock.lock();
+		try {
+			snapshot = new ArrayList<Runnable>(pendingPerVehicleMap.values());
+		} finally {
+			lock.unlock();
+		}
+
+		final Iterator<Runnable> snapshotIterator = snapshot.iterator();
+		return new Iterator<Runnable>() {
+			private Runnable last = null;
+
+			@Override
+			public boolean hasNext() {
+				return snapshotIterator.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				last = snapshotIterator.next();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				AvlCoalescingQueue.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * Returns number of AVL reports that replaced a pending report for the
+	 * vehicle, meaning that the pending report was never processed.
+	 *
+	 * @return number of coalesced AVL reports
+	 */
+	public long getNumCoalesced() {
+		return numCoalesced.get();
+	}
+
+	/**
+	 * Returns number of AVL reports that were dropped because they were older
+	 * than the pending report for the vehicle.
+	 *
+	 * @return number of dropped AVL reports
+	 */
+	public long getNumDropped() {
+		return numDropped.get();
+	}
+}
@@ -23,6 +23,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.logging.Markers;
@@ -36,6 +37,19 @@ import org.transitime.utils.threading.NamedThreadFactory;
  * of threads is specified using the Java property transitime.avl.numThreads .
  * The queue size is set using the Java property transitime.avl.queueSize .
  * <p>
+ * If transitime.avl.shardByVehicle is set then instead of a single thread pool
+ * sharing a single queue there are multiple "lanes", each with its own single
+ * thread and its own AvlQueue. Each vehicle is hashed to a fixed lane so all
+ * AVL reports for a vehicle are processed in order by the same thread. This
+ * means that reports for a vehicle can never be processed simultaneously and
+ * the threads don't contend with each other on a single shared queue.
+ * <p>
+ * If transitime.avl.coalesceReports is set then an AvlCoalescingQueue is used
+ * instead of an AvlQueue. With it a new AVL report for a vehicle replaces the
+ * pending one in place so that only the latest report for each vehicle is
+ * processed. The queue depth is then bounded by the number of vehicles instead
+ * of by the rate that AVL reports are received.
+ * <p>
  * Causes AvlClient.run() to be called on each AvlReport, unless using test
  * executor, in which case the AvlClientTester() is called.
  * 
@@ -44,9 +58,13 @@ import org.transitime.utils.threading.NamedThreadFactory;
  */
 public class AvlExecutor {
 	
-	// The actual executor
+	// The actual executor. Used when not sharding by vehicle.
 	ThreadPoolExecutor avlClientExecutor = null;
 	
+	// The single threaded executors, one per lane. Used when sharding
+	// by vehicle. Null if not sharding.
+	ThreadPoolExecutor avlLaneExecutors[] = null;
+	
 	// Singleton class
 	private static AvlExecutor singleton;
 	
@@ -63,7 +81,9 @@ public class AvlExecutor {
 					+ "be approximately 50% more than the number of reports "
 					+ "that will be read during a single AVL polling cycle. "
 					+ "If too big then wasteful. If too small then not all the "
-					+ "data will be rejected by the ThreadPoolExecutor. ");
+					+ "data will be rejected by the ThreadPoolExecutor. "
+					+ "When transitime.avl.shardByVehicle is set this is the "
+					+ "size of the queue for each lane.");
 
 	private static IntegerConfigValue numAvlThreads = 
 			new IntegerConfigValue("transitime.avl.numThreads", 1,
@@ -73,7 +93,29 @@ public class AvlExecutor {
 					"since the messages will not be interleaved. But for " +
 					"large systems with lots of vehicles then should use " +
 					"multiple threads, such as 3-15 so that more of the cores " +
-					"are used.");
+					"are used. When transitime.avl.shardByVehicle is set " +
+					"this is the number of lanes, limited to the number of " +
+					"available processors.");
+	
+	private static BooleanConfigValue shardByVehicle =
+			new BooleanConfigValue("transitime.avl.shardByVehicle", false,
+					"If true then instead of all AVL threads sharing a single "
+					+ "queue each vehicle is hashed to a fixed lane that has "
+					+ "its own single thread and queue. This guarantees that "
+					+ "AVL reports for a vehicle are processed in order and "
+					+ "never simultaneously, and it prevents the threads from "
+					+ "contending on a single queue. Useful for large systems "
+					+ "where multiple AVL threads are used.");
+	
+	private static BooleanConfigValue coalesceReports =
+			new BooleanConfigValue("transitime.avl.coalesceReports", false,
+					"If true then when a new AVL report is received for a "
+					+ "vehicle that already has a report waiting in the queue "
+					+ "the waiting report is replaced by the new one. This "
+					+ "way superseded reports, such as when a feed delivers "
+					+ "a backlog of data after an outage, are never matched. "
+					+ "The queue then only needs to be as large as the "
+					+ "number of vehicles.");
 	
 	private static final Logger logger= 
 			LoggerFactory.getLogger(AvlExecutor.class);	
@@ -102,18 +144,6 @@ public class AvlExecutor {
 			numberThreads = MAX_THREADS;
 		}
 
-		logger.info("Starting AvlExecutor for directly handling AVL reports " +
-				"via a queue instead of JMS. maxAVLQueueSize={} and "
-				+ "numberThreads={}", 
-				maxAVLQueueSize, numberThreads);
-
-		// Start up the ThreadPoolExecutor
-		int corePoolSize = 1;
-		int maximumPoolSize = numberThreads;
-		long keepAliveTime = 1; /* 1 hour */
-		BlockingQueue<Runnable> workQueue = new AvlQueue(maxAVLQueueSize);
-		NamedThreadFactory avlClientThreadFactory =
-				new NamedThreadFactory("avlClient");
 		// Called when queue fills up
 		RejectedExecutionHandler rejectedHandler = new RejectedExecutionHandler() {
 			@Override
@@ -133,11 +163,162 @@ public class AvlExecutor {
 				}
 			}};
 		
-		avlClientExecutor =
-				new ThreadPoolExecutor(corePoolSize, maximumPoolSize,
-						keepAliveTime, TimeUnit.HOURS, workQueue,
-						avlClientThreadFactory,
-						rejectedHandler);
+		if (shardByVehicle.getValue()) {
+			// Each lane has a single thread so no point having more lanes 
+			// than there are processors to run them
+			int numberLanes = numberThreads;
+			int numProcessors = Runtime.getRuntime().availableProcessors();
+			if (numberLanes > numProcessors) {
+				logger.warn("Number of AVL lanes {} is greater than the "
+						+ "number of available processors {} so using {} "
+						+ "lanes.", numberLanes, numProcessors, numProcessors);
+				numberLanes = numProcessors;
+			}
+
+			logger.info("Starting AvlExecutor for directly handling AVL "
+					+ "reports via a queue instead of JMS, sharded by vehicle. "
+					+ "maxAVLQueueSize={} per lane and numberLanes={}",
+					maxAVLQueueSize, numberLanes);
+			
+			avlLaneExecutors = new ThreadPoolExecutor[numberLanes];
+			for (int lane = 0; lane < numberLanes; ++lane) {
+				avlLaneExecutors[lane] =
+						createExecutor(1, maxAVLQueueSize, "avlLane" + lane,
+								rejectedHandler);
+			}
+		} else {
+			logger.info("Starting AvlExecutor for directly handling AVL " +
+					"reports via a queue instead of JMS. maxAVLQueueSize={} "
+					+ "and numberThreads={}", 
+					maxAVLQueueSize, numberThreads);
+
+			avlClientExecutor = createExecutor(numberThreads,
+					maxAVLQueueSize, "avlClient", rejectedHandler);
+		}
+	}
+	
+	/**
+	 * Creates a ThreadPoolExecutor that uses an AvlQueue so that obsolete
+	 * AVL reports are discarded when the system gets behind. If
+	 * transitime.avl.coalesceReports is set then uses an AvlCoalescingQueue
+	 * instead so that superseded reports never even get queued.
+	 * 
+	 * @param numberThreads
+	 *            Maximum number of threads for the executor
+	 * @param maxAVLQueueSize
+	 *            Capacity of the AvlQueue
+	 * @param threadName
+	 *            For naming the threads of the executor
+	 * @param rejectedHandler
+	 *            Called when the queue is full
+	 * @return the new executor
+	 */
+	private static ThreadPoolExecutor createExecutor(int numberThreads,
+			int maxAVLQueueSize, String threadName,
+			RejectedExecutionHandler rejectedHandler) {
+		// Start up the ThreadPoolExecutor
+		int corePoolSize = 1;
+		int maximumPoolSize = numberThreads;
+		long keepAliveTime = 1; /* 1 hour */
+		BlockingQueue<Runnable> workQueue = coalesceReports.getValue() ?
+				new AvlCoalescingQueue(maxAVLQueueSize) : 
+				new AvlQueue(maxAVLQueueSize);
+		NamedThreadFactory avlClientThreadFactory =
+				new NamedThreadFactory(threadName);
+		return new ThreadPoolExecutor(corePoolSize, maximumPoolSize,
+				keepAliveTime, TimeUnit.HOURS, workQueue,
+				avlClientThreadFactory, rejectedHandler);
+	}
+	
+	/**
+	 * Returns the executor that should process AVL reports for the specified
+	 * vehicle. When sharding by vehicle the vehicle is hashed to a fixed lane
+	 * so that reports for a vehicle are always handled by the same single
+	 * thread.
+	 * 
+	 * @param vehicleId
+	 * @return the executor to use for the vehicle
+	 */
+	private ThreadPoolExecutor getExecutor(String vehicleId) {
+		if (avlLaneExecutors == null)
+			return avlClientExecutor;
+		
+		// Mask off sign bit instead of using Math.abs() since 
+		// Math.abs(Integer.MIN_VALUE) is negative
+		int lane = (vehicleId.hashCode() & 0x7fffffff) 
+				% avlLaneExecutors.length;
+		return avlLaneExecutors[lane];
+	}
+	
+	/**
+	 * Returns the executors being used, either the single one or the ones
+	 * for each lane.
+	 * 
+	 * @return array of executors
+	 */
+	private ThreadPoolExecutor[] getExecutors() {
+		if (avlLaneExecutors != null)
+			return avlLaneExecutors;
+		else
+			return new ThreadPoolExecutor[] {avlClientExecutor};
+	}
+	
+	/**
+	 * Returns total number of AVL reports currently waiting in the queues.
+	 * 
+	 * @return number of queued AVL reports
+	 */
+	public int getQueueSize() {
+		int size = 0;
+		for (ThreadPoolExecutor executor : getExecutors())
+			size += executor.getQueue().size();
+		return size;
+	}
+	
+	/**
+	 * Returns total number of AVL reports that replaced a pending report for
+	 * the same vehicle. Only non-zero when transitime.avl.coalesceReports is
+	 * set.
+	 * 
+	 * @return number of coalesced AVL reports since startup
+	 */
+	public long getNumCoalesced() {
+		long count = 0;
+		for (ThreadPoolExecutor executor : getExecutors()) {
+			BlockingQueue<Runnable> queue = executor.getQueue();
+			if (queue instanceof AvlCoalescingQueue)
+				count += ((AvlCoalescingQueue) queue).getNumCoalesced();
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns total number of AVL reports that were thrown out by the queues
+	 * because a newer report for the vehicle was already queued.
+	 * 
+	 * @return number of dropped AVL reports since startup
+	 */
+	public long getNumDropped() {
+		long count = 0;
+		for (ThreadPoolExecutor executor : getExecutors()) {
+			BlockingQueue<Runnable> queue = executor.getQueue();
+			if (queue instanceof AvlCoalescingQueue)
+				count += ((AvlCoalescingQueue) queue).getNumDropped();
+			else if (queue instanceof AvlQueue)
+				count += ((AvlQueue) queue).getNumObsolete();
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the singleton instance if it has already been created. Useful
+	 * for monitoring since don't want to start up the executor just to
+	 * find out how it is doing.
+	 * 
+	 * @return the singleton AvlExecutor, or null if not yet created
+	 */
+	public static AvlExecutor getExistingInstance() {
+		return singleton;
 	}
 	
 	/**
@@ -162,6 +343,10 @@ public class AvlExecutor {
 	 * polling a feed or from an AVL feed hitting the Transitime web server and
 	 * the AVL data getting then pushed to the core system in batches.
 	 * <p>
+	 * When sharding by vehicle the report is handed to the lane for the
+	 * vehicle so that reports for a vehicle are processed in order by a
+	 * single thread.
+	 * <p>
 	 * Uses a queue so that if system gets behind in processing AVL data then
 	 * AVL data is written to a queue that keeps track of the latest AVL report
 	 * per vehicle. If another AVL report is to be added to the queue then the
@@ -183,7 +368,7 @@ public class AvlExecutor {
 		Runnable avlClient = !testing ? 
 		new AvlClient(newAvlReport) : new AvlClientTester(newAvlReport); 
 
-		avlClientExecutor.execute(avlClient);		
+		getExecutor(newAvlReport.getVehicleId()).execute(avlClient);		
 	}
 
 	/**
@@ -16,11 +16,18 @@
  */
 package org.transitime.avl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import javax.jms.JMSException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.configData.AvlConfig;
+import org.transitime.core.AvlProcessor;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.ipc.jms.JMSWrapper;
 import org.transitime.ipc.jms.RestartableMessageProducer;
@@ -38,6 +45,10 @@ public abstract class AvlModule extends Module {
 	// For writing the AVL data to the JMS topic
 	protected RestartableMessageProducer jmsMsgProducer = null; 
 
+	// When processing AVL data in batches the AVL reports are collected here
+	// between beginBatch() and endBatch(). Null if not collecting a batch.
+	private List<AvlReport> avlReportBatch = null;
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(AvlModule.class);	
 
@@ -78,6 +89,12 @@ public abstract class AvlModule extends Module {
 	 * each AVL report. Can use JMS or bypass it, depending on how configured.
 	 */
 	protected void processAvlReport(AvlReport avlReport) {
+		// If collecting a batch then simply add report to the batch
+		if (avlReportBatch != null) {
+			avlReportBatch.add(avlReport);
+			return;
+		}
+		
 		if (AvlConfig.shouldUseJms()) {
 			processAvlReportUsingJms(avlReport);
 		} else {
@@ -85,6 +102,96 @@ public abstract class AvlModule extends Module {
 		}
 	}
 	
+	/**
+	 * Processes all the AVL reports read from a single poll of a feed. If
+	 * transitime.avl.processInBatches is set (and not using JMS) then the
+	 * reports are handed as a single batch to
+	 * AvlProcessor.processAvlReports(). Otherwise each report is processed
+	 * individually.
+	 * 
+	 * @param avlReports
+	 */
+	protected void processAvlReports(Collection<AvlReport> avlReports) {
+		// If collecting a batch then simply add reports to the batch
+		if (avlReportBatch != null) {
+			avlReportBatch.addAll(avlReports);
+			return;
+		}
+		
+		if (shouldProcessInBatches()) {
+			processAvlReportsInBatch(avlReports);
+		} else {
+			for (AvlReport avlReport : avlReports)
+				processAvlReport(avlReport);
+		}
+	}
+	
+	/**
+	 * Returns true if AVL reports should be handed to the AvlProcessor in
+	 * batches.
+	 * 
+	 * @return true if processing in batches
+	 */
+	private static boolean shouldProcessInBatches() {
+		return !AvlConfig.shouldUseJms() && AvlConfig.shouldProcessInBatches();
+	}
+	
+	/**
+	 * If processing AVL data in batches then starts collecting the AVL reports
+	 * passed to processAvlReport() so that they can be processed together
+	 * when endBatch() is called. For subclasses that poll a feed and process
+	 * each report individually.
+	 */
+	protected void beginBatch() {
+		if (shouldProcessInBatches())
+			avlReportBatch = new ArrayList<AvlReport>();
+	}
+	
+	/**
+	 * Processes the AVL reports that were collected since beginBatch() was
+	 * called, if any.
+	 */
+	protected void endBatch() {
+		List<AvlReport> batch = avlReportBatch;
+		avlReportBatch = null;
+		if (batch != null)
+			processAvlReportsInBatch(batch);
+	}
+	
+	/**
+	 * Filters the AVL reports and then hands the good ones to the AvlProcessor
+	 * as a single batch. Reports are sorted by time first so that the
+	 * filtering and the processing are done in order for each vehicle.
+	 * 
+	 * @param avlReports
+	 */
+	private void processAvlReportsInBatch(Collection<AvlReport> avlReports) {
+		List<AvlReport> sortedAvlReports = new ArrayList<AvlReport>(avlReports);
+		Collections.sort(sortedAvlReports, new Comparator<AvlReport>() {
+			@Override
+			public int compare(AvlReport r1, AvlReport r2) {
+				return Long.compare(r1.getTime(), r2.getTime());
+			}
+		});
+		
+		List<AvlReport> avlReportsToProcess = 
+				new ArrayList<AvlReport>(sortedAvlReports.size());
+		for (AvlReport avlReport : sortedAvlReports) {
+			if (AvlClient.shouldProcess(avlReport))
+				avlReportsToProcess.add(avlReport);
+		}
+		
+		try {
+			AvlProcessor.getInstance().processAvlReports(avlReportsToProcess);
+		} catch (Exception e) {
+			// Catch unexpected exceptions so that can continue to poll the
+			// feed even if there is an unexpected problem
+			logger.error("Exception {} when processing batch of {} AVL "
+					+ "reports.", e.getMessage(), avlReportsToProcess.size(),
+					e);
+		}
+	}
+	
 	/**
 	 * Sends the AvlReport object to the JMS topic so that AVL clients can read it.
 	 * @param avlReport
@@ -20,6 +20,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +51,9 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 	ConcurrentMap<String, AvlReport> avlDataPerVehicleMap =
 			new ConcurrentHashMap<String, AvlReport>();
 
+	// Number of AVL reports thrown out because they were obsolete
+	private final AtomicLong numObsolete = new AtomicLong();
+
 	private static final long serialVersionUID = 6587642826604552096L;
 
 	private static final Logger logger = LoggerFactory
@@ -103,7 +107,10 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 						&& avlReportFromQueue.getTime() < lastAvlReportForVehicle
 								.getTime();
 		if (obsolete) {
-			logger.error("AVL report from queue is obsolete (there is a newer "
+			// Can happen a lot when system gets behind, such as when a feed
+			// delivers a backlog of data, so only log at debug level
+			numObsolete.incrementAndGet();
+			logger.debug("AVL report from queue is obsolete (there is a newer "
 					+ "one for the vehicle). Therefore ignoring this report so "
 					+ "can move on to next valid report for another vehicle. "
 					+ "{}",	avlReportFromQueue);
@@ -177,7 +184,7 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 		Runnable runnable;
 		do {
 			runnable = super.poll();
-		} while (isObsolete(runnable));
+		} while (runnable != null && isObsolete(runnable));
 		return runnable;
 	}
 
@@ -215,4 +222,14 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 		} while (isObsolete(runnable));
 		return runnable;
 	}
+
+	/**
+	 * Returns number of AVL reports that were thrown out because a newer
+	 * report for the vehicle had already been queued.
+	 * 
+	 * @return number of obsolete AVL reports
+	 */
+	public long getNumObsolete() {
+		return numObsolete.get();
+	}
 }
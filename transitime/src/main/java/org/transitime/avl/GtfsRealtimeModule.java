@@ -66,9 +66,7 @@ public class GtfsRealtimeModule extends PollUrlAvlModule {
 		List<AvlReport> avlReports = GtfsRtVehiclePositionsReader
 				.getAvlReports(getGtfsRealtimeURI());
 		logger.info("read complete");
-		for (AvlReport avlReport : avlReports) {
-			processAvlReport(avlReport);
-		}
+		processAvlReports(avlReports);
 		logger.info("processed {} reports", avlReports.size());
 	}
 
@@ -189,8 +189,14 @@ public abstract class PollUrlAvlModule extends AvlModule {
 			IntervalTimer timer = new IntervalTimer();
 			
 			try {
-				// Process data
-				getAndProcessData();
+				// Process data. If processing in batches then the reports
+				// from the poll are processed together by endBatch().
+				beginBatch();
+				try {
+					getAndProcessData();
+				} finally {
+					endBatch();
+				}
 			} catch (SocketTimeoutException e) {
 				logger.error(Markers.email(),
 						"Error accessing AVL feed using URL={} with a " +
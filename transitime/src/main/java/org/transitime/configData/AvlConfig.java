@@ -210,4 +210,42 @@ public class AvlConfig {
 			new BooleanConfigValue("transitime.avl.shouldLogToStdOut", false,
 					"For debugging. Logs each AVL report to stdout if set "
 					+ "to true. Default is false.");
+	
+	/**
+	 * If true then polled AVL feeds hand the whole set of AVL reports from a
+	 * poll to AvlProcessor.processAvlReports() instead of queuing each report
+	 * individually.
+	 * 
+	 * @return true if should process polled AVL data in batches
+	 */
+	public static boolean shouldProcessInBatches() {
+		return shouldProcessInBatches.getValue();
+	}
+	private static BooleanConfigValue shouldProcessInBatches =
+			new BooleanConfigValue("transitime.avl.processInBatches", false,
+					"If true then AVL feeds that poll for data, such as "
+					+ "GTFS-realtime feeds, hand the AVL reports from a poll "
+					+ "to the AvlProcessor as a single batch. The per report "
+					+ "housekeeping, such as storing to the db, is then done "
+					+ "once per batch and the matching is done in parallel "
+					+ "by vehicle. Not used when JMS is used.");
+	
+	/**
+	 * Number of threads to use for matching the vehicles of a batch of AVL
+	 * reports in parallel.
+	 * 
+	 * @return number of threads
+	 */
+	public static int getNumBatchThreads() {
+		return numBatchThreads.getValue();
+	}
+	private static IntegerConfigValue numBatchThreads =
+			new IntegerConfigValue("transitime.avl.numBatchThreads", 
+					Runtime.getRuntime().availableProcessors(),
+					"When transitime.avl.processInBatches is true this is the "
+					+ "number of threads used to process the vehicles of a "
+					+ "batch of AVL reports in parallel. The AVL reports for "
+					+ "a vehicle are always processed in order by a single "
+					+ "thread. Default is the number of available "
+					+ "processors.");
 }
@@ -700,6 +700,49 @@ public class CoreConfig {
 					+ "timeForDeterminingNoProgress. If GPS rate is high then "
 					+ "this value will need to be high as well.");
 	
+	/**
+	 * Directory where config snapshots created by CreateConfigSnapshot are
+	 * stored. If set and there is a snapshot for the current config and
+	 * travel times revs then the configuration is read from the snapshot
+	 * instead of the database, which is much faster.
+	 * 
+	 * @return the directory, or null if snapshots not to be used
+	 */
+	public static String getConfigSnapshotDirectory() {
+		return configSnapshotDirectory.getValue();
+	}
+	private static StringConfigValue configSnapshotDirectory =
+			new StringConfigValue(
+					"transitime.core.configSnapshotDirectory", 
+					null,
+					"Directory where config snapshots created by "
+					+ "CreateConfigSnapshot are stored. If set and there is "
+					+ "a snapshot for the current config rev and travel "
+					+ "times rev then the configuration is read from the "
+					+ "snapshot instead of from the database so that core "
+					+ "starts up much faster.");
+	
+	/**
+	 * Whether all blocks, trips, and trip patterns should be read in when
+	 * the configuration is read instead of being lazy loaded.
+	 * 
+	 * @return true if should preload config data
+	 */
+	public static boolean preloadConfigData() {
+		return preloadConfigData.getValue();
+	}
+	private static BooleanConfigValue preloadConfigData =
+			new BooleanConfigValue(
+					"transitime.core.preloadConfigData", 
+					false,
+					"If true then all blocks, trips, and trip patterns are "
+					+ "read in at startup, using a few large queries, and "
+					+ "then detached from the Hibernate session. Startup "
+					+ "takes longer but then the AVL processing threads "
+					+ "never need to lazy load data, which is done serially "
+					+ "and therefore blocks all the other threads. Should "
+					+ "be set when using multiple AVL threads.");
+	
 	public static String getPidFileDirectory() {
 		return pidFileDirectory.getValue();
 	}
@@ -711,4 +754,58 @@ public class CoreConfig {
 					+ "can be used by monit to make sure that core process is "
 					+ "always running.");
 	
+	/**
+	 * Whether a spatial index of the stop path segments should be created
+	 * when the configuration is read in so that spatial matching only needs
+	 * to look at trip patterns that are near the AVL report.
+	 * 
+	 * @return true if should use spatial index
+	 */
+	public static boolean useStopPathSpatialIndex() {
+		return useStopPathSpatialIndex.getValue();
+	}
+	private static BooleanConfigValue useStopPathSpatialIndex =
+			new BooleanConfigValue(
+					"transitime.core.useStopPathSpatialIndex", 
+					true,
+					"Whether a spatial index of all the stop path segments "
+					+ "should be created when the configuration is read in. "
+					+ "This way when matching a vehicle only the trip "
+					+ "patterns that have a segment near the AVL report need "
+					+ "to be examined, which greatly speeds up auto "
+					+ "assignment. But it means that all trip patterns are "
+					+ "read in at startup instead of lazily.");
+	
+	public static double getStopPathSpatialIndexCellSize() {
+		return stopPathSpatialIndexCellSize.getValue();
+	}
+	private static DoubleConfigValue stopPathSpatialIndexCellSize =
+			new DoubleConfigValue(
+					"transitime.core.stopPathSpatialIndexCellSize", 
+					250.0,
+					"Size in meters of the cells of the grid used for the "
+					+ "spatial index of stop path segments. Should be "
+					+ "somewhat larger than maxDistanceFromSegment.");
+	
+	/**
+	 * Whether a spatial index of the stops of all trip patterns should be
+	 * created when the configuration is read in so that finding stops near a
+	 * location, such as for predictions by location, doesn't need to look at
+	 * every route.
+	 * 
+	 * @return true if should use stops spatial index
+	 */
+	public static boolean useStopsSpatialIndex() {
+		return useStopsSpatialIndex.getValue();
+	}
+	private static BooleanConfigValue useStopsSpatialIndex =
+			new BooleanConfigValue(
+					"transitime.core.useStopsSpatialIndex", 
+					true,
+					"Whether a spatial index of the stops of all trip "
+					+ "patterns should be created when the configuration is "
+					+ "read in. Makes requests for predictions by location "
+					+ "much faster since only nearby trip patterns need to "
+					+ "be examined.");
+	
 }
@@ -17,6 +17,7 @@
 
 package org.transitime.configData;
 
+import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.config.StringConfigValue;
 
@@ -112,4 +113,128 @@ public class DbSetupConfig {
                     100,
                     "Specifies the database batch size, defaults to 100");
 
+    /**
+     * Whether the high volume data, such as AVL reports, matches,
+     * arrivals/departures, and predictions, should be written by DbQueue using
+     * DbBulkWriter instead of saving each object via a Hibernate session.
+     * 
+     * @return true if bulk writer should be used
+     */
+    public static boolean useBulkWriter() {
+        return useBulkWriter.getValue();
+    }
+    private static BooleanConfigValue useBulkWriter =
+            new BooleanConfigValue("transitime.db.useBulkWriter",
+                    true,
+                    "If true then AVL reports, matches, arrivals/departures, "
+                    + "and predictions are written to the db using multi-row "
+                    + "JDBC inserts instead of saving each object via "
+                    + "Hibernate. Much faster when there is a lot of data.");
+
+    /**
+     * Whether DbBulkWriter should use the PostgreSQL COPY command when the
+     * database is PostgreSQL.
+     * 
+     * @return true if COPY should be used
+     */
+    public static boolean usePostgresCopy() {
+        return usePostgresCopy.getValue();
+    }
+    private static BooleanConfigValue usePostgresCopy =
+            new BooleanConfigValue("transitime.db.usePostgresCopy",
+                    true,
+                    "If true and the database is PostgreSQL then the bulk "
+                    + "writer uses the COPY command, which is the fastest "
+                    + "way to load rows into PostgreSQL. Only applies if "
+                    + "transitime.db.useBulkWriter is true.");
+
+    /**
+     * Whether DbQueue should overflow into an on-disk journal once the
+     * in-memory queue reaches queueHighWaterMark. Requires
+     * queueJournalDirectory to be set.
+     * 
+     * @return true if journal should be used
+     */
+    public static boolean useQueueJournal() {
+        return useQueueJournal.getValue();
+    }
+    private static BooleanConfigValue useQueueJournal =
+            new BooleanConfigValue("transitime.db.useQueueJournal",
+                    false,
+                    "If true then when a database queue has "
+                    + "transitime.db.queueHighWaterMark objects in memory, "
+                    + "such as when the db is not available, additional "
+                    + "objects are written to an on-disk journal instead of "
+                    + "using more heap. The journal is written to the db in "
+                    + "order once the db is available again. "
+                    + "transitime.db.queueJournalDirectory must also be set. "
+                    + "Replay after a restart is at-least-once: a batch "
+                    + "that was written to the db just before the process "
+                    + "exited can be written again. For objects with a "
+                    + "primary key, such as AVL reports and arrivals/"
+                    + "departures, the duplicates are rejected by the db "
+                    + "and logged, but for objects with a generated id, "
+                    + "such as predictions, duplicate rows can result.");
+
+    /**
+     * Number of writer threads for each database queue. The objects are
+     * partitioned between the threads by key, such as vehicleId, so that
+     * objects for a vehicle are still written in order.
+     * 
+     * @return number of writer threads per queue
+     */
+    public static int getWriterThreadsPerQueue() {
+        return writerThreadsPerQueue.getValue();
+    }
+    private static IntegerConfigValue writerThreadsPerQueue =
+            new IntegerConfigValue("transitime.db.writerThreadsPerQueue",
+                    1,
+                    "Number of threads writing to the db for each database "
+                    + "queue, such as the AVL report queue. Objects are "
+                    + "partitioned between the threads by vehicleId so that "
+                    + "the data for a vehicle is still written in order. "
+                    + "Increase to use more of the db's capacity.");
+
+    public static int getQueueHighWaterMark() {
+        return queueHighWaterMark.getValue();
+    }
+    private static IntegerConfigValue queueHighWaterMark =
+            new IntegerConfigValue("transitime.db.queueHighWaterMark",
+                    50000,
+                    "Max number of objects to keep in memory for each "
+                    + "database queue before overflowing into the on-disk "
+                    + "journal. When the calling thread is paused to reduce "
+                    + "the queue, such as for batch processing, then this "
+                    + "is the number of objects at which the calling thread "
+                    + "blocks until there is room.");
+
+    /**
+     * Directory where the database queue journals are written. Should be
+     * on persistent storage since the point of the journal is to not lose
+     * data when the process is restarted.
+     * 
+     * @return the directory, or null if not set
+     */
+    public static String getQueueJournalDirectory() {
+        return queueJournalDirectory.getValue();
+    }
+    private static StringConfigValue queueJournalDirectory =
+            new StringConfigValue("transitime.db.queueJournalDirectory",
+                    null,
+                    "Directory where the database queue journals are "
+                    + "written. Each queue uses a subdirectory. Must be set "
+                    + "if transitime.db.useQueueJournal is true. Should be "
+                    + "on persistent storage, not a temp directory that is "
+                    + "cleared on reboot, so that queued data is not lost.");
+
+    public static int getQueueJournalMaxMBytes() {
+        return queueJournalMaxMBytes.getValue();
+    }
+    private static IntegerConfigValue queueJournalMaxMBytes =
+            new IntegerConfigValue("transitime.db.queueJournalMaxMBytes",
+                    2048,
+                    "Max disk space in MB that the journal for each "
+                    + "database queue can use. The journal uses 64MB "
+                    + "segment files.");
+
 }
@@ -24,6 +24,8 @@ import org.transitime.applications.Core;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.configData.CoreConfig;
 import org.transitime.core.predAccuracy.PredictionAccuracyModule;
+import org.transitime.core.trace.TraceRecorder;
+import org.transitime.core.travelTimes.OnlineTravelTimesModule;
 import org.transitime.db.structs.Arrival;
 import org.transitime.db.structs.ArrivalDeparture;
 import org.transitime.db.structs.AvlReport;
@@ -322,9 +324,13 @@ public class ArrivalDepartureGeneratorDefaultImpl
 		
 		// Log creation of ArrivalDeparture in ArrivalsDepartures.log file
 		arrivalDeparture.logCreation();
+		TraceRecorder.getInstance().recordArrivalDeparture(arrivalDeparture);
 		
 		// Generate prediction accuracy info as appropriate
 		PredictionAccuracyModule.handleArrivalDeparture(arrivalDeparture);
+		
+		// Update the online travel times as appropriate
+		OnlineTravelTimesModule.handleArrivalDeparture(arrivalDeparture);
 	}
 	
 	/**
@@ -27,17 +27,27 @@ import org.transitime.core.autoAssigner.AutoBlockAssigner;
 import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.core.dataCache.VehicleStateManager;
+import org.transitime.core.trace.TraceRecorder;
 import org.transitime.db.structs.*;
 import org.transitime.db.structs.AvlReport.AssignmentType;
-import org.transitime.monitoring.CloudwatchService;
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.monitoring.metrics.LatencyTimer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.StringUtils;
 import org.transitime.utils.Time;
+import org.transitime.utils.threading.NamedThreadFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is a very important high-level class. It takes the AVL data and
@@ -54,6 +64,10 @@ public class AvlProcessor {
 	// can determine if AVL feed is up.
 	private AvlReport lastRegularReportProcessed;
 
+	// For processing the vehicles of a batch of AVL reports in parallel.
+	// Created when first needed.
+	private ExecutorService batchExecutor = null;
+	
 	// Singleton class
 	private static AvlProcessor singleton = new AvlProcessor();
 
@@ -85,6 +99,15 @@ public class AvlProcessor {
 	private static final Logger logger = LoggerFactory
 			.getLogger(AvlProcessor.class);
 
+	/************************** Metrics *******************************/
+
+	// Time to process an AVL report, and time from when the AVL report was
+	// generated until processing was completed
+	private static final LatencyTimer processingTimer =
+			MetricsRegistry.getInstance().getTimer("AvlProcessing");
+	private static final LatencyTimer totalLatencyTimer =
+			MetricsRegistry.getInstance().getTimer("AvlTotalLatency");
+
 	/********************** Member Functions **************************/
 
 	/*
@@ -125,6 +148,8 @@ public class AvlProcessor {
 
 		// Create a VehicleEvent to record what happened
 		AvlReport avlReport = vehicleState.getAvlReport();
+		TraceRecorder.getInstance().recordUnpredictable(vehicleId,
+				avlReport != null ? avlReport.getTime() : 0, vehicleEvent);
 		TemporalMatch lastMatch = vehicleState.getMatch();
 		boolean wasPredictable = vehicleState.isPredictable();
 		VehicleEvent.create(avlReport, lastMatch, vehicleEvent,
@@ -380,18 +405,26 @@ public class AvlProcessor {
 		logger.debug("For vehicleId={} found the following {} spatial "
 				+ "matches: {}", vehicleState.getVehicleId(),
 				spatialMatches.size(), spatialMatches);
+		TraceRecorder.getInstance().recordSpatialMatches(
+				vehicleState.getVehicleId(),
+				vehicleState.getAvlReport().getTime(), spatialMatches);
 
 		// Find best temporal match of the spatial matches
 		TemporalMatch bestTemporalMatch = TemporalMatcher.getInstance()
 				.getBestTemporalMatch(vehicleState, spatialMatches);
 
-		// Log this as info since matching is a significant milestone
-		logger.info("For vehicleId={} the best match is {}",
+		// Matching is a significant milestone but it is recorded by the
+		// TraceRecorder so only log it as debug
+		logger.debug("For vehicleId={} the best match is {}",
 				vehicleState.getVehicleId(), bestTemporalMatch);
 
 		// If didn't get a match then remember such in VehicleState
 		if (bestTemporalMatch == null)
 			vehicleState.incrementNumberOfBadMatches();
+		TraceRecorder.getInstance().recordTemporalMatch(
+				vehicleState.getVehicleId(),
+				vehicleState.getAvlReport().getTime(), bestTemporalMatch,
+				vehicleState.numberOfBadMatches());
 
 		// If vehicle not making progress then return null
 		boolean notMakingProgress = handleIfVehicleNotMakingProgress(
@@ -428,7 +461,7 @@ public class AvlProcessor {
 				vehicleState.unsetBlock(BlockAssignmentMethod.COULD_NOT_MATCH);
 			}
 		} else {
-			logger.info("For vehicleId={} got a bad match, {} in a row, so "
+			logger.debug("For vehicleId={} got a bad match, {} in a row, so "
 					+ "not updating match for vehicle",
 					vehicleState.getVehicleId(),
 					vehicleState.numberOfBadMatches());
@@ -813,6 +846,97 @@ public class AvlProcessor {
 		return false;
 	}
 
+	/**
+	 * For when a new config rev has been swapped in. The VehicleState refers
+	 * to the block and trips of the old configuration so matches the last AVL
+	 * report of the vehicle to the block with the same service ID and block
+	 * ID in the new configuration. The trip that the vehicle was on is tried
+	 * first so that the vehicle continues on the same trip if it still
+	 * exists. The predictions are then regenerated so that they are for the
+	 * new configuration. Arrivals/departures are not generated since the
+	 * vehicle hasn't actually moved. If the block no longer exists or the
+	 * vehicle cannot be matched to it then the vehicle is made unpredictable
+	 * so that it is assigned again when the next AVL report is processed.
+	 * 
+	 * @param vehicleState
+	 *            The vehicle to be matched to the new configuration
+	 * @return true if vehicle is still predictable
+	 */
+	public boolean matchVehicleToNewConfig(VehicleState vehicleState) {
+		synchronized (vehicleState) {
+			if (!vehicleState.isPredictable())
+				return false;
+
+			Block oldBlock = vehicleState.getBlock();
+			TemporalMatch oldMatch = vehicleState.getMatch();
+			AvlReport avlReport = vehicleState.getAvlReport();
+			Block newBlock = Core.getInstance().getDbConfig()
+					.getBlock(oldBlock.getServiceId(), oldBlock.getId());
+			if (newBlock == null) {
+				makeVehicleUnpredictableAndTerminateAssignment(vehicleState,
+						"For vehicleId=" + vehicleState.getVehicleId()
+								+ " blockId=" + oldBlock.getId()
+								+ " is not in the new configuration so "
+								+ "terminating the assignment.",
+						VehicleEvent.CONFIG_REV_CHANGED);
+				return false;
+			}
+
+			// Try the trip that vehicle was on first
+			List<Trip> potentialTrips = newBlock.getTripsCurrentlyActive(avlReport);
+			List<SpatialMatch> spatialMatches = new ArrayList<SpatialMatch>();
+			if (oldMatch != null) {
+				String oldTripId = oldMatch.getTrip().getId();
+				for (Trip trip : potentialTrips) {
+					if (trip.getId().equals(oldTripId)) {
+						List<Trip> sameTrip = new ArrayList<Trip>(1);
+						sameTrip.add(trip);
+						spatialMatches = SpatialMatcher.getSpatialMatches(
+								avlReport, newBlock, sameTrip);
+						break;
+					}
+				}
+			}
+			if (spatialMatches.isEmpty())
+				spatialMatches = SpatialMatcher.getSpatialMatches(avlReport,
+						newBlock, potentialTrips);
+			TemporalMatch bestMatch = TemporalMatcher.getInstance()
+					.getBestTemporalMatchComparedToSchedule(avlReport,
+							spatialMatches);
+			if (bestMatch == null) {
+				makeVehicleUnpredictableAndTerminateAssignment(vehicleState,
+						"For vehicleId=" + vehicleState.getVehicleId()
+								+ " could not match to blockId="
+								+ oldBlock.getId() + " of the new "
+								+ "configuration so terminating the "
+								+ "assignment.",
+						VehicleEvent.CONFIG_REV_CHANGED);
+				return false;
+			}
+
+			logger.info("For new configuration matched vehicleId={} to "
+					+ "blockId={}. Old match={} New match={}",
+					vehicleState.getVehicleId(), newBlock.getId(), oldMatch,
+					bestMatch);
+			vehicleState.setMatch(bestMatch);
+			vehicleState.setBlock(newBlock, vehicleState.getAssignmentMethod(),
+					vehicleState.getAssignmentId(), true);
+
+			// Regenerate the predictions so that they are for the new
+			// configuration
+			if (!CoreConfig.onlyNeedArrivalDepartures()) {
+				List<IpcPrediction> newPredictions = PredictionGeneratorFactory
+						.getInstance().generate(vehicleState);
+				PredictionDataCache.getInstance().updatePredictions(
+						vehicleState.getPredictions(), newPredictions);
+				vehicleState.setPredictions(newPredictions);
+			}
+
+			VehicleDataCache.getInstance().updateVehicle(vehicleState);
+			return true;
+		}
+	}
+
 	/**
 	 * For when vehicle didn't get an assignment from the AVL feed and the
 	 * vehicle previously was predictable and was matched to an assignment then
@@ -1081,6 +1205,10 @@ public class AvlProcessor {
 			// Keep track of last AvlReport even if vehicle not predictable.
 			vehicleState.setAvlReport(avlReport);
 
+			// Record in trace so can debug matching without logging
+			if (!rescursiveCall)
+				TraceRecorder.getInstance().recordAvlReport(avlReport);
+
 			// Do the matching depending on the old and the new assignment
 			// for the vehicle.
 			boolean matchAlreadyPredictableVehicle = 
@@ -1261,8 +1389,9 @@ public class AvlProcessor {
 		}
 
 		// The beginning of processing AVL data is an important milestone
-		// in processing data so log it as info.
-		logger.info("===================================================="
+		// but it is recorded by the TraceRecorder so only log it as debug
+		// to avoid the cost of logging every AVL report.
+		logger.debug("===================================================="
 				+ "AvlProcessor processing {}", avlReport);
 
 		// Record when the AvlReport was actually processed. This is done here
@@ -1298,8 +1427,176 @@ public class AvlProcessor {
 		// Do the low level work of matching vehicle and then generating results
 		lowLevelProcessAvlReport(avlReport, false);
 		logger.debug("Processing AVL report took {}msec", timer);
-        CloudwatchService.getInstance().saveMetric("PredictionProcessingTimeInMillis", Double.valueOf(timer.elapsedMsec()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
-        CloudwatchService.getInstance().saveMetric("PredictionTotalLatencyInMillis", Double.valueOf((System.currentTimeMillis() - avlReport.getTime())), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		processingTimer.record(timer.elapsedNanoSec());
+		totalLatencyTimer.recordMsec(
+				System.currentTimeMillis() - avlReport.getTime());
 	}
 
+
+	/**
+	 * Returns the executor used for processing the vehicles of a batch of AVL
+	 * reports in parallel. Created the first time it is needed.
+	 * 
+	 * @return the batch executor
+	 */
+	private synchronized ExecutorService getBatchExecutor() {
+		if (batchExecutor == null) {
+			int numThreads = Math.max(1, AvlConfig.getNumBatchThreads());
+			logger.info("Creating executor for processing batches of AVL "
+					+ "reports using {} threads", numThreads);
+			batchExecutor = Executors.newFixedThreadPool(numThreads,
+					new NamedThreadFactory("avlBatch"));
+		}
+		return batchExecutor;
+	}
+	
+	/**
+	 * Processes a batch of AVL reports, such as all of the reports from a
+	 * single poll of a feed that provides data for the whole fleet. The
+	 * housekeeping that processAvlReport() does for each report (caching the
+	 * vehicle config, storing the reports in the db, storing reports for the
+	 * timeout handler, and saving metrics) is done just once for the whole
+	 * batch. The matching and generation of predictions is then done in
+	 * parallel, with the reports for each vehicle being processed in order by
+	 * a single thread. Doesn't return until the whole batch has been
+	 * processed.
+	 * <p>
+	 * The AVL reports are expected to have already been filtered, such as by
+	 * AvlClient.shouldProcess().
+	 * 
+	 * @param avlReports
+	 *            The new AVL reports to be processed, in time order
+	 */
+	public void processAvlReports(Collection<AvlReport> avlReports) {
+		if (avlReports.isEmpty())
+			return;
+		
+		IntervalTimer timer = new IntervalTimer(); 
+
+		logger.debug("===================================================="
+				+ "AvlProcessor processing batch of {} AVL reports", 
+				avlReports.size());
+
+		// Do the per report housekeeping that doesn't require any locking.
+		// Also group reports by vehicle, keeping them in order, so that
+		// each vehicle can be processed by a single thread.
+		List<AvlReport> avlReportsToStore = 
+				new ArrayList<AvlReport>(avlReports.size());
+		Map<String, List<AvlReport>> avlReportsByVehicle =
+				new LinkedHashMap<String, List<AvlReport>>();
+		for (AvlReport avlReport : avlReports) {
+			// Handle special case where want to not use assignment from AVL
+			// report, most likely because want to test automatic assignment
+			// capability
+			if (AutoBlockAssigner.ignoreAvlAssignments()
+					&& !avlReport.isForSchedBasedPreds()) {
+				avlReport.setAssignment(null, AssignmentType.UNSET);
+			}
+			
+			// Record when the AvlReport was actually processed so that it
+			// is set when the avlReport is stored in the database
+			avlReport.setTimeProcessed();
+
+			// Keep track of last AVL report processed so can determine if 
+			// AVL feed is up
+			setLastAvlReport(avlReport);
+
+			if (!CoreConfig.onlyNeedArrivalDepartures()
+					&& !avlReport.isForSchedBasedPreds())
+				avlReportsToStore.add(avlReport);
+
+			List<AvlReport> avlReportsForVehicle = 
+					avlReportsByVehicle.get(avlReport.getVehicleId());
+			if (avlReportsForVehicle == null) {
+				avlReportsForVehicle = new ArrayList<AvlReport>(1);
+				avlReportsByVehicle.put(avlReport.getVehicleId(), 
+						avlReportsForVehicle);
+			}
+			avlReportsForVehicle.add(avlReport);
+			
+		}
+		
+		// Make sure that vehicle configurations are in cache and database
+		VehicleDataCache.getInstance().cacheVehicleConfigs(avlReports);
+
+		// Store the AVL reports into the database
+		Core.getInstance().getDbLogger().addAvlReports(avlReportsToStore);
+		
+		// So that the timeout handler knows about the reports
+		Core.getInstance().getTimeoutHandlerModule().storeAvlReports(
+				avlReports);
+		
+		// Process each vehicle in parallel. If there is only a single 
+		// vehicle then simply process it in the current thread.
+		if (avlReportsByVehicle.size() == 1) {
+			new VehicleBatchProcessor(avlReports).run();
+		} else {
+			ExecutorService executor = getBatchExecutor();
+			List<Future<?>> futures = 
+					new ArrayList<Future<?>>(avlReportsByVehicle.size());
+			for (List<AvlReport> avlReportsForVehicle 
+					: avlReportsByVehicle.values()) {
+				futures.add(executor.submit(
+						new VehicleBatchProcessor(avlReportsForVehicle)));
+			}
+			
+			// Wait for all vehicles to be processed
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					logger.error("Interrupted while processing batch of AVL "
+							+ "reports.", e);
+					Thread.currentThread().interrupt();
+					return;
+				} catch (ExecutionException e) {
+					logger.error("Exception processing batch of AVL "
+							+ "reports. {}", e.getMessage(), e);
+				}
+			}
+		}
+		
+		logger.debug("Processing batch of {} AVL reports for {} vehicles "
+				+ "took {}msec", avlReports.size(), avlReportsByVehicle.size(),
+				timer);
+	}
+
+	/**
+	 * For processing in order the AVL reports for a single vehicle that are
+	 * part of a batch.
+	 */
+	private class VehicleBatchProcessor implements Runnable {
+		private final Collection<AvlReport> avlReports;
+		
+		private VehicleBatchProcessor(Collection<AvlReport> avlReports) {
+			this.avlReports = avlReports;
+		}
+		
+		@Override
+		public void run() {
+			for (AvlReport avlReport : avlReports) {
+				// Logging to syserr just for debugging.
+				if (AvlConfig.shouldLogToStdOut()) {
+					System.err.println("Processing avlReport for vehicleId="
+							+ avlReport.getVehicleId() + " " + avlReport
+							+ " ...");
+				}
+
+				// Catch unexpected exceptions so that one bad report 
+				// doesn't prevent the rest of the batch from being
+				// processed
+				try {
+					long start = System.nanoTime();
+					lowLevelProcessAvlReport(avlReport, false);
+					processingTimer.recordSince(start);
+					totalLatencyTimer.recordMsec(
+							System.currentTimeMillis() - avlReport.getTime());
+				} catch (Exception e) {
+					logger.error("Exception {} for avlReport={}.", 
+							e.getMessage(), avlReport, e);
+				}
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,226 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.core.dataCache.VehicleStateManager;
+import org.transitime.db.structs.ActiveRevisions;
+import org.transitime.db.structs.Block;
+import org.transitime.gtfs.DbConfig;
+import org.transitime.logging.Markers;
+import org.transitime.modules.Module;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+/**
+ * Polls the ActiveRevisions table and when the config rev or the travel
+ * times rev changes, such as when new GTFS data was processed, switches the
+ * core over to the new configuration without needing a restart. The new
+ * configuration is completely read in by this module's thread, including the
+ * preloaded data and spatial indices if those are enabled, while the AVL
+ * data continues to be processed using the old configuration. The new
+ * configuration is then swapped in and each predictable vehicle is matched
+ * to its block in the new configuration so that it stays predictable.
+ * <p>
+ * The Hibernate session of the old configuration is not closed until a
+ * polling cycle finds that no vehicle is still assigned to a block of the
+ * old configuration. An AVL processing thread that was still using the old
+ * configuration when it was swapped out could have assigned a vehicle to one
+ * of its blocks. Such vehicles are matched to the new configuration at the
+ * next polling cycle. A new configuration is not swapped in until the
+ * session of the previous one has been closed.
+ * <p>
+ * Should not be used if the config rev is specified on the command line
+ * since then the ActiveRevisions table is not what determines the config rev.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ConfigRevUpdaterModule extends Module {
+
+	// The revisions currently being used
+	private int configRev;
+	private int travelTimesRev;
+
+	// So that the session of the old configuration can be closed once
+	// no vehicles are assigned to its blocks
+	private DbConfig previousDbConfig = null;
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ConfigRevUpdaterModule.class);
+
+	/********************** Config Params **************************/
+
+	private static final IntegerConfigValue pollingRateMsec =
+			new IntegerConfigValue(
+					"transitime.core.configRevPollingRateMsec",
+					2 * Time.MS_PER_MIN,
+					"How frequently to check the ActiveRevisions table to "
+					+ "see if a new config rev or travel times rev has "
+					+ "been activated.");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * The constructor for the module. Called automatically if the module
+	 * is configured.
+	 *
+	 * @param agencyId
+	 */
+	public ConfigRevUpdaterModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * Matches each predictable vehicle that is assigned to a block of the old
+	 * configuration to the current configuration. If a vehicle can't be
+	 * matched then it is made unpredictable so it no longer refers to the
+	 * old configuration.
+	 * 
+	 * @param oldDbConfig
+	 *            The configuration that was swapped out
+	 * @return number of vehicles that were assigned to a block of the old
+	 *         configuration
+	 */
+	private int matchVehiclesToNewConfig(DbConfig oldDbConfig) {
+		// Copy the collection since vehicles can be added while doing this
+		List<VehicleState> vehicleStates = new ArrayList<VehicleState>(
+				VehicleStateManager.getInstance().getVehiclesState());
+		int numOnOldConfig = 0;
+		int numRematched = 0;
+		for (VehicleState vehicleState : vehicleStates) {
+			Block block = vehicleState.getBlock();
+			if (!vehicleState.isPredictable() || block == null
+					|| block.getDbConfig() != oldDbConfig)
+				continue;
+			++numOnOldConfig;
+			if (AvlProcessor.getInstance().matchVehicleToNewConfig(
+					vehicleState))
+				++numRematched;
+		}
+
+		logger.info("Matched {} of {} predictable vehicles that were "
+				+ "assigned to configRev={} to the new configuration.",
+				numRematched, numOnOldConfig, oldDbConfig.getConfigRev());
+		return numOnOldConfig;
+	}
+	
+	/**
+	 * If the active revisions have changed then reads in the new
+	 * configuration, swaps it in, and matches the vehicles to it. If the
+	 * previous configuration is still referenced by vehicles then they are
+	 * matched to the new configuration first, and the revs are not checked
+	 * until the session of the previous configuration has been closed.
+	 */
+	void updateConfigIfRevsChanged() {
+		// Only release the previous configuration once a full polling cycle
+		// has gone by without any vehicles still being assigned to its
+		// blocks. 
+		if (previousDbConfig != null) {
+			if (matchVehiclesToNewConfig(previousDbConfig) > 0) {
+				logger.info("Vehicles were still assigned to configRev={} so "
+						+ "not yet closing its session.", 
+						previousDbConfig.getConfigRev());
+				return;
+			}
+			previousDbConfig.closeGlobalSession();
+			previousDbConfig = null;
+		}
+
+		ActiveRevisions activeRevisions = ActiveRevisions.get(agencyId);
+		if (!activeRevisions.isValid()) {
+			logger.error("ActiveRevisions in database is not valid so not "
+					+ "updating configuration. {}", activeRevisions);
+			return;
+		}
+		if (activeRevisions.getConfigRev() == configRev
+				&& activeRevisions.getTravelTimesRev() == travelTimesRev)
+			return;
+
+		logger.info("Active revisions changed from configRev={} "
+				+ "travelTimesRev={} to configRev={} travelTimesRev={} so "
+				+ "reading in the new configuration.", configRev,
+				travelTimesRev, activeRevisions.getConfigRev(),
+				activeRevisions.getTravelTimesRev());
+		IntervalTimer timer = new IntervalTimer();
+
+		DbConfig newDbConfig = new DbConfig(agencyId);
+		newDbConfig.read(activeRevisions.getConfigRev());
+		if (newDbConfig.getBlocks() == null
+				|| newDbConfig.getBlocks().isEmpty()) {
+			logger.error(Markers.email(),
+					"For agencyId={} could not read in the configuration for "
+					+ "configRev={} so continuing to use configRev={}.",
+					agencyId, activeRevisions.getConfigRev(), configRev);
+			newDbConfig.closeGlobalSession();
+			return;
+		}
+
+		Core core = Core.getInstance();
+		previousDbConfig = core.getDbConfig();
+		core.swapDbConfig(newDbConfig);
+		configRev = activeRevisions.getConfigRev();
+		travelTimesRev = activeRevisions.getTravelTimesRev();
+
+		// Match the vehicles to the blocks of the new configuration
+		matchVehiclesToNewConfig(previousDbConfig);
+
+		logger.info("Switched to configRev={} travelTimesRev={}. Took {} "
+				+ "msec.", configRev, travelTimesRev, timer.elapsedMsec());
+	}
+
+	/**
+	 * Initializes the revisions to those that the core was started with.
+	 * The travel times rev is not part of DbConfig so it is read from the db.
+	 */
+	void initializeRevs() {
+		configRev = Core.getInstance().getDbConfig().getConfigRev();
+		travelTimesRev = ActiveRevisions.get(agencyId).getTravelTimesRev();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		logger.info("Starting module {} for agencyId={}",
+				getClass().getName(), getAgencyId());
+
+		// Start with the revisions that the core was started with
+		initializeRevs();
+
+		// Run forever
+		while (true) {
+			Time.sleep(pollingRateMsec.getValue());
+
+			try {
+				updateConfigIfRevsChanged();
+			} catch (Exception e) {
+				logger.error(Markers.email(),
+						"Error with ConfigRevUpdaterModule for agencyId={}",
+						agencyId, e);
+			}
+		}
+	}
+
+}
@@ -28,9 +28,8 @@ package org.transitime.core;
  */
 public interface HeadwayGenerator {
 	/**
-	 * Generates headway info. This interface likely will need to be changed in
-	 * the future to return the headways generated such that the MatchProcessor
-	 * can manage them and store them away.
+	 * Generates headway info. The headways are stored in the VehicleState so
+	 * that they are available via IpcVehicle.
 	 * 
 	 * @param vehicleState
 	 */
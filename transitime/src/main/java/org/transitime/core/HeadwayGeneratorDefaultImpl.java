@@ -1,6 +1,6 @@
-/* 
+/*
  * This file is part of Transitime.org
- * 
+ *
  * Transitime.org is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License (GPL) as published by
  * the Free Software Foundation, either version 3 of the License, or
@@ -16,28 +16,214 @@
  */
 package org.transitime.core;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.core.dataCache.StopArrivalTimes;
+import org.transitime.core.dataCache.StopArrivalsCache;
+import org.transitime.core.dataCache.VehicleStateManager;
+import org.transitime.db.structs.Trip;
+import org.transitime.ipc.data.IpcPrediction;
 
 /**
+ * Determines the headways for a vehicle each time it is matched.
+ * <p>
+ * When the match indicates that the vehicle has reached or passed stops
+ * since the previous match an arrival is recorded for each of those stops in
+ * the StopArrivalsCache. If the vehicle passed several stops between AVL
+ * reports the arrival times are interpolated between the times of the
+ * previous and current matches. The headway is the time between when the
+ * preceding vehicle and this vehicle arrived at the stop.
+ * <p>
+ * The predicted headway is for the next stop. It is the time between the
+ * predicted arrival of this vehicle and the arrival of the preceding vehicle,
+ * using the actual arrival of the preceding vehicle if it already reached the
+ * stop and otherwise its predicted arrival.
+ * <p>
+ * The results are stored in the VehicleState so that they are available via
+ * IpcVehicle. Since this is called for every AVL report care is taken to not
+ * create any objects.
  *
  * @author SkiBu Smith
  *
  */
 public class HeadwayGeneratorDefaultImpl implements HeadwayGenerator {
 
-	private static final Logger logger = 
+	private static final Logger logger =
 			LoggerFactory.getLogger(HeadwayGeneratorDefaultImpl.class);
 
+	/********************** Config Params **************************/
+
+	private static IntegerConfigValue maxStopsBetweenMatches =
+			new IntegerConfigValue(
+					"transitime.core.headway.maxStopsBetweenMatches",
+					8,
+					"If a vehicle passed more than this many stops since the "
+					+ "previous match then the arrival times would be too "
+					+ "inaccurate so arrivals are not recorded for those "
+					+ "stops.");
+
 	/********************** Member Functions **************************/
 
+	/**
+	 * Returns the predicted time for the stop from the list of predictions.
+	 * Uses an index instead of an iterator so that no objects are created.
+	 *
+	 * @param predictions
+	 *            Can be null
+	 * @param stopId
+	 * @return predicted epoch time, or 0 if there isn't a prediction
+	 */
+	private static long getPredictionTime(List<IpcPrediction> predictions,
+			String stopId) {
+		if (predictions == null)
+			return 0;
+		for (int i = 0; i < predictions.size(); ++i) {
+			IpcPrediction prediction = predictions.get(i);
+			if (prediction.getStopId().equals(stopId))
+				return prediction.getPredictionTime();
+		}
+		return 0;
+	}
+
+	/**
+	 * Records arrivals for the stops the vehicle reached since the previous
+	 * match and updates the headway in the vehicle state.
+	 *
+	 * @param vehicleState
+	 * @param match
+	 * @param reachedStopPathIndex
+	 *            Index of the most recent stop that the vehicle has reached
+	 */
+	private void recordArrivals(VehicleState vehicleState, TemporalMatch match,
+			int reachedStopPathIndex) {
+		Trip trip = match.getTrip();
+		int firstStopPathIndex;
+		long previousTime;
+		if (trip.getId().equals(vehicleState.getHeadwayTripId())) {
+			firstStopPathIndex = vehicleState.getHeadwayStopPathIndex() + 1;
+			TemporalMatch previousMatch = vehicleState.getPreviousMatch();
+			previousTime = previousMatch != null ?
+					previousMatch.getAvlTime() : match.getAvlTime();
+		} else {
+			// New trip so only know the arrival time if vehicle is at the
+			// stop right now
+			firstStopPathIndex = match.isAtStop() ?
+					reachedStopPathIndex : reachedStopPathIndex + 1;
+			previousTime = match.getAvlTime();
+			vehicleState.setHeadway(-1, null);
+		}
+		vehicleState.setHeadwayStop(trip.getId(), reachedStopPathIndex);
+
+		int numStops = reachedStopPathIndex - firstStopPathIndex + 1;
+		if (numStops <= 0)
+			return;
+		if (numStops > maxStopsBetweenMatches.getValue()) {
+			logger.debug("vehicleId={} passed {} stops since previous match "
+					+ "so not recording arrivals for headways.",
+					vehicleState.getVehicleId(), numStops);
+			vehicleState.setHeadway(-1, null);
+			return;
+		}
+
+		// If vehicle is at the reached stop then it arrived by the time of
+		// the match. Otherwise it arrived some time before that.
+		long elapsedTime = match.getAvlTime() - previousTime;
+		int divisor = match.isAtStop() ? numStops : numStops + 1;
+
+		StopArrivalsCache cache = StopArrivalsCache.getInstance();
+		String vehicleId = vehicleState.getVehicleId();
+		long headwayMsec = -1;
+		String precedingVehicleId = null;
+		for (int i = 1; i <= numStops; ++i) {
+			int stopPathIndex = firstStopPathIndex + i - 1;
+			long arrivalTime = previousTime + elapsedTime * i / divisor;
+			StopArrivalTimes arrivals = cache.getArrivals(trip.getRouteId(),
+					trip.getDirectionId(),
+					trip.getStopPath(stopPathIndex).getStopId());
+			long precedingTime = arrivals.add(vehicleId, arrivalTime);
+			if (precedingTime > 0) {
+				headwayMsec = arrivalTime - precedingTime;
+				precedingVehicleId =
+						arrivals.getPrecedingVehicleId(vehicleId);
+			} else {
+				headwayMsec = -1;
+				precedingVehicleId = null;
+			}
+		}
+		vehicleState.setHeadway(headwayMsec, precedingVehicleId);
+	}
+
+	/**
+	 * Determines the expected headway at the next stop and stores it in the
+	 * vehicle state.
+	 *
+	 * @param vehicleState
+	 * @param match
+	 * @param reachedStopPathIndex
+	 *            Index of the most recent stop that the vehicle has reached
+	 */
+	private void updatePredictedHeadway(VehicleState vehicleState,
+			TemporalMatch match, int reachedStopPathIndex) {
+		vehicleState.setPredictedHeadwayMsec(-1);
+
+		Trip trip = match.getTrip();
+		int nextStopPathIndex = reachedStopPathIndex + 1;
+		String precedingVehicleId = vehicleState.getPrecedingVehicleId();
+		if (precedingVehicleId == null
+				|| nextStopPathIndex >= trip.getNumberStopPaths())
+			return;
+
+		String nextStopId = trip.getStopPath(nextStopPathIndex).getStopId();
+		long predictionTime =
+				getPredictionTime(vehicleState.getPredictions(), nextStopId);
+		if (predictionTime == 0)
+			return;
+
+		// If the preceding vehicle already arrived at the next stop, which
+		// is the case if it arrived there after it arrived at the stop this
+		// vehicle reached, then use that time. Otherwise use its prediction.
+		StopArrivalsCache cache = StopArrivalsCache.getInstance();
+		long precedingReachedTime = cache.getArrivals(trip.getRouteId(),
+				trip.getDirectionId(),
+				trip.getStopPath(reachedStopPathIndex).getStopId())
+				.getArrivalTime(precedingVehicleId);
+		long precedingNextTime = cache.getArrivals(trip.getRouteId(),
+				trip.getDirectionId(), nextStopId)
+				.getArrivalTime(precedingVehicleId);
+		if (precedingNextTime == 0
+				|| precedingNextTime < precedingReachedTime) {
+			VehicleState precedingVehicleState = VehicleStateManager
+					.getInstance().getVehicleState(precedingVehicleId);
+			precedingNextTime = getPredictionTime(
+					precedingVehicleState.getPredictions(), nextStopId);
+		}
+
+		if (precedingNextTime > 0 && predictionTime > precedingNextTime)
+			vehicleState.setPredictedHeadwayMsec(
+					predictionTime - precedingNextTime);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.transitime.core.HeadwayGenerator#generate(org.transitime.core.VehicleState)
 	 */
 	@Override
-	public void generate(VehicleState vehicleState) {		
-		// FIXME Still needs to be implemented!!
-		logger.debug("HeadwayGeneratorDefaultImpl.generate() still needs to " +
-				"be implemented");
+	public void generate(VehicleState vehicleState) {
+		TemporalMatch match = vehicleState.getMatch();
+		if (match == null)
+			return;
+
+		// Determine the most recent stop that the vehicle has reached. If at
+		// the stop at end of the stop path then it is that stop. Otherwise
+		// it is the stop at the end of the previous stop path.
+		int reachedStopPathIndex = match.getAtEndStop() != null ?
+				match.getStopPathIndex() : match.getStopPathIndex() - 1;
+		if (reachedStopPathIndex < 0)
+			return;
+
+		recordArrivals(vehicleState, match, reachedStopPathIndex);
+		updatePredictedHeadway(vehicleState, match, reachedStopPathIndex);
 	}
 }
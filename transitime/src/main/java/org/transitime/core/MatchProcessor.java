@@ -26,6 +26,8 @@ import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.db.structs.Prediction;
 import org.transitime.db.structs.Match;
 import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.monitoring.metrics.LatencyTimer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.Time;
 
 /**
@@ -43,6 +45,13 @@ public class MatchProcessor {
 	private static final Logger logger = 
 			LoggerFactory.getLogger(MatchProcessor.class);
 
+	private static final LatencyTimer predictionGenerationTimer =
+			MetricsRegistry.getInstance().getTimer("PredictionGeneration");
+	private static final LatencyTimer predictionDataCacheTimer =
+			MetricsRegistry.getInstance().getTimer("PredictionDataCacheUpdate");
+	private static final LatencyTimer arrivalDepartureTimer =
+			MetricsRegistry.getInstance().getTimer("ArrivalDepartureGeneration");
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -72,8 +81,10 @@ public class MatchProcessor {
 				vehicleState.getVehicleId());
 
 		// Generate the new predictions for the vehicle
+		long start = System.nanoTime();
 		List<IpcPrediction> newPredictions = 
 				PredictionGeneratorFactory.getInstance().generate(vehicleState);
+		predictionGenerationTimer.recordSince(start);
 
 		// Store the predictions in database if so configured
 		if (CoreConfig.getMaxPredictionsTimeForDbSecs() > 0) {
@@ -91,8 +102,10 @@ public class MatchProcessor {
 		// Update the predictions cache to use the new predictions for the
 		// vehicle
 		List<IpcPrediction> oldPredictions = vehicleState.getPredictions();
+		start = System.nanoTime();
 		PredictionDataCache.getInstance().updatePredictions(oldPredictions,
 				newPredictions);
+		predictionDataCacheTimer.recordSince(start);
 
 		// Update predictions for vehicle
 		vehicleState.setPredictions(newPredictions);
@@ -121,7 +134,9 @@ public class MatchProcessor {
 		logger.debug("Processing arrivals/departures for vehicleId={}",
 				vehicleState.getVehicleId());
 		
+		long start = System.nanoTime();
 		ArrivalDepartureGeneratorFactory.getInstance().generate(vehicleState);
+		arrivalDepartureTimer.recordSince(start);
 	}
 	
 	/**
@@ -18,35 +18,80 @@ package org.transitime.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TimeZone;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.transitime.applications.Core;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.db.structs.Calendar;
 import org.transitime.db.structs.CalendarDate;
 import org.transitime.gtfs.DbConfig;
+import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.Time;
 
 /**
  * For working with service types, such as determining serviceId or
  * appropriate block to use for a given epoch time.
+ * <p>
+ * The service IDs for each day are determined from the calendars and
+ * calendar dates when the ServiceUtils object is created and are stored in a
+ * table indexed by the day. For each day there is a bitset of the active
+ * service IDs plus an unmodifiable list of them. Since the table doesn't
+ * change after it is created the lookups are simply array reads that don't
+ * need any locking and don't allocate any objects. Days outside of the table
+ * are handled by determining the service IDs on the fly.
  * 
  * @author SkiBu Smith
  *
  */
 public class ServiceUtils {
 
-	private final GregorianCalendar calendar;
+	// For converting epoch times to days. Times are for the agency timezone,
+	// which is the default timezone for the core.
+	private final TimeZone timeZone;
 	
-	private final DbConfig dbConfig;
+	// All of the service IDs from the calendars and calendar dates. The
+	// index of the service ID is its bit in the bitsets.
+	private final List<String> allServiceIds;
+	private final Map<String, Integer> serviceIdIndexMap;
+	
+	// Calendar info converted to days for quickly determining which
+	// calendars are active for a day
+	private final Calendar[] calendars;
+	private final long[] calendarStartDays;
+	private final long[] calendarEndDays;
+	private final long maxCalendarEndDay;
+	
+	// The calendar dates keyed by day
+	private final Map<Long, List<CalendarDate>> calendarDatesByDay;
+	
+	// The service day table. Index into the table is the day minus
+	// firstDayInTable. The bitsets are stored in a single array with 
+	// wordsPerDay longs for each day.
+	private final long firstDayInTable;
+	private final int numDaysInTable;
+	private final int wordsPerDay;
+	private final long[] serviceBitsByDay;
+	
+	// Unmodifiable lists of the service IDs for each day in the table, and
+	// for each day combined with the previous day. Days with the same 
+	// services share the same list object.
+	private final List<List<String>> serviceIdsByDay;
+	private final List<List<String>> serviceIdsWithPreviousDayByDay;
+	
+	// So that only log once per day that the calendars have expired
+	private volatile long expiredDayLogged = Long.MIN_VALUE;
+	
+	// Limits the size of the table in case a calendar has an end date far
+	// into the future. If the calendars cover more days than this then the
+	// table starts a few days before the current day.
+	private static final int MAX_DAYS_IN_TABLE = 3 * 366;
+	private static final int DAYS_BEFORE_TODAY_IN_TABLE = 7;
 	
 	private static IntegerConfigValue minutesIntoMorningToIncludePreviousServiceIds =
 			new IntegerConfigValue(
@@ -64,206 +109,413 @@ public class ServiceUtils {
 	/********************** Member Functions **************************/
 
 	/**
-	 * ServiceUtils constructor. Creates reusable GregorianCalendar and sets the
-	 * timezone so that the calendar can be reused.
+	 * ServiceUtils constructor. Creates the service day table from the
+	 * calendars and calendar dates of the configuration.
 	 * 
-	 * @param timezoneName See http://en.wikipedia.org/wiki/List_of_tz_zones
+	 * @param dbConfig
 	 */
 	public ServiceUtils(DbConfig dbConfig) {
+		this(dbConfig.getCalendars(), dbConfig.getCalendarDates(),
+				TimeZone.getDefault());
+	}
+	
+	/**
+	 * Creates the service day table from the specified calendars and
+	 * calendar dates. Separate from the DbConfig constructor so that the
+	 * table can be tested without a database.
+	 * 
+	 * @param calendarList
+	 * @param calendarDates
+	 * @param timeZone
+	 *            The agency timezone, used to determine the days
+	 */
+	ServiceUtils(List<Calendar> calendarList, List<CalendarDate> calendarDates,
+			TimeZone timeZone) {
+		this.timeZone = timeZone;
+		
+		IntervalTimer timer = new IntervalTimer();
+		
+		// Determine all of the service IDs so that each one gets an index
+		// into the bitsets
+		allServiceIds = new ArrayList<String>();
+		serviceIdIndexMap = new HashMap<String, Integer>();
+		for (Calendar calendar : calendarList)
+			addServiceId(calendar.getServiceId());
+		for (CalendarDate calendarDate : calendarDates)
+			addServiceId(calendarDate.getServiceId());
+		wordsPerDay = Math.max(1, (allServiceIds.size() + 63) / 64);
+		
+		// Convert the calendars to days. Also determine the range of days
+		// that the calendars and calendar dates cover.
+		calendars = calendarList.toArray(new Calendar[calendarList.size()]);
+		calendarStartDays = new long[calendars.length];
+		calendarEndDays = new long[calendars.length];
+		long minDay = Long.MAX_VALUE;
+		long maxDay = Long.MIN_VALUE;
+		long maxEndDay = Long.MIN_VALUE;
+		for (int i = 0; i < calendars.length; ++i) {
+			calendarStartDays[i] = 
+					getEpochDay(calendars[i].getStartDate().getTime());
+			calendarEndDays[i] = 
+					getEpochDay(calendars[i].getEndDate().getTime());
+			minDay = Math.min(minDay, calendarStartDays[i]);
+			maxEndDay = Math.max(maxEndDay, calendarEndDays[i]);
+		}
+		maxCalendarEndDay = maxEndDay;
+		maxDay = maxEndDay;
 		
-		this.calendar = 
-				new GregorianCalendar();
-				
-		this.dbConfig = dbConfig;
+		calendarDatesByDay = new HashMap<Long, List<CalendarDate>>();
+		for (CalendarDate calendarDate : calendarDates) {
+			long day = getEpochDay(calendarDate.getTime());
+			List<CalendarDate> calendarDatesForDay = calendarDatesByDay.get(day);
+			if (calendarDatesForDay == null) {
+				calendarDatesForDay = new ArrayList<CalendarDate>(1);
+				calendarDatesByDay.put(day, calendarDatesForDay);
+			}
+			calendarDatesForDay.add(calendarDate);
+			minDay = Math.min(minDay, day);
+			maxDay = Math.max(maxDay, day);
+		}
+		
+		// Determine the range of days for the table
+		if (minDay > maxDay) {
+			// No calendar data
+			firstDayInTable = 0;
+			numDaysInTable = 0;
+		} else if (maxDay - minDay + 1 <= MAX_DAYS_IN_TABLE) {
+			firstDayInTable = minDay;
+			numDaysInTable = (int) (maxDay - minDay + 1);
+		} else {
+			long today = getEpochDay(System.currentTimeMillis());
+			firstDayInTable = 
+					Math.max(minDay, today - DAYS_BEFORE_TODAY_IN_TABLE);
+			numDaysInTable = (int) Math.max(0, 
+					Math.min(maxDay - firstDayInTable + 1, MAX_DAYS_IN_TABLE));
+		}
+		
+		// Fill in the table. Lists are shared for days that have the same
+		// services to keep the table compact.
+		serviceBitsByDay = new long[numDaysInTable * wordsPerDay];
+		serviceIdsByDay = new ArrayList<List<String>>(numDaysInTable);
+		serviceIdsWithPreviousDayByDay = 
+				new ArrayList<List<String>>(numDaysInTable);
+		Map<List<String>, List<String>> sharedLists = 
+				new HashMap<List<String>, List<String>>();
+		long[] previousDayBits = new long[wordsPerDay];
+		determineServiceBits(firstDayInTable - 1, previousDayBits, 0);
+		long[] combinedBits = new long[wordsPerDay];
+		for (int dayIndex = 0; dayIndex < numDaysInTable; ++dayIndex) {
+			int offset = dayIndex * wordsPerDay;
+			determineServiceBits(firstDayInTable + dayIndex, serviceBitsByDay,
+					offset);
+			serviceIdsByDay.add(getSharedList(sharedLists,
+					createServiceIdList(serviceBitsByDay, offset)));
+			
+			for (int word = 0; word < wordsPerDay; ++word) {
+				combinedBits[word] = 
+						serviceBitsByDay[offset + word] | previousDayBits[word];
+				previousDayBits[word] = serviceBitsByDay[offset + word];
+			}
+			serviceIdsWithPreviousDayByDay.add(getSharedList(sharedLists,
+					createServiceIdList(combinedBits, 0)));
+		}
+		
+		logger.info("Created service day table for {} service IDs and {} "
+				+ "days starting {} with {} distinct service combinations. "
+				+ "Took {} msec.", 
+				allServiceIds.size(), numDaysInTable, 
+				new Date(getStartOfEpochDay(firstDayInTable)), 
+				sharedLists.size(), timer.elapsedMsec());
 	}
 
 	/**
-	 * Returns day of the week. Value returned will be a constant from
-	 * jvaa.util.Calendar such as Calendar.TUESDAY.
+	 * Adds the service ID to the list of all service IDs if not already
+	 * there.
+	 * 
+	 * @param serviceId
+	 */
+	private void addServiceId(String serviceId) {
+		if (!serviceIdIndexMap.containsKey(serviceId)) {
+			serviceIdIndexMap.put(serviceId, allServiceIds.size());
+			allServiceIds.add(serviceId);
+		}
+	}
+	
+	/**
+	 * Returns the list from sharedLists that is equal to the list passed in
+	 * so that days with the same services can share the same list object.
+	 * 
+	 * @param sharedLists
+	 * @param list
+	 * @return the shared list
+	 */
+	private static List<String> getSharedList(
+			Map<List<String>, List<String>> sharedLists, List<String> list) {
+		List<String> sharedList = sharedLists.get(list);
+		if (sharedList == null) {
+			sharedList = list;
+			sharedLists.put(list, list);
+		}
+		return sharedList;
+	}
+	
+	/**
+	 * Returns the day since the epoch, in the agency timezone, for the epoch
+	 * time.
 	 * 
 	 * @param epochTime
+	 * @return the epoch day
+	 */
+	private long getEpochDay(long epochTime) {
+		long localTime = epochTime + timeZone.getOffset(epochTime);
+		long day = localTime / Time.DAY_IN_MSECS;
+		if (localTime < 0 && localTime % Time.DAY_IN_MSECS != 0)
+			--day;
+		return day;
+	}
+	
+	/**
+	 * Returns the epoch time of midnight, in the agency timezone, for the
+	 * epoch day.
+	 * 
+	 * @param epochDay
+	 * @return epoch time of start of day
+	 */
+	private long getStartOfEpochDay(long epochDay) {
+		long localTime = epochDay * Time.DAY_IN_MSECS;
+		return localTime - timeZone.getOffset(localTime);
+	}
+	
+	/**
+	 * Returns the day of the week for the epoch day. Value returned will be a
+	 * constant from java.util.Calendar such as Calendar.TUESDAY.
+	 * 
+	 * @param epochDay
 	 * @return Day of the week
 	 */
-	public int getDayOfWeek(Date epochTime) {
-		synchronized (calendar) {
-			calendar.setTime(epochTime);
-			return calendar.get(java.util.Calendar.DAY_OF_WEEK);			
+	private static int getDayOfWeekForEpochDay(long epochDay) {
+		// Jan 1st 1970 was a Thursday
+		int daysSinceSunday = (int) (((epochDay + 4) % 7 + 7) % 7);
+		return java.util.Calendar.SUNDAY + daysSinceSunday;
+	}
+	
+	/**
+	 * Returns true if the calendar has service on the day of the week.
+	 * 
+	 * @param calendar
+	 * @param dayOfWeek
+	 *            Constant from java.util.Calendar such as Calendar.TUESDAY
+	 * @return true if has service
+	 */
+	private static boolean hasServiceOnDayOfWeek(Calendar calendar,
+			int dayOfWeek) {
+		switch (dayOfWeek) {
+		case java.util.Calendar.MONDAY: return calendar.getMonday();
+		case java.util.Calendar.TUESDAY: return calendar.getTuesday();
+		case java.util.Calendar.WEDNESDAY: return calendar.getWednesday();
+		case java.util.Calendar.THURSDAY: return calendar.getThursday();
+		case java.util.Calendar.FRIDAY: return calendar.getFriday();
+		case java.util.Calendar.SATURDAY: return calendar.getSaturday();
+		case java.util.Calendar.SUNDAY: return calendar.getSunday();
+		default: return false;
 		}
 	}
 	
 	/**
-	 * Gets list of currently active calendars. If all Calendars have expired
-	 * then will still use the ones that end at the latest date. This way if
-	 * someone forgets to update the GTFS Calendars or if someone forgets to
-	 * process the latest GTFS data in time, the system will still run using the
-	 * old Calendars. This is very important because it is unfortunately
-	 * somewhat common for the Calendars to expire.
+	 * Determines which services are active for the day and sets the
+	 * corresponding bits.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * If none of the calendars are active for the day then most likely
+	 * someone forgot to update the dates or perhaps the latest GTFS data was
+	 * never processed. To handle this kind of situation the calendars with
+	 * the latest end date are used so that the system keeps running. This is
+	 * very important because it is unfortunately somewhat common for the
+	 * calendars to expire. The calendar dates for the day are then used to
+	 * add or remove services.
 	 * 
-	 * @param epochTime
-	 *            For determining which Calendars are currently active
-	 * @return List of active Calendars
+	 * @param epochDay
+	 * @param bits
+	 *            Where to set the bits. Bits should be cleared already.
+	 * @param offset
+	 *            Offset into bits array for the day
 	 */
-	private List<Calendar> getActiveCalendars(Date epochTime) {
-		List<Calendar> originalCalendarList = dbConfig.getCalendars();
-		List<Calendar> activeCalendarList = new ArrayList<Calendar>();
-		long maxEndTime = 0;
+	private void determineServiceBits(long epochDay, long[] bits, int offset) {
+		int dayOfWeek = getDayOfWeekForEpochDay(epochDay);
 		
-		// Go through calendar and find currently active ones
-		for (Calendar calendar : originalCalendarList) {
-			// If calendar is currently active then add it to list of active ones
-			if (epochTime.getTime() >= calendar.getStartDate().getTime()
-					&& epochTime.getTime() <= calendar.getEndDate().getTime()) {
-				activeCalendarList.add(calendar);
+		// Go through calendars and determine which ones match
+		boolean calendarActive = false;
+		for (int i = 0; i < calendars.length; ++i) {
+			if (epochDay >= calendarStartDays[i]
+					&& epochDay <= calendarEndDays[i]) {
+				calendarActive = true;
+				if (hasServiceOnDayOfWeek(calendars[i], dayOfWeek))
+					setBit(bits, offset, calendars[i].getServiceId(), true);
 			}
-			
-			// Update the maxEndTime in case all calendars have expired
-			maxEndTime = Math.max(calendar.getEndDate().getTime(), maxEndTime);
 		}
 		
-		// If there are no currently active calendars then there most
-		// likely someone forgot to update the dates or perhaps the
-		// latest GTFS data was never processed. To handle this kind
-		// of situation use the most recent Calendars if none are
-		// configured to be active.
-		if (activeCalendarList.size() == 0) {
-			// Use most recent calendar to keep system running
-			long earliestStartTime = Long.MAX_VALUE;
-			for (Calendar calendar : originalCalendarList) {
-				if (calendar.getEndDate().getTime() == maxEndTime) {
-					activeCalendarList.add(calendar);
-					
-					// Determine earliest start time for calendars so can 
-					// determine if should output error message.
-					if (calendar.getStartDate().getTime() < earliestStartTime)
-						earliestStartTime = calendar.getStartDate().getTime();
-				}
-			}
-			
-			// This is a rather serious issue so log it as an error if the start
-			// time is OK, which indicates that the end time was not. The reason
-			// a start time violation is not worth noting is because sometimes
-			// the system looks at service class for previous day so can handle
-			// assignments that span midnight. If the calendar just started
-			// today and looking at yesterday then that is not a notable 
-			// problem.
-			boolean startTimeAProblem = earliestStartTime > epochTime.getTime();
-			if (!startTimeAProblem) {
-				logger.error("All Calendars were expired. Update them!!!");
-				
-				// Output calendar list but only for debugging since it is 
-				// so verbose
-				logger.debug("So that the system will continue to run the " +
-					"old Calendars will be used: {}", activeCalendarList);
+		// If no calendars active then use the most recent ones
+		if (!calendarActive) {
+			for (int i = 0; i < calendars.length; ++i) {
+				if (calendarEndDays[i] == maxCalendarEndDay
+						&& hasServiceOnDayOfWeek(calendars[i], dayOfWeek))
+					setBit(bits, offset, calendars[i].getServiceId(), true);
 			}
 		}
 		
-		// Return the results
-		return activeCalendarList;
+		// Go through calendar_dates to see if there is special service for
+		// this date. Add or remove the special service.
+		List<CalendarDate> calendarDatesForDay = calendarDatesByDay.get(epochDay);
+		if (calendarDatesForDay != null) {
+			for (CalendarDate calendarDate : calendarDatesForDay) {
+				setBit(bits, offset, calendarDate.getServiceId(),
+						calendarDate.addService());
+			}
+		}
 	}
 	
-	Map<Date, List<String>> serviceIdsForDate = new HashMap<Date, List<String>>();
 	/**
-	 * Caching version fo getServiceIdsForDay.  Assumes epochTime can be distilled to
-	 * a serviceDate.  Note that boundary conditions may exist where serviceDate guess is wrong.
+	 * Sets or clears the bit for the service ID.
 	 * 
-	 * TODO as is this cache will grow without bounds, but the data should be small
+	 * @param bits
+	 * @param offset
+	 * @param serviceId
+	 * @param value
+	 */
+	private void setBit(long[] bits, int offset, String serviceId,
+			boolean value) {
+		int index = serviceIdIndexMap.get(serviceId);
+		int word = offset + (index >>> 6);
+		if (value)
+			bits[word] |= 1L << index;
+		else
+			bits[word] &= ~(1L << index);
+	}
+	
+	/**
+	 * Creates an unmodifiable list of the service IDs whose bits are set.
 	 * 
+	 * @param bits
+	 * @param offset
+	 * @return list of service IDs
 	 */
-	public List<String> getServiceIdsForDay(Date epochTime) {
-		Date serviceDate = getStartOfDay(epochTime);
-		if (serviceIdsForDate.containsKey(serviceDate)) {
-			return serviceIdsForDate.get(serviceDate);
+	private List<String> createServiceIdList(long[] bits, int offset) {
+		List<String> serviceIds = new ArrayList<String>();
+		for (int index = 0; index < allServiceIds.size(); ++index) {
+			if ((bits[offset + (index >>> 6)] & (1L << index)) != 0)
+				serviceIds.add(allServiceIds.get(index));
 		}
-		List<String> serviceIds = getServiceIdsForDayNoCache(serviceDate);
-		serviceIdsForDate.put(serviceDate, serviceIds);
-		return serviceIds;
+		return Collections.unmodifiableList(serviceIds);
 	}
 	
-	private Date getStartOfDay(Date epochTime) {
-		java.util.Calendar c = java.util.Calendar.getInstance();
-		c.set(java.util.Calendar.HOUR, 0);
-		c.set(java.util.Calendar.MINUTE, 0);
-		c.set(java.util.Calendar.SECOND, 0);
-		c.set(java.util.Calendar.MILLISECOND, 0);
-		return c.getTime();
+	/**
+	 * Returns the index into the table for the day, or -1 if the day is not
+	 * in the table.
+	 * 
+	 * @param epochDay
+	 * @return index into table or -1
+	 */
+	private int getDayIndex(long epochDay) {
+		long dayIndex = epochDay - firstDayInTable;
+		if (dayIndex < 0 || dayIndex >= numDaysInTable)
+			return -1;
+		return (int) dayIndex;
 	}
-
+	
+	/**
+	 * For days not in the table. Determines the service IDs on the fly.
+	 * 
+	 * @param epochDay
+	 * @param includePreviousDay
+	 * @return unmodifiable list of service IDs
+	 */
+	private List<String> determineServiceIds(long epochDay,
+			boolean includePreviousDay) {
+		if (epochDay > maxCalendarEndDay && epochDay != expiredDayLogged) {
+			expiredDayLogged = epochDay;
+			logger.error("All Calendars were expired. Update them!!!");
+		}
+		
+		long[] bits = new long[wordsPerDay];
+		determineServiceBits(epochDay, bits, 0);
+		if (includePreviousDay) {
+			// Previous day needs its own bits since a calendar_date that
+			// removes a service for the previous day must not clear the
+			// bit for the current day.
+			long[] previousDayBits = new long[wordsPerDay];
+			determineServiceBits(epochDay - 1, previousDayBits, 0);
+			for (int word = 0; word < wordsPerDay; ++word)
+				bits[word] |= previousDayBits[word];
+		}
+		return createServiceIdList(bits, 0);
+	}
+	
+	/**
+	 * Returns day of the week. Value returned will be a constant from
+	 * java.util.Calendar such as Calendar.TUESDAY.
+	 * 
+	 * @param epochTime
+	 * @return Day of the week
+	 */
+	public int getDayOfWeek(Date epochTime) {
+		return getDayOfWeekForEpochDay(getEpochDay(epochTime.getTime()));
+	}
+	
 	/**
 	 * Determines list of current service IDs for the specified time. These
 	 * service IDs designate which block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the service day table so is very quick.
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
-	 * @return List of service IDs that are active for the specified time.
+	 * @return Unmodifiable list of service IDs that are active for the
+	 *         specified time.
 	 */
-	public List<String> getServiceIdsForDayNoCache(Date epochTime) {
-		List<String> serviceIds = new ArrayList<String>();
-		
-		// Make sure haven't accidentally let all calendars expire
-		List<Calendar> activeCalendars = getActiveCalendars(epochTime);
-		
-		// Go through calendars and determine which ones match. For those that
-		// match, add them to the list of service IDs.
-		int dateOfWeek = getDayOfWeek(epochTime);
-		for (Calendar calendar : activeCalendars) {			
-			// If calendar for the current day of the week then add the serviceId
-			if ((dateOfWeek == java.util.Calendar.MONDAY && calendar.getMonday())   ||
-				(dateOfWeek == java.util.Calendar.TUESDAY && calendar.getTuesday()) ||
-				(dateOfWeek == java.util.Calendar.WEDNESDAY && calendar.getWednesday()) ||
-				(dateOfWeek == java.util.Calendar.THURSDAY && calendar.getThursday()) ||
-				(dateOfWeek == java.util.Calendar.FRIDAY && calendar.getFriday()) ||
-				(dateOfWeek == java.util.Calendar.SATURDAY && calendar.getSaturday()) ||
-				(dateOfWeek == java.util.Calendar.SUNDAY && calendar.getSunday())) {
-				serviceIds.add(calendar.getServiceId());				
-			}	
-		}
-		logger.debug("For {} services from calendar.txt that are active are {}", 
-				epochTime, serviceIds);
-		
-		// Go through calendar_dates to see if there is special service for 
-		// this date. Add or remove the special service.
-		List<CalendarDate> calendarDatesForNow = dbConfig.getCalendarDatesForNow();
-		logger.info("Start adding calendar dates");
-		if (calendarDatesForNow != null) {
-			for (CalendarDate calendarDate : calendarDatesForNow) {
-				// Handle special service for this date
-				if (calendarDate.addService()) {
-					// Add the service for this date
-					serviceIds.add(calendarDate.getServiceId());
-				} else {
-					// Remove the service for this date
-					serviceIds.remove(calendarDate.getServiceId());
-				}
-	
-				/*logger.debug("{} is special service date in "
-						+ "calendar_dates.txt file. Services now are {}",
-						epochTime, serviceIds);*/
-			}
-		}
-		logger.info("Finished adding calendar dates");
-		// Return the results
-		return serviceIds;
+	public List<String> getServiceIdsForDay(Date epochTime) {
+		return getServiceIdsForDay(epochTime.getTime());
 	}
 
 	/**
 	 * Determines list of current service IDs for the specified time. These
 	 * service IDs designate which block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the service day table so is very quick.
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
-	 * @return List of service IDs that are active for the specified time.
+	 * @return Unmodifiable list of service IDs that are active for the
+	 *         specified time.
 	 */
 	public List<String> getServiceIdsForDay(long epochTime) {
-		return getServiceIdsForDay(new Date(epochTime));
+		long epochDay = getEpochDay(epochTime);
+		int dayIndex = getDayIndex(epochDay);
+		if (dayIndex >= 0)
+			return serviceIdsByDay.get(dayIndex);
+		else
+			return determineServiceIds(epochDay, false);
+	}
+	
+	/**
+	 * Returns true if the service is active for the day of the specified
+	 * time. Only needs to check a single bit in the service day table so is
+	 * quicker than looking through the list of service IDs for the day.
+	 * 
+	 * @param serviceId
+	 * @param epochTime
+	 * @return true if service active
+	 */
+	public boolean isServiceActiveForDay(String serviceId, long epochTime) {
+		Integer index = serviceIdIndexMap.get(serviceId);
+		if (index == null)
+			return false;
+		
+		long epochDay = getEpochDay(epochTime);
+		int dayIndex = getDayIndex(epochDay);
+		if (dayIndex < 0)
+			return determineServiceIds(epochDay, false).contains(serviceId);
+		
+		return (serviceBitsByDay[dayIndex * wordsPerDay + (index >>> 6)] 
+				& (1L << index)) != 0;
 	}
 	
 	/**
@@ -274,8 +526,7 @@ public class ServiceUtils {
 	 * day. Important for late night service. These service IDs designate which
 	 * block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the service day table so is very quick.
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
@@ -284,18 +535,7 @@ public class ServiceUtils {
 	 *         in the morning.
 	 */
 	public Collection<String> getServiceIds(Date epochTime) {
-		List<String> serviceIdsForDay = getServiceIdsForDay(epochTime);
-		Time time = Core.getInstance().getTime();
-		if (time.getSecondsIntoDay(epochTime) > minutesIntoMorningToIncludePreviousServiceIds
-				.getValue() * Time.MIN_IN_SECS)
-			return serviceIdsForDay;
-
-		List<String> serviceIdsForPreviousDay =
-				getServiceIdsForDay(epochTime.getTime() - 1 * Time.DAY_IN_MSECS);
-
-		Set<String> set = new HashSet<String>(serviceIdsForDay);
-		set.addAll(serviceIdsForPreviousDay);
-		return set;
+		return getServiceIds(epochTime.getTime());
 	}
 	
 	/**
@@ -306,8 +546,7 @@ public class ServiceUtils {
 	 * day. Important for late night service. These service IDs designate which
 	 * block assignments are currently active.
 	 * <p>
-	 * Uses already read in calendars, but does a good number of calculations so
-	 * still a bit expensive.
+	 * Uses the service day table so is very quick.
 	 * 
 	 * @param epochTime
 	 *            The current time that determining service IDs for
@@ -316,7 +555,19 @@ public class ServiceUtils {
 	 *         in the morning.
 	 */
 	public Collection<String> getServiceIds(long epochTime) {
-		return getServiceIds(new Date(epochTime));
+		long epochDay = getEpochDay(epochTime);
+		long msecIntoDay = epochTime - getStartOfEpochDay(epochDay);
+		boolean includePreviousDay = msecIntoDay <= 
+				minutesIntoMorningToIncludePreviousServiceIds.getValue()
+				* Time.MS_PER_MIN;
+		
+		int dayIndex = getDayIndex(epochDay);
+		if (dayIndex < 0)
+			return determineServiceIds(epochDay, includePreviousDay);
+		
+		return includePreviousDay ? 
+				serviceIdsWithPreviousDayByDay.get(dayIndex) : 
+				serviceIdsByDay.get(dayIndex);
 	}
 	
 	/**
@@ -329,14 +580,11 @@ public class ServiceUtils {
 		// Result to be returned
 		List<Calendar> currentCalendars = new ArrayList<Calendar>();
 
-		// Get list of all calendars that are configured
-		List<Calendar> allCalendars = dbConfig.getCalendars();
-		
 		// For each service ID that is currently active...
 		Collection<String> currentServiceIds = getServiceIds(epochTime);
 		for (String serviceId : currentServiceIds) {
 			// Find corresponding calendar
-			for (Calendar calendar : allCalendars) {
+			for (Calendar calendar : calendars) {
 				if (calendar.getServiceId().equals(serviceId)) {
 					// Found the calendar that corresponds to the service ID 
 					// so add it to the list
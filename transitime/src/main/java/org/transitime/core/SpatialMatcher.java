@@ -24,6 +24,7 @@ import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
 import org.transitime.configData.AvlConfig;
 import org.transitime.configData.CoreConfig;
 import org.transitime.db.structs.AvlReport;
@@ -34,6 +35,8 @@ import org.transitime.db.structs.Route;
 import org.transitime.db.structs.StopPath;
 import org.transitime.db.structs.Trip;
 import org.transitime.db.structs.VectorWithHeading;
+import org.transitime.monitoring.metrics.LatencyTimer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.Geo;
 import org.transitime.utils.Time;
 
@@ -66,6 +69,14 @@ public class SpatialMatcher {
 	private static final Logger logger = 
 			LoggerFactory.getLogger(SpatialMatcher.class);
 
+	// For matching a vehicle that is already predictable, which is done for
+	// every AVL report, and for matching to a whole block, which is done
+	// when a vehicle is being assigned
+	private static final LatencyTimer spatialMatchingTimer =
+			MetricsRegistry.getInstance().getTimer("SpatialMatching");
+	private static final LatencyTimer blockSpatialMatchingTimer =
+			MetricsRegistry.getInstance().getTimer("SpatialMatchingForBlock");
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -274,6 +285,27 @@ public class SpatialMatcher {
 	public static List<SpatialMatch> getSpatialMatches(
 			AvlReport avlReport,
 			Block block, List<Trip> tripsToInvestigate) {
+		long start = System.nanoTime();
+		try {
+			return determineSpatialMatches(avlReport, block,
+					tripsToInvestigate);
+		} finally {
+			blockSpatialMatchingTimer.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work for getSpatialMatches(AvlReport, Block, List<Trip>).
+	 * Separate method so that the processing time can be easily recorded.
+	 * 
+	 * @param avlReport
+	 * @param block
+	 * @param tripsToInvestigate
+	 * @return non-null possibly empty list of spatial matches
+	 */
+	private static List<SpatialMatch> determineSpatialMatches(
+			AvlReport avlReport,
+			Block block, List<Trip> tripsToInvestigate) {
 		List<SpatialMatch> spatialMatchesForAllTrips = 
 				new ArrayList<SpatialMatch>();
 
@@ -373,6 +405,11 @@ public class SpatialMatcher {
 	 * block assignment. Matches must be within
 	 * getMaxAllowableDistanceFromSegment() except layovers are always included
 	 * since vehicle are allowed to be away from the route path during layovers.
+	 * <p>
+	 * Since layovers are ignored only trips whose trip pattern has a segment
+	 * within the allowable distance can have a match. Therefore if the stop
+	 * path spatial index is available it is used to quickly skip the trips
+	 * that are not near the AVL report.
 	 * 
 	 * @param avlReport
 	 *            The AVL report to match to the block
@@ -388,6 +425,55 @@ public class SpatialMatcher {
 	public static List<SpatialMatch> getSpatialMatchesIgnoringLayovers(
 			AvlReport avlReport, Block block,
 			List<Trip> tripsToInvestigate) {
+		return getSpatialMatchesIgnoringLayovers(avlReport, block,
+				tripsToInvestigate, getNearbyTripPatternIds(avlReport));
+	}
+
+	/**
+	 * Returns the IDs of the trip patterns that have a segment within the
+	 * allowable distance of the AVL report, as determined by the stop path
+	 * spatial index. When investigating many blocks for the same AVL report
+	 * this should be called just once and the result passed to
+	 * getSpatialMatchesIgnoringLayovers() for each block.
+	 * 
+	 * @param avlReport
+	 * @return set of trip pattern IDs, or null if the spatial index is not
+	 *         available
+	 */
+	public static Set<String> getNearbyTripPatternIds(AvlReport avlReport) {
+		StopPathSpatialIndex spatialIndex = 
+				Core.getInstance().getDbConfig().getStopPathSpatialIndex();
+		if (spatialIndex == null)
+			return null;
+		return spatialIndex.getTripPatternIdsNear(avlReport.getLocation());
+	}
+
+	/**
+	 * Same as getSpatialMatchesIgnoringLayovers(AvlReport, Block,
+	 * List<Trip>) but uses the already determined trip patterns that are
+	 * near the AVL report instead of querying the spatial index again.
+	 * 
+	 * @param avlReport
+	 *            The AVL report to match to the block
+	 * @param block
+	 *            The block to investigate
+	 * @param tripsToInvestigate
+	 *            List of trips that should bother investigating
+	 * @param nearbyTripPatternIds
+	 *            As returned by getNearbyTripPatternIds(). If null then all
+	 *            of tripsToInvestigate are investigated.
+	 * @return non-null possibly empty list of spatial matches
+	 */
+	public static List<SpatialMatch> getSpatialMatchesIgnoringLayovers(
+			AvlReport avlReport, Block block,
+			List<Trip> tripsToInvestigate, Set<String> nearbyTripPatternIds) {
+		// If have spatial index then only need to investigate trips that
+		// are actually near the AVL report
+		if (nearbyTripPatternIds != null && tripsToInvestigate != null) {
+			tripsToInvestigate = StopPathSpatialIndex.getTripsNear(
+					tripsToInvestigate, nearbyTripPatternIds);
+		}
+		
 		// Get all the spatial matches
 		List<SpatialMatch> allSpatialMatches = 
 				getSpatialMatches(avlReport, block, tripsToInvestigate);
@@ -694,6 +780,23 @@ public class SpatialMatcher {
 	 */
 	public static List<SpatialMatch>
 			getSpatialMatches(VehicleState vehicleState) {
+		long start = System.nanoTime();
+		try {
+			return determineSpatialMatches(vehicleState);
+		} finally {
+			spatialMatchingTimer.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work for getSpatialMatches(VehicleState). Separate method so
+	 * that the processing time can be easily recorded.
+	 * 
+	 * @param vehicleState
+	 * @return list of possible spatial matches
+	 */
+	private static List<SpatialMatch>
+			determineSpatialMatches(VehicleState vehicleState) {
 		// Some convenience variables
 		TemporalMatch previousMatch = vehicleState.getMatch();
 		SpatialMatcher spatialMatcher = new SpatialMatcher();
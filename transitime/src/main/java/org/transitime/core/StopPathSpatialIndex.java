@@ -0,0 +1,202 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.configData.CoreConfig;
+import org.transitime.db.structs.Extent;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.Route;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+import org.transitime.db.structs.TripPattern;
+import org.transitime.db.structs.Vector;
+import org.transitime.utils.GeoGrid;
+import org.transitime.utils.IntervalTimer;
+
+/**
+ * A spatial index of all of the stop path segments of all trip patterns for a
+ * configuration revision. Used to quickly determine which trip patterns have a
+ * segment within the allowable distance of an AVL report. Spatial matching can
+ * then skip all of the other trip patterns instead of having to look at every
+ * segment of every trip pattern, which is especially important for the auto
+ * assigner since it tries to match to every available block.
+ * <p>
+ * Only useful for non-layover matches since a vehicle can match to a layover
+ * even when it is far away from the path.
+ * <p>
+ * Immutable once constructed so can be used by multiple threads.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopPathSpatialIndex {
+
+	// The grid containing all of the segments
+	private final GeoGrid<Segment> grid;
+
+	// The largest max allowable distance from segment of all the routes.
+	// Used as the search distance when querying the grid.
+	private final double maxAllowableDistance;
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(StopPathSpatialIndex.class);
+
+	/**
+	 * A segment of a stop path along with the info needed to determine if an
+	 * AVL report is close enough to it to be a match.
+	 */
+	private static class Segment {
+		private final String tripPatternId;
+		private final Vector vector;
+		private final double maxAllowableDistance;
+
+		private Segment(String tripPatternId, Vector vector,
+				double maxAllowableDistance) {
+			this.tripPatternId = tripPatternId;
+			this.vector = vector;
+			this.maxAllowableDistance = maxAllowableDistance;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the spatial index for all of the trip patterns. Accesses the
+	 * stop paths of the trip patterns so if they are lazy loaded then the
+	 * caller needs to be synchronized on Block.getLazyLoadingSyncObject().
+	 *
+	 * @param tripPatternsByRouteMap
+	 *            All of the trip patterns, keyed on route ID
+	 * @param routesByRouteIdMap
+	 *            So can determine max allowable distance for each route
+	 */
+	public StopPathSpatialIndex(
+			Map<String, List<TripPattern>> tripPatternsByRouteMap,
+			Map<String, Route> routesByRouteIdMap) {
+		IntervalTimer timer = new IntervalTimer();
+
+		// Determine the extent of all trip patterns so that can use a
+		// reasonable reference latitude for the grid
+		Extent extent = new Extent();
+		for (List<TripPattern> tripPatterns : tripPatternsByRouteMap.values()) {
+			for (TripPattern tripPattern : tripPatterns)
+				extent.add(tripPattern.getExtent());
+		}
+		double referenceLat = extent.getMinLat() <= extent.getMaxLat() ?
+				(extent.getMinLat() + extent.getMaxLat()) / 2 : 0.0;
+		grid = new GeoGrid<Segment>(referenceLat,
+				CoreConfig.getStopPathSpatialIndexCellSize());
+
+		// Add all of the segments to the grid
+		double maxDistance = 0.0;
+		for (Map.Entry<String, List<TripPattern>> entry :
+				tripPatternsByRouteMap.entrySet()) {
+			double routeMaxDistance =
+					getMaxAllowableDistanceFromSegment(
+							routesByRouteIdMap.get(entry.getKey()));
+			maxDistance = Math.max(maxDistance, routeMaxDistance);
+
+			for (TripPattern tripPattern : entry.getValue()) {
+				for (StopPath stopPath : tripPattern.getStopPaths()) {
+					for (Vector vector : stopPath.getSegmentVectors()) {
+						grid.add(vector.getL1(), vector.getL2(), new Segment(
+								tripPattern.getId(), vector, routeMaxDistance));
+					}
+				}
+			}
+		}
+		maxAllowableDistance = maxDistance;
+
+		logger.info("Created spatial index of {} stop path segments using "
+				+ "{} grid cells. Took {} msec.", grid.size(),
+				grid.getNumCells(), timer.elapsedMsec());
+	}
+
+	/**
+	 * Returns the max distance that an AVL report can be from a segment of the
+	 * route. Uses the max distance for the route if it is set. Otherwise uses
+	 * the global CoreConfig.getMaxDistanceFromSegment().
+	 *
+	 * @param route
+	 *            The route. Can be null.
+	 * @return max allowable distance in meters
+	 */
+	private static double getMaxAllowableDistanceFromSegment(Route route) {
+		double maxDistance = route != null ?
+				route.getMaxAllowableDistanceFromSegment() : Double.NaN;
+		if (Double.isNaN(maxDistance))
+			maxDistance = CoreConfig.getMaxDistanceFromSegment();
+		return maxDistance;
+	}
+
+	/**
+	 * Returns IDs of trip patterns that have at least one segment that is
+	 * within the max allowable distance of the location. Trip patterns that
+	 * are not in the returned set cannot have a non-layover spatial match for
+	 * the location.
+	 *
+	 * @param loc
+	 * @return Set of trip pattern IDs. Can be empty but not null.
+	 */
+	public Set<String> getTripPatternIdsNear(Location loc) {
+		Set<String> tripPatternIds = new HashSet<String>();
+		for (Segment segment : grid.getCandidates(loc, maxAllowableDistance)) {
+			if (!tripPatternIds.contains(segment.tripPatternId)
+					&& segment.vector.distance(loc)
+						< segment.maxAllowableDistance)
+				tripPatternIds.add(segment.tripPatternId);
+		}
+		return tripPatternIds;
+	}
+
+	/**
+	 * Returns the trips whose trip pattern is in the set of nearby trip
+	 * pattern IDs passed in.
+	 *
+	 * @param trips
+	 * @param nearbyTripPatternIds
+	 *            As returned by getTripPatternIdsNear()
+	 * @return List of trips. Can be empty but not null.
+	 */
+	public static List<Trip> getTripsNear(Collection<Trip> trips,
+			Set<String> nearbyTripPatternIds) {
+		List<Trip> nearbyTrips = new ArrayList<Trip>(trips.size());
+		for (Trip trip : trips) {
+			if (nearbyTripPatternIds.contains(trip.getTripPattern().getId()))
+				nearbyTrips.add(trip);
+		}
+		return nearbyTrips;
+	}
+
+	/**
+	 * Returns number of segments in the index.
+	 *
+	 * @return number of segments
+	 */
+	public int size() {
+		return grid.size();
+	}
+}
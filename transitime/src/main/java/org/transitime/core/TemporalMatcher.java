@@ -26,6 +26,8 @@ import org.transitime.configData.CoreConfig;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.db.structs.Location;
 import org.transitime.db.structs.Trip;
+import org.transitime.monitoring.metrics.LatencyTimer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.Geo;
 import org.transitime.utils.Time;
 
@@ -44,6 +46,9 @@ public class TemporalMatcher {
 	private static final Logger logger = 
 			LoggerFactory.getLogger(TemporalMatcher.class);
 
+	private static final LatencyTimer temporalMatchingTimer =
+			MetricsRegistry.getInstance().getTimer("TemporalMatching");
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -349,6 +354,24 @@ public class TemporalMatcher {
 	 */
 	public TemporalMatch getBestTemporalMatch(VehicleState vehicleState,
 			List<SpatialMatch> spatialMatches) {
+		long start = System.nanoTime();
+		try {
+			return determineBestTemporalMatch(vehicleState, spatialMatches);
+		} finally {
+			temporalMatchingTimer.recordSince(start);
+		}
+	}
+
+	/**
+	 * Does the work for getBestTemporalMatch(). Separate method so that the
+	 * processing time can be easily recorded.
+	 * 
+	 * @param vehicleState
+	 * @param spatialMatches
+	 * @return The best temporal match, or null if none found
+	 */
+	private TemporalMatch determineBestTemporalMatch(
+			VehicleState vehicleState, List<SpatialMatch> spatialMatches) {
 		// Convenience variables		
 		SpatialMatch previousMatch = vehicleState.getMatch();
 		Date previousAvlTime =
@@ -16,6 +16,7 @@
  */
 package org.transitime.core;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -115,6 +116,21 @@ public class TimeoutHandlerModule extends Module {
 		}
 	}
 	
+	/**
+	 * Stores the specified AVL reports into map so know the last time received
+	 * AVL data for the vehicles. For when processing a batch of AVL reports
+	 * so that only need to synchronize on the map once per batch.
+	 * 
+	 * @param avlReports
+	 *            AVL reports to store, in time order
+	 */
+	public void storeAvlReports(Collection<AvlReport> avlReports) {
+		synchronized (avlReportsMap) {
+			for (AvlReport avlReport : avlReports)
+				avlReportsMap.put(avlReport.getVehicleId(), avlReport);
+		}
+	}
+	
 	/**
 	 * For regular predictable vehicle that is not a schedule based prediction
 	 * nor a vehicle at a wait stop. If haven't reported in too long makes the
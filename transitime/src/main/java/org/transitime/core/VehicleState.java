@@ -85,6 +85,14 @@ public class VehicleState {
 	// For keeping track if vehicle delayed
 	private boolean isDelayed = false;
 	
+	// For headways. The trip and stop path index of the last stop that an
+	// arrival was recorded for so that each stop is only recorded once.
+	private String headwayTripId = null;
+	private int headwayStopPathIndex = -1;
+	private long headwayMsec = -1;
+	private long predictedHeadwayMsec = -1;
+	private String precedingVehicleId = null;
+	
 	private static final Logger logger = 
 			LoggerFactory.getLogger(VehicleState.class);
 
@@ -932,4 +940,83 @@ public class VehicleState {
 	public boolean isDelayed() {
 		return isDelayed;
 	}
+	
+	/**
+	 * Records the last stop that an arrival was recorded for by the headway
+	 * generator.
+	 * 
+	 * @param tripId
+	 * @param stopPathIndex
+	 */
+	public void setHeadwayStop(String tripId, int stopPathIndex) {
+		this.headwayTripId = tripId;
+		this.headwayStopPathIndex = stopPathIndex;
+	}
+	
+	/**
+	 * Returns trip ID of the last stop that an arrival was recorded for by
+	 * the headway generator. Null if none.
+	 * 
+	 * @return
+	 */
+	public String getHeadwayTripId() {
+		return headwayTripId;
+	}
+	
+	/**
+	 * Returns stop path index of the last stop that an arrival was recorded
+	 * for by the headway generator.
+	 * 
+	 * @return
+	 */
+	public int getHeadwayStopPathIndex() {
+		return headwayStopPathIndex;
+	}
+	
+	/**
+	 * Sets the headway for the last stop the vehicle arrived at.
+	 * 
+	 * @param headwayMsec
+	 *            Msec since preceding vehicle arrived at the stop, or -1 if
+	 *            not known
+	 * @param precedingVehicleId
+	 *            The vehicle ahead, or null if not known
+	 */
+	public void setHeadway(long headwayMsec, String precedingVehicleId) {
+		this.headwayMsec = headwayMsec;
+		this.precedingVehicleId = precedingVehicleId;
+	}
+	
+	/**
+	 * Returns msec between when the preceding vehicle and this vehicle
+	 * arrived at the last stop. -1 if not known.
+	 * 
+	 * @return
+	 */
+	public long getHeadwayMsec() {
+		return headwayMsec;
+	}
+	
+	/**
+	 * Returns ID of the vehicle ahead of this one on the route. Null if not
+	 * known.
+	 * 
+	 * @return
+	 */
+	public String getPrecedingVehicleId() {
+		return precedingVehicleId;
+	}
+	
+	public void setPredictedHeadwayMsec(long predictedHeadwayMsec) {
+		this.predictedHeadwayMsec = predictedHeadwayMsec;
+	}
+	
+	/**
+	 * Returns the expected headway at the next stop, or -1 if not known.
+	 * 
+	 * @return
+	 */
+	public long getPredictedHeadwayMsec() {
+		return predictedHeadwayMsec;
+	}
 }
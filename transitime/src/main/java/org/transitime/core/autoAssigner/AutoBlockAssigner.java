@@ -20,8 +20,10 @@ package org.transitime.core.autoAssigner;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +77,14 @@ public class AutoBlockAssigner {
 	private Map<String, SpatialMatch> spatialMatchCache = 
 			new HashMap<String, SpatialMatch>();
 	
+	// IDs of the trip patterns that are near the AVL reports being matched,
+	// the current one and for no schedule blocks also the previous one, as
+	// determined by the stop path spatial index. Keyed on the AVL report so
+	// that the index is only queried once per AVL report instead of for
+	// every block investigated. Value is null if there is no spatial index.
+	private Map<AvlReport, Set<String>> nearbyTripPatternIdsMap =
+			new IdentityHashMap<AvlReport, Set<String>>();
+	
 	/****************************** Config params **********************/
 	
 	private static BooleanConfigValue autoAssignerEnabled =
@@ -228,7 +238,8 @@ public class AutoBlockAssigner {
 		List<Trip> potentialTrips = block.getTripsCurrentlyActive(avlReport);
 		List<SpatialMatch> spatialMatches = SpatialMatcher
 				.getSpatialMatchesIgnoringLayovers(avlReport,
-						block, potentialTrips);
+						block, potentialTrips,
+						getNearbyTripPatternIds(avlReport));
 		if (spatialMatches.isEmpty())
 			return null;
 
@@ -236,7 +247,8 @@ public class AutoBlockAssigner {
 		// that can make sure that it too matches the assignment.
 		List<SpatialMatch> prevSpatialMatches = SpatialMatcher
 				.getSpatialMatchesIgnoringLayovers(previousAvlReport,
-						block, potentialTrips);
+						block, potentialTrips,
+						getNearbyTripPatternIds(previousAvlReport));
 		if (prevSpatialMatches.isEmpty())
 			return null;
 		
@@ -293,6 +305,24 @@ public class AutoBlockAssigner {
 		}
 	}
 	
+	/**
+	 * Returns the IDs of the trip patterns that have a segment within the
+	 * allowable distance of the AVL report. Uses the stop path spatial index
+	 * and only determines the IDs once per AVL report since they are needed
+	 * for every block being investigated.
+	 * 
+	 * @param avlReport
+	 * @return set of trip pattern IDs, or null if spatial index not available
+	 */
+	private Set<String> getNearbyTripPatternIds(AvlReport avlReport) {
+		if (!nearbyTripPatternIdsMap.containsKey(avlReport)) {
+			nearbyTripPatternIdsMap.put(avlReport,
+					SpatialMatcher.getNearbyTripPatternIds(avlReport));
+		}
+		
+		return nearbyTripPatternIdsMap.get(avlReport);
+	}
+	
 	/**
 	 * Gets the spatial matches of the AVL report for the specified block. Only
 	 * looks at trips that are currently active in order to speed things up.
@@ -318,6 +348,11 @@ public class AutoBlockAssigner {
 		// looking at all trips
 		List<Trip> activeTrips = block.getTripsCurrentlyActive(avlReport);
 		
+		// Determine which trip patterns are near the AVL report so that
+		// trips that are far away can be ignored without looking at all of
+		// their stop paths
+		Set<String> nearbyTripPatternIds = getNearbyTripPatternIds(avlReport);
+		
 		// Determine trips that need to look at for spatial matches because 
 		// haven't looked at the associated trip pattern yet.
 		List<Trip> tripsNeedToInvestigate = new ArrayList<Trip>();
@@ -364,6 +399,16 @@ public class AutoBlockAssigner {
 							+ "is no spatial match.", 
 							vehicleId, trip.getId(), tripPatternId);
 				}
+			} else if (nearbyTripPatternIds != null
+					&& !nearbyTripPatternIds.contains(tripPatternId)) {
+				// Trip pattern not near the AVL report so there can't be a
+				// spatial match. Remember that in the cache.
+				spatialMatchCache.put(tripPatternId, null);
+				
+				logger.debug("For vehicleId={} for tripId={} with "
+						+ "tripPatternId={} spatial index indicates trip "
+						+ "pattern is not near the AVL report so no spatial "
+						+ "match.", vehicleId, trip.getId(), tripPatternId);
 			} else {
 				// New trip pattern so need to investigate it to search for 
 				// potential spatial matches
@@ -382,7 +427,7 @@ public class AutoBlockAssigner {
 		// considered a spatial match
 		List<SpatialMatch> newSpatialMatches = SpatialMatcher
 				.getSpatialMatchesIgnoringLayovers(avlReport,
-						block, tripsNeedToInvestigate);
+						block, tripsNeedToInvestigate, nearbyTripPatternIds);
 		
 		// Add newly discovered matches to the cache and to the list of spatial
 		// matches to be returned
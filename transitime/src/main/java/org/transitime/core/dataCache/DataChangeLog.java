@@ -0,0 +1,406 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.ipc.data.IpcDataChanges;
+import org.transitime.ipc.data.IpcDataChanges.RouteStopPredictions;
+import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.data.IpcVehicleComplete;
+import org.transitime.utils.Time;
+
+/**
+ * Keeps track of which vehicles and route/stops have changed in
+ * VehicleDataCache and PredictionDataCache so that subscribing clients, such
+ * as API servers that maintain a local replica, can be sent just the changes.
+ * <p>
+ * Every change gets the next sequence number and is written into a bounded
+ * ring buffer, the change log. The changes since a client's sequence number
+ * are the entries in the change log after it, and the current data for
+ * those keys is obtained from the caches. Because the data is read from the
+ * caches when the changes are requested, and the caches are updated before
+ * a change is recorded, a client always gets data at least as new as the
+ * sequence number it is given. If a client falls so far behind that its
+ * changes have been overwritten in the change log it is sent a full
+ * snapshot instead.
+ * <p>
+ * Recording a change is on the AVL processing path so it doesn't lock or
+ * create any objects. The monitor is only used to wake up clients waiting
+ * for changes, and only when there actually are waiting clients. Each slot
+ * of the change log is written seqlock style: its sequence number is first
+ * set to -1, then the keys are written, and then the sequence number is
+ * set. A reader therefore knows that the keys it read belong to the
+ * sequence number if it reads the same sequence number before and after.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class DataChangeLog {
+
+	// This is a singleton class
+	private static final DataChangeLog singleton = new DataChangeLog();
+
+	// Identifies this core process so that clients can tell when the core
+	// was restarted and the sequence numbers started over.
+	private final long coreInstanceId = System.currentTimeMillis();
+
+	// Sequence number of the latest change
+	private final AtomicLong sequence = new AtomicLong();
+
+	// The change log. For slot i, changeSequences[i] is the sequence number
+	// of the change in the slot. For a vehicle change changeKeys1[i] is the
+	// vehicle ID and changeKeys2[i] is null. For a predictions change they
+	// are the route short name and the stop ID.
+	private final int changeLogSize;
+	private final AtomicLongArray changeSequences;
+	private final AtomicReferenceArray<String> changeKeys1;
+	private final AtomicReferenceArray<String> changeKeys2;
+
+	// Number of clients waiting for changes so that only need to notify
+	// when someone is actually waiting
+	private final AtomicInteger numWaiters = new AtomicInteger();
+
+	// Clients shouldn't hold on to an RMI call for longer than this
+	private static final int MAX_WAIT_MSEC = Time.MS_PER_MIN;
+
+	/****************************** Config params **********************/
+
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue(
+					"transitime.subscription.enabled",
+					false,
+					"When true the core keeps track of changes to vehicles "
+					+ "and predictions so that clients such as API servers "
+					+ "can subscribe to them and maintain a local replica.");
+
+	private static IntegerConfigValue changeLogSizeConfig =
+			new IntegerConfigValue(
+					"transitime.subscription.changeLogSize",
+					100000,
+					"Number of the most recent changes kept for subscribing "
+					+ "clients. A client that falls further behind than "
+					+ "this gets a full snapshot instead of the changes.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(DataChangeLog.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private to enforce only access to this singleton
+	 * class being via getInstance()
+	 */
+	private DataChangeLog() {
+		this(changeLogSizeConfig.getValue());
+	}
+
+	/**
+	 * Constructor for when need to specify the size of the change log, such
+	 * as for testing.
+	 *
+	 * @param changeLogSize
+	 */
+	DataChangeLog(int changeLogSize) {
+		this.changeLogSize = changeLogSize;
+		this.changeSequences = new AtomicLongArray(changeLogSize);
+		this.changeKeys1 = new AtomicReferenceArray<String>(changeLogSize);
+		this.changeKeys2 = new AtomicReferenceArray<String>(changeLogSize);
+	}
+
+	/**
+	 * Returns the singleton DataChangeLog
+	 *
+	 * @return
+	 */
+	public static DataChangeLog getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns true if changes are being recorded so that clients can
+	 * subscribe to them.
+	 *
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled.getValue();
+	}
+
+	/**
+	 * Writes the change into the change log and wakes up any waiting
+	 * clients.
+	 *
+	 * @param key1
+	 * @param key2
+	 */
+	private void recordChange(String key1, String key2) {
+		long changeSequence = sequence.incrementAndGet();
+		int slot = (int) (changeSequence % changeLogSize);
+		changeSequences.set(slot, -1);
+		changeKeys1.set(slot, key1);
+		changeKeys2.set(slot, key2);
+		changeSequences.set(slot, changeSequence);
+
+		if (numWaiters.get() > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * To be called after the vehicle has been updated or removed in
+	 * VehicleDataCache.
+	 *
+	 * @param vehicleId
+	 */
+	void vehicleChanged(String vehicleId) {
+		if (!isEnabled())
+			return;
+
+		recordChange(vehicleId, null);
+	}
+
+	/**
+	 * To be called after the predictions for the route/stop have been
+	 * changed in PredictionDataCache.
+	 *
+	 * @param routeShortName
+	 * @param stopId
+	 */
+	void predictionsChanged(String routeShortName, String stopId) {
+		if (!isEnabled())
+			return;
+
+		recordChange(routeShortName, stopId);
+	}
+
+	/**
+	 * Reads the keys of the change with the specified sequence number from
+	 * the change log. If the change is still being written by another thread
+	 * then waits for it to be finished.
+	 *
+	 * @param changeSequence
+	 * @param keys
+	 *            Array of length 2 that the keys are read into
+	 * @return false if the change has already been overwritten
+	 */
+	private boolean readChange(long changeSequence, String[] keys) {
+		int slot = (int) (changeSequence % changeLogSize);
+		while (true) {
+			long before = changeSequences.get(slot);
+			if (before > changeSequence)
+				return false;
+			if (before == changeSequence) {
+				keys[0] = changeKeys1.get(slot);
+				keys[1] = changeKeys2.get(slot);
+				if (changeSequences.get(slot) == changeSequence)
+					return true;
+			} else {
+				// Writer has incremented the sequence but not yet written
+				// the change
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Determines which vehicles and route/stops changed after
+	 * sinceSequence, up to and including currentSequence.
+	 *
+	 * @param sinceSequence
+	 * @param currentSequence
+	 * @param vehicleIds
+	 *            Set that the changed vehicle IDs are added to
+	 * @param routeStops
+	 *            Set that the changed route short name and stop ID pairs
+	 *            are added to
+	 * @return false if changes have already been overwritten in the change
+	 *         log so a snapshot is needed
+	 */
+	boolean getChangedKeys(long sinceSequence, long currentSequence,
+			Set<String> vehicleIds, Set<List<String>> routeStops) {
+		if (currentSequence - sinceSequence > changeLogSize)
+			return false;
+
+		String[] keys = new String[2];
+		for (long changeSequence = sinceSequence + 1;
+				changeSequence <= currentSequence; ++changeSequence) {
+			if (!readChange(changeSequence, keys))
+				return false;
+			if (keys[1] == null)
+				vehicleIds.add(keys[0]);
+			else
+				routeStops.add(Arrays.asList(keys[0], keys[1]));
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the sequence number of the latest change.
+	 *
+	 * @return
+	 */
+	long getSequence() {
+		return sequence.get();
+	}
+
+	/**
+	 * Waits until there are changes after sinceSequence or until the wait
+	 * time has elapsed.
+	 *
+	 * @param sinceSequence
+	 * @param maxWaitMsec
+	 * @return the latest sequence number
+	 * @throws InterruptedException
+	 */
+	long waitForChanges(long sinceSequence, int maxWaitMsec)
+			throws InterruptedException {
+		long waitUntil = System.currentTimeMillis()
+				+ Math.min(maxWaitMsec, MAX_WAIT_MSEC);
+		synchronized (this) {
+			// Increment numWaiters before checking the sequence so that a
+			// change recorded after the check is sure to notify
+			numWaiters.incrementAndGet();
+			try {
+				long waitMsec;
+				while (sequence.get() <= sinceSequence
+						&& (waitMsec = waitUntil - System.currentTimeMillis()) > 0)
+					wait(waitMsec);
+			} finally {
+				numWaiters.decrementAndGet();
+			}
+		}
+		return sequence.get();
+	}
+
+	/**
+	 * Returns the changes since sinceSequence. If there are none yet then
+	 * waits up to maxWaitMsec for changes. If coreInstanceId is not for this
+	 * core process, or if the client fell so far behind that its changes are
+	 * no longer in the change log, then a full snapshot is returned instead.
+	 *
+	 * @param coreInstanceId
+	 *            From the client's previous IpcDataChanges, or 0
+	 * @param sinceSequence
+	 *            From the client's previous IpcDataChanges, or 0
+	 * @param maxWaitMsec
+	 *            How long to wait for changes
+	 * @return The changes
+	 * @throws InterruptedException
+	 */
+	public IpcDataChanges getChanges(long coreInstanceId, long sinceSequence,
+			int maxWaitMsec) throws InterruptedException {
+		// If client doesn't yet have data from this core process then
+		// it needs a full snapshot
+		long currentSequence = sequence.get();
+		if (coreInstanceId != this.coreInstanceId
+				|| sinceSequence > currentSequence
+				|| currentSequence - sinceSequence > changeLogSize) {
+			return getSnapshot(currentSequence);
+		}
+
+		// Wait until there are changes
+		currentSequence = waitForChanges(sinceSequence, maxWaitMsec);
+
+		// Determine what changed. If client fell behind while waiting then
+		// it needs a snapshot.
+		Set<String> vehicleIds = new LinkedHashSet<String>();
+		Set<List<String>> routeStops = new LinkedHashSet<List<String>>();
+		if (!getChangedKeys(sinceSequence, currentSequence, vehicleIds,
+				routeStops)) {
+			logger.warn("Subscriber fell behind by more than {} changes so "
+					+ "providing a full snapshot.", changeLogSize);
+			return getSnapshot(sequence.get());
+		}
+
+		// Get the current data for the vehicles that changed
+		VehicleDataCache vehicleDataCache = VehicleDataCache.getInstance();
+		List<IpcVehicleComplete> vehicles = new ArrayList<IpcVehicleComplete>();
+		List<String> removedVehicleIds = new ArrayList<String>();
+		for (String vehicleId : vehicleIds) {
+			IpcVehicleComplete vehicle = vehicleDataCache.getVehicle(vehicleId);
+			if (vehicle != null)
+				vehicles.add(vehicle);
+			else
+				removedVehicleIds.add(vehicleId);
+		}
+
+		// Get the current data for the route/stops that changed
+		PredictionDataCache predictionDataCache =
+				PredictionDataCache.getInstance();
+		List<RouteStopPredictions> predictions =
+				new ArrayList<RouteStopPredictions>();
+		for (List<String> routeStop : routeStops) {
+			String routeShortName = routeStop.get(0);
+			String stopId = routeStop.get(1);
+			predictions.add(new RouteStopPredictions(routeShortName, stopId,
+					predictionDataCache.getPredictionsForRouteStop(
+							routeShortName, stopId)));
+		}
+
+		return new IpcDataChanges(this.coreInstanceId, currentSequence,
+				false, vehicles, removedVehicleIds, predictions);
+	}
+
+	/**
+	 * Returns all of the vehicles and predictions.
+	 *
+	 * @param currentSequence
+	 *            Sequence number that all changes have been recorded up to
+	 * @return the full snapshot
+	 */
+	private IpcDataChanges getSnapshot(long currentSequence) {
+		// Schedule based vehicles are included since the client also needs
+		// them in order to provide the same data as VehicleDataCache
+		Collection<IpcVehicleComplete> vehicles = VehicleDataCache
+				.getInstance().getVehiclesIncludingSchedBasedOnes();
+
+		List<RouteStopPredictions> predictions =
+				new ArrayList<RouteStopPredictions>();
+		for (List<IpcPredictionsForRouteStopDest> predsForRouteStop :
+				PredictionDataCache.getInstance().getAllPredictionsByRouteStop()) {
+			if (predsForRouteStop.isEmpty())
+				continue;
+			IpcPredictionsForRouteStopDest first = predsForRouteStop.get(0);
+			predictions.add(new RouteStopPredictions(first
+					.getRouteShortName(), first.getStopId(), predsForRouteStop));
+		}
+
+		logger.info("Providing full snapshot of {} vehicles and {} "
+				+ "route/stops to subscriber. sequence={}", vehicles.size(),
+				predictions.size(), currentSequence);
+
+		return new IpcDataChanges(coreInstanceId, currentSequence, true,
+				new ArrayList<IpcVehicleComplete>(vehicles),
+				new ArrayList<String>(), predictions);
+	}
+}
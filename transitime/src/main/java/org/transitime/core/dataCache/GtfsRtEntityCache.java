@@ -0,0 +1,312 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+/**
+ * Holds the already created GTFS-realtime FeedEntity objects for a feed, such
+ * as the TripUpdates or the VehiclePositions feed, so that the feed can be
+ * provided without having to convert all of the data for every request. Each
+ * change to an entity is given an increasing version number.
+ * <p>
+ * The full dataset is provided as a pre-serialized byte array that is only
+ * recreated when the data has changed, and no more frequently than
+ * snapshotMinIntervalMsec. A client that already has a version can instead
+ * request a DIFFERENTIAL feed that only contains the entities that changed
+ * since then, including deleted entities.
+ *
+ * @author SkiBu Smith
+ *
+ */
+class GtfsRtEntityCache {
+
+	// For logging
+	private final String name;
+
+	// The current entities, keyed on entity ID
+	private final ConcurrentHashMap<String, EntityEntry> entitiesMap =
+			new ConcurrentHashMap<String, EntityEntry>();
+
+	// Entities that have been removed, so that differential feeds can
+	// indicate that the entity was deleted. Keyed on entity ID.
+	private final ConcurrentHashMap<String, DeletedEntity> deletedEntitiesMap =
+			new ConcurrentHashMap<String, DeletedEntity>();
+
+	// Version of the data. Incremented each time an entity is changed. Only
+	// modified while synchronized on versionLock so that when version is read
+	// all of the changes up to that version have been stored.
+	private long version = 0;
+	private final Object versionLock = new Object();
+
+	// Deleted entities with a version up to this value have been purged so a
+	// differential feed cannot be created for versions older than this.
+	private volatile long purgedThroughVersion = 0;
+
+	// The most recent full dataset. Guarded by synchronizing on this.
+	private IpcGtfsRealtimeFeed fullDatasetFeed = null;
+
+	/****************************** Config params **********************/
+
+	private static IntegerConfigValue snapshotMinIntervalMsec =
+			new IntegerConfigValue(
+					"transitime.gtfsRt.snapshotMinIntervalMsec",
+					2 * Time.MS_PER_SEC,
+					"Minimum time between recreating the serialized full "
+					+ "dataset for a GTFS-realtime feed. Limits how much CPU "
+					+ "is used when there are many requests.");
+
+	private static IntegerConfigValue deletedEntitiesRetentionSecs =
+			new IntegerConfigValue(
+					"transitime.gtfsRt.deletedEntitiesRetentionSecs",
+					10 * Time.SEC_PER_MIN,
+					"How long deleted trips and vehicles are remembered so "
+					+ "that they can be included in DIFFERENTIAL "
+					+ "GTFS-realtime feeds. A client requesting differences "
+					+ "since a version older than this will instead get the "
+					+ "full dataset.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(GtfsRtEntityCache.class);
+
+	/**
+	 * An entity along with the version when it was last changed.
+	 */
+	private static class EntityEntry {
+		private final FeedEntity feedEntity;
+		private final long version;
+
+		private EntityEntry(FeedEntity feedEntity, long version) {
+			this.feedEntity = feedEntity;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * For remembering when an entity was deleted.
+	 */
+	private static class DeletedEntity {
+		private final long version;
+		private final long timeDeleted;
+
+		private DeletedEntity(long version, long timeDeleted) {
+			this.version = version;
+			this.timeDeleted = timeDeleted;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param name
+	 *            Name of the feed, for logging
+	 */
+	GtfsRtEntityCache(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Stores the entity, replacing any previous entity with the same ID, and
+	 * gives it a new version.
+	 *
+	 * @param entity
+	 */
+	void put(FeedEntity entity) {
+		synchronized (versionLock) {
+			entitiesMap.put(entity.getId(),
+					new EntityEntry(entity, ++version));
+			deletedEntitiesMap.remove(entity.getId());
+		}
+	}
+
+	/**
+	 * Returns the current entity for the ID
+	 *
+	 * @param entityId
+	 * @return the entity, or null if there isn't one
+	 */
+	FeedEntity get(String entityId) {
+		EntityEntry entry = entitiesMap.get(entityId);
+		return entry != null ? entry.feedEntity : null;
+	}
+
+	/**
+	 * Removes the entity with the specified ID, but only if it is still the
+	 * expected entity. This way an entity that was just replaced, such as
+	 * by another vehicle taking over a trip, is not removed.
+	 *
+	 * @param entityId
+	 * @param expectedEntity
+	 *            The entity to be removed, as returned by get(). If null then
+	 *            the entity is removed regardless.
+	 */
+	void remove(String entityId, FeedEntity expectedEntity) {
+		synchronized (versionLock) {
+			EntityEntry entry = entitiesMap.get(entityId);
+			if (entry == null
+					|| (expectedEntity != null
+						&& entry.feedEntity != expectedEntity))
+				return;
+
+			entitiesMap.remove(entityId);
+			deletedEntitiesMap.put(entityId,
+					new DeletedEntity(++version, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Returns the current version. Synchronized so that all changes up to the
+	 * returned version have been stored.
+	 *
+	 * @return the current version
+	 */
+	long getVersion() {
+		synchronized (versionLock) {
+			return version;
+		}
+	}
+
+	/**
+	 * Removes deleted entities that are older than
+	 * deletedEntitiesRetentionSecs so that the map doesn't grow indefinitely.
+	 */
+	private void purgeOldDeletedEntities() {
+		long purgeTime = System.currentTimeMillis()
+				- deletedEntitiesRetentionSecs.getValue() * Time.MS_PER_SEC;
+		long maxPurgedVersion = purgedThroughVersion;
+		Iterator<DeletedEntity> iterator =
+				deletedEntitiesMap.values().iterator();
+		while (iterator.hasNext()) {
+			DeletedEntity deletedEntity = iterator.next();
+			if (deletedEntity.timeDeleted < purgeTime) {
+				maxPurgedVersion = Math.max(maxPurgedVersion,
+						deletedEntity.version);
+				iterator.remove();
+			}
+		}
+		purgedThroughVersion = maxPurgedVersion;
+	}
+
+	/**
+	 * Creates the header for a feed.
+	 *
+	 * @param incrementality
+	 * @return the header
+	 */
+	private static FeedHeader.Builder createHeader(
+			Incrementality incrementality) {
+		return FeedHeader.newBuilder()
+				.setGtfsRealtimeVersion("1.0")
+				.setIncrementality(incrementality)
+				.setTimestamp(System.currentTimeMillis() / Time.MS_PER_SEC);
+	}
+
+	/**
+	 * Returns the full dataset feed as a serialized FeedMessage. The feed is
+	 * only recreated if the data has changed and if it hasn't been recreated
+	 * within snapshotMinIntervalMsec.
+	 *
+	 * @return the full dataset feed
+	 */
+	synchronized IpcGtfsRealtimeFeed getFullDataset() {
+		long currentVersion = getVersion();
+		if (fullDatasetFeed != null
+				&& (fullDatasetFeed.getVersion() == currentVersion
+					|| System.currentTimeMillis() - fullDatasetFeed.getTimeCreated()
+						< snapshotMinIntervalMsec.getValue()))
+			return fullDatasetFeed;
+
+		IntervalTimer timer = new IntervalTimer();
+		purgeOldDeletedEntities();
+
+		FeedMessage.Builder message = FeedMessage.newBuilder()
+				.setHeader(createHeader(Incrementality.FULL_DATASET));
+		for (EntityEntry entry : entitiesMap.values()) {
+			message.addEntity(entry.feedEntity);
+		}
+		byte[] bytes = message.build().toByteArray();
+		fullDatasetFeed = new IpcGtfsRealtimeFeed(currentVersion, false,
+				System.currentTimeMillis(), bytes);
+
+		logger.debug("Creating full dataset GTFS-realtime {} feed with {} "
+				+ "entities and {} bytes for version={} took {} msec",
+				name, message.getEntityCount(), bytes.length, currentVersion,
+				timer.elapsedMsec());
+
+		return fullDatasetFeed;
+	}
+
+	/**
+	 * Returns a DIFFERENTIAL feed containing the entities that have changed or
+	 * been deleted since the specified version. If the version is too old to
+	 * determine the differences then the full dataset is returned instead.
+	 *
+	 * @param sinceVersion
+	 *            The version that the client already has
+	 * @return the differential feed, or the full dataset
+	 */
+	IpcGtfsRealtimeFeed getDifferential(long sinceVersion) {
+		long currentVersion = getVersion();
+		if (sinceVersion < purgedThroughVersion || sinceVersion > currentVersion)
+			return getFullDataset();
+
+		FeedMessage.Builder message = FeedMessage.newBuilder()
+				.setHeader(createHeader(Incrementality.DIFFERENTIAL));
+		for (EntityEntry entry : entitiesMap.values()) {
+			if (entry.version > sinceVersion)
+				message.addEntity(entry.feedEntity);
+		}
+		for (Map.Entry<String, DeletedEntity> entry :
+				deletedEntitiesMap.entrySet()) {
+			if (entry.getValue().version > sinceVersion)
+				message.addEntity(FeedEntity.newBuilder()
+						.setId(entry.getKey()).setIsDeleted(true));
+		}
+
+		return new IpcGtfsRealtimeFeed(currentVersion, true,
+				System.currentTimeMillis(), message.build().toByteArray());
+	}
+
+	/**
+	 * Returns the feed. If sinceVersion is negative then the full dataset is
+	 * returned. Otherwise a DIFFERENTIAL feed with the changes since that
+	 * version is returned if possible.
+	 *
+	 * @param sinceVersion
+	 * @return the feed
+	 */
+	IpcGtfsRealtimeFeed getFeed(long sinceVersion) {
+		if (sinceVersion < 0)
+			return getFullDataset();
+		else
+			return getDifferential(sinceVersion);
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.feed.gtfsRt.GtfsRtTripUpdateCreator;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.utils.Time;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+
+/**
+ * Maintains a GTFS-realtime TripUpdate FeedEntity for each trip that has
+ * predictions. The entity for a trip is only recreated when the predictions
+ * for the vehicle on the trip change, which means that creating the
+ * GTFS-realtime TripUpdates feed no longer requires converting all of the
+ * predictions for the system for every request. See GtfsRtEntityCache for how
+ * the full dataset and DIFFERENTIAL feeds are provided.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class GtfsRtTripUpdatesCache {
+
+	// This is a singleton class
+	private static final GtfsRtTripUpdatesCache singleton =
+			new GtfsRtTripUpdatesCache();
+
+	// The TripUpdate entities, keyed on trip ID
+	private final GtfsRtEntityCache entityCache =
+			new GtfsRtEntityCache("TripUpdates");
+
+	/****************************** Config params **********************/
+
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue(
+					"transitime.gtfsRt.tripUpdatesCacheEnabled",
+					true,
+					"When true the core maintains a GTFS-realtime TripUpdate "
+					+ "for each trip so that the TripUpdates feed can be "
+					+ "provided efficiently as pre-serialized bytes.");
+
+	private static IntegerConfigValue predictionMaxFutureSecs =
+			new IntegerConfigValue(
+					"transitime.gtfsRt.predictionMaxFutureSecs",
+					25 * Time.SEC_PER_MIN,
+					"How far into the future predictions are included in the "
+					+ "GTFS-realtime TripUpdates feed.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(GtfsRtTripUpdatesCache.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private to enforce only access to this singleton
+	 * class being via getInstance()
+	 */
+	private GtfsRtTripUpdatesCache() {
+	}
+
+	/**
+	 * Returns the singleton GtfsRtTripUpdatesCache
+	 *
+	 * @return
+	 */
+	public static GtfsRtTripUpdatesCache getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns true if the TripUpdates are being maintained by the core.
+	 *
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled.getValue();
+	}
+
+	/**
+	 * Returns a date formatter for the trip start date. Core sets the default
+	 * timezone to that of the agency so the default timezone is used.
+	 *
+	 * @return new date formatter
+	 */
+	private static DateFormat createDateFormatter() {
+		return new SimpleDateFormat("yyyyMMdd");
+	}
+
+	/**
+	 * Updates the TripUpdates for a vehicle. Creates new TripUpdates for the
+	 * trips that the vehicle has new predictions for and deletes the
+	 * TripUpdates for trips that the vehicle had predictions for but no
+	 * longer does. Should be called whenever the predictions for a vehicle
+	 * change.
+	 *
+	 * @param oldPredictionsForVehicle
+	 *            The previous predictions for the vehicle. Can be null.
+	 * @param newPredictionsForVehicle
+	 *            The new predictions for the vehicle. Can be null.
+	 */
+	public void updatePredictions(List<IpcPrediction> oldPredictionsForVehicle,
+			List<IpcPrediction> newPredictionsForVehicle) {
+		if (!isEnabled())
+			return;
+
+		// Group new predictions by trip, only including ones that are not
+		// too far into the future
+		long maxPredictionTime = Core.getInstance().getSystemTime()
+				+ predictionMaxFutureSecs.getValue() * Time.MS_PER_SEC;
+		Map<String, List<IpcPrediction>> newPredsByTripMap =
+				new LinkedHashMap<String, List<IpcPrediction>>();
+		if (newPredictionsForVehicle != null) {
+			for (IpcPrediction pred : newPredictionsForVehicle) {
+				if (pred.getTripId() == null
+						|| pred.getPredictionTime() > maxPredictionTime)
+					continue;
+
+				List<IpcPrediction> predsForTrip =
+						newPredsByTripMap.get(pred.getTripId());
+				if (predsForTrip == null) {
+					predsForTrip = new ArrayList<IpcPrediction>();
+					newPredsByTripMap.put(pred.getTripId(), predsForTrip);
+				}
+				predsForTrip.add(pred);
+			}
+		}
+
+		// Create and store the new entities
+		DateFormat dateFormatter = createDateFormatter();
+		for (List<IpcPrediction> predsForTrip : newPredsByTripMap.values()) {
+			try {
+				entityCache.put(GtfsRtTripUpdateCreator.createFeedEntity(
+						predsForTrip, dateFormatter));
+			} catch (Exception e) {
+				logger.error("Error creating trip update. {}",
+						predsForTrip, e);
+			}
+		}
+
+		// Delete trips that the vehicle no longer has predictions for. But
+		// only if the trip update is still for this vehicle since another
+		// vehicle might have taken over the trip.
+		if (oldPredictionsForVehicle != null) {
+			for (IpcPrediction oldPred : oldPredictionsForVehicle) {
+				String tripId = oldPred.getTripId();
+				if (tripId == null || newPredsByTripMap.containsKey(tripId))
+					continue;
+
+				FeedEntity entity = entityCache.get(tripId);
+				if (entity != null
+						&& entity.getTripUpdate().getVehicle().getId()
+								.equals(oldPred.getVehicleId()))
+					entityCache.remove(tripId, entity);
+			}
+		}
+	}
+
+	/**
+	 * Returns the TripUpdates feed. If sinceVersion is negative then the full
+	 * dataset is returned. Otherwise a DIFFERENTIAL feed with the trips that
+	 * changed since that version is returned if possible.
+	 *
+	 * @param sinceVersion
+	 * @return the feed
+	 */
+	public IpcGtfsRealtimeFeed getFeed(long sinceVersion) {
+		return entityCache.getFeed(sinceVersion);
+	}
+}
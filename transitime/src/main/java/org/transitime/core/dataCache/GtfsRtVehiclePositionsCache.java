@@ -0,0 +1,144 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.feed.gtfsRt.GtfsRtVehiclePositionCreator;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
+import org.transitime.ipc.data.IpcVehicleComplete;
+
+/**
+ * Maintains a GTFS-realtime VehiclePosition FeedEntity for each vehicle. The
+ * entity for a vehicle is only recreated when VehicleDataCache is updated for
+ * the vehicle, so the cost of creating the VehiclePositions feed is
+ * proportional to the number of vehicles that changed instead of all vehicles
+ * having to be obtained and converted for every request. See
+ * GtfsRtEntityCache for how the full dataset and DIFFERENTIAL feeds are
+ * provided.
+ * <p>
+ * Schedule based vehicles are not included, just like for
+ * VehicleDataCache.getVehicles().
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class GtfsRtVehiclePositionsCache {
+
+	// This is a singleton class
+	private static final GtfsRtVehiclePositionsCache singleton =
+			new GtfsRtVehiclePositionsCache();
+
+	// The VehiclePosition entities, keyed on vehicle ID
+	private final GtfsRtEntityCache entityCache =
+			new GtfsRtEntityCache("VehiclePositions");
+
+	// For formatting the trip start date. SimpleDateFormat is not thread
+	// safe and vehicles are updated by multiple AVL threads, so each thread
+	// gets its own. Core sets the default timezone to that of the agency so
+	// the default timezone is used.
+	private static final ThreadLocal<DateFormat> dateFormatter =
+			new ThreadLocal<DateFormat>() {
+				@Override
+				protected DateFormat initialValue() {
+					return new SimpleDateFormat("yyyyMMdd");
+				}
+			};
+
+	/****************************** Config params **********************/
+
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue(
+					"transitime.gtfsRt.vehiclePositionsCacheEnabled",
+					true,
+					"When true the core maintains a GTFS-realtime "
+					+ "VehiclePosition for each vehicle so that the "
+					+ "VehiclePositions feed can be provided efficiently as "
+					+ "pre-serialized bytes.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(GtfsRtVehiclePositionsCache.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private to enforce only access to this singleton
+	 * class being via getInstance()
+	 */
+	private GtfsRtVehiclePositionsCache() {
+	}
+
+	/**
+	 * Returns the singleton GtfsRtVehiclePositionsCache
+	 *
+	 * @return
+	 */
+	public static GtfsRtVehiclePositionsCache getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns true if the VehiclePositions are being maintained by the core.
+	 *
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled.getValue();
+	}
+
+	/**
+	 * Updates the VehiclePosition for the vehicle. Should be called every time
+	 * the vehicle info in VehicleDataCache is updated.
+	 *
+	 * @param vehicle
+	 *            The new info for the vehicle
+	 */
+	public void updateVehicle(IpcVehicleComplete vehicle) {
+		if (!isEnabled())
+			return;
+
+		// Schedule based vehicles are not part of the feed
+		if (vehicle.isForSchedBasedPred()) {
+			entityCache.remove(vehicle.getId(), null);
+			return;
+		}
+
+		try {
+			entityCache.put(GtfsRtVehiclePositionCreator.createFeedEntity(
+					vehicle, dateFormatter.get()));
+		} catch (Exception e) {
+			logger.error("Error creating vehicle position for vehicle={}",
+					vehicle, e);
+		}
+	}
+
+	/**
+	 * Returns the VehiclePositions feed. If sinceVersion is negative then the
+	 * full dataset is returned. Otherwise a DIFFERENTIAL feed with the
+	 * vehicles that changed since that version is returned if possible.
+	 *
+	 * @param sinceVersion
+	 * @return the feed
+	 */
+	public IpcGtfsRealtimeFeed getFeed(long sinceVersion) {
+		return entityCache.getFeed(sinceVersion);
+	}
+}
@@ -18,6 +18,7 @@ package org.transitime.core.dataCache;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,13 +48,18 @@ import org.transitime.utils.Time;
  * old one has been removed but the new one has not yet been written, causing
  * a prediction to be missed.
  * <p>
- * For concurrency and thread safety using ConcurrentHashMap instead of 
- * HashMap. 
+ * For concurrency and thread safety a copy-on-write scheme is used. The
+ * predictions for a route/stop are stored as an unmodifiable list of
+ * immutable IpcPredictionsForRouteStopDest objects. When predictions are
+ * updated a new list with new IpcPredictionsForRouteStopDest objects is
+ * created and then atomically published using ConcurrentHashMap.replace().
+ * If another thread published a change for the route/stop in the meantime
+ * the update is simply redone.
  * <p> 
- * getPredictions() returns a copy of the list of predictions for the
- * route/stop. This way the contents will always be coherent and the 
- * caller does not need to synchronize, which would be difficult to
- * enforce.
+ * This means that readers never need to lock or clone. getPredictions()
+ * returns the immutable objects directly, only creating new ones if the
+ * predictions need to be limited. The contents will always be coherent and
+ * reads are not slowed down by bursts of writes from the AVL threads.
  * 
  * @author SkiBu Smith
  */
@@ -73,12 +79,12 @@ public class PredictionDataCache {
 	// vehicles actually going all the way where they want. Therefore
 	// for each route/stop have a List of PredictionsForRouteStop, one
 	// for each destination/trip head sign.
-	// Keyed by MapKey using routeId/stopId.
-	// ConcurrentHashMap is used so that can associate a route/stop with a 
-	// PredictionsForRouteStop in a threadsafe way. Will always use same 
-	// PredictionsForRouteStop for a route/stop and synchronize any changes and 
-	// access to it so if multiple threads are making changes on a route/stop 
-	// those changes will be coherent and information will not be lost.
+	// Keyed by MapKey using routeShortName/stopId.
+	// The lists are unmodifiable and the IpcPredictionsForRouteStopDest 
+	// objects are immutable. Changes are made by atomically replacing the
+	// list for the route/stop so that readers don't need to synchronize and
+	// so that if multiple threads are making changes on a route/stop those 
+	// changes will be coherent and information will not be lost.
 	private final ConcurrentHashMap<MapKey, List<IpcPredictionsForRouteStopDest>> 
 		predictionsMap =
 			new ConcurrentHashMap<MapKey, List<IpcPredictionsForRouteStopDest>>(1000);
@@ -109,12 +115,12 @@ public class PredictionDataCache {
 	}
 	
 	/**
-	 * Returns copy of the PredictionsForRouteStop object. This is the low-level
-	 * method that actually gets the appropriate predictions. A clone is used so
-	 * that it can be accessed as needed without worrying about another thread
-	 * writing to it. The list of predictions should be relatively small so
-	 * cloning is not very costly. And this way the caller of this method
-	 * doesn't have to synchronize or such.
+	 * Returns the PredictionsForRouteStop objects for the route/stop. This is
+	 * the low-level method that actually gets the appropriate predictions.
+	 * Since the objects are immutable they can be accessed as needed without
+	 * worrying about another thread writing to them. They are only copied if
+	 * they need to be limited, such as when there are expired predictions or
+	 * more predictions than maxPredictionsPerStop.
 	 * 
 	 * @param routeIdOrShortName
 	 * @param stopId
@@ -154,11 +160,11 @@ public class PredictionDataCache {
 								.getMaxPredictionsTimeSecs()
 						* Time.SEC_IN_MSECS;
 				
-		// Make a copy of the prediction objects so that they cannot be
-		// modified by another thread while they are being accessed. This
-		// is important because when the predictions are modified they are
-		// temporarily not coherent. 
-		List<IpcPredictionsForRouteStopDest> clonedPredictions = 
+		// The prediction objects are immutable so they can be used directly.
+		// They only need to be copied if they need to be limited, such as
+		// when there are expired predictions.
+		long currentTime = getSystemTime();
+		List<IpcPredictionsForRouteStopDest> results = 
 				new ArrayList<IpcPredictionsForRouteStopDest>(
 						predictionsForRouteStop.size());
 		for (IpcPredictionsForRouteStopDest predictions : predictionsForRouteStop) {
@@ -168,32 +174,30 @@ public class PredictionDataCache {
 			if (directionId != null && !directionId.equals(predictions.getDirectionId()))
 				continue;
 			
-			// Direction ID is OK so clone prediction and add to list
-			IpcPredictionsForRouteStopDest clone =
-					predictions.getClone(maxPredictionsPerStop,
-							maxPredictionEpochTime, distanceToStop);
-			clonedPredictions.add(clone);
+			// Direction ID is OK so add limited predictions to list
+			results.add(predictions.getLimited(currentTime,
+					maxPredictionsPerStop, maxPredictionEpochTime,
+					distanceToStop));
 		}
 		
 		// If no predictions should still return a IpcPredictionsForRouteStopDest
 		// object so that the client can get route, stop, and direction info to
 		// display in the UI.
-		if (clonedPredictions.size() == 0) {
+		if (results.size() == 0) {
 			IpcPredictionsForRouteStopDest pred = new IpcPredictionsForRouteStopDest(
 					routeShortName, stopId, directionId, distanceToStop);
-			clonedPredictions.add(pred);
+			results.add(pred);
 		}
 		
-		// Return the safe cloned predictions
-		return clonedPredictions;
+		// Return the predictions
+		return results;
 	}
 
 	
 	/**
-	 * Returns copy of the PredictionsForRouteStop object. A clone is used so
-	 * that it can be accessed as needed without worrying about another thread
-	 * writing to it. The list of predictions should be relatively small so
-	 * cloning is not very costly. And this way the caller of this method
+	 * Returns the PredictionsForRouteStop objects for the route/stop. Since
+	 * they are immutable they can be accessed as needed without worrying about
+	 * another thread writing to them. And this way the caller of this method
 	 * doesn't have to synchronize or such.
 	 * 
 	 * @param routeIdOrShortName
@@ -326,19 +330,22 @@ public class PredictionDataCache {
 			int maxPredictionsPerStop, long maxSystemTimeForPrediction) {
 		List<IpcPredictionsForRouteStopDest> allPredictions = 
 				new ArrayList<IpcPredictionsForRouteStopDest>(5000);
+		long currentTime = getSystemTime();
 		
-		// Go through all PredictionsForRouteStop objects
+		// Go through all PredictionsForRouteStop objects. Since they are
+		// immutable they only need to be copied if they need to be limited.
 		Collection<List<IpcPredictionsForRouteStopDest>> predictionsByRouteStop = 
 				predictionsMap.values();		
 		for (List<IpcPredictionsForRouteStopDest> predictionsForRouteStop : predictionsByRouteStop) {
 			for (IpcPredictionsForRouteStopDest predictionForRouteStopDest : predictionsForRouteStop) {
-				IpcPredictionsForRouteStopDest clonedPrediction = 
-						predictionForRouteStopDest.getClone(
-								maxPredictionsPerStop, maxSystemTimeForPrediction);
+				IpcPredictionsForRouteStopDest limitedPrediction = 
+						predictionForRouteStopDest.getLimited(currentTime,
+								maxPredictionsPerStop, 
+								maxSystemTimeForPrediction, Double.NaN);
 				// If there were valid predictions then include it in array to
 				// be returned
-				if (!clonedPrediction.getPredictionsForRouteStop().isEmpty())
-					allPredictions.add(clonedPrediction);
+				if (!limitedPrediction.getPredictionsForRouteStop().isEmpty())
+					allPredictions.add(limitedPrediction);
 			}
 		}
 		
@@ -409,6 +416,10 @@ public class PredictionDataCache {
 				}
 			}
 		}
+		
+		// Keep the GTFS-realtime TripUpdates for the vehicle's trips current
+		GtfsRtTripUpdatesCache.getInstance().updatePredictions(
+				oldPredictionsForVehicle, newPredictionsForVehicle);
 	}
 	
 	/**
@@ -425,34 +436,52 @@ public class PredictionDataCache {
 		updatePredictions(oldPredictions, null);
 	}
 
+	/**
+	 * For specifying how the predictions for a route/stop/destination are to
+	 * be changed. Since IpcPredictionsForRouteStopDest objects are immutable
+	 * returns a new object with the changes.
+	 */
+	private static abstract class PredictionsUpdater {
+		/**
+		 * @param current
+		 *            the current predictions for the route/stop/destination
+		 * @return the new predictions, or current if there are no changes
+		 */
+		abstract IpcPredictionsForRouteStopDest update(
+				IpcPredictionsForRouteStopDest current);
+	}
+	
 	/**
 	 * Removes old prediction from the map. For when there is no new prediction
 	 * for the vehicle for the route/stop.
 	 * 
 	 * @param oldPrediction
 	 */
-	private void removePrediction(IpcPrediction oldPrediction) {
+	private void removePrediction(final IpcPrediction oldPrediction) {
 		logger.debug("Removing prediction={}", oldPrediction);
 		
-		// Get the prediction list from the map
-		IpcPredictionsForRouteStopDest predictions = 
-				getPredictionsForRouteStopDestination(oldPrediction);
-		predictions.removePrediction(oldPrediction);
+		updatePredictionsForRouteStopDest(oldPrediction.getTrip(),
+				oldPrediction.getStopId(), false, new PredictionsUpdater() {
+					@Override
+					IpcPredictionsForRouteStopDest update(
+							IpcPredictionsForRouteStopDest current) {
+						return current.withPredictionRemoved(oldPrediction);
+					}
+				});
 	}
 
 	/**
-	 * Gets the prediction list for the route/stop/destination, synchronizes it
-	 * so that changes are threadsafe, and then updates the list with the new
-	 * predictions. Each route/stop will usually get only a single prediction
-	 * but there are situations where a vehicle will hit a stop more than once
-	 * with the max time that predictions are generated for. For such a case
-	 * need to add all of those predictions at once.
+	 * Updates the predictions for the route/stop/destination with the new
+	 * predictions for a vehicle. Each route/stop will usually get only a
+	 * single prediction but there are situations where a vehicle will hit a
+	 * stop more than once with the max time that predictions are generated
+	 * for. For such a case need to add all of those predictions at once.
 	 * 
 	 * @param newPredsForVehicleForRouteStopDest
 	 *            the new predictions to be set for the route/stop/destination.
 	 */
 	private void updatePredictionsForVehicle(
-			List<IpcPrediction> newPredsForVehicleForRouteStopDest) {
+			final List<IpcPrediction> newPredsForVehicleForRouteStopDest) {
 		// If no predictions then nothing to do so return.
 		if (newPredsForVehicleForRouteStopDest == null || 
 				newPredsForVehicleForRouteStopDest.isEmpty())
@@ -461,102 +490,144 @@ public class PredictionDataCache {
 		logger.debug("Adding predictions for the route/stop/destination: {}", 
 				newPredsForVehicleForRouteStopDest);
 
-		// Get the current predictions for the route/stop/destination
-		IpcPrediction pred = newPredsForVehicleForRouteStopDest.get(0);
-		IpcPredictionsForRouteStopDest currentPredsForRouteStopDest = 
-				getPredictionsForRouteStopDestination(pred);
-		
 		// Update the predictions for the route/stop/destination
-		currentPredsForRouteStopDest.updatePredictionsForVehicle(
-				newPredsForVehicleForRouteStopDest, getSystemTime());
+		IpcPrediction pred = newPredsForVehicleForRouteStopDest.get(0);
+		final long currentTime = getSystemTime();
+		updatePredictionsForRouteStopDest(pred.getTrip(), pred.getStopId(),
+				true, new PredictionsUpdater() {
+					@Override
+					IpcPredictionsForRouteStopDest update(
+							IpcPredictionsForRouteStopDest current) {
+						return current.withPredictionsForVehicle(
+								newPredsForVehicleForRouteStopDest,
+								currentTime);
+					}
+				});
 	}
 	
 	/**
 	 * Returns List of PredictionsForRouteStop objects associated with the
 	 * specified route/stop. Returns a list because there is a separate
 	 * PredictionsForRouteStop for each destination and some route directions
-	 * have multiple destinations.
+	 * have multiple destinations. The list is unmodifiable and the objects
+	 * are immutable so the caller can use them without synchronizing.
 	 * 
 	 * @param routeShortName
 	 * @param stopId
-	 * @return
+	 * @return List of PredictionsForRouteStop. Can be empty but not null.
 	 */
-	private List<IpcPredictionsForRouteStopDest> getPredictionsForRouteStop(
+	List<IpcPredictionsForRouteStopDest> getPredictionsForRouteStop(
 			String routeShortName, String stopId) {
-		// Determine the predictions for all destinations for the route/stop
-		MapKey key = MapKey.create(routeShortName, stopId);
 		List<IpcPredictionsForRouteStopDest> predictionsForRouteStop = 
-				predictionsMap.get(key);
-		if (predictionsForRouteStop == null) {
-			predictionsForRouteStop = 
-					new ArrayList<IpcPredictionsForRouteStopDest>(1);
-			predictionsMap.putIfAbsent(key, predictionsForRouteStop);
-		} 
-
-		// Remove old predictions so that they are not provided through the 
-		// API and such
-		for (IpcPredictionsForRouteStopDest preds : predictionsForRouteStop) {
-			preds.removeExpiredPredictions(getSystemTime());
-		}
+				predictionsMap.get(MapKey.create(routeShortName, stopId));
+		if (predictionsForRouteStop == null)
+			return Collections.emptyList();
 		
 		return predictionsForRouteStop;
 	}
 	
 	/**
-	 * Returns PredictionsForRouteStop object associated with the specified
-	 * route/stop/destination specified by the trip and stopId parameters.
-	 * <p>
-	 * The returned PredictionsForRouteStop objects needs to be synchronized
-	 * when predictions accessed. Otherwise might access temporarily corrupt
-	 * state when a prediction is being updated.
+	 * Returns the lists of PredictionsForRouteStop objects for all of the
+	 * route/stops. The lists are unmodifiable and the objects are immutable
+	 * so the caller can use them without synchronizing. For
+	 * DataChangeLog.
+	 * 
+	 * @return Collection of the non-empty lists of PredictionsForRouteStop
+	 */
+	Collection<List<IpcPredictionsForRouteStopDest>> getAllPredictionsByRouteStop() {
+		return predictionsMap.values();
+	}
+	
+	/**
+	 * Changes the PredictionsForRouteStop object associated with the
+	 * route/stop/destination specified by the trip and stopId parameters. A
+	 * new list of predictions for the route/stop is created and atomically
+	 * published. If another thread changed the predictions for the route/stop
+	 * in the meantime then the change is simply redone using the latest data.
 	 * 
 	 * @param trip
+	 *            Specifies the route and destination
 	 * @param stopId
-	 * @return The PredictionsForRouteStop for the specified
-	 *         route/stop/destination
+	 * @param createIfNeeded
+	 *            If true then a PredictionsForRouteStop will be created for
+	 *            the route/stop/destination if it doesn't already exist
+	 * @param updater
+	 *            Specifies the change to be made
 	 */
-	private IpcPredictionsForRouteStopDest getPredictionsForRouteStopDestination(
-			Trip trip, String stopId) {
-		// Determine the predictions for all destinations for the route/stop
-		List<IpcPredictionsForRouteStopDest> predictionsForRouteStop = 
-				getPredictionsForRouteStop(trip.getRouteShortName(), stopId);
+	private void updatePredictionsForRouteStopDest(Trip trip, String stopId,
+			boolean createIfNeeded, PredictionsUpdater updater) {
+		MapKey key = MapKey.create(trip.getRouteShortName(), stopId);
 		
-		// Sync on the array so that it can't change between when check to
-		// find out if the PredictionsForRouteStopDest already exists for
-		// the destination till the time insert new one.
-		synchronized (predictionsForRouteStop) {
-			// From the list of predictions return the one that is for the
+		while (true) {
+			// Determine the current predictions for the route/stop
+			List<IpcPredictionsForRouteStopDest> currentPredsForRouteStop = 
+					predictionsMap.get(key);
+			
+			// From the list of predictions find the one that is for the
 			// specified destination.
-			for (IpcPredictionsForRouteStopDest preds : predictionsForRouteStop) {
-				if (preds.getHeadsign() == null
-						|| preds.getHeadsign().equals(trip.getHeadsign()))
-					return preds;
+			int index = -1;
+			if (currentPredsForRouteStop != null) {
+				for (int i = 0; i < currentPredsForRouteStop.size(); ++i) {
+					IpcPredictionsForRouteStopDest preds = 
+							currentPredsForRouteStop.get(i);
+					if (preds.getHeadsign() == null
+							|| preds.getHeadsign().equals(trip.getHeadsign())) {
+						index = i;
+						break;
+					}
+				}
 			}
-
-			// The PredictionsForRouteStopDest was not yet created for the
-			// route/stop/destination so create it now and add it to list
-			// of PredictionsForRouteStopDest objects for the route/stop.
-			IpcPredictionsForRouteStopDest preds = 
+			
+			// The PredictionsForRouteStopDest might not yet exist for the
+			// route/stop/destination so create it if appropriate
+			IpcPredictionsForRouteStopDest currentPreds;
+			if (index >= 0)
+				currentPreds = currentPredsForRouteStop.get(index);
+			else if (createIfNeeded)
+				currentPreds = 
 					new IpcPredictionsForRouteStopDest(trip, stopId, Double.NaN);
-			predictionsForRouteStop.add(preds);
-			return preds;
+			else
+				return;
+			
+			// Determine the new predictions. If no change then done.
+			IpcPredictionsForRouteStopDest newPreds = 
+					updater.update(currentPreds);
+			if (newPreds == currentPreds && index >= 0)
+				return;
+			
+			// Create new list of predictions for the route/stop
+			List<IpcPredictionsForRouteStopDest> newPredsForRouteStop;
+			if (currentPredsForRouteStop == null) {
+				newPredsForRouteStop = Collections.singletonList(newPreds);
+			} else {
+				List<IpcPredictionsForRouteStopDest> list = 
+						new ArrayList<IpcPredictionsForRouteStopDest>(
+								currentPredsForRouteStop);
+				if (index >= 0)
+					list.set(index, newPreds);
+				else
+					list.add(newPreds);
+				newPredsForRouteStop = Collections.unmodifiableList(list);
+			}
+			
+			// Atomically publish the new predictions. If another thread 
+			// changed them in the meantime then need to try again.
+			boolean published;
+			if (currentPredsForRouteStop == null) {
+				published = 
+						predictionsMap.putIfAbsent(key, newPredsForRouteStop) == null;
+			} else {
+				published = predictionsMap.replace(key, 
+						currentPredsForRouteStop, newPredsForRouteStop);
+			}
+			
+			// Let subscribers know that the route/stop changed
+			if (published) {
+				DataChangeLog.getInstance().predictionsChanged(
+						trip.getRouteShortName(), stopId);
+				return;
+			}
 		}
-
-	}
-	
-	/**
-	 * Returns PredictionsForRouteStop object associated with the
-	 * specified route/stop/destination specified by the prediction parameter.
-	 * 
-	 * @param prediction
-	 *            for specifying route and stop for which to get the prediction
-	 *            list for.
-	 * @return The PredictionsForRouteStop for the specified route/stop/destination
-	 */
-	private IpcPredictionsForRouteStopDest getPredictionsForRouteStopDestination(
-			IpcPrediction prediction) {
-		return getPredictionsForRouteStopDestination(prediction.getTrip(),
-				prediction.getStopId());
 	}
 	
 //	/**
@@ -0,0 +1,165 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+/**
+ * Fixed size ring buffer of the most recent arrivals at a stop, for
+ * determining headways. The arrivals are kept ordered by time, most recent
+ * first. Once the buffer is full adding an arrival drops the oldest one.
+ * <p>
+ * The arrival times are kept in a primitive array and the vehicle IDs are
+ * just references to existing strings so adding an arrival doesn't create
+ * any objects. Since the buffer is small the linear searches are
+ * effectively constant time.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopArrivalTimes {
+
+	private final long[] times;
+	private final String[] vehicleIds;
+
+	// Slot of the most recent arrival
+	private int newestSlot = -1;
+	private int size = 0;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param capacity
+	 *            Maximum number of arrivals to keep
+	 */
+	public StopArrivalTimes(int capacity) {
+		times = new long[capacity];
+		vehicleIds = new String[capacity];
+	}
+
+	/**
+	 * Returns the slot for the arrival that is the specified number of
+	 * arrivals older than the most recent one.
+	 *
+	 * @param age
+	 *            0 for most recent arrival
+	 * @return slot in the arrays
+	 */
+	private int slot(int age) {
+		int slot = newestSlot - age;
+		return slot < 0 ? slot + times.length : slot;
+	}
+
+	/**
+	 * Returns the age of the most recent arrival for the vehicle, or -1 if
+	 * there is no arrival for the vehicle in the buffer.
+	 *
+	 * @param vehicleId
+	 * @return age, where 0 is the most recent arrival
+	 */
+	private int ageOf(String vehicleId) {
+		for (int age = 0; age < size; ++age)
+			if (vehicleIds[slot(age)].equals(vehicleId))
+				return age;
+		return -1;
+	}
+
+	/**
+	 * Returns the age of the first arrival older than the specified age that
+	 * is for a different vehicle, or -1 if there isn't one.
+	 *
+	 * @param age
+	 * @param vehicleId
+	 * @return
+	 */
+	private int ageOfPreceding(int age, String vehicleId) {
+		for (int olderAge = age + 1; olderAge < size; ++olderAge)
+			if (!vehicleIds[slot(olderAge)].equals(vehicleId))
+				return olderAge;
+		return -1;
+	}
+
+	/**
+	 * Adds an arrival. Arrivals normally come in order but if not the
+	 * arrival is inserted so that the buffer stays ordered by time.
+	 *
+	 * @param vehicleId
+	 * @param time
+	 *            Epoch time of the arrival
+	 * @return Time of the preceding arrival by a different vehicle, or 0 if
+	 *         there is none
+	 */
+	public synchronized long add(String vehicleId, long time) {
+		// Determine how many arrivals are more recent than the new one
+		int age = 0;
+		while (age < size && times[slot(age)] > time)
+			++age;
+
+		// If full and the new arrival is older than all of them then it
+		// would be dropped right away
+		if (age == times.length)
+			return 0;
+
+		// Make room by moving the more recent arrivals up by one slot. If
+		// buffer is full this overwrites the oldest arrival.
+		newestSlot = (newestSlot + 1) % times.length;
+		if (size < times.length)
+			++size;
+		for (int i = 0; i < age; ++i) {
+			times[slot(i)] = times[slot(i + 1)];
+			vehicleIds[slot(i)] = vehicleIds[slot(i + 1)];
+		}
+		times[slot(age)] = time;
+		vehicleIds[slot(age)] = vehicleId;
+
+		int precedingAge = ageOfPreceding(age, vehicleId);
+		return precedingAge >= 0 ? times[slot(precedingAge)] : 0;
+	}
+
+	/**
+	 * Returns the time of the most recent arrival of the vehicle.
+	 *
+	 * @param vehicleId
+	 * @return epoch time, or 0 if the vehicle has not arrived recently
+	 */
+	public synchronized long getArrivalTime(String vehicleId) {
+		int age = ageOf(vehicleId);
+		return age >= 0 ? times[slot(age)] : 0;
+	}
+
+	/**
+	 * Returns the ID of the vehicle that arrived before the most recent
+	 * arrival of the specified vehicle.
+	 *
+	 * @param vehicleId
+	 * @return vehicle ID, or null if there is none
+	 */
+	public synchronized String getPrecedingVehicleId(String vehicleId) {
+		int age = ageOf(vehicleId);
+		if (age < 0)
+			return null;
+		int precedingAge = ageOfPreceding(age, vehicleId);
+		return precedingAge >= 0 ? vehicleIds[slot(precedingAge)] : null;
+	}
+
+	/**
+	 * Returns the number of arrivals in the buffer.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.transitime.config.IntegerConfigValue;
+
+/**
+ * Keeps the recent arrivals for each route/direction/stop so that headways
+ * can be determined. Used by HeadwayGeneratorDefaultImpl.
+ * <p>
+ * Nested maps are used instead of a map keyed on a MapKey because this is
+ * accessed for every arrival by the AVL processing threads and with nested
+ * maps looking up the arrivals for a stop doesn't create any objects.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopArrivalsCache {
+
+	// This is a singleton class
+	private static StopArrivalsCache singleton = new StopArrivalsCache();
+
+	// Keyed on routeId, then directionId, then stopId
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, StopArrivalTimes>>> arrivalsMap =
+			new ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, StopArrivalTimes>>>();
+
+	// ConcurrentHashMap doesn't allow null keys
+	private static final String NO_DIRECTION = "";
+
+	private static IntegerConfigValue arrivalsPerStop =
+			new IntegerConfigValue("transitime.core.headway.arrivalsPerStop",
+					10,
+					"How many of the most recent arrivals to keep for each "
+					+ "route/direction/stop for determining headways.");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Gets the singleton instance of this class.
+	 *
+	 * @return
+	 */
+	public static StopArrivalsCache getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Constructor declared private because singleton class
+	 */
+	private StopArrivalsCache() {
+	}
+
+	/**
+	 * Returns the map for the key, creating it if necessary.
+	 *
+	 * @param map
+	 * @param key
+	 * @return
+	 */
+	private static <T> ConcurrentHashMap<String, T> getOrCreate(
+			ConcurrentHashMap<String, ConcurrentHashMap<String, T>> map,
+			String key) {
+		ConcurrentHashMap<String, T> value = map.get(key);
+		if (value == null) {
+			ConcurrentHashMap<String, T> newValue =
+					new ConcurrentHashMap<String, T>();
+			value = map.putIfAbsent(key, newValue);
+			if (value == null)
+				value = newValue;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the recent arrivals for the route/direction/stop, creating the
+	 * buffer if there haven't been any yet.
+	 *
+	 * @param routeId
+	 * @param directionId
+	 *            Can be null
+	 * @param stopId
+	 * @return the arrivals for the stop
+	 */
+	public StopArrivalTimes getArrivals(String routeId, String directionId,
+			String stopId) {
+		ConcurrentHashMap<String, StopArrivalTimes> arrivalsForDirection =
+				getOrCreate(getOrCreate(arrivalsMap, routeId),
+						directionId != null ? directionId : NO_DIRECTION);
+		StopArrivalTimes arrivals = arrivalsForDirection.get(stopId);
+		if (arrivals == null) {
+			StopArrivalTimes newArrivals =
+					new StopArrivalTimes(arrivalsPerStop.getValue());
+			arrivals = arrivalsForDirection.putIfAbsent(stopId, newArrivals);
+			if (arrivals == null)
+				arrivals = newArrivals;
+		}
+		return arrivals;
+	}
+}
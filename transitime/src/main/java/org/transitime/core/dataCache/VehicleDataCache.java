@@ -28,6 +28,8 @@ import org.transitime.db.structs.AvlReport;
 import org.transitime.db.structs.Route;
 import org.transitime.db.structs.VehicleConfig;
 import org.transitime.ipc.data.IpcVehicleComplete;
+import org.transitime.monitoring.metrics.LatencyTimer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.ConcurrentHashMapNullKeyOk;
 import org.transitime.utils.Time;
 
@@ -88,6 +90,9 @@ public class VehicleDataCache {
     private static final Logger logger = LoggerFactory
 	    .getLogger(VehicleDataCache.class);
 
+    private static final LatencyTimer updateTimer =
+	    MetricsRegistry.getInstance().getTimer("VehicleDataCacheUpdate");
+
     /********************** Member Functions **************************/
 
 	/**
@@ -175,20 +180,53 @@ public class VehicleDataCache {
 		// Synchronize on the map since separately testing for object
 		// and adding object
 		synchronized (vehicleConfigsMap) {
-			// If new vehicle...
-			String vehicleId = avlReport.getVehicleId();
-			if (!vehicleConfigsMap.containsKey(vehicleId)) {
-				logger.info("Encountered new vehicle where vehicleId={} so "
-						+ "updating vehicle cache and writing the "
-						+ "VehicleConfig to database.", vehicleId);
+			addVehicleConfigIfNew(avlReport.getVehicleId());
+		}
+	}
+    
+	/**
+	 * To be called when a batch of AVL reports is received. Adds any new
+	 * vehicles to the cache and stores them in database. Only synchronizes
+	 * once for the whole batch instead of once per AVL report.
+	 * 
+	 * @param avlReports
+	 */
+	public void cacheVehicleConfigs(Collection<AvlReport> avlReports) {
+		// Make sure go initial data from database
+		readVehicleConfigFromDbIfNeedTo();
+		
+		// Synchronize on the map since separately testing for object
+		// and adding object
+		synchronized (vehicleConfigsMap) {
+			for (AvlReport avlReport : avlReports) {
+				// If a schedule based vehicle then don't need it to be
+				// part of the cache
+				if (!avlReport.isForSchedBasedPreds())
+					addVehicleConfigIfNew(avlReport.getVehicleId());
+			}
+		}
+	}
+	
+	/**
+	 * If vehicle not yet in cache then adds it and writes the new
+	 * VehicleConfig to the database. Unsynchronized since the calling methods
+	 * are expected to sync on vehicleConfigsMap.
+	 * 
+	 * @param vehicleId
+	 */
+	private void addVehicleConfigIfNew(String vehicleId) {
+		// If new vehicle...
+		if (!vehicleConfigsMap.containsKey(vehicleId)) {
+			logger.info("Encountered new vehicle where vehicleId={} so "
+					+ "updating vehicle cache and writing the "
+					+ "VehicleConfig to database.", vehicleId);
 
-				// Add vehicle to cache and update database
-				VehicleConfig vehicleConfig = new VehicleConfig(vehicleId);
-				vehicleConfigsMap.put(vehicleId, vehicleConfig);
+			// Add vehicle to cache and update database
+			VehicleConfig vehicleConfig = new VehicleConfig(vehicleId);
+			vehicleConfigsMap.put(vehicleId, vehicleConfig);
 
-				// Write the vehicle to the database
-				Core.getInstance().getDbLogger().add(vehicleConfig);
-			}
+			// Write the vehicle to the database
+			Core.getInstance().getDbLogger().add(vehicleConfig);
 		}
 	}
     
@@ -531,7 +569,19 @@ public class VehicleDataCache {
 	 *            The current VehicleState
 	 */
 	public void updateVehicle(VehicleState vehicleState) {
-		IpcVehicleComplete vehicle = new IpcVehicleComplete(vehicleState);
+		long start = System.nanoTime();
+		updateVehicle(new IpcVehicleComplete(vehicleState));
+		updateTimer.recordSince(start);
+	}
+
+	/**
+	 * Updates the maps containing the vehicle info when the
+	 * IpcVehicleComplete has already been created, such as for testing.
+	 * 
+	 * @param vehicle
+	 *            The current vehicle info
+	 */
+	public void updateVehicle(IpcVehicleComplete vehicle) {
 		IpcVehicleComplete originalVehicle = vehiclesMap.get(vehicle.getId());
 		
 		logger.debug("Adding to VehicleDataCache vehicle={}", vehicle);
@@ -539,5 +589,11 @@ public class VehicleDataCache {
 		updateVehiclesByRouteMap(originalVehicle, vehicle);
 		updateVehicleIdsByBlockMap(originalVehicle, vehicle);
 		updateVehiclesMap(vehicle);
+		
+		// Keep the GTFS-realtime VehiclePosition for the vehicle current
+		GtfsRtVehiclePositionsCache.getInstance().updateVehicle(vehicle);
+		
+		// Let subscribers know that the vehicle changed
+		DataChangeLog.getInstance().vehicleChanged(vehicle.getId());
 	}
 }
@@ -0,0 +1,141 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.trace;
+
+import java.util.List;
+
+import org.transitime.utils.Time;
+
+/**
+ * A decoded trace event. Only created when the events are read, such as
+ * when getting the last events for a vehicle or converting a dump to text,
+ * so that recording stays cheap.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TraceEvent {
+
+	private final String vehicleId;
+	private final TraceEventType type;
+	private final long recordTime;
+	private final long time;
+	private final long a, b, c, d;
+	// For looking up the IDs that are stored as indexes
+	private final List<String> strings;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Decodes the event from the record starting at offset.
+	 *
+	 * @param vehicleId
+	 * @param records
+	 *            As returned by VehicleTrace.getLastRecords()
+	 * @param offset
+	 * @param strings
+	 *            For looking up IDs stored as indexes
+	 */
+	public TraceEvent(String vehicleId, long[] records, int offset,
+			List<String> strings) {
+		this.vehicleId = vehicleId;
+		this.type = TraceEventType.fromOrdinal((int) (records[offset] & 0xFF));
+		this.recordTime = records[offset] >>> 8;
+		this.time = records[offset + 1];
+		this.a = records[offset + 2];
+		this.b = records[offset + 3];
+		this.c = records[offset + 4];
+		this.d = records[offset + 5];
+		this.strings = strings;
+	}
+
+	private String string(long index) {
+		if (index < 0 || index >= strings.size())
+			return null;
+		return strings.get((int) index);
+	}
+
+	private static int high(long value) {
+		return (int) (value >> 32);
+	}
+
+	private static int low(long value) {
+		return (int) value;
+	}
+
+	public String getVehicleId() {
+		return vehicleId;
+	}
+
+	public TraceEventType getType() {
+		return type;
+	}
+
+	public long getRecordTime() {
+		return recordTime;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Describes the values of the event according to its type.
+	 *
+	 * @return
+	 */
+	private String details() {
+		if (type == null)
+			return "unknown type";
+
+		switch (type) {
+		case AVL_REPORT:
+			return String.format("lat=%.5f lon=%.5f speed=%.1f heading=%.0f "
+					+ "assignmentId=%s",
+					Double.longBitsToDouble(a), Double.longBitsToDouble(b),
+					Float.intBitsToFloat(high(c)),
+					Float.intBitsToFloat(low(c)), string(d));
+		case SPATIAL_MATCHES:
+			return "numSpatialMatches=" + a;
+		case TEMPORAL_MATCH:
+			return String.format("tripId=%s stopPathIndex=%d segmentIndex=%d "
+					+ "distanceAlongSegment=%.1f distanceToSegment=%.1f "
+					+ "temporalDifferenceMsec=%d",
+					string(a), high(b), low(b), Double.longBitsToDouble(c),
+					Float.intBitsToFloat(high(d)), low(d));
+		case NO_MATCH:
+			return "numberOfBadMatches=" + a;
+		case ARRIVAL:
+		case DEPARTURE:
+			return String.format("stopId=%s tripId=%s stopPathIndex=%d "
+					+ "scheduledTime=%s",
+					string(a), string(b), c,
+					d > 0 ? Time.timeStrMsec(d) : "none");
+		case UNPREDICTABLE:
+			return "vehicleEvent=" + string(a);
+		default:
+			return "";
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Time.dateTimeStrMsec(recordTime) + " vehicleId=" + vehicleId
+				+ " " + type + " time=" + Time.timeStrMsec(time) + " "
+				+ details();
+	}
+}
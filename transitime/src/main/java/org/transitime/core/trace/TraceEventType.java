@@ -0,0 +1,49 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.trace;
+
+/**
+ * The types of events recorded by the TraceRecorder. The ordinal is stored
+ * in the binary records so new types must only be added to the end.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public enum TraceEventType {
+	AVL_REPORT,
+	SPATIAL_MATCHES,
+	TEMPORAL_MATCH,
+	NO_MATCH,
+	ARRIVAL,
+	DEPARTURE,
+	UNPREDICTABLE;
+
+	private static final TraceEventType[] values = values();
+
+	/**
+	 * Returns the type for the ordinal that was stored in a record.
+	 *
+	 * @param ordinal
+	 * @return the type, or null if ordinal not valid, such as when reading
+	 *         a dump created by a newer version
+	 */
+	public static TraceEventType fromOrdinal(int ordinal) {
+		if (ordinal < 0 || ordinal >= values.length)
+			return null;
+		return values[ordinal];
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.core.SpatialMatch;
+import org.transitime.core.TemporalMatch;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.AvlReport;
+
+/**
+ * Records what happened when matching each vehicle as compact binary events
+ * in a ring buffer per vehicle. This way the details needed to debug a bad
+ * match are available even when logging is set to WARN, without the cost
+ * of formatting log messages for every AVL report.
+ * <p>
+ * IDs such as trip IDs are stored as indexes into a table of strings so
+ * that the events are fixed size. The events are only decoded into
+ * TraceEvent objects when read, either through lastEvents() or by
+ * converting a dump file to text using ConvertTraceDumpToText. Both are
+ * available for a running core via JMX.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TraceRecorder implements TraceRecorderMXBean {
+
+	private final ConcurrentHashMap<String, VehicleTrace> vehicleTraces =
+			new ConcurrentHashMap<String, VehicleTrace>();
+
+	// Table of the strings referenced by events. Only ever added to.
+	private final ConcurrentHashMap<String, Integer> stringIndexes =
+			new ConcurrentHashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+
+	private static final TraceRecorder singleton = new TraceRecorder();
+
+	// For identifying dump files
+	private static final int DUMP_MAGIC = 0x54524143;
+	private static final int DUMP_VERSION = 1;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(TraceRecorder.class);
+
+	/********************** Config Params **************************/
+
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue("transitime.trace.enabled",
+					true,
+					"Whether matching events should be recorded for each "
+					+ "vehicle by the TraceRecorder.");
+
+	private static IntegerConfigValue eventsPerVehicle =
+			new IntegerConfigValue("transitime.trace.eventsPerVehicle",
+					100,
+					"Number of most recent trace events kept for each "
+					+ "vehicle. Each event takes 48 bytes. Values less than "
+					+ "1 are treated as 1.");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private since singleton class. Registers with
+	 * JMX so that traces can be accessed for a running core.
+	 */
+	private TraceRecorder() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("org.transitime:type=TraceRecorder"));
+		} catch (Exception e) {
+			logger.error("Could not register TraceRecorder with JMX. {}",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the singleton TraceRecorder
+	 *
+	 * @return
+	 */
+	public static TraceRecorder getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns the index of the string in the string table, adding it if
+	 * needed.
+	 *
+	 * @param str
+	 * @return index, or -1 if str is null
+	 */
+	private long stringIndex(String str) {
+		if (str == null)
+			return -1;
+		Integer index = stringIndexes.get(str);
+		if (index == null) {
+			synchronized (strings) {
+				index = stringIndexes.get(str);
+				if (index == null) {
+					index = strings.size();
+					strings.add(str);
+					stringIndexes.put(str, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return copy of the string table
+	 */
+	private List<String> getStrings() {
+		synchronized (strings) {
+			return new ArrayList<String>(strings);
+		}
+	}
+
+	private void record(String vehicleId, TraceEventType type, long time,
+			long a, long b, long c, long d) {
+		if (!enabled.getValue() || vehicleId == null)
+			return;
+
+		VehicleTrace trace = vehicleTraces.get(vehicleId);
+		if (trace == null) {
+			VehicleTrace newTrace = new VehicleTrace(eventsPerVehicle.getValue());
+			trace = vehicleTraces.putIfAbsent(vehicleId, newTrace);
+			if (trace == null)
+				trace = newTrace;
+		}
+		trace.add(type, time, a, b, c, d);
+	}
+
+	/**
+	 * Records that an AVL report is being processed.
+	 *
+	 * @param avlReport
+	 */
+	public void recordAvlReport(AvlReport avlReport) {
+		long speedAndHeading =
+				((long) Float.floatToRawIntBits(avlReport.getSpeed()) << 32)
+				| (Float.floatToRawIntBits(avlReport.getHeading()) & 0xFFFFFFFFL);
+		record(avlReport.getVehicleId(), TraceEventType.AVL_REPORT,
+				avlReport.getTime(),
+				Double.doubleToRawLongBits(avlReport.getLat()),
+				Double.doubleToRawLongBits(avlReport.getLon()),
+				speedAndHeading, stringIndex(avlReport.getAssignmentId()));
+	}
+
+	/**
+	 * Records the number of spatial matches found.
+	 *
+	 * @param vehicleId
+	 * @param avlTime
+	 * @param spatialMatches
+	 */
+	public void recordSpatialMatches(String vehicleId, long avlTime,
+			List<SpatialMatch> spatialMatches) {
+		record(vehicleId, TraceEventType.SPATIAL_MATCHES, avlTime,
+				spatialMatches.size(), 0, 0, 0);
+	}
+
+	/**
+	 * Records the best temporal match, or that there was no match.
+	 *
+	 * @param vehicleId
+	 * @param avlTime
+	 * @param match
+	 *            Can be null
+	 * @param numberOfBadMatches
+	 *            For when there was no match
+	 */
+	public void recordTemporalMatch(String vehicleId, long avlTime,
+			TemporalMatch match, int numberOfBadMatches) {
+		if (match == null) {
+			record(vehicleId, TraceEventType.NO_MATCH, avlTime,
+					numberOfBadMatches, 0, 0, 0);
+			return;
+		}
+
+		long indices = ((long) match.getStopPathIndex() << 32)
+				| (match.getSegmentIndex() & 0xFFFFFFFFL);
+		int temporalDifference = match.getTemporalDifference() != null ?
+				match.getTemporalDifference().getTemporalDifference() : 0;
+		long distanceAndDifference =
+				((long) Float.floatToRawIntBits(
+						(float) match.getDistanceToSegment()) << 32)
+				| (temporalDifference & 0xFFFFFFFFL);
+		record(vehicleId, TraceEventType.TEMPORAL_MATCH, avlTime,
+				stringIndex(match.getTrip().getId()), indices,
+				Double.doubleToRawLongBits(match.getDistanceAlongSegment()),
+				distanceAndDifference);
+	}
+
+	/**
+	 * Records an arrival or departure that was generated.
+	 *
+	 * @param arrivalDeparture
+	 */
+	public void recordArrivalDeparture(ArrivalDeparture arrivalDeparture) {
+		record(arrivalDeparture.getVehicleId(),
+				arrivalDeparture.isArrival() ?
+						TraceEventType.ARRIVAL : TraceEventType.DEPARTURE,
+				arrivalDeparture.getTime(),
+				stringIndex(arrivalDeparture.getStopId()),
+				stringIndex(arrivalDeparture.getTripId()),
+				arrivalDeparture.getStopPathIndex(),
+				arrivalDeparture.getScheduledTime());
+	}
+
+	/**
+	 * Records that vehicle was made unpredictable.
+	 *
+	 * @param vehicleId
+	 * @param avlTime
+	 * @param vehicleEvent
+	 *            Short description from VehicleEvent class
+	 */
+	public void recordUnpredictable(String vehicleId, long avlTime,
+			String vehicleEvent) {
+		record(vehicleId, TraceEventType.UNPREDICTABLE, avlTime,
+				stringIndex(vehicleEvent), 0, 0, 0);
+	}
+
+	/**
+	 * Returns the most recent events for the vehicle, oldest first.
+	 *
+	 * @param vehicleId
+	 * @param maxEvents
+	 * @return list of events, empty if there are none for the vehicle
+	 */
+	public List<TraceEvent> getLastEvents(String vehicleId, int maxEvents) {
+		VehicleTrace trace = vehicleTraces.get(vehicleId);
+		if (trace == null)
+			return Collections.emptyList();
+
+		long[] records = trace.getLastRecords(maxEvents);
+		// Get strings after the records so all referenced ones are included
+		List<String> stringsCopy = getStrings();
+		return decode(vehicleId, records, stringsCopy);
+	}
+
+	private static List<TraceEvent> decode(String vehicleId, long[] records,
+			List<String> strings) {
+		int numEvents = records.length / VehicleTrace.RECORD_LONGS;
+		List<TraceEvent> events = new ArrayList<TraceEvent>(numEvents);
+		for (int event = 0; event < numEvents; ++event)
+			events.add(new TraceEvent(vehicleId, records,
+					event * VehicleTrace.RECORD_LONGS, strings));
+		return events;
+	}
+
+	/**
+	 * Writes all of the traces to the file in binary format. The format is:
+	 * magic number, version, the string table, and then for each vehicle
+	 * the vehicle ID, number of events, and the event records.
+	 *
+	 * @param file
+	 * @return number of vehicles written
+	 * @throws IOException
+	 */
+	public int dump(File file) throws IOException {
+		Map<String, long[]> recordsByVehicle = new LinkedHashMap<String, long[]>();
+		for (Map.Entry<String, VehicleTrace> entry : vehicleTraces.entrySet())
+			recordsByVehicle.put(entry.getKey(),
+					entry.getValue().getLastRecords(Integer.MAX_VALUE));
+		List<String> stringsCopy = getStrings();
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(DUMP_MAGIC);
+			out.writeInt(DUMP_VERSION);
+			out.writeInt(stringsCopy.size());
+			for (String str : stringsCopy)
+				out.writeUTF(str);
+			out.writeInt(recordsByVehicle.size());
+			for (Map.Entry<String, long[]> entry : recordsByVehicle.entrySet()) {
+				long[] records = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(records.length / VehicleTrace.RECORD_LONGS);
+				for (long value : records)
+					out.writeLong(value);
+			}
+		}
+		return recordsByVehicle.size();
+	}
+
+	/**
+	 * Reads a file created by dump().
+	 *
+	 * @param file
+	 * @return events by vehicle ID, oldest event first
+	 * @throws IOException
+	 */
+	public static Map<String, List<TraceEvent>> readDump(File file)
+			throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != DUMP_MAGIC)
+				throw new IOException("File " + file + " is not a trace dump");
+			int version = in.readInt();
+			if (version != DUMP_VERSION)
+				throw new IOException("Trace dump version " + version
+						+ " is not supported");
+
+			int numStrings = in.readInt();
+			List<String> strings = new ArrayList<String>(numStrings);
+			for (int i = 0; i < numStrings; ++i)
+				strings.add(in.readUTF());
+
+			int numVehicles = in.readInt();
+			Map<String, List<TraceEvent>> eventsByVehicle =
+					new LinkedHashMap<String, List<TraceEvent>>();
+			for (int v = 0; v < numVehicles; ++v) {
+				String vehicleId = in.readUTF();
+				int numEvents = in.readInt();
+				long[] records = new long[numEvents * VehicleTrace.RECORD_LONGS];
+				for (int i = 0; i < records.length; ++i)
+					records[i] = in.readLong();
+				eventsByVehicle.put(vehicleId,
+						decode(vehicleId, records, strings));
+			}
+			return eventsByVehicle;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.core.trace.TraceRecorderMXBean#getNumVehicles()
+	 */
+	@Override
+	public int getNumVehicles() {
+		return vehicleTraces.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.core.trace.TraceRecorderMXBean#lastEvents(java.lang.String, int)
+	 */
+	@Override
+	public String[] lastEvents(String vehicleId, int maxEvents) {
+		List<TraceEvent> events = getLastEvents(vehicleId, maxEvents);
+		String[] result = new String[events.size()];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = events.get(i).toString();
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.core.trace.TraceRecorderMXBean#dumpToFile(java.lang.String)
+	 */
+	@Override
+	public String dumpToFile(String fileName) {
+		try {
+			int numVehicles = dump(new File(fileName));
+			logger.info("Dumped traces for {} vehicles to {}", numVehicles,
+					fileName);
+			return "Dumped traces for " + numVehicles + " vehicles to "
+					+ fileName;
+		} catch (IOException e) {
+			logger.error("Could not dump traces to {}. {}", fileName,
+					e.getMessage(), e);
+			return "Could not dump traces. " + e.getMessage();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.trace;
+
+/**
+ * The JMX interface for the TraceRecorder so that the traces can be looked
+ * at or dumped to a file for a running core.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public interface TraceRecorderMXBean {
+
+	/**
+	 * @return Number of vehicles that have traces
+	 */
+	public int getNumVehicles();
+
+	/**
+	 * Returns the most recent events for the vehicle as text, oldest first.
+	 *
+	 * @param vehicleId
+	 * @param maxEvents
+	 * @return
+	 */
+	public String[] lastEvents(String vehicleId, int maxEvents);
+
+	/**
+	 * Writes the traces for all vehicles to the file in binary format. The
+	 * file can be converted to text using ConvertTraceDumpToText.
+	 *
+	 * @param fileName
+	 * @return Message describing the result
+	 */
+	public String dumpToFile(String fileName);
+}
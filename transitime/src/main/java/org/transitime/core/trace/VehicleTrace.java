@@ -0,0 +1,107 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.trace;
+
+/**
+ * Ring buffer of the most recent trace events for a vehicle. Each event is
+ * a fixed size record of RECORD_LONGS longs stored in a single primitive
+ * array so that recording an event doesn't create any objects:
+ * <ul>
+ * <li>0: time the event was recorded in msec shifted left 8 bits, ORed with
+ * the ordinal of the TraceEventType</li>
+ * <li>1: time of the event, usually the AVL time</li>
+ * <li>2-5: values whose meaning depends on the type of event</li>
+ * </ul>
+ * The events for a vehicle are nearly always recorded by the thread
+ * processing the vehicle so the synchronization is uncontended.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class VehicleTrace {
+
+	public static final int RECORD_LONGS = 6;
+
+	private final long[] records;
+	private final int capacity;
+
+	// Total number of events ever recorded. The next one goes into
+	// numRecorded % capacity.
+	private long numRecorded;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param capacity
+	 *            Max number of events to keep. Values less than 1, such as
+	 *            from a misconfigured parameter, are treated as 1 so that
+	 *            recording an event never fails.
+	 */
+	public VehicleTrace(int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.records = new long[this.capacity * RECORD_LONGS];
+	}
+
+	/**
+	 * Records an event, overwriting the oldest one if buffer is full.
+	 *
+	 * @param type
+	 * @param time
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param d
+	 */
+	public synchronized void add(TraceEventType type, long time, long a,
+			long b, long c, long d) {
+		int i = (int) (numRecorded % capacity) * RECORD_LONGS;
+		records[i] = (System.currentTimeMillis() << 8) | type.ordinal();
+		records[i + 1] = time;
+		records[i + 2] = a;
+		records[i + 3] = b;
+		records[i + 4] = c;
+		records[i + 5] = d;
+		++numRecorded;
+	}
+
+	/**
+	 * Returns a copy of the most recent records, oldest first.
+	 *
+	 * @param maxEvents
+	 *            Max number of events to return
+	 * @return array of RECORD_LONGS longs per event
+	 */
+	public synchronized long[] getLastRecords(int maxEvents) {
+		int numEvents = (int) Math.min(Math.min(numRecorded, capacity),
+				Math.max(maxEvents, 0));
+		long[] result = new long[numEvents * RECORD_LONGS];
+		long first = numRecorded - numEvents;
+		for (int event = 0; event < numEvents; ++event) {
+			int i = (int) ((first + event) % capacity) * RECORD_LONGS;
+			System.arraycopy(records, i, result, event * RECORD_LONGS,
+					RECORD_LONGS);
+		}
+		return result;
+	}
+
+	/**
+	 * @return Number of events currently in the buffer
+	 */
+	public synchronized int size() {
+		return (int) Math.min(numRecorded, capacity);
+	}
+}
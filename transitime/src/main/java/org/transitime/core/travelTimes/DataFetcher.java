@@ -55,6 +55,10 @@ public class DataFetcher {
 	
 	private java.util.Calendar calendar = null;
 	
+	// Times are adjusted by three hours when determining the day so that
+	// trips that span midnight are considered part of the previous day
+	private static final long DAY_OFFSET_MSEC = 3*Time.MS_PER_HOUR;
+	
 //	private List<Integer> specialDaysOfWeek = null;
 
 	private static final Logger logger = 
@@ -75,10 +79,37 @@ public class DataFetcher {
 	public DataFetcher(String dbName, List<Integer> newSpecialDaysOfWeek) {
 		// Create the member calendar using timezone specified in db for the 
 		// agency. Use the currently active config rev.
+		this(getTimeZone(dbName));
+	}
+	
+	/**
+	 * For when the timezone is already known, such as when processing the
+	 * data one service day at a time using a separate DataFetcher for each
+	 * day. Since the member calendar is not thread safe each thread needs its
+	 * own DataFetcher.
+	 * 
+	 * @param timezone
+	 *            Timezone of the agency
+	 */
+	public DataFetcher(TimeZone timezone) {
+		calendar = new GregorianCalendar(timezone);
+	}
+	
+	/**
+	 * Returns the timezone specified in the db for the agency. Uses the
+	 * currently active config rev.
+	 * 
+	 * @param dbName
+	 * @return timezone of the agency
+	 */
+	public static TimeZone getTimeZone(String dbName) {
 		int configRev = ActiveRevisions.get(dbName).getConfigRev();
 		List<Agency> agencies = Agency.getAgencies(dbName, configRev);
-		TimeZone timezone = agencies.get(0).getTimeZone();
-		calendar = new GregorianCalendar(timezone);		
+		return agencies.get(0).getTimeZone();
+	}
+	
+	public TimeZone getTimeZone() {
+		return calendar.getTimeZone();
 	}
 	
 	/**
@@ -88,16 +119,52 @@ public class DataFetcher {
 	 * @param date
 	 * @return
 	 */
-	private int dayOfYear(Date date) {
+	int dayOfYear(Date date) {
 		// Adjust date by three hours so if get a time such as 2:30 am
 		// it will be adjusted back to the previous day. This way can handle
 		// trips that span midnight. But this doesn't work for trips that
 		// span 3am.
-		Date adjustedDate = new Date(date.getTime()-3*Time.MS_PER_HOUR);
+		Date adjustedDate = new Date(date.getTime()-DAY_OFFSET_MSEC);
 		calendar.setTime(adjustedDate);
 		return calendar.get(java.util.Calendar.DAY_OF_YEAR);
 	}
 	
+	/**
+	 * Divides the time range into service days, using the same three hour
+	 * offset as dayOfYear(). Since the day of the year is part of the key
+	 * for the data all the data for a vehicle trip is within a single
+	 * service day. This means that the data can be read in and processed one
+	 * day at a time instead of all at once.
+	 * 
+	 * @param beginTime
+	 * @param endTime
+	 * @return List of times, starting with beginTime and ending with endTime,
+	 *         where each adjacent pair of times is the range for a service
+	 *         day.
+	 */
+	public List<Date> getServiceDayBoundaries(Date beginTime, Date endTime) {
+		List<Date> boundaries = new ArrayList<Date>();
+		boundaries.add(beginTime);
+		
+		// Start with midnight of the day that beginTime is considered part of
+		calendar.setTime(new Date(beginTime.getTime() - DAY_OFFSET_MSEC));
+		calendar.set(java.util.Calendar.HOUR_OF_DAY, 0);
+		calendar.set(java.util.Calendar.MINUTE, 0);
+		calendar.set(java.util.Calendar.SECOND, 0);
+		calendar.set(java.util.Calendar.MILLISECOND, 0);
+		while (true) {
+			calendar.add(java.util.Calendar.DAY_OF_YEAR, 1);
+			Date boundary = new Date(calendar.getTimeInMillis() 
+					+ DAY_OFFSET_MSEC);
+			if (!boundary.before(endTime))
+				break;
+			boundaries.add(boundary);
+		}
+		
+		boundaries.add(endTime);
+		return boundaries;
+	}
+	
 //	/**
 //	 * NOTE: Deprecated because haven't yet figured out how to deal with special
 //	 * days of the week.
@@ -0,0 +1,656 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.travelTimes;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.config.DoubleConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.core.TemporalDifference;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.db.structs.ActiveRevisions;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.TravelTimesForStopPath;
+import org.transitime.db.structs.TravelTimesForStopPath.HowSet;
+import org.transitime.db.structs.TravelTimesForTrip;
+import org.transitime.db.structs.Trip;
+import org.transitime.logging.Markers;
+import org.transitime.modules.Module;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+/**
+ * Keeps the travel times up to date using the arrivals/departures as they are
+ * generated by the core instead of having to run the UpdateTravelTimes
+ * application, which reads in weeks of historic data from the database.
+ * <p>
+ * Each arrival/departure is paired with the previous one for the vehicle.
+ * A departure from a stop followed by an arrival at the next stop of the same
+ * trip yields a travel time for the stop path. An arrival at a stop followed
+ * by a departure from that same stop yields a stop time. These samples are
+ * added to running statistics for the stop path and the time band of the day
+ * that they occurred in, see RunningTravelTimeStats.
+ * <p>
+ * Periodically the statistics are written to the database as a new travel
+ * times rev. For each trip of the active config rev the travel times for a
+ * stop path are set from the statistics for the time band that the trip is
+ * expected to be traversing the stop path at, if there are enough samples
+ * and if the value differs enough from the existing one. Since the
+ * statistics only have the travel time for the whole stop path the existing
+ * travel times for the travel time segments are scaled so that they add up
+ * to the new travel time. Other stop paths keep their existing travel times.
+ * A new rev is only written if at least minStopPathsChanged stop paths
+ * changed. The new rev is made the active one so that it will be used when
+ * the core is restarted, or right away if the ConfigRevUpdaterModule is
+ * also being run.
+ * <p>
+ * When the ConfigRevUpdaterModule is run each new travel times rev causes it
+ * to read in the whole configuration again and to match every predictable
+ * vehicle to its block in the new configuration. That is expensive, which
+ * is why new revs are only written every publishIntervalMsec and only when
+ * enough stop paths have changed meaningfully.
+ * <p>
+ * Each new rev adds a full set of travel times rows to the database, so the
+ * revs written by this module other than the newest numRevsToKeep ones are
+ * deleted. Deleting them is safe because the Trip rows are updated in place
+ * to reference the new travel times when a rev is written, and because
+ * travel times are loaded eagerly with their trips, so a core that is
+ * still using the previous configuration already has them in memory. The
+ * older revs are only kept so that recent changes to the travel times can
+ * be examined. Revs written by other means, such as by UpdateTravelTimes,
+ * and revs written before this process started are never deleted.
+ * <p>
+ * The arrivals/departures are only processed if this module has been
+ * started, so there is no cost if the module is not configured.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class OnlineTravelTimesModule extends Module {
+
+	// Declared static so that handleArrivalDeparture() can be called from
+	// the arrival/departure generator without needing a reference to the
+	// module. Set when the module is started.
+	private static volatile boolean running = false;
+
+	// The previous arrival/departure for each vehicle. Keyed on vehicleId.
+	private static final ConcurrentHashMap<String, ArrivalDeparture> previousArrDepMap =
+			new ConcurrentHashMap<String, ArrivalDeparture>();
+
+	// The running statistics. Keyed on stopPathId.
+	private static final ConcurrentHashMap<String, RunningTravelTimeStats> statsMap =
+			new ConcurrentHashMap<String, RunningTravelTimeStats>();
+
+	// So can tell if there is anything new to write to the db
+	private static final AtomicInteger samplesSinceLastPublish =
+			new AtomicInteger();
+
+	// The revs written by this module, oldest first, so that superseded
+	// ones can be deleted. Only accessed by the module thread.
+	private final LinkedList<PublishedRev> publishedRevs =
+			new LinkedList<PublishedRev>();
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(OnlineTravelTimesModule.class);
+
+	/********************** Config Params **************************/
+
+	private static final IntegerConfigValue publishIntervalMsec =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.publishIntervalMsec",
+					6 * Time.SEC_PER_HOUR * Time.MS_PER_SEC,
+					"How frequently the running travel time statistics "
+					+ "should be written to the database as a new travel "
+					+ "times rev.");
+
+	private static final IntegerConfigValue timeBandMinutes =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.timeBandMinutes",
+					60,
+					"The day is divided into time bands of this many minutes "
+					+ "and separate travel times are kept for each band. "
+					+ "Only read in at startup.");
+
+	private static final IntegerConfigValue minSamples =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.minSamples",
+					10,
+					"How many samples a stop path needs for a time band "
+					+ "before its travel time or stop time is used instead "
+					+ "of the existing value.");
+
+	private static final IntegerConfigValue windowSize =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.windowSize",
+					100,
+					"After this many samples the running mean becomes an "
+					+ "exponentially weighted one where each new sample has "
+					+ "a weight of 1/windowSize so that the travel times "
+					+ "follow changes in traffic.");
+
+	private static final DoubleConfigValue maxStdDevs =
+			new DoubleConfigValue(
+					"transitime.travelTimes.online.maxStdDevs",
+					3.0,
+					"Once there are minSamples samples a new sample is "
+					+ "limited to being at most this many standard deviations "
+					+ "from the mean so that anomalies don't skew the "
+					+ "results.");
+
+	private static final IntegerConfigValue maxSchedAdhSecs =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.maxSchedAdhSecs",
+					30 * Time.SEC_PER_MIN,
+					"If the schedule adherence of an arrival/departure is "
+					+ "worse than this then the vehicle was probably matched "
+					+ "to the wrong trip so the sample is ignored.");
+
+	private static final DoubleConfigValue minChangeFraction =
+			new DoubleConfigValue(
+					"transitime.travelTimes.online.minChangeFraction",
+					0.1,
+					"The travel time or stop time for a stop path is only "
+					+ "changed if the new value differs from the existing one "
+					+ "by more than this fraction of the existing value, and "
+					+ "by more than minChangeMsec, so that small "
+					+ "fluctuations don't cause new travel times revs.");
+
+	private static final IntegerConfigValue minChangeMsec =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.minChangeMsec",
+					5 * Time.MS_PER_SEC,
+					"The travel time or stop time for a stop path is only "
+					+ "changed if the new value differs from the existing one "
+					+ "by more than this many msec, and by more than "
+					+ "minChangeFraction.");
+
+	private static final IntegerConfigValue minStopPathsChanged =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.minStopPathsChanged",
+					20,
+					"A new travel times rev is only written if at least this "
+					+ "many stop paths have changed. Each new rev causes the "
+					+ "ConfigRevUpdaterModule, if it is running, to read in "
+					+ "the whole configuration again.");
+
+	private static final IntegerConfigValue numRevsToKeep =
+			new IntegerConfigValue(
+					"transitime.travelTimes.online.numRevsToKeep",
+					2,
+					"How many of the travel times revs written by this module "
+					+ "are kept in the database. Older ones are deleted since "
+					+ "trips are updated in place to reference the newest "
+					+ "rev, so nothing uses the old ones. The newest rev is "
+					+ "always kept. Keeping more is only useful for "
+					+ "examining how the travel times have been changing.");
+
+	/**
+	 * A travel times rev that was written by this module.
+	 */
+	private static class PublishedRev {
+		private final int configRev;
+		private final int travelTimesRev;
+
+		private PublishedRev(int configRev, int travelTimesRev) {
+			this.configRev = configRev;
+			this.travelTimesRev = travelTimesRev;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * The constructor for the module. Called automatically if the module
+	 * is configured.
+	 *
+	 * @param agencyId
+	 */
+	public OnlineTravelTimesModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * Returns how many time bands the day is divided into.
+	 *
+	 * @return
+	 */
+	private static int getNumberTimeBands() {
+		int minutesPerDay = Time.SEC_PER_DAY / Time.SEC_PER_MIN;
+		return (minutesPerDay + timeBandMinutes.getValue() - 1)
+				/ timeBandMinutes.getValue();
+	}
+
+	/**
+	 * Returns the time band for the specified time of day.
+	 *
+	 * @param secondsIntoDay
+	 *            Can be greater than a day for trips that go past midnight
+	 * @return the time band index
+	 */
+	private static int getTimeBand(int secondsIntoDay) {
+		int secs = secondsIntoDay % Time.SEC_PER_DAY;
+		if (secs < 0)
+			secs += Time.SEC_PER_DAY;
+		return secs / (timeBandMinutes.getValue() * Time.SEC_PER_MIN);
+	}
+
+	/**
+	 * Returns the time band for the specified epoch time.
+	 *
+	 * @param epochTime
+	 * @return the time band index
+	 */
+	private static int getTimeBandForEpochTime(long epochTime) {
+		return getTimeBand(Core.getInstance().getTime()
+				.getSecondsIntoDay(epochTime));
+	}
+
+	/**
+	 * Returns true if the schedule adherence of the arrival/departure, if
+	 * there is one, is reasonable.
+	 *
+	 * @param arrDep
+	 * @return
+	 */
+	private static boolean scheduleAdherenceOk(ArrivalDeparture arrDep) {
+		TemporalDifference schedAdh = arrDep.getScheduleAdherence();
+		return schedAdh == null || schedAdh.isWithinBounds(
+				maxSchedAdhSecs.getValue(), maxSchedAdhSecs.getValue());
+	}
+
+	/**
+	 * Returns the running stats for the stop path, creating them if
+	 * necessary.
+	 *
+	 * @param stopPathId
+	 * @return
+	 */
+	private static RunningTravelTimeStats getStats(String stopPathId) {
+		RunningTravelTimeStats stats = statsMap.get(stopPathId);
+		if (stats == null) {
+			RunningTravelTimeStats newStats =
+					new RunningTravelTimeStats(getNumberTimeBands());
+			stats = statsMap.putIfAbsent(stopPathId, newStats);
+			if (stats == null)
+				stats = newStats;
+		}
+		return stats;
+	}
+
+	/**
+	 * Called when an arrival/departure is created. Pairs it with the previous
+	 * arrival/departure for the vehicle and adds the resulting travel time or
+	 * stop time to the running statistics. Does nothing if the module is not
+	 * running.
+	 *
+	 * @param arrDep
+	 */
+	public static void handleArrivalDeparture(ArrivalDeparture arrDep) {
+		if (!running)
+			return;
+
+		ArrivalDeparture previousArrDep =
+				previousArrDepMap.put(arrDep.getVehicleId(), arrDep);
+		if (previousArrDep == null
+				|| !previousArrDep.getTripId().equals(arrDep.getTripId()))
+			return;
+
+		// Block is transient but is set when the arrival/departure is
+		// generated. Need it to determine the stop path ID.
+		Block block = arrDep.getBlock();
+		if (block == null)
+			return;
+
+		if (!scheduleAdherenceOk(previousArrDep)
+				|| !scheduleAdherenceOk(arrDep))
+			return;
+
+		int stopPathIndex = arrDep.getStopPathIndex();
+		int elapsedMsec = (int) (arrDep.getTime() - previousArrDep.getTime());
+		if (elapsedMsec < 0)
+			return;
+
+		// The first stop path of a trip has no travel time and the stop time
+		// for the first stop is layover time, so ignore it
+		if (stopPathIndex == 0)
+			return;
+
+		if (arrDep.isArrival() && previousArrDep.isDeparture()
+				&& previousArrDep.getStopPathIndex() == stopPathIndex - 1) {
+			// Travel time for the stop path
+			String stopPathId = block.getTrip(arrDep.getTripIndex())
+					.getStopPath(stopPathIndex).getId();
+			getStats(stopPathId).addTravelTime(
+					getTimeBandForEpochTime(previousArrDep.getTime()),
+					elapsedMsec,
+					windowSize.getValue(), minSamples.getValue(),
+					maxStdDevs.getValue());
+			samplesSinceLastPublish.incrementAndGet();
+		} else if (arrDep.isDeparture() && previousArrDep.isArrival()
+				&& previousArrDep.getStopPathIndex() == stopPathIndex) {
+			// Stop time for the stop at the end of the stop path
+			String stopPathId = block.getTrip(arrDep.getTripIndex())
+					.getStopPath(stopPathIndex).getId();
+			getStats(stopPathId).addStopTime(
+					getTimeBandForEpochTime(previousArrDep.getTime()),
+					elapsedMsec,
+					windowSize.getValue(), minSamples.getValue(),
+					maxStdDevs.getValue());
+			samplesSinceLastPublish.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Scales the travel times of the travel time segments so that they add
+	 * up to the specified travel time for the whole stop path.
+	 *
+	 * @param originalTravelTimes
+	 * @param stopPathTravelTimeMsec
+	 * @return the new travel times for the segments
+	 */
+	private static int[] scaleTravelTimes(
+			TravelTimesForStopPath originalTravelTimes,
+			int stopPathTravelTimeMsec) {
+		int numSegments = originalTravelTimes.getNumberTravelTimeSegments();
+		int originalTotalMsec =
+				originalTravelTimes.getStopPathTravelTimeMsec();
+		int[] travelTimes = new int[numSegments];
+		int remainingMsec = stopPathTravelTimeMsec;
+		for (int i = 0; i < numSegments; ++i) {
+			if (i == numSegments - 1) {
+				// Last segment gets what is left so that rounding doesn't
+				// change the total
+				travelTimes[i] = remainingMsec;
+			} else if (originalTotalMsec > 0) {
+				travelTimes[i] = (int) ((long) stopPathTravelTimeMsec
+						* originalTravelTimes.getTravelTimeSegmentMsec(i)
+						/ originalTotalMsec);
+			} else {
+				travelTimes[i] = stopPathTravelTimeMsec / numSegments;
+			}
+			remainingMsec -= travelTimes[i];
+		}
+		return travelTimes;
+	}
+
+	/**
+	 * Returns true if the new value from the running statistics differs
+	 * enough from the existing value to be used.
+	 *
+	 * @param originalMsec
+	 * @param newMsec
+	 *            The new value, or -1 if there were not enough samples
+	 * @return true if should use the new value
+	 */
+	private static boolean isMeaningfulChange(int originalMsec, int newMsec) {
+		if (newMsec < 0)
+			return false;
+		return Math.abs(newMsec - originalMsec) > Math.max(
+				minChangeMsec.getValue(),
+				minChangeFraction.getValue() * originalMsec);
+	}
+
+	/**
+	 * Creates a new TravelTimesForTrip for each trip using the running
+	 * statistics where there are enough samples and where they differ
+	 * enough from the existing travel times. The trips are updated to use
+	 * the new travel times, so the new travel times are written to the db
+	 * when the session is flushed.
+	 *
+	 * @param session
+	 * @param configRev
+	 * @param newTravelTimesRev
+	 * @return number of distinct stop paths that were changed
+	 */
+	private static int setTravelTimesForAllTrips(Session session,
+			int configRev, int newTravelTimesRev) {
+		// For caching TravelTimesForTrip and TravelTimesForStopPaths that are
+		// created so that won't store duplicate objects
+		Map<TravelTimesForTrip, TravelTimesForTrip> ttForTripCache =
+				new HashMap<TravelTimesForTrip, TravelTimesForTrip>();
+		Map<TravelTimesForStopPath, TravelTimesForStopPath> ttForStopPathCache =
+				new HashMap<TravelTimesForStopPath, TravelTimesForStopPath>();
+
+		Map<String, Trip> tripMap = Trip.getTrips(session, configRev);
+
+		int minSamplesValue = minSamples.getValue();
+		Set<String> changedStopPathIds = new HashSet<String>();
+		for (Trip trip : tripMap.values()) {
+			TravelTimesForTrip ttForTrip = new TravelTimesForTrip(
+					trip.getConfigRev(), newTravelTimesRev, trip);
+
+			// For determining which time band the vehicle is expected to be
+			// in for each stop path
+			int secsIntoDay = trip.getStartTime();
+
+			int numStopsInTrip = trip.getTripPattern().getNumberStopPaths();
+			for (int stopIdx = 0; stopIdx < numStopsInTrip; ++stopIdx) {
+				TravelTimesForStopPath originalTravelTimes =
+						trip.getTravelTimesForStopPath(stopIdx);
+				String stopPathId = trip.getStopPath(stopIdx).getId();
+				RunningTravelTimeStats stats = statsMap.get(stopPathId);
+
+				int travelTimeMsec = -1;
+				int stopTimeMsec = -1;
+				if (stats != null && stopIdx > 0) {
+					travelTimeMsec = stats.getTravelTimeMsec(
+							getTimeBand(secsIntoDay), minSamplesValue);
+					if (!isMeaningfulChange(
+							originalTravelTimes.getStopPathTravelTimeMsec(),
+							travelTimeMsec))
+						travelTimeMsec = -1;
+					int arrivalSecsIntoDay = secsIntoDay
+							+ (travelTimeMsec >= 0 ? travelTimeMsec
+									: originalTravelTimes
+											.getStopPathTravelTimeMsec())
+							/ Time.MS_PER_SEC;
+					stopTimeMsec = stats.getStopTimeMsec(
+							getTimeBand(arrivalSecsIntoDay), minSamplesValue);
+					if (!isMeaningfulChange(
+							originalTravelTimes.getStopTimeMsec(),
+							stopTimeMsec))
+						stopTimeMsec = -1;
+				}
+
+				TravelTimesForStopPath ttForStopPathToUse;
+				if (travelTimeMsec >= 0 || stopTimeMsec >= 0) {
+					int[] travelTimes = travelTimeMsec >= 0 ?
+							scaleTravelTimes(originalTravelTimes,
+									travelTimeMsec)
+							: toIntArray(originalTravelTimes);
+					ttForStopPathToUse = new TravelTimesForStopPath(
+							trip.getConfigRev(),
+							newTravelTimesRev,
+							stopPathId,
+							originalTravelTimes.getTravelTimeSegmentLength(),
+							travelTimes,
+							stopTimeMsec >= 0 ? stopTimeMsec
+									: originalTravelTimes.getStopTimeMsec(),
+							originalTravelTimes.getDaysOfWeekOverride(),
+							HowSet.AVL,
+							trip);
+					changedStopPathIds.add(stopPathId);
+				} else {
+					// Not enough data, or not a big enough change, so keep
+					// the existing values
+					ttForStopPathToUse =
+							originalTravelTimes.clone(newTravelTimesRev);
+				}
+
+				TravelTimesForStopPath cachedTTForStopPath =
+						ttForStopPathCache.get(ttForStopPathToUse);
+				if (cachedTTForStopPath == null)
+					ttForStopPathCache.put(ttForStopPathToUse,
+							ttForStopPathToUse);
+				else
+					ttForStopPathToUse = cachedTTForStopPath;
+				ttForTrip.add(ttForStopPathToUse);
+
+				secsIntoDay += (ttForStopPathToUse.getStopPathTravelTimeMsec()
+						+ ttForStopPathToUse.getStopTimeMsec())
+						/ Time.MS_PER_SEC;
+			}
+
+			TravelTimesForTrip cachedTTForTrip = ttForTripCache.get(ttForTrip);
+			if (cachedTTForTrip == null)
+				ttForTripCache.put(ttForTrip, ttForTrip);
+			else
+				ttForTrip = cachedTTForTrip;
+
+			trip.setTravelTimes(ttForTrip);
+		}
+
+		return changedStopPathIds.size();
+	}
+
+	/**
+	 * Returns the travel times of the travel time segments as an array.
+	 *
+	 * @param travelTimes
+	 * @return
+	 */
+	private static int[] toIntArray(TravelTimesForStopPath travelTimes) {
+		int[] array = new int[travelTimes.getNumberTravelTimeSegments()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = travelTimes.getTravelTimeSegmentMsec(i);
+		return array;
+	}
+
+	/**
+	 * Writes the running statistics to the database as a new travel times
+	 * rev and makes it the active one. Does nothing if there haven't been
+	 * any new samples since the previous time or if not enough stop paths
+	 * changed meaningfully.
+	 */
+	private void publishTravelTimes() {
+		int numSamples = samplesSinceLastPublish.getAndSet(0);
+		if (numSamples == 0) {
+			logger.info("No new travel time samples so not writing new "
+					+ "travel times to database.");
+			return;
+		}
+
+		IntervalTimer timer = new IntervalTimer();
+		Session session = HibernateUtils.getSession(agencyId);
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			ActiveRevisions activeRevisions = ActiveRevisions.get(session);
+			int configRev = activeRevisions.getConfigRev();
+			int newTravelTimesRev = activeRevisions.getTravelTimesRev() + 1;
+			int numStopPathsChanged = setTravelTimesForAllTrips(session,
+					configRev, newTravelTimesRev);
+			if (numStopPathsChanged < minStopPathsChanged.getValue()) {
+				// Nothing has been flushed so rolling back discards the
+				// new travel times
+				tx.rollback();
+				logger.info("Only {} stop paths changed meaningfully, which "
+						+ "is fewer than minStopPathsChanged={}, so not "
+						+ "writing new travel times rev. Took {} msec.",
+						numStopPathsChanged, minStopPathsChanged.getValue(),
+						timer.elapsedMsec());
+				return;
+			}
+
+			activeRevisions.setTravelTimesRev(newTravelTimesRev);
+			logger.info("Revisions being set in database to {}",
+					activeRevisions);
+			session.flush();
+			tx.commit();
+			logger.info("Wrote new travel times rev using {} new samples. "
+					+ "{} stop paths were changed. Took {} msec.",
+					numSamples, numStopPathsChanged, timer.elapsedMsec());
+			publishedRevs.add(new PublishedRev(configRev, newTravelTimesRev));
+		} catch (RuntimeException e) {
+			if (tx != null)
+				tx.rollback();
+			// Samples weren't used so try again next time
+			samplesSinceLastPublish.addAndGet(numSamples);
+			throw e;
+		} finally {
+			session.close();
+		}
+
+		deleteSupersededRevs();
+	}
+
+	/**
+	 * Deletes the travel times revs that were written by this module other
+	 * than the newest numRevsToKeep ones.
+	 */
+	private void deleteSupersededRevs() {
+		while (publishedRevs.size() > Math.max(1, numRevsToKeep.getValue())) {
+			PublishedRev rev = publishedRevs.getFirst();
+			Session session = HibernateUtils.getSession(agencyId);
+			Transaction tx = null;
+			try {
+				tx = session.beginTransaction();
+				TravelTimesForTrip.deleteTravelTimesRev(session,
+						rev.configRev, rev.travelTimesRev);
+				tx.commit();
+			} catch (RuntimeException e) {
+				if (tx != null)
+					tx.rollback();
+				// Try again after the next publish
+				logger.error("Could not delete superseded travel times "
+						+ "configRev={} travelTimesRev={}. {}", rev.configRev,
+						rev.travelTimesRev, e.getMessage());
+				return;
+			} finally {
+				session.close();
+			}
+			publishedRevs.removeFirst();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		logger.info("Starting module {} for agencyId={}",
+				getClass().getName(), getAgencyId());
+
+		running = true;
+
+		// Run forever
+		while (true) {
+			Time.sleep(publishIntervalMsec.getValue());
+
+			try {
+				publishTravelTimes();
+			} catch (Exception e) {
+				logger.error(Markers.email(),
+						"Error with OnlineTravelTimesModule for agencyId={}",
+						agencyId, e);
+			}
+		}
+	}
+
+}
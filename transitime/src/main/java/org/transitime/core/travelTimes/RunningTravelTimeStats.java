@@ -0,0 +1,197 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.travelTimes;
+
+/**
+ * Running statistics of the travel times and stop times for a single stop
+ * path, one set of values per time band of the day. The values are kept in
+ * primitive arrays so that the stats for every stop path of an agency can be
+ * kept in memory without using many objects.
+ * <p>
+ * The mean and variance are updated incrementally as each sample comes in.
+ * For the first windowSize samples they are the normal mean and variance.
+ * After that they become exponentially weighted with a weight of
+ * 1/windowSize for the new sample so that the values follow changes in
+ * traffic instead of becoming fixed. Once there are enough samples a new
+ * sample that is far from the mean is clamped to mean +/- maxStdDevs
+ * standard deviations so that a single bad value doesn't skew the results
+ * while a real change still gradually moves the mean.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class RunningTravelTimeStats {
+
+	// Indexed by time band
+	private final int[] travelTimeCounts;
+	private final double[] travelTimeMeans;
+	private final double[] travelTimeVariances;
+
+	private final int[] stopTimeCounts;
+	private final double[] stopTimeMeans;
+	private final double[] stopTimeVariances;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param numberTimeBands
+	 *            How many time bands the day is divided into
+	 */
+	public RunningTravelTimeStats(int numberTimeBands) {
+		travelTimeCounts = new int[numberTimeBands];
+		travelTimeMeans = new double[numberTimeBands];
+		travelTimeVariances = new double[numberTimeBands];
+
+		stopTimeCounts = new int[numberTimeBands];
+		stopTimeMeans = new double[numberTimeBands];
+		stopTimeVariances = new double[numberTimeBands];
+	}
+
+	/**
+	 * Updates the count, mean, and variance for the time band with the new
+	 * sample.
+	 *
+	 * @param counts
+	 * @param means
+	 * @param variances
+	 * @param band
+	 * @param valueMsec
+	 * @param windowSize
+	 * @param minSamples
+	 * @param maxStdDevs
+	 */
+	private static void add(int[] counts, double[] means, double[] variances,
+			int band, int valueMsec, int windowSize, int minSamples,
+			double maxStdDevs) {
+		double value = valueMsec;
+
+		// If already have enough samples then limit how far the value can
+		// be from the mean
+		if (counts[band] >= minSamples) {
+			double maxDelta = maxStdDevs * Math.sqrt(variances[band]);
+			value = Math.max(means[band] - maxDelta,
+					Math.min(means[band] + maxDelta, value));
+		}
+
+		if (counts[band] < Integer.MAX_VALUE)
+			++counts[band];
+		double alpha = 1.0 / Math.min(counts[band], windowSize);
+		double delta = value - means[band];
+		means[band] += alpha * delta;
+		variances[band] = (1.0 - alpha) *
+				(variances[band] + alpha * delta * delta);
+	}
+
+	/**
+	 * Adds a travel time sample for the stop path.
+	 *
+	 * @param band
+	 *            Time band of when the vehicle departed the previous stop
+	 * @param travelTimeMsec
+	 * @param windowSize
+	 * @param minSamples
+	 * @param maxStdDevs
+	 */
+	public synchronized void addTravelTime(int band, int travelTimeMsec,
+			int windowSize, int minSamples, double maxStdDevs) {
+		add(travelTimeCounts, travelTimeMeans, travelTimeVariances, band,
+				travelTimeMsec, windowSize, minSamples, maxStdDevs);
+	}
+
+	/**
+	 * Adds a stop time sample for the stop at the end of the stop path.
+	 *
+	 * @param band
+	 *            Time band of when the vehicle arrived at the stop
+	 * @param stopTimeMsec
+	 * @param windowSize
+	 * @param minSamples
+	 * @param maxStdDevs
+	 */
+	public synchronized void addStopTime(int band, int stopTimeMsec,
+			int windowSize, int minSamples, double maxStdDevs) {
+		add(stopTimeCounts, stopTimeMeans, stopTimeVariances, band,
+				stopTimeMsec, windowSize, minSamples, maxStdDevs);
+	}
+
+	/**
+	 * Returns the mean travel time for the time band, or -1 if there are
+	 * fewer than minSamples samples for the band.
+	 *
+	 * @param band
+	 * @param minSamples
+	 * @return travel time in msec, or -1
+	 */
+	public synchronized int getTravelTimeMsec(int band, int minSamples) {
+		if (travelTimeCounts[band] < minSamples)
+			return -1;
+		return (int) Math.round(travelTimeMeans[band]);
+	}
+
+	/**
+	 * Returns the mean stop time for the time band, or -1 if there are fewer
+	 * than minSamples samples for the band.
+	 *
+	 * @param band
+	 * @param minSamples
+	 * @return stop time in msec, or -1
+	 */
+	public synchronized int getStopTimeMsec(int band, int minSamples) {
+		if (stopTimeCounts[band] < minSamples)
+			return -1;
+		return (int) Math.round(stopTimeMeans[band]);
+	}
+
+	/**
+	 * Returns the standard deviation of the travel time for the time band.
+	 *
+	 * @param band
+	 * @return standard deviation in msec
+	 */
+	public synchronized double getTravelTimeStdDevMsec(int band) {
+		return Math.sqrt(travelTimeVariances[band]);
+	}
+
+	/**
+	 * Returns number of travel time samples for the time band.
+	 *
+	 * @param band
+	 * @return
+	 */
+	public synchronized int getTravelTimeCount(int band) {
+		return travelTimeCounts[band];
+	}
+
+	/**
+	 * Returns number of stop time samples for the time band.
+	 *
+	 * @param band
+	 * @return
+	 */
+	public synchronized int getStopTimeCount(int band) {
+		return stopTimeCounts[band];
+	}
+
+	/**
+	 * Returns how many time bands there are.
+	 *
+	 * @return
+	 */
+	public int getNumberTimeBands() {
+		return travelTimeCounts.length;
+	}
+}
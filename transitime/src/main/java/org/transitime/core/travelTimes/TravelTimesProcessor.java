@@ -25,11 +25,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.DoubleConfigValue;
+import org.transitime.config.IntegerConfigValue;
 import org.transitime.core.TemporalDifference;
 import org.transitime.core.travelTimes.DataFetcher.DbDataMapKey;
 import org.transitime.db.structs.ArrivalDeparture;
@@ -127,22 +131,24 @@ public class TravelTimesProcessor {
 					+ "decreased to meet this limit. Purpose is to make sure "
 					+ "that don't get invalid travel times due to bad data.");
 	
-	// The aggregate data processed from the historic db data.
-	// ProcessedDataMapKey combines tripId and stopPathIndex in 
-	// order to combine data for a particular tripId and stopPathIndex.
-	// stopTimesMap contains data for each trip on how long vehicle was stopped
-	// for at a particular stop. It is obtained by comparing the arrival time
-	// with the departure time for each stop for each trip. There is one
-	// entry per data point, hence a List of Integers with one Integer
-	// per data point.
-	private static Map<ProcessedDataMapKey, List<Integer>> stopTimesMap = 
-			new HashMap<ProcessedDataMapKey, List<Integer>>();	
-	// Values are List of List of times where outer List is by single trip and
-	// inner List is by travel time segment. For every trip that has historical
-	// data we get a single entry in the outer List. For every travel time
-	// segment we have historical data for we get an entry in the inner List.
-	private static Map<ProcessedDataMapKey, List<List<Integer>>> travelTimesMap =
-			new HashMap<ProcessedDataMapKey, List<List<Integer>>>();
+	private static int getNumThreads() {
+		int numThreads = numThreadsConfig.getValue();
+		return numThreads > 0 ? 
+				numThreads : Runtime.getRuntime().availableProcessors();
+	}
+	private static IntegerConfigValue numThreadsConfig =
+			new IntegerConfigValue("transitime.travelTimes.numThreads",
+					0,
+					"Number of threads for reading in and processing the "
+					+ "historic data. The data is processed one service day "
+					+ "at a time so each thread only has a single day of "
+					+ "data in memory at once. If 0 then the number of "
+					+ "processors is used.");
+	
+	// The aggregate data processed from the historic db data. Each service
+	// day is processed into its own ProcessedData and then they are all
+	// merged into this one.
+	private static ProcessedData processedData = new ProcessedData();
 
 	private static final Logger logger = 
 			LoggerFactory.getLogger(TravelTimesProcessor.class);
@@ -191,39 +197,93 @@ public class TravelTimesProcessor {
 	}
 
 	/**
-	 * Adds stop times for a stop path for a single trip to the stopTimesMap.
-	 * 
-	 * @param mapKey
-	 * @param stopTimeMsec
+	 * The stop times and travel times processed from the historic data. Not
+	 * thread safe, so each thread processes data into its own ProcessedData
+	 * and the results are then merged.
 	 */
-	private static void addStopTimeToMap(ProcessedDataMapKey mapKey,
-			int stopTimeMsec) {
-		List<Integer> stopTimesForStop = stopTimesMap.get(mapKey);
-		if (stopTimesForStop == null) {
-			stopTimesForStop = new ArrayList<Integer>();
-			stopTimesMap.put(mapKey, stopTimesForStop);
+	private static class ProcessedData {
+		// ProcessedDataMapKey combines tripId and stopPathIndex in 
+		// order to combine data for a particular tripId and stopPathIndex.
+		// stopTimesMap contains data for each trip on how long vehicle was 
+		// stopped for at a particular stop. It is obtained by comparing the 
+		// arrival time with the departure time for each stop for each trip. 
+		// There is one entry per data point, hence a List of Integers with 
+		// one Integer per data point.
+		private final Map<ProcessedDataMapKey, List<Integer>> stopTimesMap = 
+				new HashMap<ProcessedDataMapKey, List<Integer>>();	
+		// Values are List of List of times where outer List is by single trip
+		// and inner List is by travel time segment. For every trip that has
+		// historical data we get a single entry in the outer List. For every
+		// travel time segment we have historical data for we get an entry in
+		// the inner List.
+		private final Map<ProcessedDataMapKey, List<List<Integer>>> travelTimesMap =
+				new HashMap<ProcessedDataMapKey, List<List<Integer>>>();
+
+		/**
+		 * Adds stop times for a stop path for a single trip to the
+		 * stopTimesMap.
+		 * 
+		 * @param mapKey
+		 * @param stopTimeMsec
+		 */
+		private void addStopTimeToMap(ProcessedDataMapKey mapKey,
+				int stopTimeMsec) {
+			List<Integer> stopTimesForStop = stopTimesMap.get(mapKey);
+			if (stopTimesForStop == null) {
+				stopTimesForStop = new ArrayList<Integer>();
+				stopTimesMap.put(mapKey, stopTimesForStop);
+			}
+			stopTimesForStop.add(stopTimeMsec);
+		}
+		
+		/**
+		 * Adds travel times for stop path for a single trip to the
+		 * travelTimesMap.
+		 * 
+		 * @param mapKey
+		 * @param travelTimesForStopPath
+		 */
+		private void addTravelTimesToMap(ProcessedDataMapKey mapKey, 
+				List<Integer> travelTimesForStopPath) {
+			// If there is no data then simply return
+			if (travelTimesForStopPath == null 
+					|| travelTimesForStopPath.isEmpty())
+				return;
+			
+			List<List<Integer>> travelTimesForStop = travelTimesMap.get(mapKey);
+			if (travelTimesForStop == null) {
+				travelTimesForStop = new ArrayList<List<Integer>>();
+				travelTimesMap.put(mapKey, travelTimesForStop);
+			}
+			travelTimesForStop.add(travelTimesForStopPath);
 		}
-		stopTimesForStop.add(stopTimeMsec);
-	}
-	
-	/**
-	 * Adds travel times for stop path for a single trip to the travelTimesMap.
-	 * 
-	 * @param mapKey
-	 * @param travelTimesForStopPath
-	 */
-	private static void addTravelTimesToMap(ProcessedDataMapKey mapKey, 
-			List<Integer> travelTimesForStopPath) {
-		// If there is no data then simply return
-		if (travelTimesForStopPath == null || travelTimesForStopPath.isEmpty())
-			return;
 		
-		List<List<Integer>> travelTimesForStop = travelTimesMap.get(mapKey);
-		if (travelTimesForStop == null) {
-			travelTimesForStop = new ArrayList<List<Integer>>();
-			travelTimesMap.put(mapKey, travelTimesForStop);
+		/**
+		 * Adds the data from other into this object. Since the stop times and
+		 * travel times are simply lists of data points the order doesn't
+		 * matter.
+		 * 
+		 * @param other
+		 */
+		private void merge(ProcessedData other) {
+			for (Map.Entry<ProcessedDataMapKey, List<Integer>> entry : 
+					other.stopTimesMap.entrySet()) {
+				List<Integer> stopTimes = stopTimesMap.get(entry.getKey());
+				if (stopTimes == null)
+					stopTimesMap.put(entry.getKey(), entry.getValue());
+				else
+					stopTimes.addAll(entry.getValue());
+			}
+			for (Map.Entry<ProcessedDataMapKey, List<List<Integer>>> entry : 
+					other.travelTimesMap.entrySet()) {
+				List<List<Integer>> travelTimes = 
+						travelTimesMap.get(entry.getKey());
+				if (travelTimes == null)
+					travelTimesMap.put(entry.getKey(), entry.getValue());
+				else
+					travelTimes.addAll(entry.getValue());
+			}
 		}
-		travelTimesForStop.add(travelTimesForStopPath);
 	}
 	
 	/**
@@ -242,9 +302,12 @@ public class TravelTimesProcessor {
 	 * For when the arrival/departure is for first stop of trip. If the schedule
 	 * adherence isn't too bad adds the stop time to the stop wait map.
 	 * 
+	 * @param results
+	 *            Where the resulting stop time is put
 	 * @param arrDep
 	 */
-	private static void processFirstStopOfTrip(ArrivalDeparture arrDep) {
+	private static void processFirstStopOfTrip(ProcessedData results,
+			ArrivalDeparture arrDep) {
 		// Only need to handle departure for first stop in trip
 		if (arrDep.getStopPathIndex() != 0) 
 			return;
@@ -277,7 +340,7 @@ public class TravelTimesProcessor {
 						arrDep.getStopId());
 
 		// Add this stop time to map so it can be averaged
-		addStopTimeToMap(mapKeyForTravelTimes, lateTimeMsec);		
+		results.addStopTimeToMap(mapKeyForTravelTimes, lateTimeMsec);		
 	}
 	
 	/**
@@ -492,7 +555,7 @@ public class TravelTimesProcessor {
 	 *         each travel time segment. If the match points are garbled and go
 	 *         backwards in time then null is returned.
 	 */
-	private List<Integer> determineTravelTimesForStopPath(
+	private static List<Integer> determineTravelTimesForStopPath(
 			DataFetcher dataFetcher, ArrivalDeparture arrDep1,
 			ArrivalDeparture arrDep2) {
 		// Determine departure time. If shouldn't use departures times
@@ -636,14 +699,16 @@ public class TravelTimesProcessor {
 	 * 
 	 * @param dataFetcher
 	 *            Contains the AVL based historic data in maps
+	 * @param results
+	 *            Where the resulting travel and stop times are put
 	 * @param arrDep1
 	 *            The first arrival/departure
 	 * @param arrDep2
 	 *            The second arrival/departure
 	 */
-	private void processDataBetweenTwoArrivalDepartures(
-			DataFetcher dataFetcher, ArrivalDeparture arrDep1,
-			ArrivalDeparture arrDep2) {
+	private static void processDataBetweenTwoArrivalDepartures(
+			DataFetcher dataFetcher, ProcessedData results,
+			ArrivalDeparture arrDep1, ArrivalDeparture arrDep2) {
 		// If schedule adherence is really far off then ignore the data
 		// point because it would skew the results.
 		TemporalDifference schedAdh = arrDep1.getScheduleAdherence();
@@ -670,7 +735,7 @@ public class TravelTimesProcessor {
 			int dwellTimeMsec = (int) (arrDep2.getTime() - arrDep1.getTime());
 
 			// Add this stop time to map so it can be averaged
-			addStopTimeToMap(mapKeyForTravelTimes, dwellTimeMsec);		
+			results.addStopTimeToMap(mapKeyForTravelTimes, dwellTimeMsec);		
 
 			return;
 		}
@@ -684,7 +749,8 @@ public class TravelTimesProcessor {
 			List<Integer> travelTimesForStopPath = 
 					determineTravelTimesForStopPath(dataFetcher, arrDep1, 
 							arrDep2);
-			addTravelTimesToMap(mapKeyForTravelTimes, travelTimesForStopPath);
+			results.addTravelTimesToMap(mapKeyForTravelTimes, 
+					travelTimesForStopPath);
 				
 			return;
 		}
@@ -692,15 +758,17 @@ public class TravelTimesProcessor {
 	
 	/**
 	 * Process historic data from database for single trip. Puts resulting data
-	 * into stopTimesMap and travelTimesMap.
+	 * into stopTimesMap and travelTimesMap of the results.
 	 * 
 	 * @param dataFetcher
 	 *            Contains arrival/departures and matches fetched from database
+	 * @param results
+	 *            Where the resulting travel and stop times are put
 	 * @param arrDepList
 	 *            List of ArrivalDepartures for vehicle for a trip
 	 */
-	private void aggregateTripDataIntoMaps(DataFetcher dataFetcher,
-			List<ArrivalDeparture> arrDepList) {
+	private static void aggregateTripDataIntoMaps(DataFetcher dataFetcher,
+			ProcessedData results, List<ArrivalDeparture> arrDepList) {
 		
 		for (int i=0; i<arrDepList.size()-1; ++i) {
 			ArrivalDeparture arrDep1 = arrDepList.get(i);
@@ -713,12 +781,13 @@ public class TravelTimesProcessor {
 					continue;
 
 				// Handle first stop
-				processFirstStopOfTrip(arrDep1);
+				processFirstStopOfTrip(results, arrDep1);
 			} 
 			
 			// Deal with normal travel times
 			ArrivalDeparture arrDep2 = arrDepList.get(i+1);				
-			processDataBetweenTwoArrivalDepartures(dataFetcher, arrDep1, arrDep2);							
+			processDataBetweenTwoArrivalDepartures(dataFetcher, results, 
+					arrDep1, arrDep2);							
 		}		
 	}
 		
@@ -816,8 +885,8 @@ public class TravelTimesProcessor {
 		// to combine keys from both stopTimesMap and travelTimesMap.
 		Set<ProcessedDataMapKey> combinedKeySet = 
 				new HashSet<ProcessedDataMapKey>();
-		combinedKeySet.addAll(travelTimesMap.keySet());
-		combinedKeySet.addAll(stopTimesMap.keySet());
+		combinedKeySet.addAll(processedData.travelTimesMap.keySet());
+		combinedKeySet.addAll(processedData.stopTimesMap.keySet());
 		
 		// For each trip/stop path that had historical arrivals/departures and 
 		// or matches in the database...
@@ -856,7 +925,7 @@ public class TravelTimesProcessor {
 			
 			// Determine average travel times for this trip/stop path
 			List<List<Integer>> travelTimesForStopPathForTrip =
-					travelTimesMap.get(mapKey);
+					processedData.travelTimesMap.get(mapKey);
 			List<Integer> averageTravelTimes = new ArrayList<Integer>();
 			if (travelTimesForStopPathForTrip != null) {
 				// Get the travel times, grouped by segment
@@ -881,7 +950,7 @@ public class TravelTimesProcessor {
 			// Determine average stop time for this trip/stop
 			int averagedStopTime;
 			List<Integer> stopTimesForStopPathForTrip = 
-					stopTimesMap.get(mapKey);
+					processedData.stopTimesMap.get(mapKey);
 			if (stopTimesForStopPathForTrip != null) { 
 				// For first stops of trip will be providing departure
 				// times so need to be conservative and bias the stop time
@@ -942,36 +1011,125 @@ public class TravelTimesProcessor {
 		return travelTimeInfoMap;	
 	}
 	
+	/**
+	 * Reads in and processes the historic data for a range of service days.
+	 * If there is more than a single day then the range is split in half and
+	 * the halves are processed in parallel, with the results then being
+	 * merged. This way only the data for a single day needs to be in memory
+	 * for each thread and all the cores are used.
+	 */
+	private static class ServiceDaysTask extends RecursiveTask<ProcessedData> {
+		private final String projectId;
+		private final TimeZone timezone;
+		// Boundaries of the service days. Day i is from dayBoundaries[i] to 
+		// dayBoundaries[i+1].
+		private final List<Date> dayBoundaries;
+		// The days to process, firstDay inclusive and endDay exclusive
+		private final int firstDay;
+		private final int endDay;
+
+		private static final long serialVersionUID = -2883719384318740342L;
+
+		private ServiceDaysTask(String projectId, TimeZone timezone,
+				List<Date> dayBoundaries, int firstDay, int endDay) {
+			this.projectId = projectId;
+			this.timezone = timezone;
+			this.dayBoundaries = dayBoundaries;
+			this.firstDay = firstDay;
+			this.endDay = endDay;
+		}
+		
+		@Override
+		protected ProcessedData compute() {
+			if (endDay - firstDay == 1)
+				return processDay();
+			
+			int middleDay = (firstDay + endDay) / 2;
+			ServiceDaysTask first = new ServiceDaysTask(projectId, timezone,
+					dayBoundaries, firstDay, middleDay);
+			ServiceDaysTask second = new ServiceDaysTask(projectId, timezone,
+					dayBoundaries, middleDay, endDay);
+			first.fork();
+			ProcessedData results = second.compute();
+			results.merge(first.join());
+			return results;
+		}
+		
+		/**
+		 * Reads in the arrivals/departures and matches for the single service
+		 * day and processes them.
+		 * 
+		 * @return the processed data for the day
+		 */
+		private ProcessedData processDay() {
+			Date beginTime = dayBoundaries.get(firstDay);
+			Date endTime = dayBoundaries.get(firstDay + 1);
+			logger.info("Reading and processing historic data from {} to {}",
+					beginTime, endTime);
+			IntervalTimer intervalTimer = new IntervalTimer();
+			
+			// Read the arrivals/departures and matches into a DataFetcher.
+			// Each day uses its own DataFetcher since they are not thread
+			// safe.
+			DataFetcher dataFetcher = new DataFetcher(timezone);
+			dataFetcher.readData(projectId, beginTime, endTime);
+			
+			// Process all the historic data read from the database
+			ProcessedData results = new ProcessedData();
+			Collection<List<ArrivalDeparture>> arrivalDepartures =
+					dataFetcher.getArrivalDepartureMap().values();
+			for (List<ArrivalDeparture> arrDepList : arrivalDepartures) {
+				debugLogTrip(arrDepList);
+				aggregateTripDataIntoMaps(dataFetcher, results, arrDepList);
+			}
+			
+			logger.info("Reading and processing historic data from {} to {} "
+					+ "took {} msec", 
+					beginTime, endTime, intervalTimer.elapsedMsec());
+			return results;
+		}
+	}
+	
 	/**
 	 * Reads in the Matches and the ArrivalDepartures from the database for the
 	 * time specified. Puts the data into the stopTimesMap and the travelTimesMap 
 	 * for further processing.
+	 * <p>
+	 * The data is read in and processed one service day at a time, using
+	 * multiple threads. Since the data for a vehicle trip is always within a
+	 * single service day this yields the same results as processing all the
+	 * data at once, but uses far less memory and is faster.
 	 * 
 	 * @param projectId
-	 * @param specialDaysOfWeek
 	 * @param beginTime
 	 * @param endTime
 	 */
-	public void readAndProcessHistoricData(String projectId, 
-			List<Integer> specialDaysOfWeek, Date beginTime, Date endTime) {
-		// Read the arrivals/departures and matches into a DataFetcher
-		DataFetcher dataFetcher = new DataFetcher(projectId, specialDaysOfWeek);
-		dataFetcher.readData(projectId, beginTime, endTime);
-		
-		// Process all the historic data read from the database. Puts 
-		// resulting data into stopTimesMap and travelTimesMap.
-		logger.info("Processing data into travel time maps...");
+	public void readAndProcessHistoricData(String projectId, Date beginTime,
+			Date endTime) {
+		// Divide the time range up into service days
+		TimeZone timezone = DataFetcher.getTimeZone(projectId);
+		List<Date> dayBoundaries = new DataFetcher(timezone)
+				.getServiceDayBoundaries(beginTime, endTime);
+		int numDays = dayBoundaries.size() - 1;
+		
+		// Process the days in parallel. Puts resulting data into 
+		// stopTimesMap and travelTimesMap.
+		int numThreads = getNumThreads();
+		logger.info("Reading and processing historic data for {} service "
+				+ "days using {} threads...", numDays, numThreads);
 		IntervalTimer intervalTimer = new IntervalTimer();
-		Collection<List<ArrivalDeparture>> arrivalDepartures =
-				dataFetcher.getArrivalDepartureMap().values();
-		for (List<ArrivalDeparture> arrDepList : arrivalDepartures) {
-			debugLogTrip(arrDepList);
-			aggregateTripDataIntoMaps(dataFetcher, arrDepList);
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			ProcessedData results = pool.invoke(new ServiceDaysTask(projectId,
+					timezone, dayBoundaries, 0, numDays));
+			processedData.merge(results);
+		} finally {
+			pool.shutdown();
 		}
 		
 		// Nice to log how long things took so can see progress and bottle necks
-		logger.info("Processing data from db into the travel times and stop " +
-				"times map took {} msec.", 
+		logger.info("Reading and processing data from db into the travel "
+				+ "times and stop times map took {} msec.", 
 				intervalTimer.elapsedMsec());
 	}	
 
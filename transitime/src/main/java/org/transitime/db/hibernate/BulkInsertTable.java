@@ -0,0 +1,113 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.db.hibernate;
+
+/**
+ * Describes how objects of a Hibernate persisted class are written to their
+ * table by DbBulkWriter. The column names must match the ones that Hibernate
+ * generates for the class, which by default are the member names. Each class
+ * that can be bulk written defines a static BulkInsertTable since only the
+ * class itself has access to all of its persisted members.
+ *
+ * @author SkiBu Smith
+ *
+ * @param <T>
+ *            The class being written
+ */
+public abstract class BulkInsertTable<T> {
+
+	private final String tableName;
+
+	// If the table has an id that is generated by the database then this
+	// is the name of the id column. Otherwise null.
+	private final String generatedIdColumn;
+
+	private final String[] columnNames;
+
+	// The java.sql.Types of the columns. Needed for writing null values.
+	private final int[] sqlTypes;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param tableName
+	 *            Name of the db table
+	 * @param generatedIdColumn
+	 *            Name of id column if id is generated by the database, as
+	 *            with GenerationType.AUTO. Otherwise null.
+	 * @param columnNames
+	 *            Names of the columns returned by getColumnValues(), not
+	 *            including generatedIdColumn
+	 * @param sqlTypes
+	 *            The java.sql.Types of the columns
+	 */
+	public BulkInsertTable(String tableName, String generatedIdColumn,
+			String[] columnNames, int[] sqlTypes) {
+		if (columnNames.length != sqlTypes.length)
+			throw new IllegalArgumentException("For table " + tableName
+					+ " the number of column names " + columnNames.length
+					+ " doesn't match the number of sqlTypes "
+					+ sqlTypes.length);
+
+		this.tableName = tableName;
+		this.generatedIdColumn = generatedIdColumn;
+		this.columnNames = columnNames;
+		this.sqlTypes = sqlTypes;
+	}
+
+	/**
+	 * Returns the values to be written for the object, in the same order as
+	 * the column names. Dates are written as timestamps and enums should be
+	 * converted to their names.
+	 *
+	 * @param t
+	 *            The object to be written
+	 * @return Array of column values. Elements can be null.
+	 */
+	public abstract Object[] getColumnValues(T t);
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getGeneratedIdColumn() {
+		return generatedIdColumn;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public int[] getSqlTypes() {
+		return sqlTypes;
+	}
+
+	/**
+	 * Returns the column names separated by commas, for use in SQL.
+	 *
+	 * @return comma separated column names
+	 */
+	public String getColumnList() {
+		StringBuilder sb = new StringBuilder();
+		for (String columnName : columnNames) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(columnName);
+		}
+		return sb.toString();
+	}
+}
@@ -16,6 +16,7 @@
  */
 package org.transitime.db.hibernate;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -134,14 +135,49 @@ public class DataDbLogger {
 	private DataDbLogger(String projectId, boolean shouldStoreToDb, 
 			boolean shouldPauseToReduceQueue) {
 		
-	  arrivalDepartureQueue = new DbQueue<ArrivalDeparture>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, ArrivalDeparture.class.getSimpleName());
-	  avlReportQueue = new DbQueue<AvlReport>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, AvlReport.class.getSimpleName());
-	  vehicleConfigQueue = new DbQueue<VehicleConfig>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, VehicleConfig.class.getSimpleName());
-		predictionQueue = new DbQueue<Prediction>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, Prediction.class.getSimpleName());
-	  matchQueue = new DbQueue<Match>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, Match.class.getSimpleName());
-	  predictionAccuracyQueue = new DbQueue<PredictionAccuracy>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, PredictionAccuracy.class.getSimpleName());
+	  // For the high volume data use bulk writers, if configured to do so,
+	  // so that batches are written directly via JDBC
+	  boolean useBulkWriter = DbSetupConfig.useBulkWriter();
+	  logger.info("DataDbLogger useBulkWriter={}", useBulkWriter);
+	  
+	  // The data is partitioned between the writer threads of a queue by
+	  // vehicleId so that the data for a vehicle is written in order
+	  arrivalDepartureQueue = new DbQueue<ArrivalDeparture>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, ArrivalDeparture.class.getSimpleName(),
+	      useBulkWriter ? new DbBulkWriter<ArrivalDeparture>(ArrivalDeparture.BULK_INSERT_TABLE) : null,
+	      new DbQueue.PartitionKey<ArrivalDeparture>() {
+	        public Object getKey(ArrivalDeparture ad) { return ad.getVehicleId(); }
+	      });
+	  avlReportQueue = new DbQueue<AvlReport>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, AvlReport.class.getSimpleName(),
+	      useBulkWriter ? new DbBulkWriter<AvlReport>(AvlReport.BULK_INSERT_TABLE) : null,
+	      new DbQueue.PartitionKey<AvlReport>() {
+	        public Object getKey(AvlReport avlReport) { return avlReport.getVehicleId(); }
+	      });
+	  vehicleConfigQueue = new DbQueue<VehicleConfig>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, VehicleConfig.class.getSimpleName(),
+	      null,
+	      new DbQueue.PartitionKey<VehicleConfig>() {
+	        public Object getKey(VehicleConfig vehicleConfig) { return vehicleConfig.getId(); }
+	      });
+		predictionQueue = new DbQueue<Prediction>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, Prediction.class.getSimpleName(),
+		    useBulkWriter ? new DbBulkWriter<Prediction>(Prediction.BULK_INSERT_TABLE) : null,
+		    new DbQueue.PartitionKey<Prediction>() {
+		      public Object getKey(Prediction prediction) { return prediction.getVehicleId(); }
+		    });
+	  matchQueue = new DbQueue<Match>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, Match.class.getSimpleName(),
+	      useBulkWriter ? new DbBulkWriter<Match>(Match.BULK_INSERT_TABLE) : null,
+	      new DbQueue.PartitionKey<Match>() {
+	        public Object getKey(Match match) { return match.getVehicleId(); }
+	      });
+	  predictionAccuracyQueue = new DbQueue<PredictionAccuracy>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, PredictionAccuracy.class.getSimpleName(),
+	      null,
+	      new DbQueue.PartitionKey<PredictionAccuracy>() {
+	        public Object getKey(PredictionAccuracy pa) { return pa.getVehicleId(); }
+	      });
 	  monitoringEventQueue = new DbQueue<MonitoringEvent>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, MonitoringEvent.class.getSimpleName());
-	  vehicleEventQueue = new DbQueue<VehicleEvent>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, VehicleEvent.class.getSimpleName());
+	  vehicleEventQueue = new DbQueue<VehicleEvent>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, VehicleEvent.class.getSimpleName(),
+	      null,
+	      new DbQueue.PartitionKey<VehicleEvent>() {
+	        public Object getKey(VehicleEvent vehicleEvent) { return vehicleEvent.getVehicleId(); }
+	      });
 	  genericQueue = new DbQueue<Object>(projectId, shouldStoreToDb, shouldPauseToReduceQueue, Object.class.getSimpleName());
 		
 	}
@@ -152,6 +188,16 @@ public class DataDbLogger {
 	public boolean add(AvlReport ar) {
 	  return avlReportQueue.add(ar);
 	}
+	/**
+	 * Adds a batch of AVL reports to the queue. More efficient than adding
+	 * them individually since the queue level only needs to be checked once.
+	 * 
+	 * @param ars
+	 * @return True if all were added. False if queue was full.
+	 */
+	public boolean addAvlReports(Collection<AvlReport> ars) {
+	  return avlReportQueue.addAll(ars);
+	}
 	public boolean add(VehicleConfig vc) {
 	  return vehicleConfigQueue.add(vc);
 	}
@@ -215,6 +261,45 @@ public class DataDbLogger {
 	      ;
 	}
 	
+	/**
+	 * Returns number of objects that overflowed into the on-disk journals
+	 * of the queues and are waiting to be written to the db.
+	 * 
+	 * @return objects in journals
+	 */
+	public long journalSize() {
+	  return 
+	      arrivalDepartureQueue.journalSize()
+	      + avlReportQueue.journalSize()
+	      + vehicleConfigQueue.journalSize()
+	      + predictionQueue.journalSize()
+	      + matchQueue.journalSize()
+	      + predictionAccuracyQueue.journalSize()
+	      + monitoringEventQueue.journalSize()
+	      + vehicleEventQueue.journalSize()
+	      + genericQueue.journalSize()
+	      ;
+	}
+	
+	/**
+	 * Returns disk space used by the journals of the queues.
+	 * 
+	 * @return bytes used by journals
+	 */
+	public long journalBytesOnDisk() {
+	  return 
+	      arrivalDepartureQueue.journalBytesOnDisk()
+	      + avlReportQueue.journalBytesOnDisk()
+	      + vehicleConfigQueue.journalBytesOnDisk()
+	      + predictionQueue.journalBytesOnDisk()
+	      + matchQueue.journalBytesOnDisk()
+	      + predictionAccuracyQueue.journalBytesOnDisk()
+	      + monitoringEventQueue.journalBytesOnDisk()
+	      + vehicleEventQueue.journalBytesOnDisk()
+	      + genericQueue.journalBytesOnDisk()
+	      ;
+	}
+	
 	/**
 	 * Just for doing some testing
 	 * 
@@ -0,0 +1,337 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.db.hibernate;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.configData.DbSetupConfig;
+
+/**
+ * For writing a batch of objects to the database directly via JDBC instead of
+ * saving each object via the Hibernate session. Saving via the session means
+ * that Hibernate has to track each object and then issue a separate insert
+ * for each one when the transaction is committed, which for the high volume
+ * data such as AVL reports and predictions is a significant part of the
+ * load. Instead a single multi-row insert statement is used for the batch.
+ * If the database is PostgreSQL then the COPY command is used instead, which
+ * is even faster.
+ * <p>
+ * The writing is done using the connection of the session passed in so it is
+ * part of the session's transaction. If any row is bad, such as a duplicate,
+ * then the whole batch fails just like it does when saving via the session.
+ * DbQueue then rolls back the transaction and writes the objects individually
+ * so that all the good data is still stored.
+ *
+ * @author SkiBu Smith
+ *
+ * @param <T>
+ *            The class being written
+ */
+public class DbBulkWriter<T> {
+
+	private final BulkInsertTable<T> table;
+
+	// Determined from the first connection used. Null until then.
+	private volatile Boolean isPostgres = null;
+
+	// So only log once that COPY is not available
+	private volatile boolean copyUnavailableLogged = false;
+
+	// Describes how the last batch was written. For logging throughput.
+	private volatile String method = "none";
+
+	// PostgreSQL only allows 32767 parameters per statement so limit the
+	// number of rows per multi-row insert statement accordingly
+	private static final int MAX_PARAMS_PER_STATEMENT = 30000;
+
+	// PostgreSQL uses the hibernate_sequence for ids generated using
+	// GenerationType.AUTO. For other databases auto increment columns are
+	// used and the id column is simply left out of the insert.
+	private static final String POSTGRES_ID_VALUE =
+			"nextval('hibernate_sequence')";
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(DbBulkWriter.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param table
+	 *            Describes how the objects are written to the table
+	 */
+	public DbBulkWriter(BulkInsertTable<T> table) {
+		this.table = table;
+	}
+
+	/**
+	 * Writes the objects using the connection of the session. The objects
+	 * are not committed until the session's transaction is committed.
+	 *
+	 * @param session
+	 *            Session with an active transaction
+	 * @param objects
+	 *            The objects to write
+	 * @throws HibernateException
+	 *             If there is a problem with the database or with any of the
+	 *             objects. The SQLException is converted to the appropriate
+	 *             HibernateException, such as ConstraintViolationException.
+	 */
+	public void write(Session session, final List<T> objects)
+			throws HibernateException {
+		if (objects.isEmpty())
+			return;
+
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				write(connection, objects);
+			}
+		});
+	}
+
+	/**
+	 * Writes the objects using COPY if database is PostgreSQL and COPY can be
+	 * used. Otherwise uses multi-row inserts.
+	 *
+	 * @param connection
+	 * @param objects
+	 * @throws SQLException
+	 */
+	private void write(Connection connection, List<T> objects)
+			throws SQLException {
+		if (isPostgres == null) {
+			String productName =
+					connection.getMetaData().getDatabaseProductName();
+			isPostgres = productName != null
+					&& productName.toLowerCase().contains("postgres");
+		}
+
+		// COPY can't generate ids so only use it if ids not generated
+		if (isPostgres && DbSetupConfig.usePostgresCopy()
+				&& table.getGeneratedIdColumn() == null) {
+			CopyManager copyManager = getCopyManager(connection);
+			if (copyManager != null) {
+				copy(copyManager, objects);
+				method = "COPY";
+				return;
+			}
+		}
+
+		insert(connection, objects);
+		method = "multi-row insert";
+	}
+
+	/**
+	 * Returns the CopyManager for the connection. The connection is usually
+	 * wrapped by the connection pool so need to unwrap it to get to the
+	 * PostgreSQL connection.
+	 *
+	 * @param connection
+	 * @return The CopyManager, or null if not available
+	 */
+	private CopyManager getCopyManager(Connection connection) {
+		try {
+			if (connection instanceof PGConnection)
+				return ((PGConnection) connection).getCopyAPI();
+			if (connection.isWrapperFor(PGConnection.class))
+				return connection.unwrap(PGConnection.class).getCopyAPI();
+		} catch (SQLException | AbstractMethodError e) {
+			// AbstractMethodError is for old connection pools that
+			// don't implement unwrap()
+			if (!copyUnavailableLogged)
+				logger.error("Could not get PostgreSQL connection for "
+						+ "writing to table {} using COPY. {}",
+						table.getTableName(), e.getMessage());
+		}
+
+		if (!copyUnavailableLogged) {
+			logger.warn("COPY not available for writing to table {} so "
+					+ "will use multi-row inserts instead.",
+					table.getTableName());
+			copyUnavailableLogged = true;
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the objects using multi-row insert statements.
+	 *
+	 * @param connection
+	 * @param objects
+	 * @throws SQLException
+	 */
+	private void insert(Connection connection, List<T> objects)
+			throws SQLException {
+		int[] sqlTypes = table.getSqlTypes();
+		int rowsPerStatement =
+				Math.max(1, MAX_PARAMS_PER_STATEMENT / sqlTypes.length);
+
+		for (int start = 0; start < objects.size(); start += rowsPerStatement) {
+			List<T> rows = objects.subList(start,
+					Math.min(start + rowsPerStatement, objects.size()));
+
+			PreparedStatement statement =
+					connection.prepareStatement(getInsertSql(rows.size()));
+			try {
+				int parameterIndex = 1;
+				for (T t : rows) {
+					Object[] values = table.getColumnValues(t);
+					for (int i = 0; i < values.length; ++i) {
+						Object value = values[i];
+						if (value == null)
+							statement.setNull(parameterIndex, sqlTypes[i]);
+						else if (value instanceof Date
+								&& !(value instanceof Timestamp))
+							statement.setTimestamp(parameterIndex,
+									new Timestamp(((Date) value).getTime()));
+						else
+							statement.setObject(parameterIndex, value);
+						++parameterIndex;
+					}
+				}
+
+				statement.executeUpdate();
+			} finally {
+				statement.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the SQL for inserting the specified number of rows.
+	 *
+	 * @param numRows
+	 * @return the SQL
+	 */
+	private String getInsertSql(int numRows) {
+		String idColumn = table.getGeneratedIdColumn();
+		boolean includeId = idColumn != null && isPostgres;
+
+		StringBuilder row = new StringBuilder("(");
+		if (includeId)
+			row.append(POSTGRES_ID_VALUE).append(", ");
+		for (int i = 0; i < table.getColumnNames().length; ++i)
+			row.append(i == 0 ? "?" : ", ?");
+		row.append(")");
+
+		StringBuilder sql = new StringBuilder(row.length() * numRows + 100);
+		sql.append("INSERT INTO ").append(table.getTableName()).append(" (");
+		if (includeId)
+			sql.append(idColumn).append(", ");
+		sql.append(table.getColumnList()).append(") VALUES ");
+		for (int i = 0; i < numRows; ++i) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(row);
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Writes the objects using the PostgreSQL COPY command with the default
+	 * text format.
+	 *
+	 * @param copyManager
+	 * @param objects
+	 * @throws SQLException
+	 */
+	private void copy(CopyManager copyManager, List<T> objects)
+			throws SQLException {
+		StringBuilder sb = new StringBuilder(objects.size()
+				* table.getColumnNames().length * 16);
+		for (T t : objects) {
+			Object[] values = table.getColumnValues(t);
+			for (int i = 0; i < values.length; ++i) {
+				if (i > 0)
+					sb.append('\t');
+				appendCopyValue(sb, values[i]);
+			}
+			sb.append('\n');
+		}
+
+		String sql = "COPY " + table.getTableName() + " ("
+				+ table.getColumnList() + ") FROM STDIN";
+		try {
+			copyManager.copyIn(sql, new StringReader(sb.toString()));
+		} catch (IOException e) {
+			throw new SQLException("Exception copying to table "
+					+ table.getTableName(), e);
+		}
+	}
+
+	/**
+	 * Appends the value in the COPY text format. Timestamps are written in
+	 * local time, the same as the JDBC driver does. Package-private so that
+	 * the escaping can be tested.
+	 *
+	 * @param sb
+	 * @param value
+	 */
+	static void appendCopyValue(StringBuilder sb, Object value) {
+		if (value == null) {
+			sb.append("\\N");
+		} else if (value instanceof Boolean) {
+			sb.append((Boolean) value ? 't' : 'f');
+		} else if (value instanceof Date) {
+			Timestamp timestamp = value instanceof Timestamp ?
+					(Timestamp) value : new Timestamp(((Date) value).getTime());
+			sb.append(timestamp.toString());
+		} else if (value instanceof Number) {
+			sb.append(value.toString());
+		} else {
+			// Need to escape backslashes and the delimiter characters
+			String str = value.toString();
+			for (int i = 0; i < str.length(); ++i) {
+				char c = str.charAt(i);
+				switch (c) {
+				case '\\': sb.append("\\\\"); break;
+				case '\t': sb.append("\\t"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				default: sb.append(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns how the last batch was written, such as "COPY". For logging.
+	 *
+	 * @return description of write method
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	public BulkInsertTable<T> getTable() {
+		return table;
+	}
+}
@@ -1,13 +1,23 @@
 package org.transitime.db.hibernate;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -20,6 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.configData.DbSetupConfig;
 import org.transitime.logging.Markers;
+import org.transitime.monitoring.metrics.Counter;
+import org.transitime.monitoring.metrics.LatencyTimer;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.Time;
 import org.transitime.utils.threading.NamedThreadFactory;
@@ -33,13 +46,32 @@ public class DbQueue<T> {
   private static final Logger logger = 
       LoggerFactory.getLogger(DbQueue.class);
   
+  // Shared by all of the queues since of interest is the total time spent
+  // by the processing threads enqueuing objects, and the data lost
+  private static final LatencyTimer enqueueTimer =
+      MetricsRegistry.getInstance().getTimer("DbQueueEnqueue");
+  private static final Counter droppedCounter =
+      MetricsRegistry.getInstance().getCounter("DbQueueDropped");
+  
   // For when cannot connect to data the length of time in msec between retries
   private static final long TIME_BETWEEN_RETRIES = 1 * 1000; //msec
   
   private static final int QUEUE_CAPACITY = 500000;
 
-  // The queue that objects to be stored are placed in
-  private BlockingQueue<T> queue = new LinkedBlockingQueue<T>(QUEUE_CAPACITY);
+  // The objects are split into partitions, each with its own queue and
+  // writer thread, so that multiple threads can write to the db. Objects
+  // with the same partition key, such as the vehicleId, always go to the
+  // same partition so that they are written in order.
+  private final List<Partition> partitions;
+  
+  // For determining which partition an object goes to. If null then
+  // objects are distributed round robin.
+  private final PartitionKey<T> partitionKey;
+  private final AtomicInteger roundRobinCounter = new AtomicInteger();
+  
+  // Max objects to keep in memory for a partition before overflowing into
+  // the journal
+  private final int highWaterMark;
   
 
   // When running in playback mode where getting AVLReports from database
@@ -49,9 +81,10 @@ public class DbQueue<T> {
   // shouldStoreToDb should be set to false.
   private final boolean shouldStoreToDb;
 
-  // Used by add(). If queue filling up to 25% and shouldPauseToReduceQueue is
-  // true then will pause the calling thread for a few seconds so that more
-  // objects can be written out and not have the queue fill up.
+  // Used by add(). If true then instead of overflowing into the journal
+  // the calling thread blocks when the queue of a partition reaches the high
+  // water mark until the writer thread has made room. This way a batch
+  // process adds data as fast as the db can write it.
   private final boolean shouldPauseToReduceQueue;
 
   // The queue capacity levels when an error message should be e-mailed out. 
@@ -71,41 +104,337 @@ public class DbQueue<T> {
   // So can access projectId for logging messages
   private String projectId;
 
-  // The Session for writing data to db
-  private SessionFactory sessionFactory;
+  // The Session for writing data to db. Volatile since a writer thread
+  // replaces it if there is a connection problem.
+  private volatile SessionFactory sessionFactory;
   
-  // collect some statistics on how the db is performing
-  private long throughputCount = 0;
+  // For writing batches directly via JDBC instead of via the session.
+  // Null if objects should be saved via the session.
+  private final DbBulkWriter<T> bulkWriter;
+  
+  // collect some statistics on how the db is performing. Updated by the
+  // writer thread and read by the ThroughputMonitor thread.
+  private final AtomicLong throughputCount = new AtomicLong();
+  private final AtomicLong individualWriteCount = new AtomicLong();
   private long throughputTimestamp = System.currentTimeMillis();
   private String shortType;
 
   public DbQueue(String projectId, boolean shouldStoreToDb, 
       boolean shouldPauseToReduceQueue, String shortType) {
+    this(projectId, shouldStoreToDb, shouldPauseToReduceQueue, shortType, 
+        null);
+  }
+  
+  /**
+   * @param projectId
+   * @param shouldStoreToDb
+   * @param shouldPauseToReduceQueue
+   * @param shortType
+   *          Name of the type of objects stored, for logging
+   * @param bulkWriter
+   *          For writing the batches directly via JDBC. If null then each
+   *          object is saved via the Hibernate session.
+   */
+  public DbQueue(String projectId, boolean shouldStoreToDb, 
+      boolean shouldPauseToReduceQueue, String shortType, 
+      DbBulkWriter<T> bulkWriter) {
+    this(projectId, shouldStoreToDb, shouldPauseToReduceQueue, shortType, 
+        bulkWriter, null);
+  }
+  
+  /**
+   * @param projectId
+   * @param shouldStoreToDb
+   * @param shouldPauseToReduceQueue
+   * @param shortType
+   *          Name of the type of objects stored, for logging
+   * @param bulkWriter
+   *          For writing the batches directly via JDBC. If null then each
+   *          object is saved via the Hibernate session.
+   * @param partitionKey
+   *          For determining which writer thread an object goes to so that
+   *          objects with the same key are written in order. If null then
+   *          objects are distributed round robin.
+   */
+  public DbQueue(String projectId, boolean shouldStoreToDb, 
+      boolean shouldPauseToReduceQueue, String shortType, 
+      DbBulkWriter<T> bulkWriter, PartitionKey<T> partitionKey) {
     this.projectId = projectId;
     this.shouldStoreToDb = shouldStoreToDb;
     this.shouldPauseToReduceQueue = shouldPauseToReduceQueue;
     this.shortType = shortType;
+    this.bulkWriter = bulkWriter;
+    this.partitionKey = partitionKey;
+    
+    int numPartitions = Math.max(1, DbSetupConfig.getWriterThreadsPerQueue());
+    this.highWaterMark = Math.max(1, Math.min(
+        DbSetupConfig.getQueueHighWaterMark(), QUEUE_CAPACITY) / numPartitions);
     
+    // When pausing the calling thread the queue only needs to hold up to 
+    // the high water mark. Otherwise the memory queue is used if the 
+    // journal isn't available.
+    int capacity = shouldPauseToReduceQueue ? 
+        highWaterMark : QUEUE_CAPACITY / numPartitions;
+    boolean useJournal = shouldStoreToDb && !shouldPauseToReduceQueue 
+        && DbSetupConfig.useQueueJournal();
+    if (useJournal && DbSetupConfig.getQueueJournalDirectory() == null) {
+      logger.error("transitime.db.useQueueJournal is true but "
+          + "transitime.db.queueJournalDirectory is not set so no journal "
+          + "is used for type {} and data will only be queued in memory.", 
+          shortType);
+      useJournal = false;
+    }
+    
+    partitions = new ArrayList<Partition>(numPartitions);
+    Set<String> journalNames = new HashSet<String>();
+    for (int i = 0; i < numPartitions; ++i) {
+      String journalName = getJournalBaseName() + "-" + i;
+      journalNames.add(journalName);
+      partitions.add(new Partition(capacity, 
+          useJournal ? openJournal(journalName) : null));
+    }
+    if (useJournal)
+      openOldJournals(journalNames);
     
     // Create the reusable heavy weight session factory
     sessionFactory = HibernateUtils.getSessionFactory(projectId);
     
-    // Start up separate thread that reads from the queue and
-    // actually stores the data
+    // Start up separate threads that read from the partition queues and
+    // actually store the data
     NamedThreadFactory threadFactory = new NamedThreadFactory(getClass().getSimpleName());
-    ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory);
-    executor.execute(new Runnable() {
-      public void run() {
-        processData();
-        }
-      });
+    ExecutorService executor = Executors.newFixedThreadPool(numPartitions, threadFactory);
+    for (final Partition partition : partitions) {
+      executor.execute(new Runnable() {
+        public void run() {
+          processData(partition);
+          }
+        });
+    }
     ThroughputMonitor tm = new ThroughputMonitor();
     new Thread(tm).start();
 
   }
   
+  /**
+   * For determining which partition, and therefore which writer thread, an
+   * object goes to.
+   */
+  public static interface PartitionKey<T> {
+    /**
+     * @param t
+     * @return The key, such as the vehicleId. Objects with the same key
+     *         are written in order. Can be null.
+     */
+    public Object getKey(T t);
+  }
+  
+  /**
+   * A queue with its own journal and writer thread.
+   */
+  private class Partition {
+    // The queue that objects to be stored are placed in
+    private final BlockingQueue<T> queue;
+    
+    // For when the queue reaches the high water mark. Additional objects
+    // are then appended to the journal on disk so that the heap doesn't
+    // fill up. Null if not using a journal.
+    private final DbQueueJournal<T> journal;
+    
+    // Journals from a previous run that used a different number of
+    // partitions. Their data is older than anything added during this run
+    // so it is written first. Concurrent since the writer thread removes
+    // the journals once they have been written while other threads can be
+    // determining the journal size.
+    private final ConcurrentLinkedQueue<DbQueueJournal<T>> oldJournals =
+        new ConcurrentLinkedQueue<DbQueueJournal<T>>();
+    
+    private Partition(int capacity, DbQueueJournal<T> journal) {
+      this.queue = new LinkedBlockingQueue<T>(capacity);
+      this.journal = journal;
+    }
+  }
+  
+  /**
+   * Returns the partition that the object should be put into.
+   * 
+   * @param t
+   * @return the partition
+   */
+  private Partition getPartition(T t) {
+    if (partitions.size() == 1)
+      return partitions.get(0);
+    
+    Object key = partitionKey != null ? partitionKey.getKey(t) : null;
+    int hash = key != null ? 
+        key.hashCode() : roundRobinCounter.getAndIncrement();
+    return partitions.get((hash & Integer.MAX_VALUE) % partitions.size());
+  }
+  
+  /**
+   * Returns the beginning of the names of the journal subdirectories for
+   * this queue. The journal of each partition has the partition index
+   * appended.
+   * 
+   * @return the base name
+   */
+  private String getJournalBaseName() {
+    return projectId + "-" + shortType;
+  }
+  
+  /**
+   * Returns true if the directory name is for a journal of this queue,
+   * either one with a partition index or the one without an index that
+   * was used when a queue always had a single partition.
+   * 
+   * @param name
+   * @return true if journal for this queue
+   */
+  private boolean isJournalName(String name) {
+    String baseName = getJournalBaseName();
+    if (name.equals(baseName))
+      return true;
+    if (!name.startsWith(baseName + "-") 
+        || name.length() == baseName.length() + 1)
+      return false;
+    for (int i = baseName.length() + 1; i < name.length(); ++i)
+      if (!Character.isDigit(name.charAt(i)))
+        return false;
+    return true;
+  }
+  
+  /**
+   * Opens the journals of this queue that are not used by the current
+   * partitions but that still contain data, such as when the number of
+   * writer threads was changed before the process was restarted. They
+   * are assigned round robin to the partitions and written before any new
+   * data so that nothing that was journaled is lost.
+   * 
+   * @param currentJournalNames
+   *          Names of the journals of the current partitions
+   */
+  private void openOldJournals(Set<String> currentJournalNames) {
+    File[] directories = 
+        new File(DbSetupConfig.getQueueJournalDirectory()).listFiles();
+    if (directories == null)
+      return;
+    Arrays.sort(directories);
+    
+    int partitionIndex = 0;
+    for (File directory : directories) {
+      String name = directory.getName();
+      if (!directory.isDirectory() || currentJournalNames.contains(name)
+          || !isJournalName(name))
+        continue;
+      
+      DbQueueJournal<T> journal = openJournal(name);
+      if (journal == null)
+        continue;
+      if (journal.isEmpty()) {
+        journal.close();
+        continue;
+      }
+      
+      logger.info("Will write the {} objects from old DbQueue journal {} "
+          + "before new data.", journal.size(), directory);
+      partitions.get(partitionIndex++ % partitions.size())
+          .oldJournals.add(journal);
+    }
+  }
+  
+  /**
+   * Reads objects from the old journals of the partition. Old journals
+   * that have been completely written are closed and removed.
+   * 
+   * @param partition
+   * @param buff
+   *          Where the objects are put
+   * @return number of objects read
+   */
+  private int readOldJournals(Partition partition, List<T> buff) {
+    DbQueueJournal<T> oldJournal;
+    while ((oldJournal = partition.oldJournals.peek()) != null) {
+      int count = oldJournal.read(buff, DbSetupConfig.getBatchSize());
+      if (count > 0)
+        return count;
+      
+      // Everything from the old journal was read and, since the objects
+      // read for the previous batch were committed, also written
+      oldJournal.commitRead();
+      oldJournal.close();
+      partition.oldJournals.poll();
+      logger.info("Finished writing objects from old DbQueue journal {}", 
+          oldJournal.getDirectory());
+    }
+    return 0;
+  }
+  
+  /**
+   * Opens a journal for this queue.
+   * 
+   * @param name
+   *          Name of the journal's subdirectory
+   * @return the journal, or null if it could not be opened
+   */
+  private DbQueueJournal<T> openJournal(String name) {
+    File directory = new File(DbSetupConfig.getQueueJournalDirectory(), name);
+    try {
+      return new DbQueueJournal<T>(directory, 
+          DbSetupConfig.getQueueJournalMaxMBytes() * 1024L * 1024L);
+    } catch (IOException e) {
+      logger.error(Markers.email(), "Could not open DbQueue journal {} so "
+          + "data will only be queued in memory. {}", 
+          directory, e.getMessage());
+      return null;
+    }
+  }
+  
+  /**
+   * Adds the object to the in-memory queue, or if the queue has reached the
+   * high water mark then to the journal. Once objects are in the journal
+   * new objects also have to go to the journal until it has been read so
+   * that the objects are written to the db in order.
+   * 
+   * @param t
+   * @return true if successful
+   */
+  private boolean offer(T t) {
+    Partition partition = getPartition(t);
+    BlockingQueue<T> queue = partition.queue;
+    DbQueueJournal<T> journal = partition.journal;
+    
+    // If shouldPauseToReduceQueue (because in batch mode or such) then
+    // block until the writer thread has made room in the queue. This
+    // way the calling thread only waits as long as actually needed.
+    if (shouldPauseToReduceQueue) {
+      try {
+        if (!queue.offer(t)) {
+          logger.debug("Blocking thread adding data to DataDbLogger queue " 
+              + "until there is room. type={}", shortType);
+          queue.put(t);
+        }
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    
+    if (journal == null)
+      return queue.offer(t);
+    
+    synchronized (journal) {
+      if (journal.isEmpty() && queue.size() < highWaterMark)
+        return queue.offer(t);
+      if (journal.append(t))
+        return true;
+    }
+    
+    // Couldn't write to journal, such as because it is full. As a last
+    // resort use the remaining capacity of the in-memory queue.
+    return queue.offer(t);
+  }
+  
   public boolean add(T t) {
-    // TODO Auto-generated method stub
     // If in playback mode then don't want to store the
     // derived data because it would interfere with the
     // derived data already stored when was running in real time.
@@ -113,8 +442,72 @@ public class DbQueue<T> {
       return true;
     
     // Add the object to the queue
-    boolean success = queue.offer(t);
+    long start = System.nanoTime();
+    boolean success = offer(t);
+    enqueueTimer.recordSince(start);
 
+    // If losing data then log such
+    if (!success) {
+      droppedCounter.increment();
+      logger.error("DataDbLogger queue is now completely full for " +
+          "projectId=" + projectId + "and type " + shortType + ". LOSING DATA!!! Failed to " +
+          "store object=[" + t + "]");
+    }
+    
+    handleQueueLevel(success);
+    
+    // Return whether was successful in adding object to queue
+    return success;
+
+  }
+  
+  /**
+   * Adds a collection of objects to the queue. More efficient than calling
+   * add() for each one since the queue level only needs to be checked once
+   * for the whole collection.
+   * 
+   * @param ts
+   *          The objects to be stored
+   * @return True if all objects were added (or logging disabled). False if
+   *         queue became full.
+   */
+  public boolean addAll(Collection<T> ts) {
+    // If in playback mode then don't want to store the
+    // derived data because it would interfere with the
+    // derived data already stored when was running in real time.
+    if (!shouldStoreToDb)
+      return true;
+    
+    long start = System.nanoTime();
+    boolean success = true;
+    for (T t : ts) {
+      if (!offer(t)) {
+        success = false;
+        droppedCounter.increment();
+        logger.error("DataDbLogger queue is now completely full for " +
+            "projectId=" + projectId + "and type " + shortType + ". LOSING DATA!!! Failed to " +
+            "store object=[" + t + "]");
+      }
+    }
+    enqueueTimer.recordSince(start);
+    
+    handleQueueLevel(success);
+    
+    return success;
+  }
+  
+  /**
+   * Called after objects have been added to the queue. If queue has reached
+   * a new level then e-mails a warning. Not done if shouldPauseToReduceQueue
+   * since then the queue is expected to be full.
+   * 
+   * @param success
+   *          Whether the objects were successfully added to the queue
+   */
+  private void handleQueueLevel(boolean success) {
+    if (shouldPauseToReduceQueue)
+      return;
+    
     double level = queueLevel();
     int levelIndex = indexOfLevel(level);
     // If reached a new level then output message e-mail to warn users
@@ -124,52 +517,44 @@ public class DbQueue<T> {
           "DataDbLogger queue filling up " +
           " for projectId=" + projectId +" and type " + shortType + ". It is now at " + 
           String.format("%.1f", level*100) + "% capacity with " + 
-          queue.size() + " elements already in the queue."
+          queueSize() + " elements already in the queue."
           :
           "DataDbLogger queue is now completely full for projectId=" + 
           projectId + ". LOSING DATA!!!"; 
       logger.error(Markers.email(), message);
     }
     
-    // If losing data then log such
-    if (!success) {
-      logger.error("DataDbLogger queue is now completely full for " +
-          "projectId=" + projectId + "and type " + shortType + ". LOSING DATA!!! Failed to " +
-          "store object=[" + t + "]");
-    }
-    
     // Keep track of max queue level so can log it when queue level 
     // is decreasing again.
     if (level > maxQueueLevel)
       maxQueueLevel = level;
-    
-    // If shouldPauseToReduceQueue (because in batch mode or such) and
-    // if queue is starting to get more full then pause the calling
-    // thread for 10 seconds so that separate thread can clear out 
-    // queue a bit.
-    if (shouldPauseToReduceQueue && level > 0.2) {
-      logger.info("Pausing thread adding data to DataDbLogger queue " +
-          "so that queue can be cleared out. Level={}%, type=", 
-          level*100.0, shortType);
-      Time.sleep(10 * Time.MS_PER_SEC);
-    }
-    
-    // Return whether was successful in adding object to queue
-    return success;
-
   }
 
-  private List<T> drain() {
+  private List<T> drain(Partition partition) {
     // Get the next object from the head of the queue
     ArrayList<T> buff = new ArrayList<T>(DbSetupConfig.getBatchSize());
     int count = 0;
     do {
         buff.clear();
-        count = queue.drainTo(buff, DbSetupConfig.getBatchSize());
-        throughputCount += count;
+        // Objects from old journals are from a previous run so are
+        // written first
+        count = readOldJournals(partition, buff);
+        // The in-memory objects are always older than the ones in the
+        // journal so only read from the journal once queue is empty
+        if (count == 0)
+          count = partition.queue.drainTo(buff, DbSetupConfig.getBatchSize());
+        if (count == 0 && partition.journal != null)
+          count = partition.journal.read(buff, DbSetupConfig.getBatchSize());
+        // If nothing to write then wait for an object to be added
         if (count == 0)
           try {
-            Thread.sleep(TIME_BETWEEN_RETRIES);
+            T t = partition.queue.poll(TIME_BETWEEN_RETRIES, 
+                TimeUnit.MILLISECONDS);
+            if (t != null) {
+              buff.add(t);
+              count = 1 + partition.queue.drainTo(buff, 
+                  DbSetupConfig.getBatchSize() - 1);
+            }
           } catch (InterruptedException e) {
           }
     } while (buff.isEmpty());
@@ -183,7 +568,7 @@ public class DbQueue<T> {
     if (levelIndexIncludingMargin < indexOfLevelWhenMessageLogged) {
       logger.error(Markers.email(), "DataDbLogger queue emptying out somewhat " +
           " for projectId=" + projectId + " and type " + shortType + ". It is now at " + 
-          String.format("%.1f", level*100) + "% capacity with " + queue.size() + 
+          String.format("%.1f", level*100) + "% capacity with " + queueSize() + 
           " elements already in the queue. The maximum capacity was " +
           String.format("%.1f", maxQueueLevel*100) + "%.");
       indexOfLevelWhenMessageLogged = levelIndexIncludingMargin;
@@ -216,7 +601,7 @@ public class DbQueue<T> {
    * commit is done. Therefore the need here isn't true Hibernate batch
    * processing. Instead, need to use a transaction for each batch.
    */
-  	public void processBatchOfData() {
+  	private void processBatchOfData(Partition partition) {
 		// Create an array for holding what is being written to db. If there
 		// is an exception with one of the objects, such as a constraint violation,
 		// then can try to write the objects one at a time to make sure that the
@@ -232,16 +617,27 @@ public class DbQueue<T> {
 			tx = session.beginTransaction();			
 
       // Get the objects to be stored from the queue
-      List<T> objectsToBeStored = drain();
+      List<T> objectsToBeStored = drain(partition);
       
       objectsForThisBatch.addAll(objectsToBeStored);
-			for (Object objectToBeStored : objectsForThisBatch) {				
-				// Write the data to the session. This doesn't yet
-				// actually write the data to the db though. That is only
-				// done when the session is flushed or committed.
-				logger.debug("DataDbLogger batch saving object={}", 
-						objectToBeStored);
-				session.save(objectToBeStored);
+			if (bulkWriter != null) {
+				// Write the whole batch directly via JDBC using the
+				// connection of the session so that it is part of the
+				// transaction. If any object is bad then get exception
+				// just like with session.save() and the objects are
+				// then written individually below.
+				logger.debug("DataDbLogger bulk writing {} objects", 
+						objectsToBeStored.size());
+				bulkWriter.write(session, objectsToBeStored);
+			} else {
+				for (Object objectToBeStored : objectsForThisBatch) {				
+					// Write the data to the session. This doesn't yet
+					// actually write the data to the db though. That is only
+					// done when the session is flushed or committed.
+					logger.debug("DataDbLogger batch saving object={}", 
+							objectToBeStored);
+					session.save(objectToBeStored);
+				}
 			}
 			
 			// Sometimes useful for debugging via the console
@@ -259,6 +655,7 @@ public class DbQueue<T> {
 			//System.err.println(new Date() + " Done committing. Took " 
 			//		+ timer.elapsedMsec() + " msec");
 			logger.debug("Done committing. Took {} msec", timer.elapsedMsec());
+			throughputCount.addAndGet(objectsForThisBatch.size());
 			
 			session.close();
 		} catch (HibernateException e) {
@@ -323,6 +720,8 @@ public class DbQueue<T> {
 				do {
 					try {
 						processSingleObject(o);
+						throughputCount.incrementAndGet();
+						individualWriteCount.incrementAndGet();
 						shouldKeepTrying = false;
 					} catch (HibernateException e2) {
 						// Need to know if it is a problem with the database not
@@ -350,94 +749,27 @@ public class DbQueue<T> {
 				} while (shouldKeepTrying);
 			}
 		}
+		
+		// The objects from the batch have now been written so can mark them
+		// as read in the journal so that they won't be replayed on restart.
+		if (partition.journal != null)
+			partition.journal.commitRead();
+		for (DbQueueJournal<T> oldJournal : partition.oldJournals)
+			oldJournal.commitRead();
 	}
 	
-	public void processBatchOfData_OLD() {
-    Session session = sessionFactory.openSession();
-    Transaction tx = session.beginTransaction();
-
-    // Create an array for holding what is being written to db. If there
-    // is an exception with one of the objects, such as a constraint violation,
-    // then can try to write the objects one at a time to make sure that the
-    // the good ones are written. This way don't lose any good data even if
-    // an exception occurs while batching data.
-    List<T> objectsForThisBatch = new ArrayList<T>(DbSetupConfig.getBatchSize());
-    
-    try {     
-      // Get the objects to be stored from the queue
-      List<T> objectsToBeStored = drain();
-      
-      objectsForThisBatch.addAll(objectsToBeStored);
-      
-      for (Object objectToBeStored : objectsToBeStored) {
-        session.save(objectToBeStored);
-      }
-      tx.commit();
-      session.close();
-    } catch (HibernateException e) {
-      Throwable cause = getRootCause(e);
-      // If it is a SQLGrammarException then also log the SQL to
-      // help in debugging.
-      String additionaInfo = e instanceof SQLGrammarException ?
-          " SQL=\"" + ((SQLGrammarException) e).getSQL() + "\"" 
-          : "";
-      logger.error(e.getClass().getSimpleName() + " for database for " +
-          "project=" + projectId + " when batch writing objects: " + 
-          cause.getMessage() + ". Will try to write each object " +
-          "from batch individually." + additionaInfo);    
-      
-      // Close session here so that can process the objects individually
-      // using a new session.
-      session.close();
-              
-      // Write each object individually so that the valid ones will be
-      // successfully written.
-      for (Object o : objectsForThisBatch) {
-        boolean shouldKeepTrying = false;
-        do {
-          try {
-            processSingleObject(o);
-            shouldKeepTrying = false;
-          } catch (HibernateException e2) {
-            // Need to know if it is a problem with the database not
-            // being accessible or if there is a problem with the SQL/data.
-            // If there is a problem accessibility of the database then
-            // want to keep trying writing the old data. But if it is
-            // a problem with the SQL/data then only want to try to write
-            // the good data from the batch a single time to make sure 
-            // all good data is written.
-            if (shouldKeepTryingBecauseConnectionException(e2)) {
-              shouldKeepTrying = true;
-              logger.error("Encountered database connection " +
-                  "exception so will sleep for {} msec and " +
-                  "will then try again.", TIME_BETWEEN_RETRIES);
-              Time.sleep(TIME_BETWEEN_RETRIES);
-            }
-            
-            // Output message on what is going on
-            Throwable cause2 = getRootCause(e2);
-            logger.error(e2.getClass().getSimpleName() + " when individually writing object " +
-                o + ". " + 
-                (shouldKeepTrying?"Will keep trying. " : "") +
-                "msg=" + cause2.getMessage()); 
-          }
-        } while (shouldKeepTrying);
-      }
-    }
-  }
-  
   /**
    * This is the main method for processing data. It simply keeps on calling
    * processBatchOfData() so that data is batched as efficiently as possible.
    * Exceptions are caught such that this method will continue to run
    * indefinitely.
    */
-  public void processData() {
+  private void processData(Partition partition) {
     while (true) {
       try {
         logger.debug("DataDbLogger.processData() processing batch of " +
             "data to be stored in database.");
-        processBatchOfData();
+        processBatchOfData(partition);
       } catch (Exception e) {
         logger.error("Error writing data to database via DataDbLogger. " +
             "Look for ERROR in log file to see if the database classes " +
@@ -459,8 +791,13 @@ public class DbQueue<T> {
    * @return a value between 0.0 and 1.0 indicating how much of queue being used
    */
   public double queueLevel() {
-    int remainingCapacity = queue.remainingCapacity();
-    int totalCapacity = queue.size() + remainingCapacity;
+    long remainingCapacity = 0;
+    long totalCapacity = 0;
+    for (Partition partition : partitions) {
+      int remaining = partition.queue.remainingCapacity();
+      remainingCapacity += remaining;
+      totalCapacity += partition.queue.size() + remaining;
+    }
     double level = 1.0  - (double) remainingCapacity / totalCapacity;
     return level;
   }
@@ -470,7 +807,43 @@ public class DbQueue<T> {
    * @return items in queue
    */
   public int queueSize() {
-    return queue.size();
+    int size = 0;
+    for (Partition partition : partitions)
+      size += partition.queue.size();
+    return size;
+  }
+  
+  /**
+   * Returns how many items are in the on-disk journal waiting to be
+   * processed.
+   * 
+   * @return items in journal, or 0 if not using a journal
+   */
+  public long journalSize() {
+    long size = 0;
+    for (Partition partition : partitions) {
+      if (partition.journal != null)
+        size += partition.journal.size();
+      for (DbQueueJournal<T> oldJournal : partition.oldJournals)
+        size += oldJournal.size();
+    }
+    return size;
+  }
+  
+  /**
+   * Returns how much disk space the journal is using.
+   * 
+   * @return bytes used by journal, or 0 if not using a journal
+   */
+  public long journalBytesOnDisk() {
+    long bytes = 0;
+    for (Partition partition : partitions) {
+      if (partition.journal != null)
+        bytes += partition.journal.getBytesOnDisk();
+      for (DbQueueJournal<T> oldJournal : partition.oldJournals)
+        bytes += oldJournal.getBytesOnDisk();
+    }
+    return bytes;
   }
   
   /**
@@ -489,25 +862,6 @@ public class DbQueue<T> {
     return levels.length;
   }
 
-  /**
-   * Determines highest level cause of exception. Useful
-   * for determine the root cause of the exception so that
-   * appropriate error message can be displayed.
-   * @param e
-   * @return
-   */
-  private Throwable getRootCause(Exception e) {
-    Throwable prev =  e;
-    while (true) {
-      Throwable next = prev.getCause();
-      if (next == null) 
-        return prev;
-      else
-        prev = next;
-    }
-  }
-
-  
   /**
    * Returns true if the exception indicates that there is a problem connecting
    * to the database as opposed to with the SQL.
@@ -578,17 +932,23 @@ public class DbQueue<T> {
     }
     
     private void processThroughput() {
-      long delta = (System.currentTimeMillis() - throughputTimestamp)/1000;
-      if (throughputCount == 0) {
-        logger.debug("wrote nothing");
+      long now = System.currentTimeMillis();
+      long deltaMsec = Math.max(now - throughputTimestamp, 1);
+      long throughput = throughputCount.getAndSet(0);
+      long individualWrites = individualWriteCount.getAndSet(0);
+      throughputTimestamp = now;
+      if (throughput == 0) {
+        logger.debug("wrote nothing for type {}", shortType);
         return;
       }
       
-      long throughput = throughputCount;
-      throughputCount = 0;
-      throughputTimestamp = System.currentTimeMillis();
-      double rate = throughput / delta;
-      logger.info("wrote {} {} messages in {}s, ({}/s) ", throughput, shortType, (long)delta/1000, (long)rate);
+      double rate = throughput * 1000.0 / deltaMsec;
+      logger.info("wrote {} {} rows in {}s, ({}/s) using {}. {} rows had "
+          + "to be written individually.", 
+          throughput, shortType, deltaMsec/Time.MS_PER_SEC, (long) rate, 
+          bulkWriter != null ? "bulk writer " + bulkWriter.getMethod() 
+              : "session", 
+          individualWrites);
     }
   }
 }
@@ -0,0 +1,524 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.db.hibernate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.logging.Markers;
+
+/**
+ * An append-only on-disk journal that DbQueue overflows into when its
+ * in-memory queue gets too large, such as when the database is not available
+ * for a while. This way the heap stays bounded but no data is lost. The
+ * objects are read back out in the order they were appended.
+ * <p>
+ * The journal consists of fixed size segment files that are memory mapped.
+ * Each record is the length of the serialized object followed by the
+ * serialized bytes. The length is written after the bytes so that a record
+ * only becomes visible once it is completely written. The first bytes of a
+ * segment hold the offset of the next record to be read. It is updated by
+ * commitRead() once the objects read have been written to the db, so that if
+ * the process is restarted only data not yet written to the db is replayed.
+ * Segments that have been completely read are deleted.
+ * <p>
+ * Data is written to the memory mapped files and therefore is retained if
+ * the process exits. It is not forced to disk for each record since that
+ * would be too slow, so data could still be lost if the whole machine
+ * crashes.
+ * <p>
+ * Replay is at-least-once. If the process exits after a batch was written
+ * to the db but before commitRead() was called then the batch is written
+ * again on restart. Objects with a primary key are then rejected by the db
+ * as duplicates, but objects with a generated id, such as predictions, are
+ * stored twice.
+ * <p>
+ * All public methods are synchronized since objects are appended by the
+ * threads adding to the DbQueue while they are read by the DbQueue writer
+ * thread.
+ *
+ * @author SkiBu Smith
+ *
+ * @param <T>
+ *            The class of objects in the journal
+ */
+public class DbQueueJournal<T> {
+
+	private final File directory;
+
+	// Max number of bytes that can be stored on disk
+	private final long maxBytes;
+
+	// Exclusive lock on directory so that two processes don't use the
+	// same journal
+	private final FileLock directoryLock;
+
+	// The segments, oldest one first. The last one is written to.
+	private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+	// Number of records that have not yet been read
+	private long unreadCount = 0;
+
+	// Number of records read since last commitRead()
+	private int uncommittedCount = 0;
+
+	// So that only log once when journal full instead of for every object
+	private boolean fullLogged = false;
+
+	// Segments are fixed size so that they can be memory mapped
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	// The header contains the offset of the next record to be read
+	private static final int HEADER_SIZE = 8;
+
+	// Length of a record is an int
+	private static final int LENGTH_SIZE = 4;
+
+	// Written in place of the length when the rest of the segment is unused
+	// because the next record didn't fit. A length of 0 means that the
+	// record hasn't been written yet.
+	private static final int END_OF_SEGMENT = -1;
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(DbQueueJournal.class);
+
+	/**
+	 * A segment file. Only the segments being read or written are memory
+	 * mapped.
+	 */
+	private static class Segment {
+		private final long number;
+		private final File file;
+		private MappedByteBuffer buffer = null;
+		// Where next record will be written
+		private int writePosition;
+		// Where next record will be read from
+		private int readPosition;
+		// Number of records not yet read
+		private int unreadCount = 0;
+		// Set when no more records will be written to the segment
+		private boolean closed = false;
+
+		private Segment(File directory, long number) {
+			this.number = number;
+			this.file = new File(directory,
+					String.format("%016d", number) + SEGMENT_SUFFIX);
+		}
+
+		private MappedByteBuffer map() throws IOException {
+			if (buffer == null) {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					if (raf.length() < SEGMENT_SIZE)
+						raf.setLength(SEGMENT_SIZE);
+					// The mapping stays valid after the file is closed
+					buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+							0, SEGMENT_SIZE);
+				} finally {
+					raf.close();
+				}
+			}
+			return buffer;
+		}
+
+		private void unmap() {
+			if (buffer != null) {
+				buffer.force();
+				buffer = null;
+			}
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Opens the journal in the specified directory, creating the directory
+	 * if needed. If there is already data in the journal from a previous run
+	 * then it will be read back out first.
+	 *
+	 * @param directory
+	 *            Directory for the segment files. Must not be used by
+	 *            another journal.
+	 * @param maxBytes
+	 *            Max bytes to be stored on disk
+	 * @throws IOException
+	 *             If journal can't be opened, such as the directory being
+	 *             used by another process
+	 */
+	public DbQueueJournal(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+
+		// Make sure another process isn't using the journal
+		@SuppressWarnings("resource")
+		FileChannel lockChannel = new RandomAccessFile(new File(directory,
+				"lock"), "rw").getChannel();
+		FileLock lock;
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// Already locked by this process
+			lock = null;
+		}
+		directoryLock = lock;
+		if (directoryLock == null) {
+			lockChannel.close();
+			throw new IOException("Journal directory " + directory
+					+ " is already being used by another process");
+		}
+
+		recover();
+	}
+
+	/**
+	 * Reads in the existing segment files to determine how many unread
+	 * records there are and where to write to next.
+	 *
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+
+		for (File file : files) {
+			String name = file.getName();
+			long number = Long.parseLong(
+					name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+			Segment segment = new Segment(directory, number);
+			MappedByteBuffer buffer = segment.map();
+
+			// Determine where reading left off and count the unread records
+			long readOffset = buffer.getLong(0);
+			segment.readPosition = readOffset < HEADER_SIZE ?
+					HEADER_SIZE : (int) readOffset;
+			int position = segment.readPosition;
+			while (true) {
+				if (position + LENGTH_SIZE > SEGMENT_SIZE) {
+					segment.closed = true;
+					break;
+				}
+				int length = buffer.getInt(position);
+				if (length == 0)
+					break;
+				if (length == END_OF_SEGMENT) {
+					segment.closed = true;
+					break;
+				}
+				++segment.unreadCount;
+				++unreadCount;
+				position += LENGTH_SIZE + length;
+			}
+			segment.writePosition = position;
+
+			// Older segments are closed since only the last one is written to
+			if (!segments.isEmpty()) {
+				Segment previous = segments.getLast();
+				previous.closed = true;
+				if (segments.size() > 1)
+					previous.unmap();
+			}
+			segments.add(segment);
+		}
+
+		// Delete segments that were completely read
+		deleteReadSegments();
+
+		if (unreadCount > 0)
+			logger.error(Markers.email(), "DbQueue journal {} has {} objects "
+					+ "from a previous run that were not yet written to the "
+					+ "database. They will be written now.", directory,
+					unreadCount);
+	}
+
+	/**
+	 * Appends the object to the end of the journal.
+	 *
+	 * @param t
+	 *            The object to be appended. Must be Serializable.
+	 * @return true if successful, false if journal full or object could not
+	 *         be serialized
+	 */
+	public synchronized boolean append(T t) {
+		if (!(t instanceof Serializable))
+			return false;
+
+		try {
+			byte[] bytes = serialize(t);
+			int recordSize = LENGTH_SIZE + bytes.length;
+			if (HEADER_SIZE + recordSize + LENGTH_SIZE > SEGMENT_SIZE) {
+				logger.error("Object {} is too large to store in DbQueue "
+						+ "journal. Size={}", t, bytes.length);
+				return false;
+			}
+
+			// Start a new segment if there isn't room in the current one.
+			// Need to leave room for the end of segment marker.
+			Segment segment = segments.isEmpty() ? null : segments.getLast();
+			if (segment == null || segment.closed
+					|| segment.writePosition + recordSize + LENGTH_SIZE
+						> SEGMENT_SIZE) {
+				if (getBytesOnDisk() + SEGMENT_SIZE > maxBytes) {
+					if (!fullLogged) {
+						logger.error(Markers.email(), "DbQueue journal {} is "
+								+ "full with {} objects. Max size is {} MB.",
+								directory, unreadCount, maxBytes / 1024 / 1024);
+						fullLogged = true;
+					}
+					return false;
+				}
+				segment = newSegment();
+			}
+
+			// Write the bytes first and then the length so that the record
+			// is only visible once it has been completely written
+			MappedByteBuffer buffer = segment.map();
+			buffer.position(segment.writePosition + LENGTH_SIZE);
+			buffer.put(bytes);
+			buffer.putInt(segment.writePosition, bytes.length);
+			segment.writePosition += recordSize;
+			++segment.unreadCount;
+			++unreadCount;
+			return true;
+		} catch (IOException e) {
+			logger.error("Exception appending to DbQueue journal {}. {}",
+					directory, e.getMessage(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Closes the current segment, if there is one, and creates a new one to
+	 * write to.
+	 *
+	 * @return the new segment
+	 * @throws IOException
+	 */
+	private Segment newSegment() throws IOException {
+		long number = 0;
+		if (!segments.isEmpty()) {
+			Segment last = segments.getLast();
+			number = last.number + 1;
+			if (!last.closed) {
+				MappedByteBuffer buffer = last.map();
+				buffer.putInt(last.writePosition, END_OF_SEGMENT);
+				last.closed = true;
+			}
+			// Only need to keep mapped if it is being read
+			if (last != segments.getFirst())
+				last.unmap();
+		}
+
+		Segment segment = new Segment(directory, number);
+		segment.map().putLong(0, HEADER_SIZE);
+		segment.readPosition = HEADER_SIZE;
+		segment.writePosition = HEADER_SIZE;
+		segments.add(segment);
+		fullLogged = false;
+		logger.info("Created DbQueue journal segment {}", segment.file);
+		return segment;
+	}
+
+	/**
+	 * Reads up to maxObjects objects from the journal into the list. The
+	 * objects are still in the journal on disk until commitRead() is called,
+	 * but they won't be returned again by read() unless the process is
+	 * restarted.
+	 *
+	 * @param list
+	 *            Where objects are put
+	 * @param maxObjects
+	 * @return Number of objects read
+	 */
+	public synchronized int read(List<T> list, int maxObjects) {
+		int count = 0;
+		for (Segment segment : segments) {
+			if (count >= maxObjects || unreadCount == 0)
+				break;
+
+			try {
+				MappedByteBuffer buffer = segment.map();
+				while (count < maxObjects
+						&& segment.readPosition < segment.writePosition) {
+					int length = buffer.getInt(segment.readPosition);
+					byte[] bytes = new byte[length];
+					buffer.position(segment.readPosition + LENGTH_SIZE);
+					buffer.get(bytes);
+					segment.readPosition += LENGTH_SIZE + length;
+					--segment.unreadCount;
+					--unreadCount;
+					++uncommittedCount;
+
+					T t = deserialize(bytes);
+					if (t != null) {
+						list.add(t);
+						++count;
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Exception reading DbQueue journal segment {}. "
+						+ "Skipping rest of segment. {}", segment.file,
+						e.getMessage(), e);
+				skipRestOfSegment(segment);
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * For when a segment can't be read. Skips all of its records so that
+	 * the rest of the journal can still be read.
+	 *
+	 * @param segment
+	 */
+	private void skipRestOfSegment(Segment segment) {
+		unreadCount -= segment.unreadCount;
+		segment.unreadCount = 0;
+		segment.readPosition = segment.writePosition;
+	}
+
+	/**
+	 * To be called once the objects returned by read() have been written to
+	 * the database. Records the read positions on disk and deletes segments
+	 * that have been completely read.
+	 */
+	public synchronized void commitRead() {
+		if (uncommittedCount == 0)
+			return;
+
+		for (Segment segment : segments) {
+			if (segment.buffer != null)
+				segment.buffer.putLong(0, segment.readPosition);
+		}
+		uncommittedCount = 0;
+
+		deleteReadSegments();
+	}
+
+	/**
+	 * Deletes the segments at the front that have been completely read and
+	 * won't be written to anymore.
+	 */
+	private void deleteReadSegments() {
+		while (!segments.isEmpty()) {
+			Segment first = segments.getFirst();
+			if (!first.closed || first.readPosition < first.writePosition)
+				break;
+
+			segments.removeFirst();
+			first.buffer = null;
+			if (!first.file.delete())
+				logger.error("Could not delete DbQueue journal segment {}",
+						first.file);
+		}
+	}
+
+	/**
+	 * Returns true if there are no objects in the journal that have not been
+	 * read yet. When true new objects can go into the in-memory queue again
+	 * without changing the order they are written to the db.
+	 *
+	 * @return true if no unread objects
+	 */
+	public synchronized boolean isEmpty() {
+		return unreadCount == 0;
+	}
+
+	/**
+	 * Returns number of objects in journal that have not been read yet.
+	 *
+	 * @return number of unread objects
+	 */
+	public synchronized long size() {
+		return unreadCount;
+	}
+
+	/**
+	 * Returns how much disk space is being used by the segment files.
+	 *
+	 * @return bytes on disk
+	 */
+	public synchronized long getBytesOnDisk() {
+		return (long) segments.size() * SEGMENT_SIZE;
+	}
+
+	/**
+	 * Releases the lock on the directory so that the journal can be opened
+	 * again. The journal must not be used once it has been closed.
+	 */
+	public synchronized void close() {
+		for (Segment segment : segments)
+			segment.unmap();
+		try {
+			directoryLock.channel().close();
+		} catch (IOException e) {
+			logger.error("Exception closing DbQueue journal {}. {}",
+					directory, e.getMessage());
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private static byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(o);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private T deserialize(byte[] bytes) {
+		try {
+			ObjectInputStream ois =
+					new ObjectInputStream(new ByteArrayInputStream(bytes));
+			return (T) ois.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			logger.error("Could not deserialize object from DbQueue journal "
+					+ "{}. {}", directory, e.getMessage(), e);
+			return null;
+		}
+	}
+}
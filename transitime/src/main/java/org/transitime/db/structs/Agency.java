@@ -83,8 +83,10 @@ public class Agency implements Serializable {
 	@Transient
 	private TimeZone timezone = null;
 	
+	// Java transient since Time is not Serializable. Recreated when needed,
+	// such as after being read from a config snapshot.
 	@Transient
-	private Time time = null;
+	private transient Time time = null;
 	
 	// Because Hibernate requires objects with composite Ids to be Serializable
 	private static final long serialVersionUID = -3381456129303325040L;
@@ -17,6 +17,7 @@
 package org.transitime.db.structs;
 
 import java.io.Serializable;
+import java.sql.Types;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -41,6 +42,7 @@ import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.configData.DbSetupConfig;
 import org.transitime.core.TemporalDifference;
+import org.transitime.db.hibernate.BulkInsertTable;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
@@ -169,9 +171,11 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 	@Column
 	private final float stopPathLength;
 	
-	// So can easily create copy constructor withUpdatedTime()
+	// So can easily create copy constructor withUpdatedTime(). Also declared
+	// transient for Java serialization so that the whole block isn't
+	// serialized when the object is written to the DbQueue journal.
 	@Transient
-	private final Block block;
+	private final transient Block block;
 	
 	// Needed because some methods need to know if dealing with arrivals or 
 	// departures.
@@ -183,6 +187,37 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 	// Needed because Hibernate objects must be serializable
 	private static final long serialVersionUID = 6511713704337986699L;
 
+	// For writing arrivals/departures to the db using DbBulkWriter. Column
+	// names must match those generated by Hibernate for the members above.
+	// Since Arrival and Departure are stored in the same table Hibernate
+	// also uses the DTYPE discriminator column to indicate the subclass.
+	public static final BulkInsertTable<ArrivalDeparture> BULK_INSERT_TABLE =
+			new BulkInsertTable<ArrivalDeparture>("ArrivalsDepartures", null,
+					new String[] { "DTYPE", "vehicleId", "time", "stopId",
+							"gtfsStopSeq", "isArrival", "tripId",
+							"configRev", "avlTime", "scheduledTime",
+							"blockId", "routeId", "routeShortName",
+							"serviceId", "directionId", "tripIndex",
+							"stopPathIndex", "stopPathLength" },
+					new int[] { Types.VARCHAR, Types.VARCHAR,
+							Types.TIMESTAMP, Types.VARCHAR, Types.INTEGER,
+							Types.BOOLEAN, Types.VARCHAR, Types.INTEGER,
+							Types.TIMESTAMP, Types.TIMESTAMP, Types.VARCHAR,
+							Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+							Types.VARCHAR, Types.INTEGER, Types.INTEGER,
+							Types.FLOAT }) {
+				@Override
+				public Object[] getColumnValues(ArrivalDeparture ad) {
+					return new Object[] { ad.getClass().getSimpleName(),
+							ad.vehicleId, ad.time, ad.stopId, ad.gtfsStopSeq,
+							ad.isArrival, ad.tripId, ad.configRev,
+							ad.avlTime, ad.scheduledTime, ad.blockId,
+							ad.routeId, ad.routeShortName, ad.serviceId,
+							ad.directionId, ad.tripIndex, ad.stopPathIndex,
+							ad.stopPathLength };
+				}
+			};
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -17,6 +17,7 @@
 package org.transitime.db.structs;
 
 import java.io.Serializable;
+import java.sql.Types;
 import java.util.Date;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -41,6 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.configData.AvlConfig;
+import org.transitime.db.hibernate.BulkInsertTable;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.ipc.data.IpcAvl;
 import org.transitime.utils.Geo;
@@ -180,6 +182,35 @@ public class AvlReport implements Serializable {
 
 	// Needed because serializable so can transmit using JMS or RMI
 	private static final long serialVersionUID = 92384928349823L;
+
+	// For writing AVL reports to the db using DbBulkWriter. Column names
+	// must match those generated by Hibernate for the members above.
+	public static final BulkInsertTable<AvlReport> BULK_INSERT_TABLE =
+			new BulkInsertTable<AvlReport>("AvlReports", null,
+					new String[] { "vehicleId", "time", "timeProcessed",
+							"lat", "lon", "speed", "heading", "source",
+							"assignmentId", "assignmentType", "driverId",
+							"licensePlate", "passengerCount",
+							"passengerFullness", "field1Name", "field1Value" },
+					new int[] { Types.VARCHAR, Types.TIMESTAMP,
+							Types.TIMESTAMP, Types.DOUBLE, Types.DOUBLE,
+							Types.FLOAT, Types.FLOAT, Types.VARCHAR,
+							Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+							Types.VARCHAR, Types.INTEGER, Types.FLOAT,
+							Types.VARCHAR, Types.VARCHAR }) {
+				@Override
+				public Object[] getColumnValues(AvlReport r) {
+					return new Object[] { r.vehicleId, r.time,
+							r.timeProcessed,
+							r.location != null ? r.location.getLat() : null,
+							r.location != null ? r.location.getLon() : null,
+							r.speed, r.heading, r.source, r.assignmentId,
+							r.assignmentType != null ?
+									r.assignmentType.name() : null,
+							r.driverId, r.licensePlate, r.passengerCount,
+							r.passengerFullness, r.field1Name, r.field1Value };
+				}
+			};
 	
 	/********************** Member Functions **************************/
 
@@ -121,7 +121,7 @@ public final class Block implements Serializable {
 	@JoinTable(name="Block_to_Trip_joinTable")
 	@OrderColumn(name="listIndex")
 	@Cascade({CascadeType.SAVE_UPDATE})
-	private final List<Trip> trips;
+	private List<Trip> trips;
 	
 	// Sometimes will get vehicle assignment by routeId. This means that need
 	// to know which blocks are associated with a route. Getting the routeIds
@@ -134,6 +134,13 @@ public final class Block implements Serializable {
 	@Column(length=500)
 	private final HashSet<String> routeIds;
 	
+	// The configuration that this block was read in as part of. Its session
+	// is the one that should be used for lazy loading the trips. Since a
+	// new configuration can be swapped in while the core is running this is
+	// not necessarily the current configuration. Null if the block wasn't
+	// read in by a DbConfig. Not stored in db or serialized.
+	private transient DbConfig dbConfig = null;
+	
 	// For making sure only lazy load trips collection via one thread
 	// at a time.
 	private static final Object lazyLoadingSyncObject = new Object();
@@ -237,6 +244,56 @@ public final class Block implements Serializable {
       return query.list();
 	  }
 
+	/**
+	 * Reads in the trips for all of the blocks for the configRev using a
+	 * single query instead of lazy loading them block by block. The blocks
+	 * must have already been read in using the session so that the trips 
+	 * collections of those Block objects are initialized.
+	 * 
+	 * @param session
+	 * @param configRev
+	 * @throws HibernateException
+	 */
+	public static void fetchTrips(Session session, int configRev)
+			throws HibernateException {
+		String hql = "SELECT DISTINCT b FROM Blocks b "
+				+ "LEFT JOIN FETCH b.trips "
+				+ "WHERE b.configRev = :configRev";
+		Query query = session.createQuery(hql);
+		query.setInteger("configRev", configRev);
+		query.list();
+	}
+	
+	/**
+	 * Returns true if the trips have already been read in so that calling
+	 * getTrips() won't need to lazy load them.
+	 * 
+	 * @return true if trips read in
+	 */
+	public boolean areTripsReadIn() {
+		return Hibernate.isInitialized(trips);
+	}
+	
+	/**
+	 * Replaces the Hibernate trips collection with an immutable in-memory
+	 * list so that getTrips() never again needs to access the Hibernate 
+	 * session or synchronize on the lazy loading sync object. The trips must
+	 * already have been read in. If the Block is associated with the session
+	 * then it is first evicted so that Hibernate doesn't try to write the
+	 * replaced collection to the db.
+	 * 
+	 * @param session
+	 *            The session the block was read in with. Can be null.
+	 */
+	public void detachTrips(Session session) {
+		if (!Hibernate.isInitialized(trips))
+			throw new IllegalStateException("Trips not yet read in for "
+					+ "blockId=" + blockId + " serviceId=" + serviceId);
+		
+		if (session != null && session.contains(this))
+			session.evict(this);
+		trips = Collections.unmodifiableList(new ArrayList<Trip>(trips));
+	}
 	
 	/**
 	 * Deletes rev from the Blocks, Trips, and Block_to_Trip_joinTable
@@ -480,11 +537,8 @@ public final class Block implements Serializable {
 	 */
 	private boolean serviceClassIsValidForDay(Date date, long offset) {
 		long dateToCheck = date.getTime() + offset;
-		List<String> currentServiceIds =
-				Core.getInstance().getServiceUtils()
-						.getServiceIdsForDay(dateToCheck);
-		
-		return currentServiceIds.contains(serviceId);
+		return Core.getInstance().getServiceUtils()
+				.isServiceActiveForDay(serviceId, dateToCheck);
 	}
 	
 	/**
@@ -835,9 +889,11 @@ public final class Block implements Serializable {
 							persistentListTrips.getSession();
 
 					// If the session is different from the global
-					// session then need to attach the new session to the
-					// object. 
-					DbConfig dbConfig = Core.getInstance().getDbConfig();
+					// session of the configuration that this block is part
+					// of then need to attach the new session to the object.
+					// Don't use the current configuration since this block
+					// might be from an older one that was swapped out.
+					DbConfig dbConfig = getDbConfigForLazyLoading();
 					Session globalLazyLoadSession = dbConfig.getGlobalSession();
 					if (session != globalLazyLoadSession) {
 						// The persistent object is using an old session so
@@ -899,7 +955,7 @@ public final class Block implements Serializable {
 					}
 
 					// Get new session, update object to use it, and try again.
-					DbConfig dbConfig = Core.getInstance().getDbConfig();
+					DbConfig dbConfig = getDbConfigForLazyLoading();
 					dbConfig.createNewGlobalSession();
 					Session globalLazyLoadSession = dbConfig.getGlobalSession();
 					globalLazyLoadSession.update(this);
@@ -926,6 +982,38 @@ public final class Block implements Serializable {
 		return Collections.unmodifiableList(trips);
 	}
 	
+	/**
+	 * Returns the configuration whose session is to be used for lazy loading
+	 * the trips. This is the configuration that the block was read in as part
+	 * of, or the current configuration if it wasn't set.
+	 * 
+	 * @return the configuration to use for lazy loading
+	 */
+	private DbConfig getDbConfigForLazyLoading() {
+		return dbConfig != null ? dbConfig : Core.getInstance().getDbConfig();
+	}
+	
+	/**
+	 * Sets the configuration that this block was read in as part of so that
+	 * the session of that configuration is used for lazy loading the trips.
+	 * 
+	 * @param dbConfig
+	 */
+	public void setDbConfig(DbConfig dbConfig) {
+		this.dbConfig = dbConfig;
+	}
+	
+	/**
+	 * Returns the configuration that this block was read in as part of. This
+	 * is not necessarily the current configuration since a new one can be
+	 * swapped in while the core is running.
+	 * 
+	 * @return the configuration, or null if not set
+	 */
+	public DbConfig getDbConfig() {
+		return dbConfig;
+	}
+	
 	/**
 	 * So can sync up loading of trip and trip pattern data when trips are all
 	 * read at once in another class as opposed to through Block.getTrips().
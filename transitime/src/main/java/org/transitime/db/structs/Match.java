@@ -18,6 +18,7 @@
 package org.transitime.db.structs;
 
 import java.io.Serializable;
+import java.sql.Types;
 import java.util.Date;
 import java.util.List;
 
@@ -43,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.core.TemporalMatch;
 import org.transitime.core.VehicleState;
+import org.transitime.db.hibernate.BulkInsertTable;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
@@ -127,6 +129,27 @@ public class Match implements Lifecycle, Serializable {
 	// Needed because serializable due to Hibernate requirement
 	private static final long serialVersionUID = -7582135605912244678L;
 
+	// For writing matches to the db using DbBulkWriter. Column names must
+	// match those generated by Hibernate for the members above.
+	public static final BulkInsertTable<Match> BULK_INSERT_TABLE =
+			new BulkInsertTable<Match>("Matches", null,
+					new String[] { "vehicleId", "avlTime", "configRev",
+							"serviceId", "blockId", "tripId",
+							"stopPathIndex", "segmentIndex",
+							"distanceAlongSegment", "distanceAlongStopPath" },
+					new int[] { Types.VARCHAR, Types.TIMESTAMP,
+							Types.INTEGER, Types.VARCHAR, Types.VARCHAR,
+							Types.VARCHAR, Types.INTEGER, Types.INTEGER,
+							Types.FLOAT, Types.FLOAT }) {
+				@Override
+				public Object[] getColumnValues(Match m) {
+					return new Object[] { m.vehicleId, m.avlTime,
+							m.configRev, m.serviceId, m.blockId, m.tripId,
+							m.stopPathIndex, m.segmentIndex,
+							m.distanceAlongSegment, m.distanceAlongStopPath };
+				}
+			};
+
 	private static final Logger logger = 
 			LoggerFactory.getLogger(Match.class);
 
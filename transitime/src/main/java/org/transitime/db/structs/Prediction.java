@@ -19,11 +19,13 @@ package org.transitime.db.structs;
 
 import org.hibernate.annotations.DynamicUpdate;
 import org.transitime.applications.Core;
+import org.transitime.db.hibernate.BulkInsertTable;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.ipc.data.IpcPrediction;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.sql.Types;
 import java.util.Date;
 
 /**
@@ -88,6 +90,29 @@ public class Prediction implements Serializable {
 	// Needed because Hibernate objects must be serializable
 	private static final long serialVersionUID = 3966430062434375435L;
 
+	// For writing predictions to the db using DbBulkWriter. Column names
+	// must match those generated by Hibernate for the members above. The
+	// id is generated by the database.
+	public static final BulkInsertTable<Prediction> BULK_INSERT_TABLE =
+			new BulkInsertTable<Prediction>("Predictions", "id",
+					new String[] { "configRev", "predictionTime",
+							"creationTime", "vehicleId", "stopId", "tripId",
+							"routeId", "affectedByWaitStop", "isArrival",
+							"schedBasedPred", "gtfsStopSeq", "avlTime" },
+					new int[] { Types.INTEGER, Types.TIMESTAMP,
+							Types.TIMESTAMP, Types.VARCHAR, Types.VARCHAR,
+							Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN,
+							Types.BOOLEAN, Types.BOOLEAN, Types.INTEGER,
+							Types.TIMESTAMP }) {
+				@Override
+				public Object[] getColumnValues(Prediction p) {
+					return new Object[] { p.configRev, p.predictionTime,
+							p.creationTime, p.vehicleId, p.stopId, p.tripId,
+							p.routeId, p.affectedByWaitStop, p.isArrival,
+							p.schedBasedPred, p.gtfsStopSeq, p.avlTime };
+				}
+			};
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -89,9 +89,10 @@ public class Route implements Serializable {
 	           // but not yet sure. This means it is not available to application!
 	private final List<TripPattern> tripPatternsForRoute;
 
-	// For getStops()
+	// For getStops(). Java transient since the values() of a map are not
+	// Serializable. Recreated when needed.
 	@Transient
-	private Collection<Stop> stops = null;
+	private transient Collection<Stop> stops = null;
 	
 	// For getPathSegments()
 	@Transient
@@ -18,8 +18,11 @@ package org.transitime.db.structs;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import javax.persistence.Access;
+import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -27,11 +30,13 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
 import org.hibernate.annotations.DynamicUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,10 +93,11 @@ public class TravelTimesForStopPath implements Serializable {
 	@Column
 	private final float travelTimeSegmentLength;
 	
-	// Travel time is a List of Integers containing the expected travel time
+	// Travel time is an array of ints containing the expected travel time
 	// for each travel time segment whose length is travelTimeSegmentLength. 
-	// Integers are used to make it take
-	// less space and processing than if longs were used. Values in milliseconds.
+	// ints are used to make it take less space and processing than if longs
+	// or a List of Integers were used. Since travel times are used for every
+	// prediction want to avoid unboxing. Values in milliseconds.
 	// There are two ways to deal with Lists of basic types in Hibernate. The
 	// normal way is to declare it an @ElementCollection (and use @OrderColumn
 	// to maintain order of data in list) but this causes the list data to be
@@ -100,18 +106,16 @@ public class TravelTimesForStopPath implements Serializable {
 	// many SQL statements are needed (one for each element in the List).
 	// This is all very cumbersome, slow, and space inefficient since
 	// storing the primary keys again for each row in the additional table.
-	// The other way to deal with such a list is to have it be serializable
-	// and specify (length=1000) in the @Column annotation. In this way the
-	// List data is simply serialized/unserialized into a BLOB. This means that
-	// don't have a separate table with a separate row for each item in the 
-	// list. The drawback is that since the data is in a blob it cannot be
-	// read directly using SQL on the command line or for reports. But since
-	// it can make things so much more efficient want to try using it.
-	// NOTE: since trying to use serialization need to use ArrayList<> instead
-	// of List<> since List<> doesn't implement Serializable.
+	// Instead the times are encoded into a BLOB, the travelTimesEncoded
+	// column, using getTravelTimesEncoded() and setTravelTimesEncoded(). 
+	// This means that don't have a separate table with a separate row for 
+	// each item in the list. The drawback is that since the data is in a 
+	// blob it cannot be read directly using SQL on the command line or for 
+	// reports. But since it can make things so much more efficient it is
+	// worth it.
 	private static final int travelTimesMaxBytes = 100000;
-	@Column(length=travelTimesMaxBytes)
-	private final ArrayList<Integer> travelTimesMsec;
+	@Transient
+	private int[] travelTimesMsec;
 
 	// There is a separate time for travel and for actually stopping. For
 	// many systems might not be able to really differentiate between the two
@@ -136,8 +140,13 @@ public class TravelTimesForStopPath implements Serializable {
 	@Enumerated(EnumType.STRING)
 	private final HowSet howSet;
 	
+	// Version of the encoding used for the travelTimesEncoded column. 
+	// Stored as the first byte so that the format can be changed in the
+	// future without having to migrate the data.
+	private static final byte TRAVEL_TIMES_ENCODING_VERSION = 1;
+	
 	// Needed because class is serializable
-	private static final long serialVersionUID = -5136757109373446841L;
+	private static final long serialVersionUID = -5136757109373446842L;
 
 	private static final Logger logger = 
 			LoggerFactory.getLogger(TravelTimesForStopPath.class);
@@ -195,25 +204,52 @@ public class TravelTimesForStopPath implements Serializable {
 	 * @param trip for logging useful error message. OK if null.
 	 * @throws ArrayIndexOutOfBoundsException
 	 *             Thrown if not enough memory allocated for column
-	 *             travelTimesMsec for serializing the object.
+	 *             travelTimesEncoded for storing the travel times.
 	 */
 	public TravelTimesForStopPath(int configRev, int travelTimesRev,
 			String stopPathId, double travelTimeSegmentDistance,
 			List<Integer> travelTimesMsec, int stopTimeMsec,
 			int daysOfWeekOverride, HowSet howSet, Trip trip) 
 					throws ArrayIndexOutOfBoundsException {
+		this(configRev, travelTimesRev, stopPathId, travelTimeSegmentDistance,
+				toIntArray(travelTimesMsec), stopTimeMsec, daysOfWeekOverride,
+				howSet, trip);
+	}
+	
+	/**
+	 * Constructs a new TravelTimesForStopPath object.
+	 * 
+	 * @param configRev
+	 * @param travelTimesRev
+	 * @param stopPathId
+	 * @param travelTimeSegmentDistance
+	 * @param travelTimesMsec
+	 *            The travel times for the travel time segments.
+	 * @param stopTimeMsec
+	 * @param howSet
+	 * @param daysOfWeekOverride
+	 * @param trip for logging useful error message. OK if null.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             Thrown if not enough memory allocated for column
+	 *             travelTimesEncoded for storing the travel times.
+	 */
+	public TravelTimesForStopPath(int configRev, int travelTimesRev,
+			String stopPathId, double travelTimeSegmentDistance,
+			int[] travelTimesMsec, int stopTimeMsec,
+			int daysOfWeekOverride, HowSet howSet, Trip trip) 
+					throws ArrayIndexOutOfBoundsException {
 		// First make sure that travelTimesMsec isn't bigger than
 		// the space allocated for it. Only bother checking if have
 		// at least a few travel times for the path.
-		if (travelTimesMsec.size() > 5) {
-			int serializedSize = HibernateUtils.sizeof(travelTimesMsec);
+		if (travelTimesMsec.length > 5) {
+			int serializedSize = encodeTravelTimes(travelTimesMsec).length;
 			if (serializedSize > travelTimesMaxBytes) {
 				String msg = "Too many elements in "
 						+ "travelTimesMsec when constructing a "
 						+ "TravelTimesForStopPath for stopPathId=" + stopPathId 
 						+ " and travelTimeSegmentDistance=" 
 						+ Geo.distanceFormat(travelTimeSegmentDistance)
-						+ " . Have " + travelTimesMsec.size()
+						+ " . Have " + travelTimesMsec.length
 						+ " travel time segments taking up " + serializedSize 
 						+ " bytes but only have " + travelTimesMaxBytes 
 						+ " bytes allocated for the data. TripId=" 
@@ -235,7 +271,7 @@ public class TravelTimesForStopPath implements Serializable {
 		this.travelTimesRev = travelTimesRev;
 		this.stopPathId = stopPathId;
 		this.travelTimeSegmentLength = (float) travelTimeSegmentDistance;		
-		this.travelTimesMsec = (ArrayList<Integer>) travelTimesMsec;
+		this.travelTimesMsec = travelTimesMsec;
 		this.stopTimeMsec = stopTimeMsec;
 		this.daysOfWeekOverride = (short) daysOfWeekOverride;
 		this.howSet = howSet;
@@ -250,12 +286,172 @@ public class TravelTimesForStopPath implements Serializable {
 		this.travelTimesRev = -1;
 		this.stopPathId = null;
 		this.travelTimeSegmentLength = Float.NaN;
-		this.travelTimesMsec = null;
 		this.stopTimeMsec = -1;
 		this.daysOfWeekOverride = -1;
 		this.howSet = HowSet.SCHED;
 	}
 	
+	/**
+	 * Converts the List of travel times to an array of ints.
+	 * 
+	 * @param travelTimesMsec
+	 * @return the travel times as an array
+	 */
+	private static int[] toIntArray(List<Integer> travelTimesMsec) {
+		int[] array = new int[travelTimesMsec.size()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = travelTimesMsec.get(i);
+		return array;
+	}
+	
+	/**
+	 * Encodes the travel times into a compact byte array for storing in the
+	 * db. Travel times for the segments of a stop path tend to be similar so
+	 * each time is stored as the difference from the previous one. The
+	 * differences are zigzag encoded so that small negative values are small
+	 * positive values, and are then written as variable length integers
+	 * using 7 bits per byte. This way a travel time usually only takes one
+	 * or two bytes instead of the ~10 bytes per Integer needed when a List
+	 * is serialized by Java.
+	 * 
+	 * @param travelTimesMsec
+	 * @return the encoded travel times
+	 */
+	static byte[] encodeTravelTimes(int[] travelTimesMsec) {
+		// Worst case is 5 bytes per value, plus version and count
+		byte[] buffer = new byte[6 + 5*travelTimesMsec.length];
+		int position = 0;
+		buffer[position++] = TRAVEL_TIMES_ENCODING_VERSION;
+		position = writeVarInt(buffer, position, travelTimesMsec.length);
+		int previous = 0;
+		for (int travelTimeMsec : travelTimesMsec) {
+			int delta = travelTimeMsec - previous;
+			position = writeVarInt(buffer, position, 
+					(delta << 1) ^ (delta >> 31));
+			previous = travelTimeMsec;
+		}
+		return Arrays.copyOf(buffer, position);
+	}
+	
+	/**
+	 * Decodes travel times that were encoded using encodeTravelTimes().
+	 * 
+	 * @param data
+	 * @return the travel times
+	 * @throws HibernateException
+	 *             if the data is not valid
+	 */
+	static int[] decodeTravelTimes(byte[] data) throws HibernateException {
+		if (data.length == 0 || data[0] != TRAVEL_TIMES_ENCODING_VERSION)
+			throw new HibernateException("Encoded travel times have unknown "
+					+ "version " + (data.length == 0 ? "none" : data[0]));
+		
+		try {
+			int[] position = {1};
+			int[] travelTimesMsec = new int[readVarInt(data, position)];
+			int previous = 0;
+			for (int i = 0; i < travelTimesMsec.length; ++i) {
+				int zigzag = readVarInt(data, position);
+				previous += (zigzag >>> 1) ^ -(zigzag & 1);
+				travelTimesMsec[i] = previous;
+			}
+			return travelTimesMsec;
+		} catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new HibernateException("Encoded travel times are truncated "
+					+ "or corrupt", e);
+		}
+	}
+	
+	/**
+	 * Writes the value as an unsigned variable length integer.
+	 * 
+	 * @param buffer
+	 * @param position
+	 * @param value
+	 * @return the position after the value
+	 */
+	private static int writeVarInt(byte[] buffer, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+	
+	/**
+	 * Reads an unsigned variable length integer written by writeVarInt().
+	 * 
+	 * @param data
+	 * @param position
+	 *            Single element array so that the position can be updated
+	 * @return the value
+	 */
+	private static int readVarInt(byte[] data, int[] position) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = data[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new ArrayIndexOutOfBoundsException("Variable length integer "
+				+ "too long");
+	}
+	
+	/**
+	 * For Hibernate. Stores the travel times in the travelTimesEncoded 
+	 * column in a compact form.
+	 * 
+	 * @return the encoded travel times
+	 */
+	@Access(AccessType.PROPERTY)
+	@Column(length=travelTimesMaxBytes)
+	private byte[] getTravelTimesEncoded() {
+		return travelTimesMsec == null ? 
+				null : encodeTravelTimes(travelTimesMsec);
+	}
+	
+	/**
+	 * For Hibernate. Reads the travel times from the travelTimesEncoded
+	 * column. Null for rows written before the column was added, in which
+	 * case the travel times are read from the legacy column instead.
+	 * 
+	 * @param data
+	 */
+	@SuppressWarnings("unused")
+	private void setTravelTimesEncoded(byte[] data) {
+		if (data != null)
+			travelTimesMsec = decodeTravelTimes(data);
+	}
+	
+	/**
+	 * For Hibernate. The travel times used to be stored as a Java serialized
+	 * ArrayList of Integers in the travelTimesMsec column. That column is no
+	 * longer written to, and is cleared when the row is next updated, such as
+	 * by the MigrateTravelTimesEncoding application.
+	 * 
+	 * @return always null
+	 */
+	@Access(AccessType.PROPERTY)
+	@Column(name="travelTimesMsec", length=travelTimesMaxBytes)
+	private ArrayList<Integer> getLegacyTravelTimesMsec() {
+		return null;
+	}
+	
+	/**
+	 * For Hibernate. Reads travel times from rows written before the
+	 * travelTimesEncoded column was added.
+	 * 
+	 * @param legacyTravelTimesMsec
+	 */
+	@SuppressWarnings("unused")
+	private void setLegacyTravelTimesMsec(
+			ArrayList<Integer> legacyTravelTimesMsec) {
+		if (legacyTravelTimesMsec != null && travelTimesMsec == null)
+			travelTimesMsec = toIntArray(legacyTravelTimesMsec);
+	}
+	
 	/**
 	 * Creates a new object. Useful for when need to copy a schedule based
 	 * travel time. By having a copy can erase the original one when done with
@@ -282,7 +478,7 @@ public class TravelTimesForStopPath implements Serializable {
 				+ ", travelTimesRev=" + travelTimesRev
 				+ ", stopPathId=" + stopPathId 
 				+ ", travelTimeSegmentLength=" + travelTimeSegmentLength
-				+ ", travelTimesMsec=" + travelTimesMsec 
+				+ ", travelTimesMsec=" + Arrays.toString(travelTimesMsec) 
 				+ ", stopTimeMsec=" + stopTimeMsec
 				+ ", travelTimeMsec=" + getStopPathTravelTimeMsec()
 				+ ", daysOfWeekOverride=" + daysOfWeekOverride
@@ -300,7 +496,7 @@ public class TravelTimesForStopPath implements Serializable {
 		return "TTForStopPath ["
 				+ "stopTimeMsec=" + stopTimeMsec
 				+ ", travelTimeMsec=" + getStopPathTravelTimeMsec()
-				+ ", travelTimesMsec=" + travelTimesMsec 
+				+ ", travelTimesMsec=" + Arrays.toString(travelTimesMsec) 
 				+ ", stopPathId=" + stopPathId
 				+ ", ttSegLen=" + Geo.distanceFormat(travelTimeSegmentLength)
 				+ ", howSet=" + howSet 
@@ -338,17 +534,24 @@ public class TravelTimesForStopPath implements Serializable {
 	}
 	
 	/**
+	 * Returns the travel times as a new List. Since a List is created this
+	 * should not be used when processing predictions. Instead should use
+	 * getTravelTimeSegmentMsec().
+	 * 
 	 * @return the travelTimeMsec
 	 */
 	public List<Integer> getTravelTimesMsec() {
-		return travelTimesMsec;
+		List<Integer> list = new ArrayList<Integer>(travelTimesMsec.length);
+		for (int travelTimeMsec : travelTimesMsec)
+			list.add(travelTimeMsec);
+		return list;
 	}
 
 	/**
 	 * @return How many travel time segments there are for the stop path
 	 */
 	public int getNumberTravelTimeSegments() {
-		return travelTimesMsec.size();
+		return travelTimesMsec.length;
 	}
 	
 	/**
@@ -359,7 +562,7 @@ public class TravelTimesForStopPath implements Serializable {
 	 */
 	public int getStopPathTravelTimeMsec() {
 		int totalTravelTimeMsec = 0;
-		for (Integer timeMsec : travelTimesMsec)
+		for (int timeMsec : travelTimesMsec)
 			totalTravelTimeMsec += timeMsec;
 		return totalTravelTimeMsec;
 	}
@@ -371,7 +574,7 @@ public class TravelTimesForStopPath implements Serializable {
 	 * @return travel time for the specified travel time segment in msec
 	 */
 	public int getTravelTimeSegmentMsec(int segmentIndex) {
-		return travelTimesMsec.get(segmentIndex);
+		return travelTimesMsec[segmentIndex];
 	}
 	
 	/**
@@ -436,6 +639,71 @@ public class TravelTimesForStopPath implements Serializable {
 		}
 	}
 
+	/**
+	 * Converts the travel times of rows written before the travelTimesEncoded
+	 * column was added. The rows are read in batches. Reading a row sets the
+	 * travel times from the legacy column, and then when the transaction is
+	 * committed Hibernate sees that the encoded column needs to be written
+	 * and that the legacy column needs to be cleared.
+	 * 
+	 * @param dbName
+	 *            Name of the db. If null then uses transitime.db.dbName
+	 * @return Number of rows converted
+	 * @throws HibernateException
+	 */
+	public static int migrateLegacyTravelTimes(String dbName) 
+			throws HibernateException {
+		final int batchSize = 10000;
+		int totalRows = 0;
+		int lastId = -1;
+		
+		Session session = dbName != null ? 
+				HibernateUtils.getSession(dbName) : HibernateUtils.getSession();
+		try {
+			List<TravelTimesForStopPath> batch;
+			do {
+				Transaction tx = session.beginTransaction();
+				try {
+					// Order by id so that can continue after the last row
+					// even if some rows couldn't be converted
+					String hql = "FROM TravelTimesForStopPath "
+							+ "    WHERE travelTimesEncoded IS NULL "
+							+ "      AND id > :lastId "
+							+ "    ORDER BY id";
+					Query query = session.createQuery(hql);
+					query.setInteger("lastId", lastId);
+					query.setMaxResults(batchSize);
+					@SuppressWarnings("unchecked")
+					List<TravelTimesForStopPath> list = query.list();
+					batch = list;
+					
+					for (TravelTimesForStopPath travelTimes : batch) {
+						if (travelTimes.travelTimesMsec == null)
+							logger.error("No legacy travel times for {}", 
+									travelTimes);
+						lastId = travelTimes.id;
+					}
+					
+					// Writes the converted rows
+					tx.commit();
+				} catch (HibernateException e) {
+					tx.rollback();
+					throw e;
+				}
+				
+				// So don't use too much memory
+				session.clear();
+				totalRows += batch.size();
+				logger.info("Converted travel times for {} rows so far", 
+						totalRows);
+			} while (batch.size() == batchSize);
+		} finally {
+			session.close();
+		}
+		
+		return totalRows;
+	}
+	
 	/**
 	 * Defined so can use as key in map
 	 */
@@ -451,8 +719,7 @@ public class TravelTimesForStopPath implements Serializable {
 				+ ((stopPathId == null) ? 0 : stopPathId.hashCode());
 		result = prime * result + stopTimeMsec;
 		result = prime * result + Float.floatToIntBits(travelTimeSegmentLength);
-		result = prime * result
-				+ ((travelTimesMsec == null) ? 0 : travelTimesMsec.hashCode());
+		result = prime * result + Arrays.hashCode(travelTimesMsec);
 		result = prime * result + travelTimesRev;
 		return result;
 	}
@@ -490,10 +757,7 @@ public class TravelTimesForStopPath implements Serializable {
 		if (Float.floatToIntBits(travelTimeSegmentLength) != Float
 				.floatToIntBits(other.travelTimeSegmentLength))
 			return false;
-		if (travelTimesMsec == null) {
-			if (other.travelTimesMsec != null)
-				return false;
-		} else if (!travelTimesMsec.equals(other.travelTimesMsec))
+		if (!Arrays.equals(travelTimesMsec, other.travelTimesMsec))
 			return false;
 		if (travelTimesRev != other.travelTimesRev)
 			return false;
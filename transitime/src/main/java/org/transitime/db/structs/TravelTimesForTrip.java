@@ -205,6 +205,56 @@ public class TravelTimesForTrip implements Serializable {
 		return totalRowsUpdated;
 	}
 	
+	/**
+	 * Deletes a single travel times rev for the config rev from the
+	 * TravelTimesForTrip, TravelTimesForStopPaths, and the
+	 * TravelTimesForTrip_to_TravelTimesForPath_jointable. For removing
+	 * travel times revs that have been superseded.
+	 * 
+	 * @param session
+	 * @param configRev
+	 * @param travelTimesRev
+	 * @return number of rows deleted
+	 * @throws HibernateException
+	 */
+	public static int deleteTravelTimesRev(Session session, int configRev,
+			int travelTimesRev) throws HibernateException {
+		int totalRowsUpdated = 0;
+
+		// Uses IN with a SELECT clause instead of an INNER JOIN for the same
+		// reason as deleteFromRev()
+		int rowsUpdated = session.
+				createSQLQuery("DELETE "
+						+ " FROM TravelTimesForTrip_to_TravelTimesForPath_joinTable "
+						+ "WHERE TravelTimesForTrips_id IN "
+						+ "  (SELECT id " 
+                        + "     FROM TravelTimesForTrips "
+                        + "    WHERE configRev=" + configRev 
+                        + "      AND travelTimesRev=" + travelTimesRev
+                        + "  )" ).
+				executeUpdate();
+		totalRowsUpdated += rowsUpdated;
+		
+		rowsUpdated = session.
+				createSQLQuery("DELETE FROM TravelTimesForStopPaths "
+						+ "WHERE configRev=" + configRev 
+						+ " AND travelTimesRev=" + travelTimesRev).
+				executeUpdate();
+		totalRowsUpdated += rowsUpdated;
+		
+		rowsUpdated = session.
+				createSQLQuery("DELETE FROM TravelTimesForTrips "
+						+ "WHERE configRev=" + configRev 
+						+ " AND travelTimesRev=" + travelTimesRev).
+				executeUpdate();
+		totalRowsUpdated += rowsUpdated;
+		
+		logger.info("Deleted {} rows of travel times for configRev={} "
+				+ "travelTimesRev={}", totalRowsUpdated, configRev, 
+				travelTimesRev);
+		return totalRowsUpdated;
+	}
+	
 	/**
 	 * Returns Map keyed by tripPatternId of Lists of TravelTimesForTrip. Since
 	 * there are usually multiple trips per trip pattern the Map contains a List
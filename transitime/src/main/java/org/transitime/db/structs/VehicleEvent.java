@@ -160,6 +160,7 @@ public class VehicleEvent implements Serializable {
 	public static final String NOT_LEAVING_TERMINAL = "Not leaving terminal";
 	public static final String ASSIGNMENT_GRABBED = "Assignment Grabbed";
 	public static final String ASSIGNMENT_CHANGED = "Assignment Changed";
+	public static final String CONFIG_REV_CHANGED = "Config Rev Changed";
 	
 	// Hibernate requires class to be Serializable
 	private static final long serialVersionUID = -763445348557811925L;
@@ -0,0 +1,170 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.feed.gtfsRt;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.utils.Time;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+
+/**
+ * For creating a GTFS-realtime TripUpdate from the predictions for a trip.
+ * Used both by the core, which maintains the TripUpdates per trip, and by the
+ * API when it needs to create the whole feed itself.
+ * <p>
+ * Note: for predictions that are schedule based instead of GPS based the
+ * StopTimeEvent uncertainty is set to SCHED_BASED_PRED_UNCERTAINTY_VALUE so
+ * that the client can treat the prediction differently. If a vehicle is
+ * delayed and not moving then uncertainty is set to DELAYED_UNCERTAINTY_VALUE.
+ * And if a vehicle is late and the prediction is for a subsequent trip then
+ * uncertainty is set to LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class GtfsRtTripUpdateCreator {
+
+	// For when creating StopTimeEvent for schedule based prediction
+	// 5 minutes (300 seconds)
+	public static final int SCHED_BASED_PRED_UNCERTAINTY_VALUE = 5 * 60;
+
+	// For when creating StopTimeEvent and the vehicle is delayed
+	public static final int DELAYED_UNCERTAINTY_VALUE =
+			SCHED_BASED_PRED_UNCERTAINTY_VALUE + 1;
+
+	// If vehicle is late and prediction is for a subsequent trip then
+	// the predictions are not as certain because it is reasonably likely
+	// that another vehicle will take over the subsequent trip. Takes
+	// precedence over SCHED_BASED_PRED_UNCERTAINTY_VALUE.
+	public static final int LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE =
+			DELAYED_UNCERTAINTY_VALUE + 1;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Create TripUpdate for the trip.
+	 *
+	 * @param predsForTrip
+	 *            The predictions for the trip. Must not be empty.
+	 * @param gtfsRealtimeDateFormatter
+	 *            For formatting the trip start date using the agency timezone
+	 *            in "yyyyMMdd" format. Since DateFormat is not threadsafe the
+	 *            caller needs to make sure it isn't used simultaneously by
+	 *            another thread.
+	 * @return the TripUpdate
+	 */
+	public static TripUpdate createTripUpdate(List<IpcPrediction> predsForTrip,
+			DateFormat gtfsRealtimeDateFormatter) {
+		// Create the parent TripUpdate object that is returned.
+		TripUpdate.Builder tripUpdate = TripUpdate.newBuilder();
+
+		// Add the trip descriptor information
+		IpcPrediction firstPred = predsForTrip.get(0);
+		TripDescriptor.Builder tripDescriptor = TripDescriptor.newBuilder();
+		if (firstPred.getRouteId() != null)
+			tripDescriptor.setRouteId(firstPred.getRouteId());
+		if (firstPred.getTripId() != null) {
+			tripDescriptor.setTripId(firstPred.getTripId());
+
+			long tripStartEpochTime = firstPred.getTripStartEpochTime();
+			String tripStartDateStr =
+					gtfsRealtimeDateFormatter.format(new Date(
+							tripStartEpochTime));
+			tripDescriptor.setStartDate(tripStartDateStr);
+		}
+		tripUpdate.setTrip(tripDescriptor);
+
+		// Add the VehicleDescriptor information
+		VehicleDescriptor.Builder vehicleDescriptor =
+				VehicleDescriptor.newBuilder().setId(firstPred.getVehicleId());
+		tripUpdate.setVehicle(vehicleDescriptor);
+
+		// Add the StopTimeUpdate information for each prediction
+		for (IpcPrediction pred : predsForTrip) {
+			StopTimeUpdate.Builder stopTimeUpdate =	StopTimeUpdate.newBuilder()
+					.setStopSequence(pred.getGtfsStopSeq())
+					.setStopId(pred.getStopId());
+
+			StopTimeEvent.Builder stopTimeEvent = StopTimeEvent.newBuilder();
+			stopTimeEvent.setTime(pred.getPredictionTime() / Time.MS_PER_SEC);
+
+			// If schedule based prediction then set the uncertainty to special
+			// value so that client can tell
+			if (pred.isSchedBasedPred())
+				stopTimeEvent.setUncertainty(SCHED_BASED_PRED_UNCERTAINTY_VALUE);
+
+			// If vehicle is late and prediction is for a subsequent trip then
+			// the predictions are not as certain because it is reasonably likely
+			// that another vehicle will take over the subsequent trip. Takes
+			// precedence over SCHED_BASED_PRED_UNCERTAINTY_VALUE.
+			if (pred.isLateAndSubsequentTripSoMarkAsUncertain())
+				stopTimeEvent.setUncertainty(LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE);
+
+			// If vehicle not making forward progress then set uncertainty to
+			// special value so that client can tell. Takes precedence over
+			// LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE.
+			if (pred.isDelayed())
+				stopTimeEvent.setUncertainty(DELAYED_UNCERTAINTY_VALUE);
+
+			if (pred.isArrival())
+				stopTimeUpdate.setArrival(stopTimeEvent);
+			else
+				stopTimeUpdate.setDeparture(stopTimeEvent);
+
+			// SCHEDULED is the default in the GTFS-realtime spec but it is
+			// set explicitly so that the feed is the same as the one that
+			// the API has always provided
+			stopTimeUpdate.setScheduleRelationship(ScheduleRelationship.SCHEDULED);
+			tripUpdate.addStopTimeUpdate(stopTimeUpdate);
+		}
+
+		// Add timestamp
+		tripUpdate.setTimestamp(firstPred.getAvlTime() / Time.MS_PER_SEC);
+
+		// Return the results
+		return tripUpdate.build();
+	}
+
+	/**
+	 * Creates the FeedEntity for the trip. The trip ID is used as the entity
+	 * ID.
+	 *
+	 * @param predsForTrip
+	 *            The predictions for the trip. Must not be empty.
+	 * @param gtfsRealtimeDateFormatter
+	 *            For formatting the trip start date
+	 * @return the FeedEntity containing the TripUpdate
+	 */
+	public static FeedEntity createFeedEntity(List<IpcPrediction> predsForTrip,
+			DateFormat gtfsRealtimeDateFormatter) {
+		return FeedEntity.newBuilder()
+				.setId(predsForTrip.get(0).getTripId())
+				.setTripUpdate(createTripUpdate(predsForTrip,
+						gtfsRealtimeDateFormatter))
+				.build();
+	}
+}
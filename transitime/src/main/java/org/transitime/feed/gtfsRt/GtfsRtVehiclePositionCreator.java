@@ -0,0 +1,143 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.feed.gtfsRt;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import org.transitime.ipc.data.IpcVehicleGtfsRealtime;
+import org.transitime.utils.Time;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition.VehicleStopStatus;
+
+/**
+ * For creating a GTFS-realtime VehiclePosition from the info for a vehicle.
+ * Used both by the core, which maintains the VehiclePosition for each vehicle,
+ * and by the API when it needs to create the whole feed itself.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class GtfsRtVehiclePositionCreator {
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Takes in IpcGtfsRealtimeVehicle and puts it into a GTFS-realtime
+	 * VehiclePosition object.
+	 *
+	 * @param vehicleData
+	 * @param gtfsRealtimeDateFormatter
+	 *            For formatting the trip start date using the agency timezone
+	 *            in "yyyyMMdd" format. Since DateFormat is not threadsafe the
+	 *            caller needs to make sure it isn't used simultaneously by
+	 *            another thread.
+	 * @return the resulting VehiclePosition
+	 */
+	public static VehiclePosition createVehiclePosition(
+			IpcVehicleGtfsRealtime vehicleData,
+			DateFormat gtfsRealtimeDateFormatter) {
+		// Create the parent VehiclePosition object that is returned.
+		VehiclePosition.Builder vehiclePosition = VehiclePosition.newBuilder();
+
+		// If there is route information then add it via the TripDescriptor
+		if (vehicleData.getRouteId() != null
+				&& vehicleData.getRouteId().length() > 0) {
+			String tripStartDateStr =
+					gtfsRealtimeDateFormatter.format(new Date(vehicleData
+							.getTripStartEpochTime()));
+			TripDescriptor.Builder tripDescriptor =
+					TripDescriptor.newBuilder()
+							.setRouteId(vehicleData.getRouteId())
+							.setTripId(vehicleData.getTripId())
+							.setStartDate(tripStartDateStr);
+			vehiclePosition.setTrip(tripDescriptor);
+		}
+
+		// Add the VehicleDescriptor information
+		VehicleDescriptor.Builder vehicleDescriptor =
+				VehicleDescriptor.newBuilder().setId(vehicleData.getId());
+		// License plate information is optional so only add it if not null
+		if (vehicleData.getLicensePlate() != null)
+			vehicleDescriptor.setLicensePlate(vehicleData.getLicensePlate());
+		vehiclePosition.setVehicle(vehicleDescriptor);
+
+		// Add the Position information
+		Position.Builder position =
+				Position.newBuilder().setLatitude(vehicleData.getLatitude())
+						.setLongitude(vehicleData.getLongitude());
+		// Heading and speed are optional so only add them if actually a
+		// valid number.
+		if (!Float.isNaN(vehicleData.getHeading())) {
+			position.setBearing(vehicleData.getHeading());
+		}
+		if (!Float.isNaN(vehicleData.getSpeed())) {
+			position.setSpeed(vehicleData.getSpeed());
+		}
+		vehiclePosition.setPosition(position);
+
+		// Convert the GPS timestamp information to an epoch time as
+		// number of milliseconds since 1970.
+		long gpsTime = vehicleData.getGpsTime();
+		vehiclePosition.setTimestamp(gpsTime / Time.MS_PER_SEC);
+
+		// Set the stop_id if at a stop or going to a stop
+		String stopId = vehicleData.getAtOrNextStopId();
+		if (stopId != null)
+			vehiclePosition.setStopId(stopId);
+
+		// Set current_status part of vehiclePosition if vehicle is actually
+		// predictable. If not predictable then the vehicle stop status will
+		// not be included in feed since it is not stopped nor in transit to.
+		if (vehicleData.isPredictable()) {
+			VehicleStopStatus currentStatus =
+					vehicleData.isAtStop() ? VehicleStopStatus.STOPPED_AT
+							: VehicleStopStatus.IN_TRANSIT_TO;
+			vehiclePosition.setCurrentStatus(currentStatus);
+
+			if (vehicleData.getAtOrNextGtfsStopSeq() != null)
+				vehiclePosition.setCurrentStopSequence(vehicleData.getAtOrNextGtfsStopSeq());
+		}
+
+		// Return the results
+		return vehiclePosition.build();
+	}
+
+	/**
+	 * Creates the FeedEntity for the vehicle. The vehicle ID is used as the
+	 * entity ID.
+	 *
+	 * @param vehicleData
+	 * @param gtfsRealtimeDateFormatter
+	 *            For formatting the trip start date
+	 * @return the FeedEntity containing the VehiclePosition
+	 */
+	public static FeedEntity createFeedEntity(
+			IpcVehicleGtfsRealtime vehicleData,
+			DateFormat gtfsRealtimeDateFormatter) {
+		return FeedEntity.newBuilder()
+				.setId(vehicleData.getId())
+				.setVehicle(createVehiclePosition(vehicleData,
+						gtfsRealtimeDateFormatter))
+				.build();
+	}
+}
@@ -16,12 +16,15 @@
  */
 package org.transitime.gtfs;
 
+import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
+import org.transitime.configData.CoreConfig;
 import org.transitime.core.ServiceUtils;
+import org.transitime.core.StopPathSpatialIndex;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.db.structs.*;
 import org.transitime.db.structs.Calendar;
@@ -75,6 +78,9 @@ public class DbConfig {
 	// For trips that have been read in individually. Keyed on trip short name
 	private Map<String, Trip> individualTripsByShortNameMap =
 			new HashMap<String, Trip>();
+	// For when the config data is preloaded. Keyed on trip short name. Can
+	// be multiple trips with the same short name for different service IDs.
+	private volatile Map<String, List<Trip>> tripsByShortNameMap = null;
 
 	private List<Agency> agencies;
 	private List<Calendar> calendars;
@@ -90,6 +96,14 @@ public class DbConfig {
 	// trying to determine nearest stops.
 	private Map<String, Stop> stopsMap;
 
+	// Spatial index of all stop path segments so that spatial matching only
+	// needs to look at nearby trip patterns. Null if not enabled.
+	private volatile StopPathSpatialIndex stopPathSpatialIndex = null;
+
+	// Spatial index of stops of all trip patterns so that can quickly find
+	// stops near a location. Null if not enabled.
+	private volatile StopsSpatialIndex stopsSpatialIndex = null;
+
 	// Remember the session. This is a bit odd because usually
 	// close sessions but want to keep it open so can do lazy loading
 	// and so that can read in TripPatterns later using the same session.
@@ -130,13 +144,44 @@ public class DbConfig {
 		globalSession = HibernateUtils.getSession(agencyId);
 	}
 	
+	/**
+	 * Closes the global session. For when this configuration has been
+	 * replaced by a newer one and is no longer being used so that the
+	 * session and all of the objects cached by it can be released. Data that
+	 * hasn't already been read in can no longer be lazy loaded.
+	 */
+	public void closeGlobalSession() {
+		if (globalSession != null && globalSession.isOpen()) {
+			logger.info("Closing session for configRev={} for agencyId={}",
+					configRev, agencyId);
+			globalSession.close();
+		}
+	}
+	
 	/**
 	 * Initiates the reading of the configuration data from the database. Calls
-	 * actuallyReadData() which does all the work.
+	 * actuallyReadData() which does all the work. If a config snapshot
+	 * directory is configured and there is a snapshot for the current
+	 * revisions then the data is read from the snapshot instead, which is
+	 * much faster.
 	 * 
 	 * @param configRev
 	 */
 	public void read(int configRev) {
+		read(configRev, true);
+	}
+	
+	/**
+	 * Initiates the reading of the configuration data. Calls
+	 * actuallyReadData() which does all the work.
+	 * 
+	 * @param configRev
+	 * @param useSnapshot
+	 *            If true and transitime.core.configSnapshotDirectory is set
+	 *            then will try to read the data from a snapshot. Should be
+	 *            false if creating a new snapshot.
+	 */
+	public void read(int configRev, boolean useSnapshot) {
 		// For logging how long things take
 		IntervalTimer timer = new IntervalTimer();
 
@@ -149,7 +194,19 @@ public class DbConfig {
 
 		// Do the low-level processing
 		try {
-			actuallyReadData(configRev);
+			if (!useSnapshot || !readSnapshot(configRev))
+				actuallyReadData(configRev);
+			
+			// Read in the lazy loaded data now if configured to do so
+			if (CoreConfig.preloadConfigData())
+				preloadData();
+
+			// Create the spatial indexes if configured to do so. This reads 
+			// in all trip patterns now instead of lazily.
+			if (CoreConfig.useStopPathSpatialIndex())
+				createStopPathSpatialIndex();
+			if (CoreConfig.useStopsSpatialIndex())
+				createStopsSpatialIndex();
 		} catch (HibernateException e) {
 			logger.error("Error reading configuration data from db for "
 					+ "configRev={}.", configRev);
@@ -167,6 +224,18 @@ public class DbConfig {
 				+ "Took {} msec.", timer.elapsedMsec());
 	}
 
+	/**
+	 * Tells each block that it is part of this configuration so that if its
+	 * trips need to be lazy loaded then the session of this configuration is
+	 * used, even after a newer configuration has been swapped in.
+	 * 
+	 * @param blocks
+	 */
+	private void setDbConfigOfBlocks(List<Block> blocks) {
+		for (Block block : blocks)
+			block.setDbConfig(this);
+	}
+	
 	/**
 	 * Creates a map of a map so that blocks can be looked up easily by service
 	 * and block IDs.
@@ -334,6 +403,17 @@ public class DbConfig {
 	 */
 	public List<TripPattern> getTripPatternsForRoute(String routeId) {
 		// If haven't read in the trip pattern data yet, do so now and cache it
+		readTripPatternsIfNeeded();
+
+		// Return cached trip pattern data
+		return tripPatternsByRouteMap.get(routeId);
+	}
+
+	/**
+	 * Reads in all of the trip patterns and puts them into the
+	 * tripPatternsByRouteMap if haven't already done so.
+	 */
+	private void readTripPatternsIfNeeded() {
 		if (tripPatternsByRouteMap == null) {
 			IntervalTimer timer = new IntervalTimer();
 
@@ -355,9 +435,158 @@ public class DbConfig {
 			logger.debug("Reading trip patterns took {} msec",
 					timer.elapsedMsec());
 		}
+	}
 
-		// Return cached trip pattern data
-		return tripPatternsByRouteMap.get(routeId);
+	/**
+	 * Reads in all of the data that would otherwise be lazy loaded. This
+	 * includes the trips for all blocks, all the trip patterns, the schedule
+	 * times of the trips, the stop paths of the trip patterns, and the
+	 * locations of the stop paths. Used both when preloading the data and
+	 * when creating a snapshot so that afterwards the data can be accessed
+	 * without a Hibernate session.
+	 * <p>
+	 * Instead of lazy loading the trips block by block, which would take a
+	 * query per block, the data is read using a few large queries. All the
+	 * trips, including their schedule times, trip patterns, and travel times
+	 * are read in by getTrips(). The trips for all the blocks are then read
+	 * in at once by Block.fetchTrips(). Since the same session is used all
+	 * the blocks refer to the same Trip objects as the trips map.
+	 * 
+	 * @return all of the trip patterns
+	 */
+	private List<TripPattern> readInLazyLoadedData() {
+		getTrips();
+		readTripPatternsIfNeeded();
+		
+		List<TripPattern> tripPatterns = new ArrayList<TripPattern>();
+		for (List<TripPattern> tripPatternsForRoute : 
+				tripPatternsByRouteMap.values())
+			tripPatterns.addAll(tripPatternsForRoute);
+
+		synchronized (Block.getLazyLoadingSyncObject()) {
+			// If any blocks don't yet have their trips read in then read
+			// them all in at once. Won't need to if read from snapshot.
+			for (Block block : blocks) {
+				if (!block.areTripsReadIn()) {
+					Block.fetchTrips(globalSession, configRev);
+					break;
+				}
+			}
+			
+			for (Block block : blocks) {
+				for (Trip trip : block.getTrips())
+					Hibernate.initialize(trip.getScheduleTimes());
+			}
+			for (Trip trip : tripsMap.values())
+				Hibernate.initialize(trip.getScheduleTimes());
+			for (TripPattern tripPattern : tripPatterns) {
+				Hibernate.initialize(tripPattern.getStopPaths());
+				for (StopPath stopPath : tripPattern.getStopPaths())
+					Hibernate.initialize(stopPath.getLocations());
+			}
+		}
+		
+		return tripPatterns;
+	}
+	
+	/**
+	 * Reads in all of the data that would otherwise be lazy loaded and then
+	 * detaches the blocks from the Hibernate session. This way the AVL
+	 * processing threads never need to lazy load data, which would mean
+	 * synchronizing on Block.getLazyLoadingSyncObject() and blocking all the
+	 * other threads.
+	 */
+	private void preloadData() {
+		IntervalTimer timer = new IntervalTimer();
+		logger.info("Preloading all trips and trip patterns...");
+		
+		readInLazyLoadedData();
+		
+		synchronized (Block.getLazyLoadingSyncObject()) {
+			for (Block block : blocks)
+				block.detachTrips(globalSession);
+		}
+		
+		tripsByShortNameMap = putTripsIntoMapByShortName(tripsMap.values());
+		
+		logger.info("Preloading all trips and trip patterns for {} blocks "
+				+ "took {} msec", blocks.size(), timer.elapsedMsec());
+	}
+	
+	/**
+	 * Creates a map of trips keyed by trip short name so that can look up a
+	 * trip by short name without querying the db.
+	 * 
+	 * @param trips
+	 * @return map of trips keyed on trip short name
+	 */
+	private static Map<String, List<Trip>> putTripsIntoMapByShortName(
+			Collection<Trip> trips) {
+		Map<String, List<Trip>> map = new HashMap<String, List<Trip>>();
+		for (Trip trip : trips) {
+			if (trip.getShortName() == null)
+				continue;
+			
+			List<Trip> tripsForShortName = map.get(trip.getShortName());
+			if (tripsForShortName == null) {
+				tripsForShortName = new ArrayList<Trip>(1);
+				map.put(trip.getShortName(), tripsForShortName);
+			}
+			tripsForShortName.add(trip);
+		}
+		return map;
+	}
+	
+	/**
+	 * Reads in all of the trip patterns and creates the spatial index of all
+	 * of their stop path segments.
+	 */
+	private void createStopPathSpatialIndex() {
+		readTripPatternsIfNeeded();
+
+		// Creating the index accesses the stop paths of each trip pattern,
+		// which could involve lazy loading, so need to sync
+		synchronized (Block.getLazyLoadingSyncObject()) {
+			stopPathSpatialIndex = new StopPathSpatialIndex(
+					tripPatternsByRouteMap, routesByRouteIdMap);
+		}
+	}
+
+	/**
+	 * Reads in all of the trip patterns and creates the spatial index of the
+	 * stops of the trip patterns.
+	 */
+	private void createStopsSpatialIndex() {
+		readTripPatternsIfNeeded();
+
+		// Creating the index accesses the stop paths of each trip pattern,
+		// which could involve lazy loading, so need to sync
+		synchronized (Block.getLazyLoadingSyncObject()) {
+			stopsSpatialIndex = 
+					new StopsSpatialIndex(routes, tripPatternsByRouteMap);
+		}
+	}
+
+	/**
+	 * Returns the spatial index of all stop path segments for the
+	 * configuration revision.
+	 * 
+	 * @return the spatial index, or null if it is not enabled via
+	 *         transitime.core.useStopPathSpatialIndex
+	 */
+	public StopPathSpatialIndex getStopPathSpatialIndex() {
+		return stopPathSpatialIndex;
+	}
+
+	/**
+	 * Returns the spatial index of the stops of all trip patterns for the
+	 * configuration revision.
+	 * 
+	 * @return the spatial index, or null if it is not enabled via
+	 *         transitime.core.useStopsSpatialIndex
+	 */
+	public StopsSpatialIndex getStopsSpatialIndex() {
+		return stopsSpatialIndex;
 	}
 
 	/**
@@ -398,6 +627,11 @@ public class DbConfig {
 	 * @return The trip, or null if no such trip
 	 */
 	public Trip getTrip(String tripId) {
+		// If all trips already read in, such as from a snapshot, use them
+		Map<String, Trip> allTrips = tripsMap;
+		if (allTrips != null)
+			return allTrips.get(tripId);
+		
 		Trip trip = individualTripsMap.get(tripId);
 
 		// If trip not read in yet, do so now
@@ -423,6 +657,27 @@ public class DbConfig {
 	 * @return
 	 */
 	public Trip getTripUsingTripShortName(String tripShortName) {
+		// If the trips were preloaded then use them instead of querying the
+		// db. Same as Trip.getTripByShortName(), if there are multiple trips
+		// with the short name then use the one for a current service ID.
+		Map<String, List<Trip>> preloadedTrips = tripsByShortNameMap;
+		if (preloadedTrips != null) {
+			List<Trip> trips = preloadedTrips.get(tripShortName);
+			if (trips == null)
+				return null;
+			if (trips.size() == 1)
+				return trips.get(0);
+			
+			Collection<String> currentServiceIds = Core.getInstance()
+					.getServiceUtils().getServiceIds(
+							Core.getInstance().getSystemDate());
+			for (Trip trip : trips) {
+				if (currentServiceIds.contains(trip.getServiceId()))
+					return trip;
+			}
+			return null;
+		}
+		
 		Trip trip = individualTripsByShortNameMap.get(tripShortName);
 
 		// If trip not read in yet, do so now
@@ -476,6 +731,29 @@ public class DbConfig {
 		return routesMap;
 	}
 
+	/**
+	 * Creates a map of calendar dates keyed by the date so that can easily
+	 * find the calendar dates for a particular day.
+	 * 
+	 * @param calendarDates
+	 * @return
+	 */
+	private static Map<Long, List<CalendarDate>> putCalendarDatesIntoMap(
+			List<CalendarDate> calendarDates) {
+		Map<Long, List<CalendarDate>> calendarDatesMap = 
+				new HashMap<Long, List<CalendarDate>>();
+		for (CalendarDate calendarDate : calendarDates) {
+			Long time = calendarDate.getTime();
+			List<CalendarDate> calendarDatesForDate = calendarDatesMap.get(time);
+			if (calendarDatesForDate == null) {
+				calendarDatesForDate = new ArrayList<CalendarDate>(1);
+				calendarDatesMap.put(time, calendarDatesForDate);
+			}
+			calendarDatesForDate.add(calendarDate);
+		}
+		return calendarDatesMap;
+	}
+	
 	/**
 	 * Reads the individual data structures from the database.
 	 * 
@@ -519,6 +797,7 @@ public class DbConfig {
 
 		timer = new IntervalTimer();
 		blocks = Block.getBlocks(globalSession, configRev);
+		setDbConfigOfBlocks(blocks);
 		blocksByServiceMap = putBlocksIntoMap(blocks);
 		blocksByRouteMap = putBlocksIntoMapByRoute(blocks);
 		logger.debug("Reading blocks took {} msec", timer.elapsedMsec());
@@ -538,17 +817,7 @@ public class DbConfig {
 		agencies = Agency.getAgencies(globalSession, configRev);
 		calendars = Calendar.getCalendars(globalSession, configRev);
 		calendarDates = CalendarDate.getCalendarDates(globalSession, configRev);
-		
-		calendarDatesMap = new HashMap<Long, List<CalendarDate>>();
-		for (CalendarDate calendarDate : calendarDates) {
-			Long time = calendarDate.getTime();
-			List<CalendarDate> calendarDatesForDate = calendarDatesMap.get(time);
-			if (calendarDatesForDate == null) {
-				calendarDatesForDate = new ArrayList<CalendarDate>(1);
-				calendarDatesMap.put(time, calendarDatesForDate);
-			}
-			calendarDatesForDate.add(calendarDate);
-		}
+		calendarDatesMap = putCalendarDatesIntoMap(calendarDates);
 		
 		fareAttributes =
 				FareAttribute.getFareAttributes(globalSession, configRev);
@@ -560,6 +829,87 @@ public class DbConfig {
 				timer.elapsedMsec());
 	}
 
+	/**
+	 * Reads the data from a snapshot that was created by
+	 * CreateConfigSnapshot, if there is one that matches the config rev
+	 * and the current travel times rev.
+	 * 
+	 * @param configRev
+	 * @return true if data read from snapshot
+	 */
+	private boolean readSnapshot(int configRev) {
+		String directory = CoreConfig.getConfigSnapshotDirectory();
+		if (directory == null || directory.isEmpty())
+			return false;
+		
+		int travelTimesRev = 
+				ActiveRevisions.get(agencyId).getTravelTimesRev();
+		DbConfigSnapshot snapshot = DbConfigSnapshot.read(
+				DbConfigSnapshot.getFile(directory, agencyId, configRev),
+				agencyId, configRev, travelTimesRev);
+		if (snapshot == null)
+			return false;
+		
+		// Still need the global session in case data not in the snapshot
+		// needs to be read, such as a trip that is not part of a block
+		globalSession = HibernateUtils.getSession(agencyId);
+
+		blocks = snapshot.getBlocks();
+		setDbConfigOfBlocks(blocks);
+		blocksByServiceMap = putBlocksIntoMap(blocks);
+		blocksByRouteMap = putBlocksIntoMapByRoute(blocks);
+		
+		routes = snapshot.getRoutes();
+		routesByRouteIdMap = putRoutesIntoMapByRouteId(routes);
+		routesByRouteShortNameMap = putRoutesIntoMapByRouteShortName(routes);
+		
+		stopsMap = putStopsIntoMap(snapshot.getStops());
+		tripPatternsByRouteMap = 
+				putTripPatternsIntoMap(snapshot.getTripPatterns());
+		tripsMap = snapshot.getTrips();
+
+		agencies = snapshot.getAgencies();
+		calendars = snapshot.getCalendars();
+		calendarDates = snapshot.getCalendarDates();
+		calendarDatesMap = putCalendarDatesIntoMap(calendarDates);
+		fareAttributes = snapshot.getFareAttributes();
+		fareRules = snapshot.getFareRules();
+		frequencies = snapshot.getFrequencies();
+		transfers = snapshot.getTransfers();
+		
+		return true;
+	}
+	
+	/**
+	 * Creates a snapshot of the configuration data so that it can be written
+	 * to a file and then quickly read in when the core system is restarted.
+	 * First reads in all the lazy loaded data, such as the trips for every
+	 * block and all of the trip patterns. Every lazy collection, such as the
+	 * schedule times of the trips and the locations of the stop paths, is
+	 * explicitly initialized since otherwise uninitialized Hibernate
+	 * collections would be serialized and then couldn't be accessed once
+	 * the snapshot is read in.
+	 * 
+	 * @return the snapshot
+	 */
+	public DbConfigSnapshot createSnapshot() {
+		IntervalTimer timer = new IntervalTimer();
+		logger.info("Reading all trips and trip patterns for snapshot...");
+		
+		// Read in all trips at once, including schedule times, since that is
+		// faster than lazy loading them block by block
+		List<TripPattern> tripPatterns = readInLazyLoadedData();
+		
+		logger.info("Reading all data for snapshot took {} msec", 
+				timer.elapsedMsec());
+		
+		return new DbConfigSnapshot(blocks, routes,
+				new ArrayList<Stop>(stopsMap.values()), tripPatterns, 
+				new HashMap<String, Trip>(tripsMap), agencies, calendars,
+				calendarDates, fareAttributes, fareRules, frequencies,
+				transfers);
+	}
+	
 	/************************** Getter Methods ***************************/
 
 	/**
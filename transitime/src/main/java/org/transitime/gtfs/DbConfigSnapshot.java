@@ -0,0 +1,464 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.gtfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.db.structs.Agency;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.Calendar;
+import org.transitime.db.structs.CalendarDate;
+import org.transitime.db.structs.FareAttribute;
+import org.transitime.db.structs.FareRule;
+import org.transitime.db.structs.Frequency;
+import org.transitime.db.structs.Route;
+import org.transitime.db.structs.Stop;
+import org.transitime.db.structs.Transfer;
+import org.transitime.db.structs.Trip;
+import org.transitime.db.structs.TripPattern;
+import org.transitime.utils.IntervalTimer;
+
+/**
+ * A snapshot of all of the configuration data for a config rev, including
+ * the blocks, trips with their schedule times, trip patterns, stop paths
+ * with their vectors, and the travel times. Reading in the configuration via
+ * Hibernate can take minutes for a large agency, especially since trips are
+ * lazy loaded one block at a time. The snapshot can instead be read in within
+ * seconds.
+ * <p>
+ * The snapshot file has a header that identifies the agency and the config
+ * and travel times revs. This way a snapshot is only used if it matches the
+ * data in the database. The header is followed by the Java serialized object
+ * graph. The file is memory mapped when it is read in. Since the structs are
+ * all Serializable, which Hibernate requires anyways, the objects don't need
+ * any special code to be written out.
+ * <p>
+ * The structs pin their serialVersionUID so Java serialization would quietly
+ * read in a snapshot written by a different version of a struct class,
+ * leaving any new members with default values. To prevent this the header
+ * also contains a fingerprint of the layout of the fields of all of the
+ * classes that make up the snapshot. If a struct class changes then the
+ * fingerprint no longer matches so the snapshot is not used and the
+ * configuration is instead read from the database until a new snapshot is
+ * created using CreateConfigSnapshot.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class DbConfigSnapshot implements Serializable {
+
+	private final List<Block> blocks;
+	private final List<Route> routes;
+	private final List<Stop> stops;
+	private final List<TripPattern> tripPatterns;
+	private final Map<String, Trip> trips;
+	private final List<Agency> agencies;
+	private final List<Calendar> calendars;
+	private final List<CalendarDate> calendarDates;
+	private final List<FareAttribute> fareAttributes;
+	private final List<FareRule> fareRules;
+	private final List<Frequency> frequencies;
+	private final List<Transfer> transfers;
+
+	// For identifying the file as a snapshot
+	private static final int MAGIC_NUMBER = 0x54434653;
+
+	// Needs to be incremented if the header or the contents of the snapshot
+	// change
+	private static final int FORMAT_VERSION = 2;
+
+	// Fingerprint of the field layout of the classes in the snapshot.
+	// Determined when first needed.
+	private static Long schemaFingerprint = null;
+
+	private static final long serialVersionUID = 4785432120567788302L;
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(DbConfigSnapshot.class);
+
+	/********************** Member Functions **************************/
+
+	DbConfigSnapshot(List<Block> blocks, List<Route> routes,
+			List<Stop> stops, List<TripPattern> tripPatterns,
+			Map<String, Trip> trips, List<Agency> agencies,
+			List<Calendar> calendars, List<CalendarDate> calendarDates,
+			List<FareAttribute> fareAttributes, List<FareRule> fareRules,
+			List<Frequency> frequencies, List<Transfer> transfers) {
+		this.blocks = blocks;
+		this.routes = routes;
+		this.stops = stops;
+		this.tripPatterns = tripPatterns;
+		this.trips = trips;
+		this.agencies = agencies;
+		this.calendars = calendars;
+		this.calendarDates = calendarDates;
+		this.fareAttributes = fareAttributes;
+		this.fareRules = fareRules;
+		this.frequencies = frequencies;
+		this.transfers = transfers;
+	}
+
+	/**
+	 * Adds to toVisit any Transitime classes referred to by the type,
+	 * including the element types of collections and arrays.
+	 *
+	 * @param type
+	 * @param toVisit
+	 */
+	private static void addTransitimeClasses(Type type,
+			Collection<Class<?>> toVisit) {
+		if (type instanceof Class) {
+			Class<?> cls = (Class<?>) type;
+			if (cls.isArray())
+				addTransitimeClasses(cls.getComponentType(), toVisit);
+			else if (cls.getName().startsWith("org.transitime."))
+				toVisit.add(cls);
+		} else if (type instanceof ParameterizedType) {
+			ParameterizedType parameterizedType = (ParameterizedType) type;
+			addTransitimeClasses(parameterizedType.getRawType(), toVisit);
+			for (Type argument : parameterizedType.getActualTypeArguments())
+				addTransitimeClasses(argument, toVisit);
+		} else if (type instanceof WildcardType) {
+			for (Type bound : ((WildcardType) type).getUpperBounds())
+				addTransitimeClasses(bound, toVisit);
+		} else if (type instanceof GenericArrayType) {
+			addTransitimeClasses(
+					((GenericArrayType) type).getGenericComponentType(),
+					toVisit);
+		}
+	}
+
+	/**
+	 * Returns a fingerprint of the layout of the fields of this class and of
+	 * all of the Transitime classes that can be reached through its fields,
+	 * such as Block, Trip, and StopPath. If any of the classes has a field
+	 * added, removed, renamed, or changed to a different type then the
+	 * fingerprint changes.
+	 *
+	 * @return the fingerprint
+	 */
+	static synchronized long getSchemaFingerprint() {
+		if (schemaFingerprint != null)
+			return schemaFingerprint;
+
+		List<String> fieldDescriptions = new ArrayList<String>();
+		Set<Class<?>> visited = new HashSet<Class<?>>();
+		Deque<Class<?>> toVisit = new ArrayDeque<Class<?>>();
+		toVisit.add(DbConfigSnapshot.class);
+		while (!toVisit.isEmpty()) {
+			Class<?> cls = toVisit.poll();
+			if (!visited.add(cls))
+				continue;
+
+			for (Class<?> c = cls; c != null && c != Object.class;
+					c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers))
+						continue;
+					fieldDescriptions.add(c.getName() + "."
+							+ field.getName() + " "
+							+ field.getGenericType()
+							+ (Modifier.isTransient(modifiers) ?
+									" transient" : ""));
+					addTransitimeClasses(field.getGenericType(), toVisit);
+				}
+			}
+		}
+		Collections.sort(fieldDescriptions);
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (String description : fieldDescriptions)
+				digest.update(description.getBytes(StandardCharsets.UTF_8));
+			schemaFingerprint = ByteBuffer.wrap(digest.digest()).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-1 is required to be available so this won't happen
+			schemaFingerprint = (long) fieldDescriptions.hashCode();
+		}
+		return schemaFingerprint;
+	}
+
+	/**
+	 * Returns the name of the snapshot file for the agency and config rev.
+	 *
+	 * @param directory
+	 * @param agencyId
+	 * @param configRev
+	 * @return the snapshot file
+	 */
+	public static File getFile(String directory, String agencyId,
+			int configRev) {
+		return new File(directory, agencyId + "_configRev" + configRev
+				+ ".snapshot");
+	}
+
+	/**
+	 * Writes the snapshot to the file. Writes to a temporary file first and
+	 * then renames it so that a partially written snapshot is never read.
+	 *
+	 * @param file
+	 * @param agencyId
+	 * @param configRev
+	 * @param travelTimesRev
+	 * @throws IOException
+	 */
+	public void write(File file, String agencyId, int configRev,
+			int travelTimesRev) throws IOException {
+		IntervalTimer timer = new IntervalTimer();
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.exists() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+		File tmpFile = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile), 1024 * 1024));
+		try {
+			out.writeInt(MAGIC_NUMBER);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(getSchemaFingerprint());
+			out.writeUTF(agencyId);
+			out.writeInt(configRev);
+			out.writeInt(travelTimesRev);
+			out.writeLong(System.currentTimeMillis());
+
+			ObjectOutputStream objectOut = new ObjectOutputStream(out);
+			objectOut.writeObject(this);
+			objectOut.flush();
+		} finally {
+			out.close();
+		}
+
+		if (!tmpFile.renameTo(file)) {
+			// On some systems need to delete the old file first
+			file.delete();
+			if (!tmpFile.renameTo(file))
+				throw new IOException("Could not rename " + tmpFile + " to "
+						+ file);
+		}
+
+		logger.info("Wrote config snapshot for agencyId={} configRev={} "
+				+ "travelTimesRev={} to file {} of {} bytes. Took {} msec.",
+				agencyId, configRev, travelTimesRev, file, file.length(),
+				timer.elapsedMsec());
+	}
+
+	/**
+	 * Reads in the snapshot from the file. Returns null if there is no such
+	 * file, if it is for different revisions, if a struct class has changed
+	 * since it was written, or if it otherwise cannot be read. For those
+	 * cases the configuration needs to be read from the database.
+	 *
+	 * @param file
+	 * @param agencyId
+	 * @param configRev
+	 * @param travelTimesRev
+	 * @return the snapshot, or null if could not be used
+	 */
+	public static DbConfigSnapshot read(File file, String agencyId,
+			int configRev, int travelTimesRev) {
+		if (!file.exists()) {
+			logger.info("No config snapshot file {} so will read "
+					+ "configuration from database.", file);
+			return null;
+		}
+
+		IntervalTimer timer = new IntervalTimer();
+		try (RandomAccessFile randomAccessFile =
+				new RandomAccessFile(file, "r")) {
+			MappedByteBuffer buffer = randomAccessFile.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+			DataInputStream in =
+					new DataInputStream(new ByteBufferInputStream(buffer));
+
+			// Make sure the snapshot is for the proper data
+			if (in.readInt() != MAGIC_NUMBER) {
+				logger.error("File {} is not a config snapshot.", file);
+				return null;
+			}
+			int formatVersion = in.readInt();
+			if (formatVersion != FORMAT_VERSION) {
+				logger.warn("Config snapshot file {} is for formatVersion={} "
+						+ "but need formatVersion={}. Therefore will read "
+						+ "configuration from database. Should run "
+						+ "CreateConfigSnapshot to update the snapshot.",
+						file, formatVersion, FORMAT_VERSION);
+				return null;
+			}
+			long snapshotSchemaFingerprint = in.readLong();
+			if (snapshotSchemaFingerprint != getSchemaFingerprint()) {
+				logger.warn("Config snapshot file {} was written with "
+						+ "different versions of the struct classes. "
+						+ "Therefore will read configuration from database. "
+						+ "Should run CreateConfigSnapshot to update the "
+						+ "snapshot.", file);
+				return null;
+			}
+			String snapshotAgencyId = in.readUTF();
+			int snapshotConfigRev = in.readInt();
+			int snapshotTravelTimesRev = in.readInt();
+			long createdTime = in.readLong();
+			if (!agencyId.equals(snapshotAgencyId)
+					|| configRev != snapshotConfigRev
+					|| travelTimesRev != snapshotTravelTimesRev) {
+				logger.warn("Config snapshot file {} is for agencyId={} "
+						+ "configRev={} travelTimesRev={} but need "
+						+ "agencyId={} configRev={} travelTimesRev={}. "
+						+ "Therefore will read configuration from database. "
+						+ "Should run CreateConfigSnapshot to update the "
+						+ "snapshot.",
+						file, snapshotAgencyId, snapshotConfigRev,
+						snapshotTravelTimesRev, agencyId, configRev,
+						travelTimesRev);
+				return null;
+			}
+
+			ObjectInputStream objectIn = new ObjectInputStream(in);
+			DbConfigSnapshot snapshot =
+					(DbConfigSnapshot) objectIn.readObject();
+
+			logger.info("Read config snapshot for agencyId={} configRev={} "
+					+ "travelTimesRev={} created at {} from file {}. Took {} "
+					+ "msec.",
+					agencyId, configRev, travelTimesRev,
+					new java.util.Date(createdTime), file, timer.elapsedMsec());
+			return snapshot;
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			logger.error("Could not read config snapshot file {} so will "
+					+ "read configuration from database. Should run "
+					+ "CreateConfigSnapshot to update the snapshot. {}",
+					file, e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * For reading the memory mapped file using streams.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/************************** Getter Methods ***************************/
+
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	public List<Route> getRoutes() {
+		return routes;
+	}
+
+	public List<Stop> getStops() {
+		return stops;
+	}
+
+	public List<TripPattern> getTripPatterns() {
+		return tripPatterns;
+	}
+
+	public Map<String, Trip> getTrips() {
+		return trips;
+	}
+
+	public List<Agency> getAgencies() {
+		return agencies;
+	}
+
+	public List<Calendar> getCalendars() {
+		return calendars;
+	}
+
+	public List<CalendarDate> getCalendarDates() {
+		return calendarDates;
+	}
+
+	public List<FareAttribute> getFareAttributes() {
+		return fareAttributes;
+	}
+
+	public List<FareRule> getFareRules() {
+		return fareRules;
+	}
+
+	public List<Frequency> getFrequencies() {
+		return frequencies;
+	}
+
+	public List<Transfer> getTransfers() {
+		return transfers;
+	}
+}
@@ -20,6 +20,8 @@ import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
 import org.transitime.config.StringConfigValue;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.db.structs.*;
@@ -30,11 +32,18 @@ import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.MapKey;
 import org.transitime.utils.Time;
+import org.transitime.utils.csv.CsvBaseReader.CsvObjectHandler;
+import org.transitime.utils.threading.NamedThreadFactory;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -143,6 +152,18 @@ public class GtfsData {
 	private List<FareRule> fareRules;
 	private List<Transfer> transfers;
 	
+	// For when transitime.gtfs.parallelImport is set. The large
+	// stop_times.txt and shapes.txt files are then read in by background
+	// threads while the other GTFS data is being processed.
+	private ExecutorService executor = null;
+	private Future<Map<String, List<GtfsStopTime>>> stopTimesFuture = null;
+	private Future<Collection<GtfsShape>> shapesFuture = null;
+	
+	// How long each stage of the processing took, in order, so that it
+	// can be logged at the end
+	private final Map<String, Long> stageTimesMsec =
+			new LinkedHashMap<String, Long>();
+	
 	// This is the format that dates are in for CSV. Should
 	// be accessed only through getDateFormatter() to make
 	// sure that it is initialized.
@@ -178,6 +199,25 @@ public class GtfsData {
 			+ "of null causes all trips to be included.");
 	private static Pattern tripIdFilterRegExPattern = null;
 	
+	private static BooleanConfigValue parallelImport = new BooleanConfigValue(
+			"transitime.gtfs.parallelImport",
+			false,
+			"If true then the large stop_times.txt and shapes.txt files are "
+			+ "read in by separate threads while the other GTFS files are "
+			+ "being processed. The stop times for the trips and the stop "
+			+ "paths for the routes are also processed in parallel. The "
+			+ "trip patterns are still created serially and the data is "
+			+ "written to the db the same way as for a serial import. "
+			+ "Useful for reducing the time it takes to process the GTFS "
+			+ "data for large agencies.");
+
+	private static IntegerConfigValue numImportThreads = new IntegerConfigValue(
+			"transitime.gtfs.numImportThreads",
+			0,
+			"Number of threads to use when transitime.gtfs.parallelImport "
+			+ "is true. A value of 0 means that the number of available "
+			+ "processors is used.");
+	
 	// Logging
 	public static final Logger logger = 
 			LoggerFactory.getLogger(GtfsData.class);
@@ -884,49 +924,50 @@ public class GtfsData {
 	}
 	
 	/**
-	 * Reads the data from stop_times.txt and puts it into
-	 * gtfsStopTimesForTripMap map. Also processes the data to determine Trips
-	 * and TripPatterns. When processing Trips uses frequency.txt data to
-	 * determine if each trip ID is actually for multiple trips with unique
-	 * start times defined by the headway.
+	 * Adds the stop time to the list of stop times for its trip.
+	 * 
+	 * @param stopTimesForTripMap
+	 *            Keyed on trip_id
+	 * @param gtfsStopTime
 	 */
-	private void processStopTimesData() {
-		// Make sure needed data is already read in. This method determines
-		// trips and trip patterns from the stop_time.txt file. This objects
-		// need to know lat & lon so can figure out bounding box. Therefore
-		// stops.txt file must be read in first. Also, need to know which route
-		// is associated with a trip determined in stop_time.txt file. This
-		// info is in trips.txt so it needs to be processed first.
-		if (gtfsStopsMap == null || gtfsStopsMap.isEmpty()) {
-			logger.error("processStopData() must be called before " + 
-					"GtfsData.processStopTimesData() is. Exiting.");
-			System.exit(-1);
-		}
-		if (stopsMap == null || stopsMap.isEmpty()) {
-			logger.error("processStopData() must be called before " + 
-					"GtfsData.processStopTimesData() is. Exiting.");
-			System.exit(-1);
-		}
-		if (gtfsTripsMap == null || gtfsTripsMap.isEmpty()) {
-			logger.error("processTripsData() must be called before " + 
-					"GtfsData.processStopTimesData() is. Exiting.");
-			System.exit(-1);
+	private static void addStopTimeToMap(
+			Map<String, List<GtfsStopTime>> stopTimesForTripMap,
+			GtfsStopTime gtfsStopTime) {
+		String tripId = gtfsStopTime.getTripId();
+		List<GtfsStopTime> gtfsStopTimesForTrip = 
+				stopTimesForTripMap.get(tripId);
+		if (gtfsStopTimesForTrip == null) {
+			gtfsStopTimesForTrip = new ArrayList<GtfsStopTime>();
+			stopTimesForTripMap.put(tripId, gtfsStopTimesForTrip);
 		}
-
-		// For logging how long things take
-		IntervalTimer timer = new IntervalTimer();
-		
-		// Let user know what is going on
-		logger.info("Processing stop_times.txt data...");
+		gtfsStopTimesForTrip.add(gtfsStopTime);
+	}
+	
+	/**
+	 * Reads in the stop_times.txt file, plus the possible supplemental one,
+	 * and returns the stop times grouped by trip. The stop times are streamed
+	 * directly into the map as the file is parsed so that don't also need a
+	 * list of all of the stop times, which for a large agency can contain
+	 * millions of objects. Only depends on the trip filter so can be run
+	 * while the other GTFS data is being processed.
+	 * 
+	 * @return Map of stop times keyed on trip_id
+	 */
+	private Map<String, List<GtfsStopTime>> readStopTimes() {
+		// The GtfsStopTimes are put into this map and then can create Trips
+		// and TripPatterns. Keyed by tripId
+		final Map<String, List<GtfsStopTime>> stopTimesForTripMap =
+				new HashMap<String, List<GtfsStopTime>>();
 		
-		// Read in the stop_times.txt GTFS data from file. Use a large initial
-		// array size so when reading in data won't have to constantly increase
-		// array size and do array copying. SFMTA for example has 1,100,000
-		// stop times so starting with a value of 500,000 certainly should be 
-		// reasonable.
+		// Read in the stop_times.txt GTFS data from file
 		GtfsStopTimesReader stopTimesReader = 
 				new GtfsStopTimesReader(gtfsDirectoryName);
-		Collection<GtfsStopTime> gtfsStopTimes = stopTimesReader.get(500000);
+		stopTimesReader.stream(new CsvObjectHandler<GtfsStopTime>() {
+			@Override
+			public void handleObject(GtfsStopTime gtfsStopTime) {
+				addStopTimeToMap(stopTimesForTripMap, gtfsStopTime);
+			}
+		});
 
 		// Handle possible supplemental stop_times.txt file.
 		// Match the supplemental data to the main data using both
@@ -938,17 +979,20 @@ public class GtfsData {
 					stopTimesSupplementReader.get();
 			
 			if (stopTimesSupplement.size() > 0) {
-				// Put original shapes into map for quick searching
+				// Put original stop times into map for quick searching
 				Map<MapKey, GtfsStopTime> map =
 						new HashMap<MapKey, GtfsStopTime>();
-				for (GtfsStopTime gtfsStopTime : gtfsStopTimes) {
-					MapKey key =
-							new MapKey(gtfsStopTime.getTripId(),
-									gtfsStopTime.getStopId());
-					map.put(key, gtfsStopTime);
+				for (List<GtfsStopTime> gtfsStopTimesForTrip 
+						: stopTimesForTripMap.values()) {
+					for (GtfsStopTime gtfsStopTime : gtfsStopTimesForTrip) {
+						MapKey key =
+								new MapKey(gtfsStopTime.getTripId(),
+										gtfsStopTime.getStopId());
+						map.put(key, gtfsStopTime);
+					}
 				}
 					
-				// Modify main GtfsShape objects using supplemental data
+				// Modify main GtfsStopTime objects using supplemental data
 				for (GtfsStopTime stopTimeSupplement : stopTimesSupplement) {
 					MapKey key =
 							new MapKey(stopTimeSupplement.getTripId(),
@@ -957,7 +1001,7 @@ public class GtfsData {
 					// Handle depending on whether the supplemental data 
 					// indicates the point is to be deleted, added, or modified
 					if (stopTimeSupplement.shouldDelete()) {
-						// The supplemental shape indicates that the point 
+						// The supplemental stop time indicates that it 
 						// should be deleted
 						GtfsStopTime oldStopTime = map.remove(key);
 						if (oldStopTime == null) {
@@ -971,51 +1015,135 @@ public class GtfsData {
 						}
 					} else if (map.get(key) != null) {
 						// The stop time is already in map so modify it
-						GtfsStopTime combinedShape =
+						GtfsStopTime combinedStopTime =
 								new GtfsStopTime(map.get(key),
 										stopTimeSupplement);
-						map.put(key, combinedShape);
+						map.put(key, combinedStopTime);
 					} else {
 						// The stop time is not already in map so add it
 						map.put(key, stopTimeSupplement);
 					}
 				}
 				
-				// Use the new combined shapes
-				gtfsStopTimes = map.values();
+				// Use the new combined stop times
+				stopTimesForTripMap.clear();
+				for (GtfsStopTime gtfsStopTime : map.values())
+					addStopTimeToMap(stopTimesForTripMap, gtfsStopTime);
 			}
 		}
 		
-		// The GtfsStopTimes are put into this map and then can create Trips
-		// and TripPatterns. Keyed by tripId
-		gtfsStopTimesForTripMap = new HashMap<String, List<GtfsStopTime>>();
+		return stopTimesForTripMap;
+	}
+	
+	/**
+	 * Same as calling processStopTimesForTrip() for each trip but splits up
+	 * the trips among the executor threads. processStopTimesForTrip() only
+	 * reads the shared maps so it can be run concurrently. The results are
+	 * put into gtfsStopTimesForTripMap by this thread once all of the tasks
+	 * are done.
+	 * 
+	 * @param tripIds
+	 */
+	private void processStopTimesForTripsInParallel(Collection<String> tripIds) {
+		List<String> tripIdsList = new ArrayList<String>(tripIds);
+		int tripsPerTask = Math.max(1, 
+				(tripIdsList.size() + getNumImportThreads() - 1) 
+				/ getNumImportThreads());
+		
+		List<Future<Map<String, List<GtfsStopTime>>>> futures =
+				new ArrayList<Future<Map<String, List<GtfsStopTime>>>>();
+		for (int start = 0; start < tripIdsList.size(); start += tripsPerTask) {
+			final List<String> tripIdsForTask = tripIdsList.subList(start,
+					Math.min(start + tripsPerTask, tripIdsList.size()));
+			futures.add(executor.submit(
+					new Callable<Map<String, List<GtfsStopTime>>>() {
+				@Override
+				public Map<String, List<GtfsStopTime>> call() {
+					Map<String, List<GtfsStopTime>> results =
+							new HashMap<String, List<GtfsStopTime>>(
+									tripIdsForTask.size() * 2);
+					for (String tripId : tripIdsForTask) {
+						results.put(tripId, processStopTimesForTrip(
+								gtfsStopTimesForTripMap.get(tripId)));
+					}
+					return results;
+				}
+			}));
+		}
+		
+		// Wait for all of the tasks before modifying the map since the tasks
+		// read from it
+		List<Map<String, List<GtfsStopTime>>> resultsList =
+				new ArrayList<Map<String, List<GtfsStopTime>>>(futures.size());
+		for (Future<Map<String, List<GtfsStopTime>>> future : futures)
+			resultsList.add(getFutureResult(future, "stop times for trips"));
+		for (Map<String, List<GtfsStopTime>> results : resultsList)
+			gtfsStopTimesForTripMap.putAll(results);
+	}
+	
+	/**
+	 * Reads the data from stop_times.txt and puts it into
+	 * gtfsStopTimesForTripMap map. Also processes the data to determine Trips
+	 * and TripPatterns. When processing Trips uses frequency.txt data to
+	 * determine if each trip ID is actually for multiple trips with unique
+	 * start times defined by the headway.
+	 */
+	private void processStopTimesData() {
+		// Make sure needed data is already read in. This method determines
+		// trips and trip patterns from the stop_time.txt file. This objects
+		// need to know lat & lon so can figure out bounding box. Therefore
+		// stops.txt file must be read in first. Also, need to know which route
+		// is associated with a trip determined in stop_time.txt file. This
+		// info is in trips.txt so it needs to be processed first.
+		if (gtfsStopsMap == null || gtfsStopsMap.isEmpty()) {
+			logger.error("processStopData() must be called before " + 
+					"GtfsData.processStopTimesData() is. Exiting.");
+			System.exit(-1);
+		}
+		if (stopsMap == null || stopsMap.isEmpty()) {
+			logger.error("processStopData() must be called before " + 
+					"GtfsData.processStopTimesData() is. Exiting.");
+			System.exit(-1);
+		}
+		if (gtfsTripsMap == null || gtfsTripsMap.isEmpty()) {
+			logger.error("processTripsData() must be called before " + 
+					"GtfsData.processStopTimesData() is. Exiting.");
+			System.exit(-1);
+		}
 
-		// Put the GtfsStopTimes into the map
-		for (GtfsStopTime gtfsStopTime : gtfsStopTimes) {
-			// Add the GtfsStopTime to the map so later can create Trips and 
-			// TripPatterns
-			String tripId = gtfsStopTime.getTripId();
-			List<GtfsStopTime> gtfsStopTimesForTrip = 
-					gtfsStopTimesForTripMap.get(tripId);
-			if (gtfsStopTimesForTrip == null) {
-				gtfsStopTimesForTrip = new ArrayList<GtfsStopTime>();
-				gtfsStopTimesForTripMap.put(tripId, gtfsStopTimesForTrip);
-			}
-			gtfsStopTimesForTrip.add(gtfsStopTime);
+		// For logging how long things take
+		IntervalTimer timer = new IntervalTimer();
+		
+		// Let user know what is going on
+		logger.info("Processing stop_times.txt data...");
+		
+		// Read in the stop_times.txt GTFS data, grouped by trip. If the data
+		// was already being read in by a background thread then use it.
+		if (stopTimesFuture != null) {
+			gtfsStopTimesForTripMap =
+					getFutureResult(stopTimesFuture, "stop_times.txt");
+			stopTimesFuture = null;
+		} else {
+			gtfsStopTimesForTripMap = readStopTimes();
 		}
 		
 		// Go through the stop times for each tripId. Sort them and look for
 		// any problems with the data.
 		Set<String> tripIds = gtfsStopTimesForTripMap.keySet();
-		for (String tripId : tripIds) {
-			List<GtfsStopTime> gtfsStopTimesForTrip =
-					gtfsStopTimesForTripMap.get(tripId);			
-			List<GtfsStopTime> processedGtfsStopTimesForTrip =
-					processStopTimesForTrip(gtfsStopTimesForTrip);
-			
-			// Replace the stop times for the trip with the processed/cleaned 
-			// up version
-			gtfsStopTimesForTripMap.put(tripId, processedGtfsStopTimesForTrip);
+		if (executor != null) {
+			processStopTimesForTripsInParallel(tripIds);
+		} else {
+			for (String tripId : tripIds) {
+				List<GtfsStopTime> gtfsStopTimesForTrip =
+						gtfsStopTimesForTripMap.get(tripId);			
+				List<GtfsStopTime> processedGtfsStopTimesForTrip =
+						processStopTimesForTrip(gtfsStopTimesForTrip);
+				
+				// Replace the stop times for the trip with the processed/
+				// cleaned up version
+				gtfsStopTimesForTripMap.put(tripId,
+						processedGtfsStopTimesForTrip);
+			}
 		}
 		
 		// Log if a trip is defined in the trips.txt file but not in 
@@ -1507,26 +1635,13 @@ public class GtfsData {
 	}
 	
 	/**
-	 * Reads in shapes.txt file and processes the information into 
-	 * StopPath objects. Using the term "StopPath" instead of "Shape" to
-	 * be more descriptive of what the data is really for. 
+	 * Reads in the shapes.txt file, plus the possible supplemental one.
+	 * Doesn't depend on any other data so can be run while the other GTFS
+	 * data is being processed.
+	 * 
+	 * @return the shapes
 	 */
-	private void processPaths() {
-		// Make sure needed data is already read in. This method 
-		// converts the shapes into Paths such that each path ends
-		// at a stop. Therefore need to have read in stop info first.
-		if (stopsMap == null || stopsMap.isEmpty()) {
-			logger.error("processStopData() must be called before " + 
-					"GtfsData.processPaths() is. Exiting.");
-			System.exit(-1);
-		}
-
-		// For logging how long things take
-		IntervalTimer timer = new IntervalTimer();
-
-		// Let user know what is going on
-		logger.info("Processing shapes.txt data...");
-		
+	private Collection<GtfsShape> readShapes() {
 		// Read in the shapes.txt GTFS data from file
 		GtfsShapesReader shapesReader = new GtfsShapesReader(gtfsDirectoryName);
 		Collection<GtfsShape> gtfsShapes = shapesReader.get();
@@ -1587,6 +1702,40 @@ public class GtfsData {
 			}
 		}
 		
+		return gtfsShapes;
+	}
+	
+	/**
+	 * Reads in shapes.txt file and processes the information into 
+	 * StopPath objects. Using the term "StopPath" instead of "Shape" to
+	 * be more descriptive of what the data is really for. 
+	 */
+	private void processPaths() {
+		// Make sure needed data is already read in. This method 
+		// converts the shapes into Paths such that each path ends
+		// at a stop. Therefore need to have read in stop info first.
+		if (stopsMap == null || stopsMap.isEmpty()) {
+			logger.error("processStopData() must be called before " + 
+					"GtfsData.processPaths() is. Exiting.");
+			System.exit(-1);
+		}
+
+		// For logging how long things take
+		IntervalTimer timer = new IntervalTimer();
+
+		// Let user know what is going on
+		logger.info("Processing shapes.txt data...");
+		
+		// Read in the shapes.txt GTFS data. If the data was already being
+		// read in by a background thread then use it.
+		Collection<GtfsShape> gtfsShapes;
+		if (shapesFuture != null) {
+			gtfsShapes = getFutureResult(shapesFuture, "shapes.txt");
+			shapesFuture = null;
+		} else {
+			gtfsShapes = readShapes();
+		}
+		
 		// Process all the shapes into stopPaths
 		StopPathProcessor pathProcessor = 
 				new StopPathProcessor(
@@ -1597,7 +1746,7 @@ public class GtfsData {
 						maxStopToPathDistance, 
 						maxDistanceForEliminatingVertices,
 						trimPathBeforeFirstStopOfTrip);
-		pathProcessor.processPathSegments();
+		pathProcessor.processPathSegments(executor);
 						
 		// Let user know what is going on
 		logger.info("Finished processing shapes.txt data. Took {} msec.",
@@ -2322,10 +2471,109 @@ public class GtfsData {
 		return matches;
 	}
 	
+	/**
+	 * Returns number of threads to use for a parallel import.
+	 * 
+	 * @return number of threads
+	 */
+	private static int getNumImportThreads() {
+		return numImportThreads.getValue() > 0 ? 
+				numImportThreads.getValue() : 
+				Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Creates the executor for a parallel import and starts reading in the
+	 * stop_times.txt and shapes.txt files in background threads. The results
+	 * are then used by processStopTimesData() and processPaths().
+	 */
+	private void startBackgroundReaders() {
+		int numThreads = getNumImportThreads();
+		logger.info("Using {} threads for processing GTFS data.", numThreads);
+		executor = Executors.newFixedThreadPool(numThreads,
+				new NamedThreadFactory("GtfsImport"));
+		
+		stopTimesFuture = executor.submit(
+				new Callable<Map<String, List<GtfsStopTime>>>() {
+			@Override
+			public Map<String, List<GtfsStopTime>> call() {
+				return readStopTimes();
+			}
+		});
+		shapesFuture = executor.submit(new Callable<Collection<GtfsShape>>() {
+			@Override
+			public Collection<GtfsShape> call() {
+				return readShapes();
+			}
+		});
+	}
+	
+	/**
+	 * Waits for the result of a background task. If the task failed then
+	 * the exception is rethrown so that processing stops just like it would
+	 * have if the task had been run in the current thread.
+	 * 
+	 * @param future
+	 * @param description
+	 *            For the exception message
+	 * @return the result of the task
+	 */
+	private static <V> V getFutureResult(Future<V> future, String description) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while processing " 
+					+ description, e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Exception processing " + description,
+					e.getCause());
+		}
+	}
+	
+	/**
+	 * Records how long a stage of the processing took.
+	 * 
+	 * @param stageName
+	 * @param stageTimer
+	 *            Timer started at the beginning of the stage
+	 * @return new timer for the next stage
+	 */
+	private IntervalTimer endStage(String stageName, IntervalTimer stageTimer) {
+		stageTimesMsec.put(stageName, stageTimer.elapsedMsec());
+		return new IntervalTimer();
+	}
+	
+	/**
+	 * Logs how long each stage of the processing took so that can see where
+	 * the time is going for a large agency.
+	 */
+	private void logStageTimes() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> entry : stageTimesMsec.entrySet()) {
+			sb.append("\n  ").append(entry.getKey()).append(": ")
+					.append(entry.getValue()).append(" msec");
+		}
+		logger.info("Time taken by each stage of processing GTFS data:{}", sb);
+	}
+	
 	/**
 	 * Does all the work. Processes the data and store it in internal structures
 	 */
 	public void processData() {
+		processData(parallelImport.getValue());
+	}
+	
+	/**
+	 * Same as processData() but specifies whether to do a parallel import
+	 * instead of using transitime.gtfs.parallelImport. This way the results
+	 * of a parallel import can be compared to those of a serial one.
+	 * 
+	 * @param parallel
+	 *            If true then the large files are read in and processed by
+	 *            multiple threads
+	 */
+	void processData(boolean parallel) {
 		// For logging how long things take
 		IntervalTimer timer = new IntervalTimer();
 
@@ -2333,21 +2581,61 @@ public class GtfsData {
 		logger.info("Processing GTFS data from {} ...",
 				gtfsDirectoryName);
 
+		// If doing a parallel import then start reading in the large
+		// stop_times.txt and shapes.txt files right away since they don't
+		// depend on any of the other data
+		if (parallel)
+			startBackgroundReaders();
+		
+		try {
+			processDataStages();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+		
+		// Let user know what is going on
+		logger.info("Finished processing GTFS data from {} . Took {} msec.",
+				gtfsDirectoryName, timer.elapsedMsec());
+		logStageTimes();
+		
+		// Try allowing garbage collector to free up some memory since
+		// don't need the GTFS structures anymore.
+		gtfsRoutesMap = null;
+		gtfsTripsMap = null;
+		gtfsStopTimesForTripMap = null;	
+	}
+	
+	/**
+	 * Called by processData() to do the actual processing. The time each
+	 * stage takes is recorded so that it can be logged at the end.
+	 */
+	private void processDataStages() {
+		IntervalTimer stageTimer = new IntervalTimer();
+		
 		// Note. The order of how these are processed in important because
 		// some data sets rely on others in order to be fully processed.
 		// If the order is wrong then the methods below will log an error and
 		// exit.
 		processRouteData();
 		processStopData();		
+		stageTimer = endStage("routes and stops", stageTimer);
 		processCalendarDates();
 		processCalendars();
 		processServiceIds();
+		stageTimer = endStage("calendars", stageTimer);
 		processTripsData();	
 		processFrequencies();
+		stageTimer = endStage("trips and frequencies", stageTimer);
 		processStopTimesData();		
+		stageTimer = endStage("stop times and trip patterns", stageTimer);
 		processRouteMaps(); 
 		processBlocks();
+		stageTimer = endStage("route maps and blocks", stageTimer);
 		processPaths();
+		stageTimer = endStage("stop paths", stageTimer);
 		processAgencyData();
 		
 		// Following are simple objects that don't require combining tables
@@ -2355,8 +2643,6 @@ public class GtfsData {
 		processFareRules();
 		processTransfers();
 		
-		
-		
 		// Sometimes will be using a partial configuration. For example, for 
 		// MBTA commuter rail only want to use the trips defined for 
 		// commuter rail even though the GTFS data can have trips for
@@ -2370,6 +2656,14 @@ public class GtfsData {
 		// useful when processing just part of an agency config, like
 		// MBTA commuter rail.
 		trimCalendars();
+		stageTimer = endStage("agencies, fares, transfers and trimming",
+				stageTimer);
+		
+		// No longer need the executor threads
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
 		
 		// debugging
 		//outputPathsAndStopsForGraphing("8699");
@@ -2380,22 +2674,13 @@ public class GtfsData {
 						originalTravelTimesRev, maxTravelTimeSegmentLength,
 						defaultWaitTimeAtStopMsec, maxSpeedKph);
 		travelTimesProcesssor.process(session, this);
-		
+		stageTimer = endStage("travel times", stageTimer);
 				
 		DbWriter dbWriter = new DbWriter(this);
 		dbWriter.write(session, revs.getConfigRev());	
 		// Finish things up by closing the session
 		session.close();
-		
-		// Let user know what is going on
-		logger.info("Finished processing GTFS data from {} . Took {} msec.",
-				gtfsDirectoryName, timer.elapsedMsec());
-		
-		// Try allowing garbage collector to free up some memory since
-		// don't need the GTFS structures anymore.
-		gtfsRoutesMap = null;
-		gtfsTripsMap = null;
-		gtfsStopTimesForTripMap = null;	
+		endStage("writing to database", stageTimer);
 
 		// just for debugging
 //		GtfsLoggingAppender.outputMessagesToSysErr();
@@ -22,6 +22,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -620,6 +623,20 @@ public class StopPathProcessor {
 	 * adjusted.
 	 */
 	public void processPathSegments() {
+		processPathSegments(null);
+	}
+	
+	/**
+	 * Same as processPathSegments() but if executor is not null then the trip
+	 * patterns for each route are processed in parallel by the executor
+	 * threads. Each trip pattern has its own StopPath objects and the other
+	 * members are only read so the routes can be processed concurrently.
+	 * 
+	 * @param executor
+	 *            For processing routes in parallel. If null then trip patterns
+	 *            are processed in the current thread.
+	 */
+	public void processPathSegments(ExecutorService executor) {
 		// For logging how long things take
 		IntervalTimer timer = new IntervalTimer();
 
@@ -627,26 +644,51 @@ public class StopPathProcessor {
 		logger.info("Processing and filtering path segment data...");
 		
 		// Need to process stopPaths for every trip pattern...
-		for (TripPattern tripPattern : tripPatterns) {
-			// Determine the GtfsShape associated with the TripPattern
-			String shapeId = tripPattern.getShapeId();
-			List<GtfsShape> gtfsShapesForTripPattern = gtfsShapesMap.get(shapeId);
+		if (executor == null) {
+			for (TripPattern tripPattern : tripPatterns) {
+				processTripPattern(tripPattern);
+			}
+		} else {
+			// Group the trip patterns by route so that each route can be
+			// processed by a separate task
+			Map<String, List<TripPattern>> tripPatternsByRouteMap =
+					new HashMap<String, List<TripPattern>>();
+			for (TripPattern tripPattern : tripPatterns) {
+				List<TripPattern> tripPatternsForRoute =
+						tripPatternsByRouteMap.get(tripPattern.getRouteId());
+				if (tripPatternsForRoute == null) {
+					tripPatternsForRoute = new ArrayList<TripPattern>();
+					tripPatternsByRouteMap.put(tripPattern.getRouteId(),
+							tripPatternsForRoute);
+				}
+				tripPatternsForRoute.add(tripPattern);
+			}
 			
-			// If no shape defined then simply connect the stops
-			if (gtfsShapesForTripPattern == null) {
-				// Create stopPaths by connecting the stops
-				connectStopsSinceNoShapes(tripPattern);
-			} else {
-				// Determine list of shapes associated with the trip pattern.
-				// The stopPaths are offset to the right by the offsetDistance
-				// if needed. This is useful if the shapes.txt data is street
-				// centerline data.
-				List<Location> offsetLocations = 
-						getOffsetLocations(gtfsShapesMap.get(shapeId));
-						
-				// Create stopPaths by finding best match to shapes
-				determinePathSegmentsMatchingStopsToShapes(offsetLocations, 
-						tripPattern);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final List<TripPattern> tripPatternsForRoute 
+					: tripPatternsByRouteMap.values()) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						for (TripPattern tripPattern : tripPatternsForRoute) {
+							processTripPattern(tripPattern);
+						}
+					}
+				}));
+			}
+			
+			// Wait for all routes to be processed
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while processing "
+							+ "path segment data", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Exception processing path "
+							+ "segment data", e.getCause());
+				}
 			}
 		}
 		
@@ -656,4 +698,32 @@ public class StopPathProcessor {
 				timer.elapsedMsec());		
 	}
 	
+	/**
+	 * Determines the stopPaths for a single trip pattern.
+	 * 
+	 * @param tripPattern
+	 */
+	private void processTripPattern(TripPattern tripPattern) {
+		// Determine the GtfsShape associated with the TripPattern
+		String shapeId = tripPattern.getShapeId();
+		List<GtfsShape> gtfsShapesForTripPattern = gtfsShapesMap.get(shapeId);
+		
+		// If no shape defined then simply connect the stops
+		if (gtfsShapesForTripPattern == null) {
+			// Create stopPaths by connecting the stops
+			connectStopsSinceNoShapes(tripPattern);
+		} else {
+			// Determine list of shapes associated with the trip pattern.
+			// The stopPaths are offset to the right by the offsetDistance
+			// if needed. This is useful if the shapes.txt data is street
+			// centerline data.
+			List<Location> offsetLocations = 
+					getOffsetLocations(gtfsShapesForTripPattern);
+					
+			// Create stopPaths by finding best match to shapes
+			determinePathSegmentsMatchingStopsToShapes(offsetLocations, 
+					tripPattern);
+		}
+	}
+	
 }
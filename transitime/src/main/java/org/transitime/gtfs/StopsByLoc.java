@@ -19,6 +19,7 @@ package org.transitime.gtfs;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.transitime.applications.Core;
 import org.transitime.core.dataCache.PredictionDataCache;
@@ -167,10 +168,68 @@ public class StopsByLoc {
 		return true;
 	}
 	
+	/**
+	 * For the trip patterns of a direction of a route determines the best stop
+	 * and adds it to the results. Need to look at trip patterns separately
+	 * since don't just want to match to a closest stop that happens to not be
+	 * in service at the time (such as a special school stop) and then not get
+	 * predictions for the route. So for each trip pattern find closest stop.
+	 * Then look at predictions for those stops. Use the stop that provides the
+	 * most useful predictions.
+	 * 
+	 * @param tripPatternsForDirection
+	 * @param loc
+	 * @param maxDistance
+	 * @param results
+	 *            the best stop, if there is one, is added to this list
+	 */
+	private static void addBestStopForDirection(
+			List<TripPattern> tripPatternsForDirection, Location loc,
+			double maxDistance, List<StopInfo> results) {
+		// So can look at matches for all trip patterns for direction
+		// at once.
+		List<StopInfo> matchesForDirection = 
+				new ArrayList<StopInfo>();
+		
+		for (TripPattern tripPattern : tripPatternsForDirection) {
+			// Determine the closest stop for the trip pattern
+			StopInfo stopInfo = 
+					determineClosestStop(tripPattern, loc, maxDistance);
+			
+			// If valid stop found then go on to next trip pattern
+			if (stopInfo == null)
+				continue;
+			
+			// So can look at matches for all trip patterns for direction
+			// at once.					
+			matchesForDirection.add(stopInfo);
+		}
+		
+		// Now that have matches for all trip patterns for the direction
+		// need to determine which is the best one.
+		if (matchesForDirection.size() >= 1 
+				&& matchesAreForSameStop(matchesForDirection)) {
+			// There is just a single stop so use it
+			results.add(matchesForDirection.get(0));
+		} else if (matchesForDirection.size() > 1) {
+			// Matches are for different stops so determine best stop 
+			// based on predictions
+			StopInfo stopInfo = determineBestStopBasedOnPredictions(
+					matchesForDirection);
+			
+			if (stopInfo != null)
+				results.add(stopInfo);
+		}
+	}
+	
 	/**
 	 * Gets list of stops that are within maxDistance of the specified location.
 	 * Looks at every trip pattern so can deal with complicated cases such as
 	 * routes with school service stops just for part of the day.
+	 * <p>
+	 * If the stops spatial index is available then only the trip patterns
+	 * that actually have a stop within maxDistance are looked at. Otherwise
+	 * every route is examined.
 	 * 
 	 * @param loc
 	 * @param maxDistance
@@ -180,58 +239,36 @@ public class StopsByLoc {
 		// For returning the results
 		List<StopInfo> results = new ArrayList<StopInfo>();
 		
-		// Find closest stops for every route...
+		// If have spatial index then use it to only look at the trip 
+		// patterns that are nearby
 		DbConfig dbConfig = Core.getInstance().getDbConfig();
+		StopsSpatialIndex stopsSpatialIndex = dbConfig.getStopsSpatialIndex();
+		if (stopsSpatialIndex != null) {
+			Map<Route, Map<String, List<TripPattern>>> nearbyTripPatterns =
+					stopsSpatialIndex.getTripPatternsNear(loc, maxDistance);
+			for (Map<String, List<TripPattern>> tripPatternsByDirection : 
+					nearbyTripPatterns.values()) {
+				for (List<TripPattern> tripPatternsForDirection :
+						tripPatternsByDirection.values()) {
+					addBestStopForDirection(tripPatternsForDirection, loc,
+							maxDistance, results);
+				}
+			}
+			
+			return results;
+		}
+		
+		// Find closest stops for every route...
 		for (Route route : dbConfig.getRoutes()) {
 			// If the specified location is not within the distance of the route
 			// then can skip this route
 			if (!route.getExtent().isWithinDistance(loc, maxDistance))
 				continue;
 			
-			// Need to look at trip patterns separately since don't just want
-			// to match to a closest stop that happens to not be in service
-			// at the time (such as a special school stop) and then not get
-			// predictions for the route. So for each direction for each
-			// trip pattern find closest stop. Then look at predictions
-			// for those stops. Use the stop that provides the most useful
-			// predictions.
+			// Determine best stop for each direction of the route
 			for (String directionId : route.getDirectionIds()) {
-				// So can look at matches for all trip patterns for direction
-				// at once.
-				List<StopInfo> matchesForDirection = 
-						new ArrayList<StopInfo>();
-				
-				List<TripPattern> tripPatternsForDirection = 
-						route.getTripPatterns(directionId);
-				for (TripPattern tripPattern : tripPatternsForDirection) {
-					// Determine the closest stop for the trip pattern
-					StopInfo stopInfo = 
-							determineClosestStop(tripPattern, loc, maxDistance);
-					
-					// If valid stop found then go on to next trip pattern
-					if (stopInfo == null)
-						continue;
-					
-					// So can look at matches for all trip patterns for direction
-					// at once.					
-					matchesForDirection.add(stopInfo);
-				}
-				
-				// Now that have matches for all trip patterns for the direction
-				// need to determine which is the best one.
-				if (matchesForDirection.size() >= 1 
-						&& matchesAreForSameStop(matchesForDirection)) {
-					// There is just a single stop so use it
-					results.add(matchesForDirection.get(0));
-				} else if (matchesForDirection.size() > 1) {
-					// Matches are for different stops so determine best stop 
-					// based on predictions
-					StopInfo stopInfo = determineBestStopBasedOnPredictions(
-							matchesForDirection);
-					
-					if (stopInfo != null)
-						results.add(stopInfo);
-				}
+				addBestStopForDirection(route.getTripPatterns(directionId),
+						loc, maxDistance, results);
 			}
 		}
 		
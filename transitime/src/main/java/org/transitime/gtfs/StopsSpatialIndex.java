@@ -0,0 +1,203 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.gtfs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.db.structs.Extent;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.Route;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.TripPattern;
+import org.transitime.utils.GeoGrid;
+import org.transitime.utils.IntervalTimer;
+
+/**
+ * A spatial index of the stops of all trip patterns for a configuration
+ * revision. Used by StopsByLoc so that finding the stops near a location only
+ * involves looking at the trip patterns that actually have a stop nearby
+ * instead of looking at every route and every trip pattern for each request.
+ * <p>
+ * The last stop of each trip pattern is not included since passengers cannot
+ * board there.
+ * <p>
+ * Immutable once constructed so can be used by multiple threads.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopsSpatialIndex {
+
+	// The grid containing the stops of all trip patterns
+	private final GeoGrid<StopEntry> grid;
+
+	// The routes in order so that results can be returned in route order
+	private final List<Route> routes;
+
+	// Size of grid cells. Queries are usually for a few hundred meters so
+	// this is a reasonable value.
+	private static final double CELL_SIZE_METERS = 200.0;
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(StopsSpatialIndex.class);
+
+	/**
+	 * A stop of a trip pattern along with the info needed to return results
+	 * in the proper order.
+	 */
+	private static class StopEntry {
+		private final int routeIndex;
+		private final int tripPatternIndex;
+		private final TripPattern tripPattern;
+		private final Location stopLoc;
+
+		private StopEntry(int routeIndex, int tripPatternIndex,
+				TripPattern tripPattern, Location stopLoc) {
+			this.routeIndex = routeIndex;
+			this.tripPatternIndex = tripPatternIndex;
+			this.tripPattern = tripPattern;
+			this.stopLoc = stopLoc;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the spatial index for the stops of all of the trip patterns.
+	 * Accesses the stop paths of the trip patterns so if they are lazy loaded
+	 * then the caller needs to be synchronized on
+	 * Block.getLazyLoadingSyncObject().
+	 *
+	 * @param routes
+	 *            All routes, in route order
+	 * @param tripPatternsByRouteMap
+	 *            All of the trip patterns, keyed on route ID
+	 */
+	public StopsSpatialIndex(List<Route> routes,
+			Map<String, List<TripPattern>> tripPatternsByRouteMap) {
+		IntervalTimer timer = new IntervalTimer();
+
+		this.routes = new ArrayList<Route>(routes);
+
+		// Determine reference latitude for the grid
+		Extent extent = new Extent();
+		for (Route route : routes)
+			extent.add(route.getExtent());
+		double referenceLat = extent.getMinLat() <= extent.getMaxLat() ?
+				(extent.getMinLat() + extent.getMaxLat()) / 2 : 0.0;
+		grid = new GeoGrid<StopEntry>(referenceLat, CELL_SIZE_METERS);
+
+		// Add the stops for all trip patterns except for the last stop
+		for (int routeIndex = 0; routeIndex < routes.size(); ++routeIndex) {
+			List<TripPattern> tripPatterns =
+					tripPatternsByRouteMap.get(routes.get(routeIndex).getId());
+			if (tripPatterns == null)
+				continue;
+
+			for (int tripPatternIndex = 0;
+					tripPatternIndex < tripPatterns.size();
+					++tripPatternIndex) {
+				TripPattern tripPattern = tripPatterns.get(tripPatternIndex);
+				List<StopPath> stopPaths = tripPattern.getStopPaths();
+				for (int i = 0; i < stopPaths.size() - 1; ++i) {
+					Location stopLoc = stopPaths.get(i).getStopLocation();
+					grid.add(stopLoc, new StopEntry(routeIndex,
+							tripPatternIndex, tripPattern, stopLoc));
+				}
+			}
+		}
+
+		logger.info("Created spatial index of {} trip pattern stops using {} "
+				+ "grid cells. Took {} msec.", grid.size(), grid.getNumCells(),
+				timer.elapsedMsec());
+	}
+
+	/**
+	 * Returns the trip patterns that have a stop, other than the last stop,
+	 * within maxDistance of the location. The trip patterns are grouped by
+	 * route, and then by direction, and are in the same order as the routes
+	 * and trip patterns are configured. Trip patterns not returned cannot have
+	 * a stop within maxDistance.
+	 *
+	 * @param loc
+	 * @param maxDistance
+	 * @return Map keyed on route of map keyed on direction ID of trip
+	 *         patterns. Can be empty but not null.
+	 */
+	public Map<Route, Map<String, List<TripPattern>>> getTripPatternsNear(
+			Location loc, double maxDistance) {
+		// Determine the nearby trip patterns, sorted by route and trip
+		// pattern index
+		TreeMap<Integer, TreeMap<Integer, TripPattern>> nearby =
+				new TreeMap<Integer, TreeMap<Integer, TripPattern>>();
+		for (StopEntry entry : grid.getCandidates(loc, maxDistance)) {
+			TreeMap<Integer, TripPattern> tripPatternsForRoute =
+					nearby.get(entry.routeIndex);
+			if (tripPatternsForRoute != null
+					&& tripPatternsForRoute.containsKey(entry.tripPatternIndex))
+				continue;
+
+			if (entry.stopLoc.distance(loc) > maxDistance)
+				continue;
+
+			if (tripPatternsForRoute == null) {
+				tripPatternsForRoute = new TreeMap<Integer, TripPattern>();
+				nearby.put(entry.routeIndex, tripPatternsForRoute);
+			}
+			tripPatternsForRoute.put(entry.tripPatternIndex,
+					entry.tripPattern);
+		}
+
+		// Group the trip patterns by route and direction
+		Map<Route, Map<String, List<TripPattern>>> results =
+				new LinkedHashMap<Route, Map<String, List<TripPattern>>>();
+		for (Map.Entry<Integer, TreeMap<Integer, TripPattern>> routeEntry :
+				nearby.entrySet()) {
+			Map<String, List<TripPattern>> tripPatternsByDirection =
+					new LinkedHashMap<String, List<TripPattern>>();
+			for (TripPattern tripPattern : routeEntry.getValue().values()) {
+				List<TripPattern> tripPatternsForDirection =
+						tripPatternsByDirection.get(tripPattern.getDirectionId());
+				if (tripPatternsForDirection == null) {
+					tripPatternsForDirection = new ArrayList<TripPattern>(1);
+					tripPatternsByDirection.put(tripPattern.getDirectionId(),
+							tripPatternsForDirection);
+				}
+				tripPatternsForDirection.add(tripPattern);
+			}
+			results.put(routes.get(routeEntry.getKey()),
+					tripPatternsByDirection);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns number of stops in the index.
+	 *
+	 * @return number of stops
+	 */
+	public int size() {
+		return grid.size();
+	}
+}
@@ -52,6 +52,23 @@ public class GtfsCalendarDate extends CsvBase {
 		exceptionType = getRequiredValue(record, "exception_type");
 	}
 
+	/**
+	 * Creates a GtfsCalendarDate directly from the values instead of from a
+	 * CSVRecord.
+	 * 
+	 * @param serviceId
+	 * @param date
+	 *            In the GTFS format of YYYYMMDD
+	 * @param exceptionType
+	 *            "1" for service added, "2" for service removed
+	 */
+	public GtfsCalendarDate(String serviceId, String date,
+			String exceptionType) {
+		this.serviceId = serviceId;
+		this.date = date;
+		this.exceptionType = exceptionType;
+	}
+
 	public String getServiceId() {
 		return serviceId;
 	}
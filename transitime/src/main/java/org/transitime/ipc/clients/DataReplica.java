@@ -0,0 +1,521 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.clients;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.core.PredictionGeneratorDefaultImpl;
+import org.transitime.ipc.data.IpcDataChanges;
+import org.transitime.ipc.data.IpcDataChanges.RouteStopPredictions;
+import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.data.IpcVehicleComplete;
+import org.transitime.ipc.interfaces.DataSubscriptionInterface;
+import org.transitime.ipc.interfaces.PredictionsInterface.RouteStop;
+import org.transitime.ipc.rmi.ClientFactory;
+import org.transitime.utils.MapKey;
+import org.transitime.utils.Time;
+import org.transitime.utils.threading.NamedThread;
+
+/**
+ * A local replica, on a client such as an API server, of the vehicles and
+ * predictions of a core. A background thread subscribes to the core via the
+ * DataSubscriptionInterface, first getting a full snapshot and then
+ * repeatedly getting the changes. Since the call to get changes blocks on the
+ * core until there are changes the replica is updated as soon as the data
+ * changes, and each client only uses a single RMI call, out of the
+ * RmiCallInvocationHandler limit per agency, no matter how many requests it
+ * is handling. Reads are then served locally so API throughput can be scaled
+ * by adding API servers without increasing the load on the core.
+ * <p>
+ * Provides the same results as VehicleDataCache and PredictionDataCache.
+ * Since the client doesn't have the core's system time the current time is
+ * used for filtering out old data, which means that the replica should not
+ * be used when the core is in playback mode.
+ * <p>
+ * Only a single thread updates the data and the maps are concurrent so
+ * reads never block.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class DataReplica {
+
+	private final String agencyId;
+
+	// Where the changes come from. Usually an RMI client but can be a
+	// LocalDataSubscription for testing.
+	private final DataSubscriptionInterface subscription;
+
+	// From the last changes received. Guarded by synchronizing on this.
+	private long coreInstanceId = 0;
+	private long sequence = 0;
+
+	// When the last successful update was done. Zero if never got a full
+	// snapshot.
+	private volatile long lastUpdateTime = 0;
+
+	// The data. Replaced, instead of modified, when full snapshot is read so
+	// that readers never see a partial snapshot.
+	private volatile Map<String, IpcVehicleComplete> vehiclesMap =
+			new ConcurrentHashMap<String, IpcVehicleComplete>();
+	private volatile Map<MapKey, List<IpcPredictionsForRouteStopDest>> predictionsMap =
+			new ConcurrentHashMap<MapKey, List<IpcPredictionsForRouteStopDest>>();
+
+	// So can handle requests that use route ID instead of route short name
+	private final Map<String, String> routeShortNameByRouteIdMap =
+			new ConcurrentHashMap<String, String>();
+
+	// Keyed by agencyId
+	private static final Map<String, DataReplica> replicasMap =
+			new ConcurrentHashMap<String, DataReplica>();
+
+	// For filtering out vehicles more than MAX_AGE since it means that the
+	// AVL info is obsolete. Same as for VehicleDataCache.
+	private static final int MAX_AGE_MSEC = 15 * Time.MS_PER_MIN;
+
+	// How long to wait after an error before trying again
+	private static final int ERROR_RETRY_MSEC = 5 * Time.MS_PER_SEC;
+
+	/****************************** Config params **********************/
+
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue(
+					"transitime.ipc.dataReplicaEnabled",
+					false,
+					"When true clients such as the API subscribe to the "
+					+ "vehicle and prediction changes of the core and serve "
+					+ "vehicle and prediction requests from a local replica "
+					+ "instead of making an RMI call for each request. The "
+					+ "core must have transitime.subscription.enabled set.");
+
+	private static IntegerConfigValue minUpdateIntervalMsec =
+			new IntegerConfigValue(
+					"transitime.ipc.dataReplicaMinUpdateIntervalMsec",
+					500,
+					"Minimum time between getting changes from the core. "
+					+ "Larger values mean that more changes are combined "
+					+ "into each update, reducing load on the core, but "
+					+ "the data is not as current.");
+
+	private static IntegerConfigValue maxStaleSecs =
+			new IntegerConfigValue(
+					"transitime.ipc.dataReplicaMaxStaleSecs",
+					30,
+					"If the replica hasn't been successfully updated in "
+					+ "this many seconds then it is considered stale and "
+					+ "requests are handled by the core via RMI instead.");
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(DataReplica.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the replica but doesn't start updating it. For a replica that
+	 * is updated in the background use get() or call start().
+	 *
+	 * @param agencyId
+	 * @param subscription
+	 *            Where the changes come from. Can be a LocalDataSubscription
+	 *            for testing.
+	 */
+	public DataReplica(String agencyId, DataSubscriptionInterface subscription) {
+		this.agencyId = agencyId;
+		this.subscription = subscription;
+	}
+
+	/**
+	 * Returns true if clients are to use a DataReplica.
+	 *
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled.getValue();
+	}
+
+	/**
+	 * Returns the DataReplica for the agency, creating and starting it if
+	 * needed. Returns null if replicas are not enabled.
+	 *
+	 * @param agencyId
+	 * @return the DataReplica, or null if not enabled or agencyId not valid
+	 */
+	public static DataReplica get(String agencyId) {
+		if (!isEnabled())
+			return null;
+
+		DataReplica replica = replicasMap.get(agencyId);
+		if (replica == null) {
+			synchronized (replicasMap) {
+				replica = replicasMap.get(agencyId);
+				if (replica == null) {
+					DataSubscriptionInterface subscription =
+							DataSubscriptionInterfaceFactory.get(agencyId);
+					if (subscription == null)
+						return null;
+					replica = new DataReplica(agencyId, subscription);
+					replica.start();
+					replicasMap.put(agencyId, replica);
+				}
+			}
+		}
+		return replica;
+	}
+
+	/**
+	 * Starts a daemon thread that keeps the replica updated.
+	 */
+	public void start() {
+		NamedThread thread = new NamedThread(new Runnable() {
+			@Override
+			public void run() {
+				runUpdates();
+			}
+		}, "DataReplica-" + agencyId);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Continuously updates the replica. Never returns.
+	 */
+	private void runUpdates() {
+		// Don't want the RMI call to time out when there are no changes
+		int maxWaitMsec = ClientFactory.getTimeoutSec() * Time.MS_PER_SEC / 2;
+
+		while (true) {
+			try {
+				update(maxWaitMsec);
+				Time.sleep(minUpdateIntervalMsec.getValue());
+			} catch (Exception e) {
+				logger.error("Error updating DataReplica for agencyId={}. "
+						+ "Will try again in {} msec.", agencyId,
+						ERROR_RETRY_MSEC, e);
+				Time.sleep(ERROR_RETRY_MSEC);
+			}
+		}
+	}
+
+	/**
+	 * Gets the changes from the core and applies them. Called by the
+	 * updating thread but can also be called directly, such as for testing
+	 * when the replica was not started.
+	 *
+	 * @param maxWaitMsec
+	 *            How long to wait for changes
+	 * @return the changes that were applied
+	 * @throws Exception
+	 *             If the changes could not be obtained
+	 */
+	public synchronized IpcDataChanges update(int maxWaitMsec) throws Exception {
+		IpcDataChanges changes =
+				subscription.getChanges(coreInstanceId, sequence, maxWaitMsec);
+
+		if (changes.isFullSnapshot()) {
+			applySnapshot(changes);
+		} else {
+			applyChanges(changes);
+		}
+		coreInstanceId = changes.getCoreInstanceId();
+		sequence = changes.getSequence();
+		lastUpdateTime = System.currentTimeMillis();
+
+		logger.debug("Updated DataReplica for agencyId={} with {}", agencyId,
+				changes);
+		return changes;
+	}
+
+	/**
+	 * Replaces all of the data with the full snapshot.
+	 *
+	 * @param changes
+	 */
+	private void applySnapshot(IpcDataChanges changes) {
+		logger.info("Received full snapshot for DataReplica for "
+				+ "agencyId={}. {}", agencyId, changes);
+
+		Map<String, IpcVehicleComplete> newVehiclesMap =
+				new ConcurrentHashMap<String, IpcVehicleComplete>();
+		for (IpcVehicleComplete vehicle : changes.getVehicles()) {
+			newVehiclesMap.put(vehicle.getId(), vehicle);
+			addRoute(vehicle.getRouteId(), vehicle.getRouteShortName());
+		}
+
+		Map<MapKey, List<IpcPredictionsForRouteStopDest>> newPredictionsMap =
+				new ConcurrentHashMap<MapKey, List<IpcPredictionsForRouteStopDest>>();
+		for (RouteStopPredictions routeStopPreds : changes.getPredictions())
+			putPredictions(newPredictionsMap, routeStopPreds);
+
+		vehiclesMap = newVehiclesMap;
+		predictionsMap = newPredictionsMap;
+	}
+
+	/**
+	 * Applies the changes to the current data.
+	 *
+	 * @param changes
+	 */
+	private void applyChanges(IpcDataChanges changes) {
+		for (IpcVehicleComplete vehicle : changes.getVehicles()) {
+			vehiclesMap.put(vehicle.getId(), vehicle);
+			addRoute(vehicle.getRouteId(), vehicle.getRouteShortName());
+		}
+		for (String vehicleId : changes.getRemovedVehicleIds())
+			vehiclesMap.remove(vehicleId);
+
+		for (RouteStopPredictions routeStopPreds : changes.getPredictions())
+			putPredictions(predictionsMap, routeStopPreds);
+	}
+
+	private void putPredictions(
+			Map<MapKey, List<IpcPredictionsForRouteStopDest>> map,
+			RouteStopPredictions routeStopPreds) {
+		MapKey key = MapKey.create(routeStopPreds.getRouteShortName(),
+				routeStopPreds.getStopId());
+		map.put(key, routeStopPreds.getPredictions());
+		for (IpcPredictionsForRouteStopDest preds : routeStopPreds
+				.getPredictions())
+			addRoute(preds.getRouteId(), preds.getRouteShortName());
+	}
+
+	private void addRoute(String routeId, String routeShortName) {
+		if (routeId != null && routeShortName != null)
+			routeShortNameByRouteIdMap.put(routeId, routeShortName);
+	}
+
+	/**
+	 * Returns true if the replica has data and was recently updated. If not
+	 * then requests should be handled by the core instead.
+	 *
+	 * @return true if the replica can be used
+	 */
+	public boolean isCurrent() {
+		return lastUpdateTime != 0
+				&& System.currentTimeMillis() - lastUpdateTime < maxStaleSecs
+						.getValue() * Time.MS_PER_SEC;
+	}
+
+	/**
+	 * Returns the route short name for the route ID or short name.
+	 *
+	 * @param routeIdOrShortName
+	 * @return the route short name
+	 */
+	private String getRouteShortName(String routeIdOrShortName) {
+		String routeShortName =
+				routeIdOrShortName != null ? routeShortNameByRouteIdMap
+						.get(routeIdOrShortName) : null;
+		return routeShortName != null ? routeShortName : routeIdOrShortName;
+	}
+
+	/**
+	 * Removes schedule based vehicles.
+	 *
+	 * @param vehicles
+	 * @return the vehicles that are not schedule based
+	 */
+	private static List<IpcVehicleComplete> filterSchedBasedVehicles(
+			Collection<IpcVehicleComplete> vehicles) {
+		List<IpcVehicleComplete> filteredVehicles =
+				new ArrayList<IpcVehicleComplete>(vehicles.size());
+		for (IpcVehicleComplete vehicle : vehicles) {
+			if (!vehicle.isForSchedBasedPred())
+				filteredVehicles.add(vehicle);
+		}
+		return filteredVehicles;
+	}
+
+	/**
+	 * Returns all vehicles except schedule based ones, like
+	 * VehicleDataCache.getVehicles().
+	 *
+	 * @return the vehicles
+	 */
+	public List<IpcVehicleComplete> getVehicles() {
+		return filterSchedBasedVehicles(vehiclesMap.values());
+	}
+
+	/**
+	 * Returns the specified vehicle.
+	 *
+	 * @param vehicleId
+	 * @return the vehicle, or null if there is no such vehicle
+	 */
+	public IpcVehicleComplete getVehicle(String vehicleId) {
+		return vehiclesMap.get(vehicleId);
+	}
+
+	/**
+	 * Returns the specified vehicles. No filtering is done, like
+	 * VehicleDataCache.getVehicles(vehicleIds).
+	 *
+	 * @param vehicleIds
+	 * @return the vehicles that exist
+	 */
+	public List<IpcVehicleComplete> getVehicles(Collection<String> vehicleIds) {
+		Map<String, IpcVehicleComplete> vehicles = vehiclesMap;
+		List<IpcVehicleComplete> results = new ArrayList<IpcVehicleComplete>();
+		for (String vehicleId : vehicleIds) {
+			IpcVehicleComplete vehicle = vehicles.get(vehicleId);
+			if (vehicle != null)
+				results.add(vehicle);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the vehicles for the routes, filtering out vehicles with old
+	 * AVL reports and schedule based vehicles, like
+	 * VehicleDataCache.getVehiclesForRoute().
+	 *
+	 * @param routeIdsOrShortNames
+	 *            A null or empty string route means vehicles not assigned to
+	 *            a route
+	 * @return the vehicles. Can be empty but not null.
+	 */
+	public List<IpcVehicleComplete> getVehiclesForRoute(
+			Collection<String> routeIdsOrShortNames) {
+		List<String> routeShortNames = new ArrayList<String>();
+		for (String routeIdOrShortName : routeIdsOrShortNames) {
+			if (routeIdOrShortName == null || routeIdOrShortName.isEmpty())
+				routeShortNames.add(null);
+			else
+				routeShortNames.add(getRouteShortName(routeIdOrShortName));
+		}
+
+		long timeCutoff = System.currentTimeMillis() - MAX_AGE_MSEC;
+		List<IpcVehicleComplete> results = new ArrayList<IpcVehicleComplete>();
+		for (IpcVehicleComplete vehicle : vehiclesMap.values()) {
+			if (routeShortNames.contains(vehicle.getRouteShortName())
+					&& !vehicle.isForSchedBasedPred()
+					&& (vehicle.isLayover()
+							|| vehicle.getAvl().getTime() > timeCutoff))
+				results.add(vehicle);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the vehicles for the route, filtering out vehicles with old AVL
+	 * reports and schedule based vehicles.
+	 *
+	 * @param routeIdOrShortName
+	 * @return the vehicles. Can be empty but not null.
+	 */
+	public List<IpcVehicleComplete> getVehiclesForRoute(
+			String routeIdOrShortName) {
+		return getVehiclesForRoute(
+				Collections.singletonList(routeIdOrShortName));
+	}
+
+	/**
+	 * Returns the predictions for the route/stop, limited like
+	 * PredictionDataCache.getPredictions() does.
+	 *
+	 * @param routeIdOrShortName
+	 * @param stopId
+	 * @param maxPredictionsPerStop
+	 * @return the predictions, or null if the route/stop has never had
+	 *         predictions. For that case the core needs to be used since it
+	 *         creates an IpcPredictionsForRouteStopDest with the route and
+	 *         stop info from the configuration.
+	 */
+	public List<IpcPredictionsForRouteStopDest> getPredictions(
+			String routeIdOrShortName, String stopId, int maxPredictionsPerStop) {
+		String routeShortName = getRouteShortName(routeIdOrShortName);
+		List<IpcPredictionsForRouteStopDest> predsForRouteStop =
+				predictionsMap.get(MapKey.create(routeShortName, stopId));
+		if (predsForRouteStop == null || predsForRouteStop.isEmpty())
+			return null;
+
+		long currentTime = System.currentTimeMillis();
+		long maxPredictionEpochTime =
+				currentTime
+						+ PredictionGeneratorDefaultImpl
+								.getMaxPredictionsTimeSecs()
+						* Time.SEC_IN_MSECS;
+
+		List<IpcPredictionsForRouteStopDest> results =
+				new ArrayList<IpcPredictionsForRouteStopDest>(
+						predsForRouteStop.size());
+		for (IpcPredictionsForRouteStopDest preds : predsForRouteStop) {
+			results.add(preds.getLimited(currentTime, maxPredictionsPerStop,
+					maxPredictionEpochTime, Double.NaN));
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the predictions for the route/stops.
+	 *
+	 * @param routeStops
+	 * @param predictionsPerStop
+	 * @return the predictions, or null if any of the route/stops has never
+	 *         had predictions
+	 */
+	public List<IpcPredictionsForRouteStopDest> getPredictions(
+			List<RouteStop> routeStops, int predictionsPerStop) {
+		List<IpcPredictionsForRouteStopDest> results =
+				new ArrayList<IpcPredictionsForRouteStopDest>();
+		for (RouteStop routeStop : routeStops) {
+			List<IpcPredictionsForRouteStopDest> predsForRouteStop =
+					getPredictions(routeStop.getRouteIdOrShortName(),
+							routeStop.getStopId(), predictionsPerStop);
+			if (predsForRouteStop == null)
+				return null;
+			results.addAll(predsForRouteStop);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns all predictions up to the specified time, like
+	 * PredictionDataCache.getAllPredictions().
+	 *
+	 * @param predictionMaxFutureSecs
+	 * @return the predictions, only for route/stops that have predictions
+	 */
+	public List<IpcPredictionsForRouteStopDest> getAllPredictions(
+			int predictionMaxFutureSecs) {
+		long currentTime = System.currentTimeMillis();
+		long maxPredictionEpochTime =
+				currentTime + predictionMaxFutureSecs * Time.MS_PER_SEC;
+
+		List<IpcPredictionsForRouteStopDest> results =
+				new ArrayList<IpcPredictionsForRouteStopDest>(5000);
+		for (List<IpcPredictionsForRouteStopDest> predsForRouteStop :
+				predictionsMap.values()) {
+			for (IpcPredictionsForRouteStopDest preds : predsForRouteStop) {
+				IpcPredictionsForRouteStopDest limitedPreds =
+						preds.getLimited(currentTime, Integer.MAX_VALUE,
+								maxPredictionEpochTime, Double.NaN);
+				if (!limitedPreds.getPredictionsForRouteStop().isEmpty())
+					results.add(limitedPreds);
+			}
+		}
+		return results;
+	}
+}
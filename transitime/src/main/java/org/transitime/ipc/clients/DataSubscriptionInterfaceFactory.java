@@ -0,0 +1,59 @@
+/* 
+ * This file is part of Transitime.org
+ * 
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.clients;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.transitime.ipc.interfaces.DataSubscriptionInterface;
+import org.transitime.ipc.rmi.ClientFactory;
+
+/**
+ * Provides a DataSubscriptionInterface client that can be used to
+ * subscribe to the vehicle and prediction changes of a core.
+ * 
+ * @author SkiBu Smith
+ * 
+ */
+public class DataSubscriptionInterfaceFactory {
+
+	// Keyed by agencyId
+	private static Map<String, DataSubscriptionInterface> dataSubscriptionInterfaceMap =
+			new HashMap<String, DataSubscriptionInterface>();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Gets the DataSubscriptionInterface for the specified projectId. There is one
+	 * interface per agencyId.
+	 * 
+	 * @param agencyId
+	 * @return
+	 */
+	public static DataSubscriptionInterface get(String agencyId) {
+		DataSubscriptionInterface dataSubscriptionInterface =
+				dataSubscriptionInterfaceMap.get(agencyId);
+		if (dataSubscriptionInterface == null) {
+			dataSubscriptionInterface = 
+					ClientFactory.getInstance(agencyId, DataSubscriptionInterface.class);
+			dataSubscriptionInterfaceMap.put(agencyId, dataSubscriptionInterface);
+		}
+
+		return dataSubscriptionInterface;
+	}
+
+}
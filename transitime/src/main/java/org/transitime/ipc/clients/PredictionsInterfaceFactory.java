@@ -24,7 +24,8 @@ import org.transitime.ipc.rmi.ClientFactory;
 
 /**
  * Provides a PredictionsInterface client that can be queried for 
- * predictions.
+ * predictions. If DataReplica is enabled then the client handles predictions
+ * requests using the local replica.
  * 
  * @author SkiBu Smith
  * 
@@ -50,6 +51,10 @@ public class PredictionsInterfaceFactory {
 		if (predictionsInterface == null) {
 			predictionsInterface = 
 					ClientFactory.getInstance(agencyId, PredictionsInterface.class);
+			DataReplica replica = DataReplica.get(agencyId);
+			if (predictionsInterface != null && replica != null)
+				predictionsInterface = new ReplicaPredictionsInterface(
+						replica, predictionsInterface);
 			predictionsInterfaceMap.put(agencyId, predictionsInterface);
 		}
 
@@ -0,0 +1,106 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.clients;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+import org.transitime.db.structs.Location;
+import org.transitime.ipc.data.IpcDataCodec;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
+import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.interfaces.PredictionsInterface;
+
+/**
+ * A PredictionsInterface that handles the predictions requests using a
+ * DataReplica when the replica is current. Predictions by location need the
+ * stop locations so they, and the GTFS-realtime feed, are always passed on to
+ * the core via the RMI client. Returned by PredictionsInterfaceFactory when
+ * replicas are enabled so that clients don't need to be changed.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ReplicaPredictionsInterface implements PredictionsInterface {
+
+	private final DataReplica replica;
+
+	// For requests that can't be handled by the replica
+	private final PredictionsInterface delegate;
+
+	/********************** Member Functions **************************/
+
+	public ReplicaPredictionsInterface(DataReplica replica,
+			PredictionsInterface delegate) {
+		this.replica = replica;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public List<IpcPredictionsForRouteStopDest> get(String routeIdOrShortName,
+			String stopId, int predictionsPerStop) throws RemoteException {
+		List<IpcPredictionsForRouteStopDest> predictions = null;
+		if (replica.isCurrent())
+			predictions = replica.getPredictions(routeIdOrShortName, stopId,
+					predictionsPerStop);
+		if (predictions == null)
+			predictions =
+					delegate.get(routeIdOrShortName, stopId, predictionsPerStop);
+		return predictions;
+	}
+
+	@Override
+	public List<IpcPredictionsForRouteStopDest> get(List<RouteStop> routeStops,
+			int predictionsPerStop) throws RemoteException {
+		List<IpcPredictionsForRouteStopDest> predictions = null;
+		if (replica.isCurrent())
+			predictions = replica.getPredictions(routeStops, predictionsPerStop);
+		if (predictions == null)
+			predictions = delegate.get(routeStops, predictionsPerStop);
+		return predictions;
+	}
+
+	@Override
+	public List<IpcPredictionsForRouteStopDest> get(Location loc,
+			double maxDistance, int predictionsPerStop) throws RemoteException {
+		return delegate.get(loc, maxDistance, predictionsPerStop);
+	}
+
+	@Override
+	public List<IpcPredictionsForRouteStopDest> getAllPredictions(
+			int predictionMaxFutureSecs) throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getAllPredictions(predictionMaxFutureSecs);
+		return replica.getAllPredictions(predictionMaxFutureSecs);
+	}
+
+	@Override
+	public byte[] getAllPredictionsEncoded(int predictionMaxFutureSecs)
+			throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getAllPredictionsEncoded(predictionMaxFutureSecs);
+		return IpcDataCodec.encodePredictions(
+				replica.getAllPredictions(predictionMaxFutureSecs));
+	}
+
+	@Override
+	public IpcGtfsRealtimeFeed getGtfsRtTripUpdates(long sinceVersion)
+			throws RemoteException {
+		return delegate.getGtfsRtTripUpdates(sinceVersion);
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.clients;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.transitime.ipc.data.IpcActiveBlock;
+import org.transitime.ipc.data.IpcDataCodec;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
+import org.transitime.ipc.data.IpcVehicle;
+import org.transitime.ipc.data.IpcVehicleComplete;
+import org.transitime.ipc.data.IpcVehicleConfig;
+import org.transitime.ipc.data.IpcVehicleGtfsRealtime;
+import org.transitime.ipc.interfaces.VehiclesInterface;
+
+/**
+ * A VehiclesInterface that handles the vehicle requests using a DataReplica
+ * when the replica is current. All other requests, and all requests when the
+ * replica is not current, are passed on to the core via the RMI client.
+ * Returned by VehiclesInterfaceFactory when replicas are enabled so that
+ * clients don't need to be changed.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ReplicaVehiclesInterface implements VehiclesInterface {
+
+	private final DataReplica replica;
+
+	// For requests that can't be handled by the replica
+	private final VehiclesInterface delegate;
+
+	/********************** Member Functions **************************/
+
+	public ReplicaVehiclesInterface(DataReplica replica,
+			VehiclesInterface delegate) {
+		this.replica = replica;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Collection<IpcActiveBlock> getActiveBlocksWithoutVehicles(
+			Collection<String> routeIds, int allowableBeforeTimeSecs)
+			throws RemoteException {
+		return delegate.getActiveBlocksWithoutVehicles(routeIds,
+				allowableBeforeTimeSecs);
+	}
+
+	@Override
+	public Collection<IpcActiveBlock> getActiveBlocksAndVehiclesByRouteId(
+			String routeId, int allowableBeforeTimeSecs)
+			throws RemoteException {
+		return delegate.getActiveBlocksAndVehiclesByRouteId(routeId,
+				allowableBeforeTimeSecs);
+	}
+
+	@Override
+	public Collection<IpcVehicleConfig> getVehicleConfigs()
+			throws RemoteException {
+		return delegate.getVehicleConfigs();
+	}
+
+	@Override
+	public Collection<IpcVehicle> get() throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.get();
+		return new ArrayList<IpcVehicle>(replica.getVehicles());
+	}
+
+	@Override
+	public Collection<IpcVehicleComplete> getComplete() throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getComplete();
+		return replica.getVehicles();
+	}
+
+	@Override
+	public byte[] getCompleteEncoded() throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getCompleteEncoded();
+		return IpcDataCodec.encodeVehicles(replica.getVehicles());
+	}
+
+	@Override
+	public Collection<IpcVehicleGtfsRealtime> getGtfsRealtime()
+			throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getGtfsRealtime();
+		return new ArrayList<IpcVehicleGtfsRealtime>(replica.getVehicles());
+	}
+
+	@Override
+	public IpcGtfsRealtimeFeed getGtfsRtVehiclePositions(long sinceVersion)
+			throws RemoteException {
+		return delegate.getGtfsRtVehiclePositions(sinceVersion);
+	}
+
+	@Override
+	public IpcVehicle get(String vehicleId) throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.get(vehicleId);
+		return replica.getVehicle(vehicleId);
+	}
+
+	@Override
+	public IpcVehicleComplete getComplete(String vehicleId)
+			throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getComplete(vehicleId);
+		return replica.getVehicle(vehicleId);
+	}
+
+	@Override
+	public Collection<IpcVehicle> get(Collection<String> vehicleIds)
+			throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.get(vehicleIds);
+		return new ArrayList<IpcVehicle>(replica.getVehicles(vehicleIds));
+	}
+
+	@Override
+	public Collection<IpcVehicleComplete> getComplete(
+			Collection<String> vehicleIds) throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getComplete(vehicleIds);
+		return replica.getVehicles(vehicleIds);
+	}
+
+	@Override
+	public Collection<IpcVehicle> getForRoute(String routeIdOrShortName)
+			throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getForRoute(routeIdOrShortName);
+		return new ArrayList<IpcVehicle>(
+				replica.getVehiclesForRoute(routeIdOrShortName));
+	}
+
+	@Override
+	public Collection<IpcVehicleComplete> getCompleteForRoute(
+			String routeIdOrShortName) throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getCompleteForRoute(routeIdOrShortName);
+		return replica.getVehiclesForRoute(routeIdOrShortName);
+	}
+
+	@Override
+	public Collection<IpcVehicle> getForRoute(
+			Collection<String> routeIdsOrShortNames) throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getForRoute(routeIdsOrShortNames);
+		return new ArrayList<IpcVehicle>(
+				replica.getVehiclesForRoute(routeIdsOrShortNames));
+	}
+
+	@Override
+	public Collection<IpcVehicleComplete> getCompleteForRoute(
+			Collection<String> routeIdsOrShortNames) throws RemoteException {
+		if (!replica.isCurrent())
+			return delegate.getCompleteForRoute(routeIdsOrShortNames);
+		return replica.getVehiclesForRoute(routeIdsOrShortNames);
+	}
+
+	@Override
+	public Collection<IpcActiveBlock> getActiveBlocks(
+			Collection<String> routeIds, int allowableBeforeTimeSecs)
+			throws RemoteException {
+		return delegate.getActiveBlocks(routeIds, allowableBeforeTimeSecs);
+	}
+
+	@Override
+	public int getNumActiveBlocks(Collection<String> routeIds,
+			int allowableBeforeTimeSecs) throws RemoteException {
+		return delegate.getNumActiveBlocks(routeIds, allowableBeforeTimeSecs);
+	}
+
+}
@@ -25,7 +25,8 @@ import org.transitime.ipc.rmi.ClientFactory;
 
 /**
  * Provides a VehiclesInterface client that can be queried for 
- * Vehicle info.
+ * Vehicle info. If DataReplica is enabled then the client handles vehicle
+ * requests using the local replica.
  * 
  * @author SkiBu Smith
  * 
@@ -50,6 +51,10 @@ public class VehiclesInterfaceFactory {
 		if (vehiclesInterface == null) {
 			vehiclesInterface = 
 					ClientFactory.getInstance(agencyId, VehiclesInterface.class);
+			DataReplica replica = DataReplica.get(agencyId);
+			if (vehiclesInterface != null && replica != null)
+				vehiclesInterface = 
+						new ReplicaVehiclesInterface(replica, vehiclesInterface);
 			vehiclesInterfaceMap.put(agencyId, vehiclesInterface);
 		}
 
@@ -102,6 +102,44 @@ public class IpcAvl implements Serializable {
 		this.passengerCount = a.getPassengerCount();
 	}
 
+	/**
+	 * Writes this object using the compact IPC encoding. Corresponds to
+	 * decode().
+	 * 
+	 * @param encoder
+	 */
+	void encode(IpcDataEncoder encoder) {
+		encoder.writeString(vehicleId);
+		encoder.writeTime(time);
+		encoder.writeFloat(latitude);
+		encoder.writeFloat(longitude);
+		encoder.writeFloat(speed);
+		encoder.writeFloat(heading);
+		encoder.writeString(source);
+		encoder.writeString(assignmentId);
+		encoder.writeEnum(assignmentType);
+		encoder.writeString(driverId);
+		encoder.writeString(licensePlate);
+		encoder.writeInt(passengerCount);
+	}
+
+	/**
+	 * Reads in an object that was written using encode().
+	 * 
+	 * @param decoder
+	 * @return the new IpcAvl
+	 * @throws IOException
+	 */
+	static IpcAvl decode(IpcDataDecoder decoder) throws IOException {
+		return new IpcAvl(decoder.readString(), decoder.readTime(),
+				decoder.readFloat(), decoder.readFloat(), decoder.readFloat(),
+				decoder.readFloat(), decoder.readString(),
+				decoder.readString(),
+				decoder.readEnum(AssignmentType.class),
+				decoder.readString(), decoder.readString(),
+				decoder.readInt());
+	}
+
 	/*
 	 * SerializationProxy is used so that this class can be immutable
 	 * and so that can do versioning of objects.
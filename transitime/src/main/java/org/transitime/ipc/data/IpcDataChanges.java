@@ -0,0 +1,298 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The vehicle and prediction changes sent by the core to a subscribing
+ * client, such as an API server that maintains a local replica of the data.
+ * Either a full snapshot of all vehicles and predictions, or just the vehicles
+ * and route/stops that changed since the sequence number the client already
+ * has.
+ * <p>
+ * Since this can be a large amount of data it is serialized using the
+ * compact IpcDataEncoder format instead of regular Java serialization.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcDataChanges implements Serializable {
+
+	// Identifies the core process. If the core is restarted the sequence
+	// numbers start over so the client needs to get a full snapshot.
+	private final long coreInstanceId;
+
+	// Sequence number of the last change included. The client passes this
+	// in when requesting the next set of changes.
+	private final long sequence;
+
+	// If true then contains all of the vehicles and predictions instead of
+	// just the changes so the client should replace all of its data.
+	private final boolean fullSnapshot;
+
+	private final List<IpcVehicleComplete> vehicles;
+
+	private final List<String> removedVehicleIds;
+
+	private final List<RouteStopPredictions> predictions;
+
+	private static final long serialVersionUID = 4207436563381922051L;
+
+	/**
+	 * All of the predictions, for all destinations, for a route/stop. If the
+	 * list is empty then there are no longer any predictions for the
+	 * route/stop.
+	 */
+	public static class RouteStopPredictions {
+		private final String routeShortName;
+		private final String stopId;
+		private final List<IpcPredictionsForRouteStopDest> predictions;
+
+		public RouteStopPredictions(String routeShortName, String stopId,
+				List<IpcPredictionsForRouteStopDest> predictions) {
+			this.routeShortName = routeShortName;
+			this.stopId = stopId;
+			this.predictions = predictions;
+		}
+
+		public String getRouteShortName() {
+			return routeShortName;
+		}
+
+		public String getStopId() {
+			return stopId;
+		}
+
+		public List<IpcPredictionsForRouteStopDest> getPredictions() {
+			return predictions;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param coreInstanceId
+	 *            Identifies the core process
+	 * @param sequence
+	 *            Sequence number of last change included
+	 * @param fullSnapshot
+	 *            True if contains all data instead of just the changes
+	 * @param vehicles
+	 *            The new or changed vehicles
+	 * @param removedVehicleIds
+	 *            IDs of vehicles no longer available
+	 * @param predictions
+	 *            The changed predictions, by route/stop
+	 */
+	public IpcDataChanges(long coreInstanceId, long sequence,
+			boolean fullSnapshot, List<IpcVehicleComplete> vehicles,
+			List<String> removedVehicleIds,
+			List<RouteStopPredictions> predictions) {
+		this.coreInstanceId = coreInstanceId;
+		this.sequence = sequence;
+		this.fullSnapshot = fullSnapshot;
+		this.vehicles = Collections.unmodifiableList(vehicles);
+		this.removedVehicleIds = Collections.unmodifiableList(removedVehicleIds);
+		this.predictions = Collections.unmodifiableList(predictions);
+	}
+
+	/*
+	 * SerializationProxy is used so that this class can be immutable and so
+	 * that the data can be written using the compact IpcDataEncoder format.
+	 */
+	private static class SerializationProxy implements Serializable {
+		private transient IpcDataChanges changes;
+
+		private static final short currentSerializationVersion = 0;
+		private static final long serialVersionUID = -5104427702387633715L;
+
+		/*
+		 * Only to be used within this class.
+		 */
+		private SerializationProxy(IpcDataChanges changes) {
+			this.changes = changes;
+		}
+
+		/*
+		 * When object is serialized writeReplace() causes this
+		 * SerializationProxy object to be written. The data is written as
+		 * an IpcDataEncoder byte array, which contains its own version.
+		 */
+		private void writeObject(java.io.ObjectOutputStream stream)
+				throws IOException {
+			stream.writeShort(currentSerializationVersion);
+
+			IpcDataEncoder encoder = new IpcDataEncoder(
+					changes.vehicles.size() * 120
+							+ changes.predictions.size() * 80);
+			encoder.writeLong(changes.coreInstanceId);
+			encoder.writeLong(changes.sequence);
+			encoder.writeBoolean(changes.fullSnapshot);
+			encoder.writeInt(changes.vehicles.size());
+			for (IpcVehicleComplete vehicle : changes.vehicles)
+				vehicle.encode(encoder);
+			encoder.writeInt(changes.removedVehicleIds.size());
+			for (String vehicleId : changes.removedVehicleIds)
+				encoder.writeString(vehicleId);
+			encoder.writeInt(changes.predictions.size());
+			for (RouteStopPredictions routeStopPreds : changes.predictions) {
+				encoder.writeString(routeStopPreds.routeShortName);
+				encoder.writeString(routeStopPreds.stopId);
+				encoder.writeInt(routeStopPreds.predictions.size());
+				for (IpcPredictionsForRouteStopDest preds :
+						routeStopPreds.predictions)
+					preds.encode(encoder);
+			}
+
+			byte[] bytes = encoder.toByteArray();
+			stream.writeInt(bytes.length);
+			stream.write(bytes);
+		}
+
+		/*
+		 * Custom method of deserializing a SerializationProy object.
+		 */
+		private void readObject(java.io.ObjectInputStream stream)
+				throws IOException, ClassNotFoundException {
+			short readVersion = stream.readShort();
+			if (currentSerializationVersion < readVersion) {
+				throw new IOException("Serialization error when reading "
+						+ getClass().getSimpleName()
+						+ " object. Read version=" + readVersion
+						+ " but currently using software version="
+						+ currentSerializationVersion);
+			}
+
+			// serialization version is OK so read in object
+			byte[] bytes = new byte[stream.readInt()];
+			stream.readFully(bytes);
+
+			IpcDataDecoder decoder = new IpcDataDecoder(bytes);
+			long coreInstanceId = decoder.readLong();
+			long sequence = decoder.readLong();
+			boolean fullSnapshot = decoder.readBoolean();
+			int numVehicles = decoder.readCount();
+			List<IpcVehicleComplete> vehicles =
+					new ArrayList<IpcVehicleComplete>(numVehicles);
+			for (int i = 0; i < numVehicles; ++i)
+				vehicles.add(IpcVehicleComplete.decode(decoder));
+			int numRemoved = decoder.readCount();
+			List<String> removedVehicleIds = new ArrayList<String>(numRemoved);
+			for (int i = 0; i < numRemoved; ++i)
+				removedVehicleIds.add(decoder.readString());
+			int numRouteStops = decoder.readCount();
+			List<RouteStopPredictions> predictions =
+					new ArrayList<RouteStopPredictions>(numRouteStops);
+			for (int i = 0; i < numRouteStops; ++i) {
+				String routeShortName = decoder.readString();
+				String stopId = decoder.readString();
+				int numPreds = decoder.readCount();
+				List<IpcPredictionsForRouteStopDest> preds =
+						new ArrayList<IpcPredictionsForRouteStopDest>(numPreds);
+				for (int j = 0; j < numPreds; ++j)
+					preds.add(IpcPredictionsForRouteStopDest.decode(decoder));
+				predictions.add(new RouteStopPredictions(routeShortName,
+						stopId, Collections.unmodifiableList(preds)));
+			}
+
+			changes = new IpcDataChanges(coreInstanceId, sequence,
+					fullSnapshot, vehicles, removedVehicleIds, predictions);
+		}
+
+		/*
+		 * When an object is read in it will be a SerializatProxy object due to
+		 * writeReplace() being used by the enclosing class. When such an object
+		 * is deserialized this method will be called and the SerializationProxy
+		 * object is converted to an enclosing class object.
+		 */
+		private Object readResolve() {
+			return changes;
+		}
+	} /* End of SerializationProxy inner class */
+
+	/*
+	 * Needed as part of using a SerializationProxy. When IpcDataChanges
+	 * object is serialized the SerializationProxy will instead be used.
+	 */
+	private Object writeReplace() {
+		return new SerializationProxy(this);
+	}
+
+	/*
+	 * Needed as part of using a SerializationProxy. Makes sure that object
+	 * cannot be deserialized without using proxy.
+	 */
+	private void readObject(ObjectInputStream stream)
+			throws InvalidObjectException {
+		throw new InvalidObjectException("Must use proxy instead");
+	}
+
+	@Override
+	public String toString() {
+		return "IpcDataChanges ["
+				+ "coreInstanceId=" + coreInstanceId
+				+ ", sequence=" + sequence
+				+ ", fullSnapshot=" + fullSnapshot
+				+ ", numVehicles=" + vehicles.size()
+				+ ", numRemovedVehicles=" + removedVehicleIds.size()
+				+ ", numRouteStops=" + predictions.size()
+				+ "]";
+	}
+
+	public long getCoreInstanceId() {
+		return coreInstanceId;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public boolean isFullSnapshot() {
+		return fullSnapshot;
+	}
+
+	/**
+	 * @return The new or changed vehicles. For a full snapshot all vehicles.
+	 */
+	public List<IpcVehicleComplete> getVehicles() {
+		return vehicles;
+	}
+
+	/**
+	 * @return IDs of vehicles that have been removed since the previous
+	 *         changes. Always empty for a full snapshot.
+	 */
+	public List<String> getRemovedVehicleIds() {
+		return removedVehicleIds;
+	}
+
+	/**
+	 * @return The predictions for the route/stops that changed. For a full
+	 *         snapshot all route/stops.
+	 */
+	public List<RouteStopPredictions> getPredictions() {
+		return predictions;
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * For converting the large collections of ipc.data objects that are
+ * transferred via RMI, such as all predictions or all vehicles, to and from
+ * the compact binary format of IpcDataEncoder. The server side encodes the
+ * data into a byte array that is returned by the RMI call and the client side
+ * decodes it. This avoids the considerable CPU and garbage collection cost of
+ * Java serialization for such large collections, for both the server and the
+ * client.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcDataCodec {
+
+	// For determining initial buffer size so that the buffer usually doesn't
+	// need to be grown
+	private static final int BYTES_PER_PREDICTION = 40;
+	private static final int BYTES_PER_VEHICLE = 120;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Encodes the predictions.
+	 *
+	 * @param predictions
+	 * @return the encoded bytes
+	 */
+	public static byte[] encodePredictions(
+			Collection<IpcPredictionsForRouteStopDest> predictions) {
+		IpcDataEncoder encoder = new IpcDataEncoder(predictions.size()
+				* BYTES_PER_PREDICTION * 2);
+		encoder.writeInt(predictions.size());
+		for (IpcPredictionsForRouteStopDest predsForRouteStop : predictions)
+			predsForRouteStop.encode(encoder);
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Decodes predictions that were encoded using encodePredictions().
+	 *
+	 * @param data
+	 * @return the decoded predictions
+	 * @throws IOException
+	 *             If data is invalid or was encoded with a newer version
+	 */
+	public static List<IpcPredictionsForRouteStopDest> decodePredictions(
+			byte[] data) throws IOException {
+		IpcDataDecoder decoder = new IpcDataDecoder(data);
+		int numPredsForRouteStops = decoder.readCount();
+		List<IpcPredictionsForRouteStopDest> predictions =
+				new ArrayList<IpcPredictionsForRouteStopDest>(
+						numPredsForRouteStops);
+		for (int i = 0; i < numPredsForRouteStops; ++i)
+			predictions.add(IpcPredictionsForRouteStopDest.decode(decoder));
+		return predictions;
+	}
+
+	/**
+	 * Encodes the vehicles.
+	 *
+	 * @param vehicles
+	 * @return the encoded bytes
+	 */
+	public static byte[] encodeVehicles(
+			Collection<IpcVehicleComplete> vehicles) {
+		IpcDataEncoder encoder =
+				new IpcDataEncoder(vehicles.size() * BYTES_PER_VEHICLE);
+		encoder.writeInt(vehicles.size());
+		for (IpcVehicleComplete vehicle : vehicles)
+			vehicle.encode(encoder);
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Decodes vehicles that were encoded using encodeVehicles().
+	 *
+	 * @param data
+	 * @return the decoded vehicles
+	 * @throws IOException
+	 *             If data is invalid or was encoded with a newer version
+	 */
+	public static List<IpcVehicleComplete> decodeVehicles(byte[] data)
+			throws IOException {
+		IpcDataDecoder decoder = new IpcDataDecoder(data);
+		int numVehicles = decoder.readCount();
+		List<IpcVehicleComplete> vehicles =
+				new ArrayList<IpcVehicleComplete>(numVehicles);
+		for (int i = 0; i < numVehicles; ++i)
+			vehicles.add(IpcVehicleComplete.decode(decoder));
+		return vehicles;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * For decoding data that was encoded using IpcDataEncoder.
+ * <p>
+ * Not threadsafe.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcDataDecoder {
+
+	private final byte[] data;
+	private int position = 0;
+
+	// The strings read in so far, in the order they were encoded
+	private final List<String> dictionary = new ArrayList<String>();
+
+	// Version of the codec that was used to encode the data
+	private final short version;
+
+	// Times are relative to this
+	private final long baseTime;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the decoder and reads the header.
+	 *
+	 * @param data
+	 *            The encoded data
+	 * @throws IOException
+	 *             If the data was encoded using a newer version of the codec
+	 *             or if data is truncated
+	 */
+	public IpcDataDecoder(byte[] data) throws IOException {
+		this.data = data;
+
+		// If reading data encoded by a newer version then don't know how to
+		// handle it so throw exception
+		long readVersion = readVarLong();
+		if (readVersion > IpcDataEncoder.CODEC_VERSION) {
+			throw new IOException("Error when decoding IPC data. Read "
+					+ "version=" + readVersion + " but currently using "
+					+ "software version=" + IpcDataEncoder.CODEC_VERSION);
+		}
+		version = (short) readVersion;
+		baseTime = readVarLong();
+	}
+
+	/**
+	 * Returns the version of the codec used to encode the data so that
+	 * objects can handle data encoded by older versions.
+	 *
+	 * @return the codec version
+	 */
+	public short getVersion() {
+		return version;
+	}
+
+	private int readByte() throws IOException {
+		if (position >= data.length)
+			throw new EOFException("Encoded IPC data is truncated");
+		return data[position++] & 0xFF;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Encoded IPC data has invalid variable length "
+				+ "value");
+	}
+
+	public int readInt() throws IOException {
+		int value = (int) readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Reads the number of elements of a collection. Since each element takes
+	 * at least a byte the count cannot be greater than the number of bytes
+	 * remaining, which protects against allocating a huge collection for
+	 * invalid data.
+	 *
+	 * @return the count
+	 * @throws IOException
+	 *             If the count is not valid
+	 */
+	public int readCount() throws IOException {
+		int count = readInt();
+		if (count < 0 || count > data.length - position)
+			throw new IOException("Encoded IPC data has invalid count "
+					+ count);
+		return count;
+	}
+
+	public long readLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readTime() throws IOException {
+		return baseTime + readLong();
+	}
+
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	public float readFloat() throws IOException {
+		int bits = (readByte() << 24) | (readByte() << 16) | (readByte() << 8)
+				| readByte();
+		return Float.intBitsToFloat(bits);
+	}
+
+	public double readDouble() throws IOException {
+		long bits = 0;
+		for (int i = 0; i < 8; ++i)
+			bits = (bits << 8) | readByte();
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Reads a string that was written with IpcDataEncoder.writeString().
+	 *
+	 * @return the string, which can be null
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		long code = readVarLong();
+		if (code == IpcDataEncoder.NULL_STRING_CODE)
+			return null;
+
+		if (code == IpcDataEncoder.NEW_STRING_CODE) {
+			int numBytes = (int) readVarLong();
+			if (numBytes < 0 || position + numBytes > data.length)
+				throw new EOFException("Encoded IPC data is truncated");
+			String s = new String(data, position, numBytes,
+					IpcDataEncoder.UTF8);
+			position += numBytes;
+			dictionary.add(s);
+			return s;
+		}
+
+		long index = code - IpcDataEncoder.FIRST_DICTIONARY_CODE;
+		if (index >= dictionary.size())
+			throw new IOException("Encoded IPC data has invalid string "
+					+ "index " + index);
+		return dictionary.get((int) index);
+	}
+
+	/**
+	 * Reads an enum that was written with IpcDataEncoder.writeEnum().
+	 *
+	 * @param enumClass
+	 * @return the enum, which can be null
+	 * @throws IOException
+	 *             If the name is not a valid value for the enum
+	 */
+	public <E extends Enum<E>> E readEnum(Class<E> enumClass)
+			throws IOException {
+		String name = readString();
+		if (name == null)
+			return null;
+		try {
+			return Enum.valueOf(enumClass, name);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Encoded IPC data has invalid value " + name
+					+ " for " + enumClass.getSimpleName());
+		}
+	}
+
+	/**
+	 * Returns true if all of the data has been read
+	 *
+	 * @return true if at end
+	 */
+	public boolean isAtEnd() {
+		return position >= data.length;
+	}
+}
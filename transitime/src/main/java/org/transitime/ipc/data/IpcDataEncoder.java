@@ -0,0 +1,227 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * For encoding ipc.data objects into a compact binary format. Much more
+ * compact and much faster than Java serialization for large collections such
+ * as all predictions or all vehicles since:
+ * <ul>
+ * <li>Strings are written just once. Subsequent occurrences, such as for the
+ * same route, stop, or trip ID, are written as an index into a string
+ * dictionary that is built up as the data is encoded.</li>
+ * <li>Integers are written as variable length so small values take just a
+ * byte.</li>
+ * <li>Epoch times are written relative to a base time, which makes them much
+ * smaller.</li>
+ * <li>No class descriptors or object handles are written.</li>
+ * </ul>
+ * The data starts with the codec version so that IpcDataDecoder can reject
+ * data encoded with a newer, unknown, format. The objects themselves know how
+ * to encode themselves, just like they do for their SerializationProxy.
+ * <p>
+ * Not threadsafe.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcDataEncoder {
+
+	// The data. Grown as needed.
+	private byte[] buffer;
+	private int length = 0;
+
+	// The strings already written, and their indices
+	private final Map<String, Integer> dictionary =
+			new HashMap<String, Integer>();
+
+	// Times are written relative to this
+	private final long baseTime;
+
+	// Version of the encoding. Must be incremented whenever the format of
+	// the encoded data changes. Version 1 added the vehicle headways.
+	static final short CODEC_VERSION = 1;
+
+	// For writeString(). Index values start after these codes.
+	static final int NULL_STRING_CODE = 0;
+	static final int NEW_STRING_CODE = 1;
+	static final int FIRST_DICTIONARY_CODE = 2;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the encoder and writes the header, which contains the codec
+	 * version and the base time.
+	 *
+	 * @param initialCapacity
+	 *            Initial size of the buffer in bytes
+	 */
+	public IpcDataEncoder(int initialCapacity) {
+		buffer = new byte[Math.max(initialCapacity, 64)];
+		baseTime = System.currentTimeMillis();
+
+		writeVarLong(CODEC_VERSION);
+		writeVarLong(baseTime);
+	}
+
+	/**
+	 * Makes sure there is room for the specified number of additional bytes.
+	 *
+	 * @param numBytes
+	 */
+	private void ensureCapacity(int numBytes) {
+		if (length + numBytes > buffer.length)
+			buffer = Arrays.copyOf(buffer,
+					Math.max(buffer.length * 2, length + numBytes));
+	}
+
+	private void writeByte(int b) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) b;
+	}
+
+	/**
+	 * Writes a non-negative long using 7 bits per byte, with the high bit
+	 * indicating that there are more bytes.
+	 *
+	 * @param value
+	 */
+	private void writeVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[length++] = (byte) value;
+	}
+
+	/**
+	 * Writes an int. Zigzag encoded so that small negative values, such as -1,
+	 * are compact too.
+	 *
+	 * @param value
+	 */
+	public void writeInt(int value) {
+		writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes a long. Zigzag encoded so that small negative values are compact
+	 * too.
+	 *
+	 * @param value
+	 */
+	public void writeLong(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Writes an epoch time in msec. Written relative to the base time so that
+	 * takes far fewer bytes. A time of 0 is therefore not compact but that is
+	 * fine since it is rarely used.
+	 *
+	 * @param epochTime
+	 */
+	public void writeTime(long epochTime) {
+		writeLong(epochTime - baseTime);
+	}
+
+	public void writeBoolean(boolean value) {
+		writeByte(value ? 1 : 0);
+	}
+
+	public void writeFloat(float value) {
+		int bits = Float.floatToIntBits(value);
+		ensureCapacity(4);
+		buffer[length++] = (byte) (bits >>> 24);
+		buffer[length++] = (byte) (bits >>> 16);
+		buffer[length++] = (byte) (bits >>> 8);
+		buffer[length++] = (byte) bits;
+	}
+
+	public void writeDouble(double value) {
+		long bits = Double.doubleToLongBits(value);
+		ensureCapacity(8);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			buffer[length++] = (byte) (bits >>> shift);
+	}
+
+	/**
+	 * Writes a string, which can be null. If the string was already written
+	 * then just its index into the dictionary is written.
+	 *
+	 * @param s
+	 */
+	public void writeString(String s) {
+		if (s == null) {
+			writeVarLong(NULL_STRING_CODE);
+			return;
+		}
+
+		Integer index = dictionary.get(s);
+		if (index != null) {
+			writeVarLong(FIRST_DICTIONARY_CODE + index);
+			return;
+		}
+
+		// New string so write it out and add it to the dictionary
+		dictionary.put(s, dictionary.size());
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarLong(NEW_STRING_CODE);
+		writeVarLong(bytes.length);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/**
+	 * Writes an enum, which can be null. The name is written instead of the
+	 * ordinal so that enums can be changed without breaking the encoding.
+	 * Since the name is put into the dictionary it only takes a byte or two
+	 * after the first time.
+	 *
+	 * @param e
+	 */
+	public void writeEnum(Enum<?> e) {
+		writeString(e != null ? e.name() : null);
+	}
+
+	/**
+	 * Returns the encoded data
+	 *
+	 * @return copy of the encoded bytes
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Returns number of bytes encoded so far
+	 *
+	 * @return number of bytes
+	 */
+	public int size() {
+		return length;
+	}
+}
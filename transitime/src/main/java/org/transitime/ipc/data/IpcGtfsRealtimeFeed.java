@@ -0,0 +1,92 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.io.Serializable;
+
+/**
+ * A GTFS-realtime FeedMessage that has already been serialized into bytes by
+ * the server. This way the server only needs to serialize the feed when the
+ * data changes and the client can simply write out the bytes instead of having
+ * to build the protobuf message for each request.
+ * <p>
+ * The version identifies the state of the data so that a client can request
+ * just the differences since the version it already has.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcGtfsRealtimeFeed implements Serializable {
+
+	// Version of the data in the feed. Increases each time the data changes.
+	private final long version;
+
+	// True if feed only contains differences since a previous version
+	// (GTFS-realtime DIFFERENTIAL incrementality) instead of the full dataset.
+	private final boolean differential;
+
+	// When the feed was created, in epoch msec
+	private final long timeCreated;
+
+	// The serialized GTFS-realtime FeedMessage
+	private final byte[] feedMessageBytes;
+
+	private static final long serialVersionUID = -2817461957493178152L;
+
+	/********************** Member Functions **************************/
+
+	public IpcGtfsRealtimeFeed(long version, boolean differential,
+			long timeCreated, byte[] feedMessageBytes) {
+		this.version = version;
+		this.differential = differential;
+		this.timeCreated = timeCreated;
+		this.feedMessageBytes = feedMessageBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "IpcGtfsRealtimeFeed ["
+				+ "version=" + version
+				+ ", differential=" + differential
+				+ ", timeCreated=" + timeCreated
+				+ ", numBytes=" + feedMessageBytes.length
+				+ "]";
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isDifferential() {
+		return differential;
+	}
+
+	public long getTimeCreated() {
+		return timeCreated;
+	}
+
+	/**
+	 * Returns the serialized FeedMessage. Not copied for efficiency so the
+	 * caller must not modify the array.
+	 *
+	 * @return the serialized GTFS-realtime FeedMessage
+	 */
+	public byte[] getFeedMessageBytes() {
+		return feedMessageBytes;
+	}
+
+}
@@ -148,10 +148,11 @@ public class IpcPrediction implements Serializable {
 	}
 
 	/**
-	 * Constructor used for when deserializing a proxy object. Declared private
-	 * because only used internally by the proxy class.
+	 * Constructor used for when deserializing a proxy object or decoding
+	 * IpcDataCodec data. Declared package-private because only used
+	 * internally by this package.
 	 */
-	private IpcPrediction(String vehicleId, String routeId, String stopId,
+	IpcPrediction(String vehicleId, String routeId, String stopId,
 			int gtfsStopSeq, String tripId, String tripPatternId,
 			String blockId, long predictionTime, long actualPredictionTime,
 			boolean schedBasedPred, long avlTime, long creationTime,
@@ -184,6 +185,72 @@ public class IpcPrediction implements Serializable {
 		this.isArrival = isArrival;
 	}
 
+	/**
+	 * Writes this object using the compact IPC encoding. Corresponds to
+	 * decode(). Like for the SerializationProxy the actualPredictionTime and
+	 * the trip are not included since they are only for the server side.
+	 * 
+	 * @param encoder
+	 */
+	void encode(IpcDataEncoder encoder) {
+		encoder.writeString(vehicleId);
+		encoder.writeString(routeId);
+		encoder.writeString(stopId);
+		encoder.writeInt(gtfsStopSeq);
+		encoder.writeString(tripId);
+		encoder.writeString(tripPatternId);
+		encoder.writeString(blockId);
+		encoder.writeTime(predictionTime);
+		encoder.writeBoolean(schedBasedPred);
+		encoder.writeTime(avlTime);
+		encoder.writeTime(creationTime);
+		encoder.writeTime(tripStartEpochTime);
+		encoder.writeBoolean(affectedByWaitStop);
+		encoder.writeString(driverId);
+		encoder.writeInt(passengerCount);
+		encoder.writeFloat(passengerFullness);
+		encoder.writeBoolean(isArrival);
+		encoder.writeBoolean(isDelayed);
+		encoder.writeBoolean(lateAndSubsequentTripSoMarkAsUncertain);
+	}
+
+	/**
+	 * Reads in an object that was written using encode().
+	 * 
+	 * @param decoder
+	 * @return the new IpcPrediction
+	 * @throws IOException
+	 */
+	static IpcPrediction decode(IpcDataDecoder decoder) throws IOException {
+		String vehicleId = decoder.readString();
+		String routeId = decoder.readString();
+		String stopId = decoder.readString();
+		int gtfsStopSeq = decoder.readInt();
+		String tripId = decoder.readString();
+		String tripPatternId = decoder.readString();
+		String blockId = decoder.readString();
+		long predictionTime = decoder.readTime();
+		boolean schedBasedPred = decoder.readBoolean();
+		long avlTime = decoder.readTime();
+		long creationTime = decoder.readTime();
+		long tripStartEpochTime = decoder.readTime();
+		boolean affectedByWaitStop = decoder.readBoolean();
+		String driverId = decoder.readString();
+		short passengerCount = (short) decoder.readInt();
+		float passengerFullness = decoder.readFloat();
+		boolean isArrival = decoder.readBoolean();
+		boolean isDelayed = decoder.readBoolean();
+		boolean lateAndSubsequentTripSoMarkAsUncertain = 
+				decoder.readBoolean();
+		
+		return new IpcPrediction(vehicleId, routeId, stopId, gtfsStopSeq,
+				tripId, tripPatternId, blockId, predictionTime, 0,
+				schedBasedPred, avlTime, creationTime, tripStartEpochTime,
+				affectedByWaitStop, driverId, passengerCount,
+				passengerFullness, isDelayed,
+				lateAndSubsequentTripSoMarkAsUncertain, isArrival);
+	}
+
 	/**
 	 * SerializationProxy is used so that this class can be immutable and so
 	 * that can do versioning of objects.
@@ -22,7 +22,7 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 
 import org.transitime.applications.Core;
@@ -33,7 +33,13 @@ import org.transitime.db.structs.TripPattern;
 import org.transitime.utils.Geo;
 
 /**
- * Contains list of predictions for a route/stop/destination. 
+ * Contains list of predictions for a route/stop/destination.
+ * <p>
+ * On the server side objects of this class are immutable. When predictions
+ * change a new object is created via withPredictionsForVehicle() or
+ * withPredictionRemoved() and then published by PredictionDataCache. This
+ * way readers can simply use the objects without needing to synchronize or
+ * clone them.
  *
  * @author SkiBu Smith
  *
@@ -56,7 +62,8 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 	// For when providing predictions based on location
 	private final double distanceToStop;
 	
-	// The predictions associated with the route/stop
+	// The predictions associated with the route/stop. On the server side
+	// this is an unmodifiable list ordered by prediction time.
 	private final List<IpcPrediction> predictionsForRouteStop;
 
 	// How big the prediction arrays for the route/stops can be. Really doesn't
@@ -97,8 +104,7 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 		this.directionId = 
 				trip != null ? trip.getDirectionId() : null;
 		this.distanceToStop = distanceToStop;
-		this.predictionsForRouteStop = 
-				new ArrayList<IpcPrediction>(MAX_PREDICTIONS);
+		this.predictionsForRouteStop = Collections.emptyList();
 	}
 	
 	/**
@@ -127,54 +133,41 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 		this.headsign = tripPattern.getHeadsign();
 		this.directionId = tripPattern.getDirectionId();
 		this.distanceToStop = distanceToStop;
-		this.predictionsForRouteStop = new ArrayList<IpcPrediction>(0);
-
+		this.predictionsForRouteStop = Collections.emptyList();
 	}
 	
 	/**
-	 * Constructor for cloning a PredictionsForRouteStop object.
+	 * Constructor for copying a PredictionsForRouteStop object but with a
+	 * different list of predictions. Since the predictions are never modified
+	 * once the object is constructed the list is used directly instead of
+	 * being copied. Therefore the caller must not modify the list afterwards.
 	 * 
-	 * @param toClone
-	 * @param maxPredictionsPerStop
-	 * @param maxSystemTimeForPrediction
-	 *            Max point in future want predictions for. This way can limit
-	 *            predictions when requesting a large number of them.
+	 * @param toCopy
+	 * @param predictions
+	 *            The predictions for the new object
 	 * @param distanceFromStop
 	 *            For when getting predictions by location
 	 */
 	private IpcPredictionsForRouteStopDest(
-			IpcPredictionsForRouteStopDest toClone,
-			int maxPredictionsPerStop, long maxSystemTimeForPrediction, 
-			double distanceToStop) {
-		this.routeId = toClone.routeId;
-		this.routeShortName = toClone.routeShortName;
-		this.routeName = toClone.routeName;
-		this.routeOrder = toClone.routeOrder;
-		this.stopId = toClone.stopId;
-		this.stopName = toClone.stopName;
-		this.headsign = toClone.headsign;
-		this.directionId = toClone.directionId;
+			IpcPredictionsForRouteStopDest toCopy,
+			List<IpcPrediction> predictions, double distanceToStop) {
+		this.routeId = toCopy.routeId;
+		this.routeShortName = toCopy.routeShortName;
+		this.routeName = toCopy.routeName;
+		this.routeOrder = toCopy.routeOrder;
+		this.stopId = toCopy.stopId;
+		this.stopName = toCopy.stopName;
+		this.headsign = toCopy.headsign;
+		this.directionId = toCopy.directionId;
 		this.distanceToStop = distanceToStop;
-		
-		// Copy all the prediction info. Do while synchronized since another
-		// thread could otherwise be changing the data.
-		synchronized (toClone) {	
-			int size = Math.min(toClone.predictionsForRouteStop.size(),
-					maxPredictionsPerStop);
-			this.predictionsForRouteStop = new ArrayList<IpcPrediction>(size);			
-			for (int i=0; i<size; ++i) {
-				IpcPrediction prediction = toClone.predictionsForRouteStop.get(i);
-				// If prediction exceeds max time then done
-				if (prediction.getPredictionTime() > maxSystemTimeForPrediction)
-					break;
-				this.predictionsForRouteStop.add(i, prediction);
-			}
-		}
+		this.predictionsForRouteStop = 
+				Collections.unmodifiableList(predictions);
 	}
 	
 	/**
-	 * Constructor used for when deserializing a proxy object. Declared private
-	 * because only used internally by the proxy class.
+	 * Constructor used for when deserializing a proxy object or decoding
+	 * IpcDataCodec data. Declared package-private because only used
+	 * internally by this package.
 	 * 
 	 * @param routeId
 	 * @param routeShortName
@@ -187,7 +180,7 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 	 * @param distanceToStop
 	 * @param predictions
 	 */
-	private IpcPredictionsForRouteStopDest(String routeId,
+	IpcPredictionsForRouteStopDest(String routeId,
 			String routeShortName, String routeName, int routeOrder,
 			String stopId, String stopName, String destination,
 			String directionId, double distanceToStop,
@@ -235,7 +228,58 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 		this.headsign = null;
 		this.directionId = directionId;
 		this.distanceToStop = distanceToStop;
-		this.predictionsForRouteStop = new ArrayList<IpcPrediction>();
+		this.predictionsForRouteStop = Collections.emptyList();
+	}
+	
+	/**
+	 * Writes this object, including its predictions, using the compact IPC
+	 * encoding. Corresponds to decode().
+	 * 
+	 * @param encoder
+	 */
+	void encode(IpcDataEncoder encoder) {
+		encoder.writeString(routeId);
+		encoder.writeString(routeShortName);
+		encoder.writeString(routeName);
+		encoder.writeInt(routeOrder);
+		encoder.writeString(stopId);
+		encoder.writeString(stopName);
+		encoder.writeString(headsign);
+		encoder.writeString(directionId);
+		encoder.writeDouble(distanceToStop);
+		encoder.writeInt(predictionsForRouteStop.size());
+		for (IpcPrediction prediction : predictionsForRouteStop)
+			prediction.encode(encoder);
+	}
+
+	/**
+	 * Reads in an object that was written using encode().
+	 * 
+	 * @param decoder
+	 * @return the new IpcPredictionsForRouteStopDest
+	 * @throws IOException
+	 */
+	static IpcPredictionsForRouteStopDest decode(IpcDataDecoder decoder)
+			throws IOException {
+		String routeId = decoder.readString();
+		String routeShortName = decoder.readString();
+		String routeName = decoder.readString();
+		int routeOrder = decoder.readInt();
+		String stopId = decoder.readString();
+		String stopName = decoder.readString();
+		String headsign = decoder.readString();
+		String directionId = decoder.readString();
+		double distanceToStop = decoder.readDouble();
+		int numPredictions = decoder.readCount();
+		// Regular ArrayList, just like when deserializing
+		List<IpcPrediction> predictions =
+				new ArrayList<IpcPrediction>(numPredictions);
+		for (int i = 0; i < numPredictions; ++i)
+			predictions.add(IpcPrediction.decode(decoder));
+		
+		return new IpcPredictionsForRouteStopDest(routeId, routeShortName,
+				routeName, routeOrder, stopId, stopName, headsign,
+				directionId, distanceToStop, predictions);
 	}
 	
 	/**
@@ -270,7 +314,10 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 			this.headsign = p.headsign;
 			this.directionId = p.directionId;
 			this.distanceToStop = p.distanceToStop;
-			this.predictionsForRouteStop = p.predictionsForRouteStop;
+			// Serialize as a regular ArrayList, as has always been done, 
+			// instead of as the unmodifiable list used on the server side
+			this.predictionsForRouteStop = 
+					new ArrayList<IpcPrediction>(p.predictionsForRouteStop);
 		}
 
 		/*
@@ -355,9 +402,55 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 	}
 
 	/**
-	 * Gets a copy of this object. This is done with the object being
-	 * copied synchronized so that the predictions remain coherent. Limits
-	 * number of predictions to maxPredictionsPerStop.
+	 * Returns a version of this object that is limited to the predictions
+	 * specified by the parameters. Since this object is immutable, if no
+	 * predictions need to be filtered out and the distanceToStop is the same
+	 * then this object itself is returned. This means that usually no objects
+	 * need to be allocated when reading predictions.
+	 * 
+	 * @param currentTime
+	 *            Predictions before this time are expired and are not
+	 *            included. Use Long.MIN_VALUE to include all predictions.
+	 * @param maxPredictionsPerStop
+	 *            Won't include more then this number of predictions
+	 * @param maxSystemTimeForPrediction
+	 *            Max point in future want predictions for. This way can limit
+	 *            predictions when requesting a large number of them.
+	 * @param distanceToStop
+	 *            For when getting predictions by location
+	 * @return This object or a limited copy of it
+	 */
+	public IpcPredictionsForRouteStopDest getLimited(long currentTime,
+			int maxPredictionsPerStop, long maxSystemTimeForPrediction,
+			double distanceToStop) {
+		// Determine range of predictions to include
+		int size = predictionsForRouteStop.size();
+		int first = 0;
+		while (first < size && predictionsForRouteStop.get(first)
+				.getPredictionTime() < currentTime)
+			++first;
+		int last = first;
+		while (last < size && last - first < maxPredictionsPerStop
+				&& predictionsForRouteStop.get(last).getPredictionTime() 
+					<= maxSystemTimeForPrediction)
+			++last;
+		
+		// If nothing changes then can simply use this immutable object
+		boolean sameDistance = Double.compare(distanceToStop, 
+				this.distanceToStop) == 0;
+		if (first == 0 && last == size && sameDistance)
+			return this;
+		
+		return new IpcPredictionsForRouteStopDest(this,
+				new ArrayList<IpcPrediction>(
+						predictionsForRouteStop.subList(first, last)),
+				distanceToStop);
+	}
+	
+	/**
+	 * Gets a version of this object limited to maxPredictionsPerStop
+	 * predictions. Since this object is immutable it might be returned
+	 * directly instead of a copy.
 	 * 
 	 * @param maxPredictionsPerStop
 	 * @param distanceFromStop
@@ -366,19 +459,16 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 	 */
 	public IpcPredictionsForRouteStopDest getClone(int maxPredictionsPerStop,
 			double distanceToStop) {
-		// Get copy of predictions. Don't limit by how far predictions
-		// are into the future. Therefore maxPredictionTime set to
-		// Integer.MAX_VALUE and currentTime set to 0L because it 
-		// doesn't matter.
-		IpcPredictionsForRouteStopDest clone = new IpcPredictionsForRouteStopDest(this,
-				maxPredictionsPerStop, Long.MAX_VALUE, distanceToStop);
-		return clone;
+		// Don't limit by how far predictions are into the future or by
+		// whether they have expired.
+		return getLimited(Long.MIN_VALUE, maxPredictionsPerStop,
+				Long.MAX_VALUE, distanceToStop);
 	}
 	
 	/**
-	 * Gets a copy of this object. This is done with the object being copied
-	 * synchronized so that the predictions remain coherent. Limits number of
-	 * predictions to maxPredictionsPerStop.
+	 * Gets a version of this object limited to maxPredictionsPerStop
+	 * predictions and to maxSystemTimeForPrediction. Since this object is
+	 * immutable it might be returned directly instead of a copy.
 	 * 
 	 * @param maxPredictionsPerStop
 	 *            Won't copy more then this number of predictions
@@ -391,117 +481,82 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 	 */
 	public IpcPredictionsForRouteStopDest getClone(int maxPredictionsPerStop,
 			long maxSystemTimeForPrediction, double distanceToStop) {
-		IpcPredictionsForRouteStopDest clone = new IpcPredictionsForRouteStopDest(
-				this, maxPredictionsPerStop, maxSystemTimeForPrediction, distanceToStop);
-		return clone;
+		return getLimited(Long.MIN_VALUE, maxPredictionsPerStop,
+				maxSystemTimeForPrediction, distanceToStop);
 	}
 	
 	/**
-	 * Removes a prediction.
-	 * <p>
-	 * Not sure if really need to synchronize removal of predictions
-	 * from list since it is only a single operation. But synching
-	 * it is certainly the safe thing to do.
+	 * Returns a new object without the specified prediction. If the
+	 * prediction isn't there then this object is returned.
 	 * 
 	 * @param oldPrediction
+	 * @return object without the prediction
 	 */
-	public synchronized void removePrediction(IpcPrediction oldPrediction) {
-		predictionsForRouteStop.remove(oldPrediction);
-	}
-
-	/**
-	 * Removes predictions that are older than the current time. Useful for when
-	 * getting predictions. Synchronized because don't want predictions list to
-	 * be changing by another thread when removing predictions.
-	 * 
-	 * @param currentTime
-	 *            Should use PredictionDataCache.systemTime.get() so that works
-	 *            even when in playback mode.
-	 */
-	public synchronized void removeExpiredPredictions(long currentTime) {
-		Iterator<IpcPrediction> iterator = predictionsForRouteStop.iterator();
-		while (iterator.hasNext()) {
-			IpcPrediction currentPrediction = iterator.next();
-
-			// Remove predictions that are expired. It makes sense to do this 
-			// here when adding predictions since only need to take out 
-			// predictions if more are being added.
-			if (currentPrediction.getPredictionTime() < currentTime) {
-				iterator.remove();
-			} else {
-				// The subsequent predictions are later so if this one is
-				// into the future then the remaining ones are too. 
-				// Therefore done.
-				return;
-			}
-		}
+	public IpcPredictionsForRouteStopDest withPredictionRemoved(
+			IpcPrediction oldPrediction) {
+		int index = predictionsForRouteStop.indexOf(oldPrediction);
+		if (index < 0)
+			return this;
 		
+		List<IpcPrediction> newPredictions = 
+				new ArrayList<IpcPrediction>(predictionsForRouteStop);
+		newPredictions.remove(index);
+		return new IpcPredictionsForRouteStopDest(this, newPredictions,
+				distanceToStop);
 	}
-	
+
 	/**
-	 * Updates the predictions for this object with the new predictions for a
-	 * vehicle.
-	 * <p>
-	 * Synchronized because there are multiple steps in removing old predictions
-	 * and creating new ones.
+	 * Returns a new object where the predictions for the vehicle have been
+	 * replaced by the new predictions for the vehicle. Expired predictions
+	 * are also removed.
 	 * 
 	 * @param newPredsForRouteStopDest
 	 *            The new predictions for the vehicle
 	 * @param currentTime
 	 *            So can get rid of predictions that have expired.
+	 * @return the new object, or this object if there are no new predictions
 	 */
-	public synchronized void updatePredictionsForVehicle(
+	public IpcPredictionsForRouteStopDest withPredictionsForVehicle(
 			List<IpcPrediction> newPredsForRouteStopDest,
 			long currentTime) {
 		// If no predictions then nothing to do so return.
 		if (newPredsForRouteStopDest == null
 				|| newPredsForRouteStopDest.isEmpty())
-			return;
+			return this;
 	
 		// Determine which vehicle we are updating predictions for
 		String vehicleId = newPredsForRouteStopDest.get(0).getVehicleId();
 		
-		// Go through current predictions and get rid of existing ones for
-		// this vehicle or ones that have expired
-		Iterator<IpcPrediction> iterator = predictionsForRouteStop.iterator();
-		while (iterator.hasNext()) {
-			IpcPrediction currentPrediction = iterator.next();
-
-			// Remove existing predictions for this vehicle
-			if (currentPrediction.getVehicleId().equals(vehicleId)) {
-				iterator.remove();
-				continue;
-			}
-			
-			// Remove predictions that are expired. It makes sense to do this 
-			// here when adding predictions since only need to take out 
-			// predictions if more are being added.
-			if (currentPrediction.getPredictionTime() < currentTime) {
-				iterator.remove();
-				continue;
-			}
+		// Go through current predictions and only keep ones that are not for
+		// this vehicle and have not expired
+		List<IpcPrediction> predictions = 
+				new ArrayList<IpcPrediction>(MAX_PREDICTIONS);
+		for (IpcPrediction currentPrediction : predictionsForRouteStop) {
+			if (!currentPrediction.getVehicleId().equals(vehicleId)
+					&& currentPrediction.getPredictionTime() >= currentTime)
+				predictions.add(currentPrediction);
 		}
 
 		// Go through list and insert the new predictions into the 
 		// appropriate places
 		for (IpcPrediction newPredForRouteStop : newPredsForRouteStopDest) {
 			boolean insertedPrediction = false;
-			for (int i=0; i<predictionsForRouteStop.size(); ++i) {
+			for (int i=0; i<predictions.size(); ++i) {
 				// If the new prediction is before the previous prediction
 				// in currentPredsForRouteStop then insert it.
 				if (newPredForRouteStop.getPredictionTime() < 
-						predictionsForRouteStop.get(i).getPredictionTime()) {
+						predictions.get(i).getPredictionTime()) {
 					// Add the new prediction to the list. If the list already
 					// has the max number of predictions then first remove the
 					// last one so that the array doesn't need to grow to 
 					// accommodate the new one.
-					int arraySize = predictionsForRouteStop.size();
+					int arraySize = predictions.size();
 					if (arraySize == MAX_PREDICTIONS)
-						predictionsForRouteStop.remove(arraySize-1);
+						predictions.remove(arraySize-1);
 					
 					// Now that definitely have room, actually add the 
 					// prediction to the list
-					predictionsForRouteStop.add(i, newPredForRouteStop);
+					predictions.add(i, newPredForRouteStop);
 					insertedPrediction = true;
 					
 					// Done with the inner for loop so break out of loop
@@ -514,9 +569,8 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 			// existing ones then insert it onto the end if there is still
 			// some space in the array.
 			if (!insertedPrediction) {
-				if (predictionsForRouteStop.size() < MAX_PREDICTIONS) {
-					predictionsForRouteStop.add(predictionsForRouteStop.size(), 
-							newPredForRouteStop);
+				if (predictions.size() < MAX_PREDICTIONS) {
+					predictions.add(predictions.size(), newPredForRouteStop);
 				} else {
 					// Didn't insert prediction because it was greater than
 					// the others but there is no space at end. This means that
@@ -528,6 +582,9 @@ public class IpcPredictionsForRouteStopDest implements Serializable {
 				}
 			}
 		}
+		
+		return new IpcPredictionsForRouteStopDest(this, predictions,
+				distanceToStop);
 	}
 	
 	@Override
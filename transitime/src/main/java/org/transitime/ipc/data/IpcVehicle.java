@@ -69,6 +69,10 @@ public class IpcVehicle implements Serializable {
 	private final String nextStopId;
 	private final String nextStopName;
 	private final String vehicleType;
+	// Msec since preceding vehicle arrived at the last stop, or -1
+	private final long headwayMsec;
+	// Expected headway at the next stop, or -1
+	private final long predictedHeadwayMsec;
 	
 	private static final long serialVersionUID = -1744566765456572042L;
 
@@ -141,6 +145,9 @@ public class IpcVehicle implements Serializable {
 		this.schedBasedPred = vs.isForSchedBasedPreds();
 		this.realTimeSchedAdh = vs.getRealTimeSchedAdh();
 		this.isDelayed = vs.isDelayed();
+		this.headwayMsec = this.predictable ? vs.getHeadwayMsec() : -1;
+		this.predictedHeadwayMsec = 
+				this.predictable ? vs.getPredictedHeadwayMsec() : -1;
 	}
 
 	/**
@@ -167,6 +174,8 @@ public class IpcVehicle implements Serializable {
 	 * @param nextStopId
 	 * @param nextStopName
 	 * @param vehicleType
+	 * @param headwayMsec
+	 * @param predictedHeadwayMsec
 	 */
 	protected IpcVehicle(String blockId,
 			BlockAssignmentMethod blockAssignmentMethod, IpcAvl avl,
@@ -175,7 +184,8 @@ public class IpcVehicle implements Serializable {
 			String headsign, boolean predictable, boolean schedBasedPred,
 			TemporalDifference realTimeSchdAdh, boolean isDelayed,
 			boolean isLayover, long layoverDepartureTime, String nextStopId,
-			String nextStopName, String vehicleType) {
+			String nextStopName, String vehicleType, long headwayMsec,
+			long predictedHeadwayMsec) {
 		this.blockId = blockId;
 		this.blockAssignmentMethod = blockAssignmentMethod;
 		this.avl = avl;
@@ -195,6 +205,8 @@ public class IpcVehicle implements Serializable {
 		this.nextStopId = nextStopId;
 		this.nextStopName = nextStopName;
 		this.vehicleType = vehicleType;
+		this.headwayMsec = headwayMsec;
+		this.predictedHeadwayMsec = predictedHeadwayMsec;
 	}
 
 	/*
@@ -222,9 +234,12 @@ public class IpcVehicle implements Serializable {
 		protected String nextStopId;
 		protected String nextStopName;
 		protected String vehicleType;
+		protected long headwayMsec;
+		protected long predictedHeadwayMsec;
 
 		private static final long serialVersionUID = -4996254752417270043L;
-		private static final short currentSerializationVersion = 0;
+		// Version 1 added the headways
+		private static final short currentSerializationVersion = 1;
 
 		/*
 		 * Only to be used within this class.
@@ -249,6 +264,8 @@ public class IpcVehicle implements Serializable {
 			this.nextStopId = v.nextStopId;
 			this.nextStopName = v.nextStopName;
 			this.vehicleType = v.vehicleType;
+			this.headwayMsec = v.headwayMsec;
+			this.predictedHeadwayMsec = v.predictedHeadwayMsec;
 		}
 
 		/*
@@ -280,6 +297,8 @@ public class IpcVehicle implements Serializable {
 		    stream.writeObject(nextStopId);
 		    stream.writeObject(nextStopName);
 		    stream.writeObject(vehicleType);
+		    stream.writeLong(headwayMsec);
+		    stream.writeLong(predictedHeadwayMsec);
 		}
 
 		/*
@@ -318,6 +337,13 @@ public class IpcVehicle implements Serializable {
 			nextStopId = (String) stream.readObject();
 			nextStopName = (String) stream.readObject();
 			vehicleType = (String) stream.readObject();
+			if (readVersion >= 1) {
+				headwayMsec = stream.readLong();
+				predictedHeadwayMsec = stream.readLong();
+			} else {
+				headwayMsec = -1;
+				predictedHeadwayMsec = -1;
+			}
 		}
 
 		/*
@@ -331,7 +357,8 @@ public class IpcVehicle implements Serializable {
 					routeId, routeShortName, tripId, tripPatternId,
 					directionId, headsign, predictable, schedBasedPred,
 					realTimeSchdAdh, isDelayed, isLayover, layoverDepartureTime,
-					nextStopId, nextStopName, vehicleType);
+					nextStopId, nextStopName, vehicleType, headwayMsec,
+					predictedHeadwayMsec);
 		}
 	} // End of SerializationProxy class
 
@@ -478,6 +505,26 @@ public class IpcVehicle implements Serializable {
 		return vehicleType;		
 	}
 
+	/**
+	 * Returns msec between when the preceding vehicle and this vehicle
+	 * arrived at the last stop.
+	 * 
+	 * @return headway in msec, or -1 if not known
+	 */
+	public long getHeadwayMsec() {
+		return headwayMsec;
+	}
+
+	/**
+	 * Returns the expected msec between when the preceding vehicle and this
+	 * vehicle arrive at the next stop.
+	 * 
+	 * @return predicted headway in msec, or -1 if not known
+	 */
+	public long getPredictedHeadwayMsec() {
+		return predictedHeadwayMsec;
+	}
+
 	@Override
 	public String toString() {
 		return "IpcVehicle [" 
@@ -502,6 +549,8 @@ public class IpcVehicle implements Serializable {
 				+ ", avl=" + avl
 				+ ", heading=" + heading 
 				+ ", vehicleType=" + vehicleType
+				+ ", headwayMsec=" + headwayMsec
+				+ ", predictedHeadwayMsec=" + predictedHeadwayMsec
 				+ "]";
 	}
 
@@ -518,7 +567,7 @@ public class IpcVehicle implements Serializable {
 						BlockAssignmentMethod.AVL_FEED_BLOCK_ASSIGNMENT, avl,
 						123.456f, "routeId", "routeShortName", "tripId",
 						"tripPatternId", "dirId", "headsign", true, false,
-						null, false, false, 0, null, null, null);
+						null, false, false, 0, null, null, null, -1, -1);
 		try {
 			FileOutputStream fileOut = new FileOutputStream("foo.ser");
 			ObjectOutputStream outStream = new ObjectOutputStream(fileOut);
@@ -106,7 +106,9 @@ public class IpcVehicleComplete extends IpcVehicleGtfsRealtime {
 	}
 	
 	/**
-	 * Constructor used for when deserializing a proxy object. 
+	 * Constructor used for when deserializing a proxy object or decoding
+	 * IpcDataCodec data. Package-private because only used internally by
+	 * this package.
 	 *
 	 * @param blockId
 	 * @param blockAssignmentMethod
@@ -126,6 +128,8 @@ public class IpcVehicleComplete extends IpcVehicleGtfsRealtime {
 	 * @param nextStopId
 	 * @param nextStopName
 	 * @param vehicleType
+	 * @param headwayMsec
+	 * @param predictedHeadwayMsec
 	 * @param tripStartDateStr
 	 * @param atStop
 	 * @param atOrNextStopId
@@ -137,14 +141,15 @@ public class IpcVehicleComplete extends IpcVehicleGtfsRealtime {
 	 * @param distanceOfNextStopFromTripStart
 	 * @param distanceAlongTrip
 	 */
-	private IpcVehicleComplete(String blockId,
+	IpcVehicleComplete(String blockId,
 			BlockAssignmentMethod blockAssignmentMethod, IpcAvl avl,
 			float pathHeading, String routeId, String routeShortName,
 			String tripId, String tripPatternId, String directionId,
 			String headsign, boolean predictable, boolean schedBasedPred,
 			TemporalDifference realTimeSchdAdh, boolean isDelayed,
 			boolean isLayover, long layoverDepartureTime, String nextStopId,
-			String nextStopName, String vehicleType, long tripStartEpochTime,
+			String nextStopName, String vehicleType, long headwayMsec,
+			long predictedHeadwayMsec, long tripStartEpochTime,
 			boolean atStop, String atOrNextStopId, Integer atOrNextGtfsStopSeq,
 			String routeName, String originStopId, String destinationId,
 			double distanceToNextStop, double distanceOfNextStopFromTripStart,
@@ -153,7 +158,8 @@ public class IpcVehicleComplete extends IpcVehicleGtfsRealtime {
 				routeShortName, tripId, tripPatternId, directionId, headsign,
 				predictable, schedBasedPred, realTimeSchdAdh, isDelayed,
 				isLayover, layoverDepartureTime, nextStopId, nextStopName,
-				vehicleType, tripStartEpochTime, atStop, atOrNextStopId,
+				vehicleType, headwayMsec, predictedHeadwayMsec,
+				tripStartEpochTime, atStop, atOrNextStopId,
 				atOrNextGtfsStopSeq);
 
 		this.routeName = routeName;
@@ -164,6 +170,119 @@ public class IpcVehicleComplete extends IpcVehicleGtfsRealtime {
 		this.distanceAlongTrip = distanceAlongTrip;
 	}
 	
+	/**
+	 * Writes this object, including the info from the super classes, using
+	 * the compact IPC encoding. Corresponds to decode().
+	 * 
+	 * @param encoder
+	 */
+	void encode(IpcDataEncoder encoder) {
+		// IpcVehicle info
+		encoder.writeString(getBlockId());
+		encoder.writeEnum(getBlockAssignmentMethod());
+		getAvl().encode(encoder);
+		encoder.writeFloat(getHeading());
+		encoder.writeString(getRouteId());
+		encoder.writeString(getRouteShortName());
+		encoder.writeString(getTripId());
+		encoder.writeString(getTripPatternId());
+		encoder.writeString(getDirectionId());
+		encoder.writeString(getHeadsign());
+		encoder.writeBoolean(isPredictable());
+		encoder.writeBoolean(isForSchedBasedPred());
+		TemporalDifference realTimeSchdAdh = getRealTimeSchedAdh();
+		encoder.writeBoolean(realTimeSchdAdh != null);
+		if (realTimeSchdAdh != null)
+			encoder.writeInt(realTimeSchdAdh.getTemporalDifference());
+		encoder.writeBoolean(isDelayed());
+		encoder.writeBoolean(isLayover());
+		encoder.writeTime(getLayoverDepartureTime());
+		encoder.writeString(getNextStopId());
+		encoder.writeString(getNextStopName());
+		encoder.writeString(getVehicleType());
+		encoder.writeLong(getHeadwayMsec());
+		encoder.writeLong(getPredictedHeadwayMsec());
+		
+		// IpcVehicleGtfsRealtime info
+		encoder.writeTime(getTripStartEpochTime());
+		encoder.writeBoolean(isAtStop());
+		encoder.writeString(getAtOrNextStopId());
+		Integer atOrNextGtfsStopSeq = getAtOrNextGtfsStopSeq();
+		encoder.writeBoolean(atOrNextGtfsStopSeq != null);
+		if (atOrNextGtfsStopSeq != null)
+			encoder.writeInt(atOrNextGtfsStopSeq);
+		
+		// IpcVehicleComplete info
+		encoder.writeString(routeName);
+		encoder.writeString(originStopId);
+		encoder.writeString(destinationId);
+		encoder.writeDouble(distanceToNextStop);
+		encoder.writeDouble(distanceOfNextStopFromTripStart);
+		encoder.writeDouble(distanceAlongTrip);
+	}
+
+	/**
+	 * Reads in an object that was written using encode().
+	 * 
+	 * @param decoder
+	 * @return the new IpcVehicleComplete
+	 * @throws IOException
+	 */
+	static IpcVehicleComplete decode(IpcDataDecoder decoder)
+			throws IOException {
+		String blockId = decoder.readString();
+		BlockAssignmentMethod blockAssignmentMethod =
+				decoder.readEnum(BlockAssignmentMethod.class);
+		IpcAvl avl = IpcAvl.decode(decoder);
+		float heading = decoder.readFloat();
+		String routeId = decoder.readString();
+		String routeShortName = decoder.readString();
+		String tripId = decoder.readString();
+		String tripPatternId = decoder.readString();
+		String directionId = decoder.readString();
+		String headsign = decoder.readString();
+		boolean predictable = decoder.readBoolean();
+		boolean schedBasedPred = decoder.readBoolean();
+		TemporalDifference realTimeSchdAdh = decoder.readBoolean() ?
+				new TemporalDifference(decoder.readInt()) : null;
+		boolean isDelayed = decoder.readBoolean();
+		boolean isLayover = decoder.readBoolean();
+		long layoverDepartureTime = decoder.readTime();
+		String nextStopId = decoder.readString();
+		String nextStopName = decoder.readString();
+		String vehicleType = decoder.readString();
+		// Headways were added in version 1 of the codec
+		long headwayMsec = -1;
+		long predictedHeadwayMsec = -1;
+		if (decoder.getVersion() >= 1) {
+			headwayMsec = decoder.readLong();
+			predictedHeadwayMsec = decoder.readLong();
+		}
+		
+		long tripStartEpochTime = decoder.readTime();
+		boolean atStop = decoder.readBoolean();
+		String atOrNextStopId = decoder.readString();
+		Integer atOrNextGtfsStopSeq = decoder.readBoolean() ?
+				decoder.readInt() : null;
+		
+		String routeName = decoder.readString();
+		String originStopId = decoder.readString();
+		String destinationId = decoder.readString();
+		double distanceToNextStop = decoder.readDouble();
+		double distanceOfNextStopFromTripStart = decoder.readDouble();
+		double distanceAlongTrip = decoder.readDouble();
+		
+		return new IpcVehicleComplete(blockId, blockAssignmentMethod, avl,
+				heading, routeId, routeShortName, tripId, tripPatternId,
+				directionId, headsign, predictable, schedBasedPred,
+				realTimeSchdAdh, isDelayed, isLayover, layoverDepartureTime,
+				nextStopId, nextStopName, vehicleType, headwayMsec,
+				predictedHeadwayMsec, tripStartEpochTime, atStop,
+				atOrNextStopId, atOrNextGtfsStopSeq, routeName,
+				originStopId, destinationId, distanceToNextStop,
+				distanceOfNextStopFromTripStart, distanceAlongTrip);
+	}
+	
 	/*
 	 * SerializationProxy is used so that this class can be immutable and so
 	 * that can do versioning of objects.
@@ -254,7 +373,8 @@ public class IpcVehicleComplete extends IpcVehicleGtfsRealtime {
 					directionId, headsign, predictable, schedBasedPred,
 					realTimeSchdAdh, isDelayed, isLayover,
 					layoverDepartureTime, nextStopId, nextStopName,
-					vehicleType, tripStartEpochTime, atStop, atOrNextStopId,
+					vehicleType, headwayMsec, predictedHeadwayMsec,
+					tripStartEpochTime, atStop, atOrNextStopId,
 					atOrNextGtfsStopSeq, routeName, originStopId,
 					destinationId, distanceToNextStop,
 					distanceOfNextStopFromTripStart, distanceAlongTrip);
@@ -120,6 +120,8 @@ public class IpcVehicleGtfsRealtime extends IpcVehicle {
 	 * @param nextStopId
 	 * @param nextStopName
 	 * @param vehicleType
+	 * @param headwayMsec
+	 * @param predictedHeadwayMsec
 	 * @param atStopId
 	 * @param atOrNextStopId
 	 * @param atOrNextGtfsStopSeq
@@ -131,13 +133,14 @@ public class IpcVehicleGtfsRealtime extends IpcVehicle {
 			String headsign, boolean predictable, boolean schedBasedPred,
 			TemporalDifference realTimeSchdAdh, boolean isDelayed,
 			boolean isLayover, long layoverDepartureTime, String nextStopId,
-			String nextStopName, String vehicleType, long tripStartEpochTime,
+			String nextStopName, String vehicleType, long headwayMsec,
+			long predictedHeadwayMsec, long tripStartEpochTime,
 			boolean atStop, String atOrNextStopId, Integer atOrNextGtfsStopSeq) {
 		super(blockId, blockAssignmentMethod, avl, pathHeading, routeId,
 				routeShortName, tripId, tripPatternId, directionId, headsign,
 				predictable, schedBasedPred, realTimeSchdAdh, isDelayed,
 				isLayover, layoverDepartureTime, nextStopId, nextStopName,
-				vehicleType);
+				vehicleType, headwayMsec, predictedHeadwayMsec);
 		this.atStop = atStop;
 		this.atOrNextStopId = atOrNextStopId;
 		this.atOrNextGtfsStopSeq = atOrNextGtfsStopSeq;
@@ -224,7 +227,8 @@ public class IpcVehicleGtfsRealtime extends IpcVehicle {
 					tripPatternId, directionId, headsign, predictable,
 					schedBasedPred, realTimeSchdAdh, isDelayed, isLayover,
 					layoverDepartureTime, nextStopId, nextStopName,
-					vehicleType, tripStartEpochTime, atStop, atOrNextStopId,
+					vehicleType, headwayMsec, predictedHeadwayMsec,
+					tripStartEpochTime, atStop, atOrNextStopId,
 					atOrNextGtfsStopSeq);
 		}
 
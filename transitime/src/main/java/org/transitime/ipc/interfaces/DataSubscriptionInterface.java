@@ -0,0 +1,59 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.interfaces;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import org.transitime.ipc.data.IpcDataChanges;
+
+/**
+ * RMI interface for subscribing to the vehicle and prediction data of the
+ * core. A client first gets a full snapshot and then repeatedly requests the
+ * changes since the sequence number it already has. The request blocks on
+ * the server until there are changes, so the changes are pushed to the client
+ * as soon as they happen while each client only has a single call
+ * outstanding. This way clients such as API servers can keep a local replica
+ * of the data and serve requests from it without loading the core.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public interface DataSubscriptionInterface extends Remote {
+
+	/**
+	 * Returns the vehicles and predictions that changed since sinceSequence.
+	 * If there are no changes yet then waits up to maxWaitMsec for changes.
+	 * If coreInstanceId doesn't match the current core process, such as
+	 * when the client is first starting up or the core was restarted, then
+	 * a full snapshot is returned.
+	 *
+	 * @param coreInstanceId
+	 *            From the previous IpcDataChanges, or 0 if there is none
+	 * @param sinceSequence
+	 *            From the previous IpcDataChanges, or 0 if there is none
+	 * @param maxWaitMsec
+	 *            How long to wait for changes. Should be well below the RMI
+	 *            timeout.
+	 * @return The changes. Can be empty if there were no changes during
+	 *         maxWaitMsec.
+	 * @throws RemoteException
+	 */
+	public IpcDataChanges getChanges(long coreInstanceId, long sinceSequence,
+			int maxWaitMsec) throws RemoteException;
+
+}
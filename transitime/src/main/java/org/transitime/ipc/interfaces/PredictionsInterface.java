@@ -22,6 +22,7 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 import org.transitime.db.structs.Location;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
 
 /**
@@ -122,4 +123,33 @@ public interface PredictionsInterface extends Remote {
 	 */
 	public List<IpcPredictionsForRouteStopDest> getAllPredictions(
 			int predictionMaxFutureSecs) throws RemoteException;
+	
+	/**
+	 * Same as getAllPredictions() but the predictions are returned encoded
+	 * using the compact binary format of IpcDataCodec instead of being Java
+	 * serialized. Much more efficient for both the server and the client
+	 * since there are so many predictions. Use
+	 * IpcDataCodec.decodePredictions() to decode.
+	 * 
+	 * @param predictionMaxFutureSecs
+	 * @return Encoded PredictionsForRouteStop objects for the whole system
+	 * @throws RemoteException
+	 */
+	public byte[] getAllPredictionsEncoded(int predictionMaxFutureSecs)
+			throws RemoteException;
+	
+	/**
+	 * Returns the GTFS-realtime TripUpdates feed as an already serialized
+	 * FeedMessage. If sinceVersion is a version previously returned then a
+	 * DIFFERENTIAL feed with just the changes since then is returned if
+	 * possible. Otherwise the full dataset is returned.
+	 * 
+	 * @param sinceVersion
+	 *            Version that client already has, or -1 for the full dataset
+	 * @return The feed, or null if the core is not configured to maintain the
+	 *         TripUpdates
+	 * @throws RemoteException
+	 */
+	public IpcGtfsRealtimeFeed getGtfsRtTripUpdates(long sinceVersion)
+			throws RemoteException;
 }
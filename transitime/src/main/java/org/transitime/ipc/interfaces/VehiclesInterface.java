@@ -22,6 +22,7 @@ import java.rmi.RemoteException;
 import java.util.Collection;
 
 import org.transitime.ipc.data.IpcActiveBlock;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
 import org.transitime.ipc.data.IpcVehicleComplete;
 import org.transitime.ipc.data.IpcVehicleGtfsRealtime;
 import org.transitime.ipc.data.IpcVehicle;
@@ -75,6 +76,17 @@ public interface VehiclesInterface extends Remote {
 	 */
 	public Collection<IpcVehicleComplete> getComplete() throws RemoteException;
 
+	/**
+	 * Same as getComplete() but the vehicles are returned encoded using the
+	 * compact binary format of IpcDataCodec instead of being Java serialized.
+	 * Much more efficient for both the server and the client when there are
+	 * many vehicles. Use IpcDataCodec.decodeVehicles() to decode.
+	 * 
+	 * @return Encoded IpcVehicleComplete objects for all vehicles
+	 * @throws RemoteException
+	 */
+	public byte[] getCompleteEncoded() throws RemoteException;
+
 	/**
 	 * Gets from server IpcCompleteVehicle info for all vehicles.
 	 * 
@@ -84,6 +96,21 @@ public interface VehiclesInterface extends Remote {
 	public Collection<IpcVehicleGtfsRealtime> getGtfsRealtime()
 			throws RemoteException;
 
+	/**
+	 * Returns the GTFS-realtime VehiclePositions feed as an already
+	 * serialized FeedMessage. If sinceVersion is a version previously
+	 * returned then a DIFFERENTIAL feed with just the changes since then is
+	 * returned if possible. Otherwise the full dataset is returned.
+	 * 
+	 * @param sinceVersion
+	 *            Version that client already has, or -1 for the full dataset
+	 * @return The feed, or null if the core is not configured to maintain the
+	 *         VehiclePositions
+	 * @throws RemoteException
+	 */
+	public IpcGtfsRealtimeFeed getGtfsRtVehiclePositions(long sinceVersion)
+			throws RemoteException;
+
 	/**
 	 * Gets from server IpcVehicle info for specified vehicle.
 	 * 
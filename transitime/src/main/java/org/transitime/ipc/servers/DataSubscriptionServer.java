@@ -0,0 +1,114 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.servers;
+
+import java.rmi.RemoteException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.core.dataCache.DataChangeLog;
+import org.transitime.ipc.data.IpcDataChanges;
+import org.transitime.ipc.interfaces.DataSubscriptionInterface;
+import org.transitime.ipc.rmi.AbstractServer;
+
+/**
+ * Implements the DataSubscriptionInterface on the server side so that
+ * clients can subscribe to the vehicle and prediction changes recorded by
+ * DataChangeLog.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class DataSubscriptionServer extends AbstractServer
+	implements DataSubscriptionInterface {
+
+	// Should only be accessed as singleton class
+	private static DataSubscriptionServer singleton;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(DataSubscriptionServer.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Starts up the DataSubscriptionServer so that RMI calls can subscribe to
+	 * changes. This will automatically cause the object to continue to run
+	 * and serve requests.
+	 *
+	 * @param agencyId
+	 * @return the singleton DataSubscriptionServer object
+	 */
+	public static DataSubscriptionServer start(String agencyId) {
+		if (singleton == null) {
+			singleton = new DataSubscriptionServer(agencyId);
+		}
+
+		if (!singleton.getAgencyId().equals(agencyId)) {
+			logger.error("Tried calling DataSubscriptionServer.start() for "
+					+ "agencyId={} but the singleton was created for "
+					+ "agencyId={}", agencyId, singleton.getAgencyId());
+			return null;
+		}
+
+		return singleton;
+	}
+
+	/**
+	 * Constructor is private because singleton class
+	 *
+	 * @param agencyId
+	 */
+	private DataSubscriptionServer(String agencyId) {
+		super(agencyId, DataSubscriptionInterface.class.getSimpleName());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.DataSubscriptionInterface#getChanges(long, long, int)
+	 */
+	@Override
+	public IpcDataChanges getChanges(long coreInstanceId, long sinceSequence,
+			int maxWaitMsec) throws RemoteException {
+		return getChangesFromLog(coreInstanceId, sinceSequence, maxWaitMsec);
+	}
+
+	/**
+	 * Gets the changes from the DataChangeLog. Shared with
+	 * LocalDataSubscription.
+	 *
+	 * @param coreInstanceId
+	 * @param sinceSequence
+	 * @param maxWaitMsec
+	 * @return the changes
+	 * @throws RemoteException
+	 *             If subscriptions are not enabled or if interrupted
+	 */
+	static IpcDataChanges getChangesFromLog(long coreInstanceId,
+			long sinceSequence, int maxWaitMsec) throws RemoteException {
+		if (!DataChangeLog.isEnabled())
+			throw new RemoteException("Data subscriptions are not enabled "
+					+ "for this core. See transitime.subscription.enabled");
+
+		try {
+			return DataChangeLog.getInstance().getChanges(coreInstanceId,
+					sinceSequence, maxWaitMsec);
+		} catch (InterruptedException e) {
+			throw new RemoteException("Interrupted while waiting for changes",
+					e);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.servers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.RemoteException;
+
+import org.transitime.ipc.data.IpcDataChanges;
+import org.transitime.ipc.interfaces.DataSubscriptionInterface;
+
+/**
+ * An in-process stand-in for the DataSubscriptionServer. Gets the changes
+ * directly from the DataChangeLog of the core running in the same JVM
+ * instead of via RMI. Useful for testing a DataReplica, and for when the
+ * API is run in the same process as the core. The data is still passed
+ * through Java serialization, like RMI does, so that the encoding is
+ * exercised too.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class LocalDataSubscription implements DataSubscriptionInterface {
+
+	/********************** Member Functions **************************/
+
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.DataSubscriptionInterface#getChanges(long, long, int)
+	 */
+	@Override
+	public IpcDataChanges getChanges(long coreInstanceId, long sinceSequence,
+			int maxWaitMsec) throws RemoteException {
+		IpcDataChanges changes = DataSubscriptionServer.getChangesFromLog(
+				coreInstanceId, sinceSequence, maxWaitMsec);
+		return copy(changes);
+	}
+
+	/**
+	 * Returns a copy of the changes made by serializing and deserializing
+	 * them, like RMI does.
+	 *
+	 * @param changes
+	 * @return the copy
+	 * @throws RemoteException
+	 */
+	private static IpcDataChanges copy(IpcDataChanges changes)
+			throws RemoteException {
+		try {
+			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(byteStream);
+			out.writeObject(changes);
+			out.close();
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(byteStream.toByteArray()));
+			return (IpcDataChanges) in.readObject();
+		} catch (Exception e) {
+			throw new RemoteException("Could not copy " + changes, e);
+		}
+	}
+
+}
@@ -25,10 +25,13 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
+import org.transitime.core.dataCache.GtfsRtTripUpdatesCache;
 import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.db.structs.Location;
 import org.transitime.gtfs.StopsByLoc;
 import org.transitime.gtfs.StopsByLoc.StopInfo;
+import org.transitime.ipc.data.IpcDataCodec;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
 import org.transitime.ipc.interfaces.PredictionsInterface;
 import org.transitime.ipc.rmi.AbstractServer;
@@ -130,6 +133,26 @@ public class PredictionsServer
 				maxSystemTimeForPrediction);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.PredictionsInterface#getAllPredictionsEncoded(int)
+	 */
+	@Override
+	public byte[] getAllPredictionsEncoded(int predictionMaxFutureSecs) {
+		return IpcDataCodec.encodePredictions(
+				getAllPredictions(predictionMaxFutureSecs));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.PredictionsInterface#getGtfsRtTripUpdates(long)
+	 */
+	@Override
+	public IpcGtfsRealtimeFeed getGtfsRtTripUpdates(long sinceVersion) {
+		if (!GtfsRtTripUpdatesCache.isEnabled())
+			return null;
+
+		return GtfsRtTripUpdatesCache.getInstance().getFeed(sinceVersion);
+	}
+
 	// If stops are relatively close then should order routes based on route
 	// order instead of distance.
 	private static double DISTANCE_AT_WHICH_ROUTES_GROUPED = 150.0;
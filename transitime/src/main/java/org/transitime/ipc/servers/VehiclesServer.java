@@ -27,11 +27,14 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.core.BlocksInfo;
+import org.transitime.core.dataCache.GtfsRtVehiclePositionsCache;
 import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.db.structs.Block;
 import org.transitime.db.structs.Trip;
 import org.transitime.db.structs.VehicleConfig;
 import org.transitime.ipc.data.IpcBlock;
+import org.transitime.ipc.data.IpcDataCodec;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
 import org.transitime.ipc.data.IpcVehicleComplete;
 import org.transitime.ipc.data.IpcVehicleGtfsRealtime;
 import org.transitime.ipc.data.IpcVehicle;
@@ -117,6 +120,14 @@ public class VehiclesServer extends AbstractServer
 		return getCompleteSerializableCollection(vehicleDataCache.getVehicles());
 	}
 
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.VehiclesInterface#getCompleteEncoded()
+	 */
+	@Override
+	public byte[] getCompleteEncoded() throws RemoteException {
+		return IpcDataCodec.encodeVehicles(vehicleDataCache.getVehicles());
+	}
+
 	/* (non-Javadoc)
 	 * @see org.transitime.ipc.interfaces.VehiclesInterface#getGtfsRealtime()
 	 */
@@ -126,6 +137,18 @@ public class VehiclesServer extends AbstractServer
 		return getGtfsRealtimeSerializableCollection(vehicleDataCache.getVehicles());
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.VehiclesInterface#getGtfsRtVehiclePositions(long)
+	 */
+	@Override
+	public IpcGtfsRealtimeFeed getGtfsRtVehiclePositions(long sinceVersion)
+			throws RemoteException {
+		if (!GtfsRtVehiclePositionsCache.isEnabled())
+			return null;
+		
+		return GtfsRtVehiclePositionsCache.getInstance().getFeed(sinceVersion);
+	}
+	
 
 	/* (non-Javadoc)
 	 * @see org.transitime.ipc.interfaces.VehiclesInterface#get(java.lang.String)
@@ -19,6 +19,7 @@ package org.transitime.monitoring;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitime.avl.AvlExecutor;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.config.StringConfigValue;
 import org.transitime.core.AvlProcessor;
@@ -57,6 +58,11 @@ public class AvlFeedMonitor extends MonitorBase {
 					+ "should be e-mail when monitor state changes for AVL "
 					+ "feed.");
 
+	// For determining how many AVL reports were coalesced or dropped since
+	// the last time the monitor was run
+	private long lastNumCoalesced = 0;
+	private long lastNumDropped = 0;
+	
 	private static final Logger logger = LoggerFactory
 			.getLogger(AvlFeedMonitor.class);
 
@@ -108,11 +114,45 @@ public class AvlFeedMonitor extends MonitorBase {
 		}
 	}
 
+	/**
+	 * Saves metrics for the AvlExecutor queues so can see how much AVL data
+	 * is being coalesced or dropped because the system is getting behind.
+	 */
+	private void saveAvlQueueMetrics() {
+		AvlExecutor avlExecutor = AvlExecutor.getExistingInstance();
+		if (avlExecutor == null)
+			return;
+		
+		long numCoalesced = avlExecutor.getNumCoalesced();
+		long numDropped = avlExecutor.getNumDropped();
+		cloudwatchService.saveMetric("PredictionAvlQueueSize",
+				new Double(avlExecutor.getQueueSize()), 1,
+				CloudwatchService.MetricType.AVERAGE,
+				CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		cloudwatchService.saveMetric("PredictionAvlReportsCoalesced",
+				new Double(numCoalesced - lastNumCoalesced), 1,
+				CloudwatchService.MetricType.SUM,
+				CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		cloudwatchService.saveMetric("PredictionAvlReportsDropped",
+				new Double(numDropped - lastNumDropped), 1,
+				CloudwatchService.MetricType.SUM,
+				CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		lastNumCoalesced = numCoalesced;
+		lastNumDropped = numDropped;
+		
+		logger.debug("AvlExecutor queueSize={} numCoalesced={} "
+				+ "numDropped={}", avlExecutor.getQueueSize(), numCoalesced,
+				numDropped);
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.transitime.monitoring.MonitorBase#triggered()
 	 */
 	@Override
 	protected boolean triggered() {
+		// Keep track of how AVL queue is doing
+		saveAvlQueueMetrics();
+		
 		// Check AVL feed
 		int avlFeedOutageSecs = avlFeedOutageSecs();
 		return avlFeedOutageSecs != 0;
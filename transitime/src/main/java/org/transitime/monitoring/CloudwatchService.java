@@ -41,7 +41,7 @@ public class CloudwatchService {
         Integer reportingInterval;
         Long reportingIntervalInMillis;
         Date lastUpdate;
-        Collection<Double> data = new LinkedList<>();
+        Collection<Double> data = new ConcurrentLinkedQueue<>();
         Boolean formatAsPercent = false;
     }
 
@@ -96,6 +96,16 @@ public class CloudwatchService {
         return singleton;
     }
 
+    /**
+     * Returns true if the configuration needed for publishing to Cloudwatch
+     * was specified.
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
     /**
      *
      * Saves metric to local cache, to be reported to Cloudwatch by PublishMetricsTask
@@ -114,12 +124,13 @@ public class CloudwatchService {
             return;
 
         if(metricType == MetricType.SCALAR && reportingIntervalTimeUnit == ReportingIntervalTimeUnit.IMMEDIATE){
-            logger.info("adding individual metric to queue [{}]={}", metricName, metricValue);
+            logger.debug("adding individual metric to queue [{}]={}", metricName, metricValue);
             MetricScalar metricScalar = new MetricScalar();
             metricScalar.metricName = metricName;
             metricScalar.metricValue = metricValue;
             metricScalar.formatAsPercent = formatAsPercent;
-            individualMetricsQueue.add(metricScalar);
+            if (!individualMetricsQueue.offer(metricScalar))
+                logger.debug("individual metrics queue full so dropping [{}]", metricName);
             return;
         }
 
@@ -145,7 +156,7 @@ public class CloudwatchService {
                 metricDefinition.reportingIntervalInMillis = reportingInterval * 24l * 60l * 60l * 1000l;
             this.metricMap.put(metricName, metricDefinition);
         }
-        logger.info("saving metric for summarized publication to Cloudwatch [{}]={}", metricName, metricValue);
+        logger.debug("saving metric for summarized publication to Cloudwatch [{}]={}", metricName, metricValue);
         this.metricMap.get(metricName).data.add(metricValue);
     }
 
@@ -197,7 +208,7 @@ public class CloudwatchService {
             List<MetricScalar> records = new ArrayList<MetricScalar>();
             individualMetricsQueue.drainTo(records, _batchSize);
             for(MetricScalar metricScalar : records){
-                logger.info("Publishing individual metric [{}]={}", metricScalar.metricName, metricScalar.metricValue);
+                logger.debug("Publishing individual metric [{}]={}", metricScalar.metricName, metricScalar.metricValue);
                 if(metricScalar.formatAsPercent){
                     publishMetricAsPercent(metricScalar.metricName, metricScalar.metricValue);
                 }else{
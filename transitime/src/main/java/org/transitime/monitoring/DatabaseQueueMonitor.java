@@ -73,16 +73,20 @@ public class DatabaseQueueMonitor extends MonitorBase {
 			return false;
 		
 		DataDbLogger dbLogger = core.getDbLogger();
+		long journalSize = dbLogger.journalSize();
 		
 		setMessage("Database queue fraction=" 
 				+ StringUtils.twoDigitFormat(dbLogger.queueLevel())
 				+ " while max allowed fraction=" 
 				+ StringUtils.twoDigitFormat(maxQueueFraction.getValue()) 
 				+ ", and items in queue=" + dbLogger.queueSize()
-				+ ".",
+				+ ", and items in on-disk journal=" + journalSize 
+				+ " using " + dbLogger.journalBytesOnDisk() / 1024 / 1024 
+				+ "MB.",
 				dbLogger.queueLevel());
 
         cloudwatchService.saveMetric("PredictionDatabaseQueuePercentageLevel", dbLogger.queueLevel(), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+        cloudwatchService.saveMetric("PredictionDatabaseQueueJournalSize", (double) journalSize, 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
 		
 		// Determine the threshold for triggering. If already triggered
 		// then lower the threshold by maxQueueFractionGap in order
@@ -92,7 +96,9 @@ public class DatabaseQueueMonitor extends MonitorBase {
 		if (wasTriggered())
 			threshold -= maxQueueFractionGap.getValue();
 		
-		return dbLogger.queueLevel() > threshold; 
+		// Also triggered if objects had to overflow into the on-disk journal
+		// since that means that the db writes are backed up
+		return dbLogger.queueLevel() > threshold || journalSize > 0; 
 	}
 
 	/* (non-Javadoc)
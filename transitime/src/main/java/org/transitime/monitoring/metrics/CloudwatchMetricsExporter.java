@@ -0,0 +1,112 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.monitoring.CloudwatchService;
+import org.transitime.monitoring.CloudwatchService.MetricType;
+import org.transitime.monitoring.CloudwatchService.ReportingIntervalTimeUnit;
+
+/**
+ * Publishes the interval statistics of the latency timers to AWS Cloudwatch.
+ * Instead of sending a value for every AVL report, as was previously done,
+ * only the mean, 99th percentile and max for each interval are sent. Timers
+ * that had metrics in Cloudwatch before the MetricsRegistry was added keep
+ * their original names for their mean so that existing dashboards continue
+ * to work.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class CloudwatchMetricsExporter implements MetricsExporter {
+
+	private final CloudwatchService cloudwatchService;
+
+	// Timer name to name of the metric previously used for Cloudwatch
+	private static final Map<String, String> legacyNames =
+			new HashMap<String, String>();
+	static {
+		legacyNames.put("AvlProcessing", "PredictionProcessingTimeInMillis");
+		legacyNames.put("AvlTotalLatency", "PredictionTotalLatencyInMillis");
+	}
+
+	/********************** Config Params **************************/
+
+	private static BooleanConfigValue exportToCloudwatch =
+			new BooleanConfigValue("transitime.metrics.exportToCloudwatch",
+					true,
+					"Whether the metrics should be published to AWS "
+					+ "Cloudwatch. They are only published if Cloudwatch "
+					+ "is also enabled for CloudwatchService, so by default "
+					+ "deployments that already use Cloudwatch continue to "
+					+ "get PredictionProcessingTimeInMillis and "
+					+ "PredictionTotalLatencyInMillis. Set to false to not "
+					+ "publish the metrics even though Cloudwatch is "
+					+ "enabled.");
+
+	/********************** Member Functions **************************/
+
+	private CloudwatchMetricsExporter(CloudwatchService cloudwatchService) {
+		this.cloudwatchService = cloudwatchService;
+	}
+
+	/**
+	 * Adds a CloudwatchMetricsExporter to the MetricsRegistry if
+	 * CloudwatchService is enabled, unless the
+	 * transitime.metrics.exportToCloudwatch parameter is set to false.
+	 */
+	public static void start() {
+		if (!exportToCloudwatch.getValue())
+			return;
+
+		CloudwatchService cloudwatchService = CloudwatchService.getInstance();
+		if (!cloudwatchService.isEnabled())
+			return;
+
+		MetricsRegistry.getInstance().addExporter(
+				new CloudwatchMetricsExporter(cloudwatchService));
+	}
+
+	private void publish(String metricName, double value) {
+		if (Double.isNaN(value))
+			return;
+		cloudwatchService.saveMetric(metricName, value, 1, MetricType.SCALAR,
+				ReportingIntervalTimeUnit.IMMEDIATE, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.monitoring.metrics.MetricsExporter#export(org.transitime.monitoring.metrics.MetricsRegistry)
+	 */
+	@Override
+	public void export(MetricsRegistry registry) {
+		for (LatencyTimer timer : registry.getTimers()) {
+			LatencyTimer.IntervalStats stats = timer.getIntervalStats();
+			if (stats.getCount() == 0)
+				continue;
+
+			String name = timer.getName();
+			String legacyName = legacyNames.get(name);
+			publish(legacyName != null ? legacyName : name + "MeanMsec",
+					stats.getMeanMsec());
+			publish(name + "P99Msec", stats.getPercentile99Msec());
+			publish(name + "MaxMsec", stats.getMaxMsec());
+		}
+	}
+}
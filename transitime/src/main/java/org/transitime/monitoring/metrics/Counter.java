@@ -0,0 +1,89 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be incremented by many threads at once without them
+ * contending with each other. Each thread adds to one of several cells,
+ * chosen by thread ID, and the cells are spaced out so that they are in
+ * different cache lines. Reading the count sums the cells. This is the same
+ * idea as the Java 8 LongAdder, which can't be used since the code needs to
+ * run on Java 7.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class Counter implements CounterMXBean {
+
+	private final String name;
+
+	// Must be a power of 2
+	private static final int NUM_CELLS = 16;
+	// So that each cell is in its own 64 byte cache line
+	private static final int LONGS_PER_CELL = 8;
+
+	private final AtomicLongArray cells =
+			new AtomicLongArray(NUM_CELLS * LONGS_PER_CELL);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Declared package-private since counters should be created through
+	 * MetricsRegistry.
+	 *
+	 * @param name
+	 */
+	Counter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds to the count.
+	 *
+	 * @param value
+	 */
+	public void add(long value) {
+		int cell = (int) Thread.currentThread().getId() & (NUM_CELLS - 1);
+		cells.getAndAdd(cell * LONGS_PER_CELL, value);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.monitoring.metrics.CounterMXBean#getCount()
+	 */
+	@Override
+	public long getCount() {
+		long sum = 0;
+		for (int cell = 0; cell < NUM_CELLS; ++cell)
+			sum += cells.get(cell * LONGS_PER_CELL);
+		return sum;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return "Counter [name=" + name + ", count=" + getCount() + "]";
+	}
+}
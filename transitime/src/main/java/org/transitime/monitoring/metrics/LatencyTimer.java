@@ -0,0 +1,343 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * For recording how long a processing stage takes. The durations are kept
+ * in a histogram with log-linear buckets, like HdrHistogram: each power of
+ * two is split into 32 sub-buckets so that the value of any bucket is
+ * accurate to about 3%. Durations are recorded in microseconds and anything
+ * longer than about 38 hours goes into the last bucket.
+ * <p>
+ * Recording a duration only does a few atomic adds and so doesn't lock or
+ * create any objects. Every reporting interval MetricsRegistry calls
+ * rollInterval() so that the mean and percentiles returned are for the most
+ * recent interval instead of since the core was started.
+ * <p>
+ * Typical use is:
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * timer.recordSince(start);
+ * </pre>
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class LatencyTimer implements LatencyTimerMXBean {
+
+	private final String name;
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Largest exponent tracked. Larger values go into the last bucket.
+	private static final int MAX_EXPONENT = 36;
+	private static final long MAX_VALUE_MICROSECS = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int NUM_BUCKETS =
+			(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	// Cumulative bucket counts since started
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final Counter count;
+	private final Counter sumMicrosecs;
+	private final AtomicLong intervalMaxMicrosecs = new AtomicLong();
+
+	// Bucket counts at the end of the previous interval so that the values
+	// for an interval can be determined. Only accessed by rollInterval().
+	private final long[] previousBuckets = new long[NUM_BUCKETS];
+	private long previousCount;
+	private long previousSumMicrosecs;
+
+	// Results for the most recently completed interval. Volatile since
+	// written by the roll thread and read by JMX and exporter threads.
+	private volatile IntervalStats intervalStats = new IntervalStats();
+
+	/**
+	 * Statistics for a completed reporting interval. Immutable.
+	 */
+	public static class IntervalStats {
+		private final long count;
+		private final double meanMsec;
+		private final double medianMsec;
+		private final double percentile90Msec;
+		private final double percentile99Msec;
+		private final double maxMsec;
+
+		private IntervalStats() {
+			this(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+		}
+
+		private IntervalStats(long count, double meanMsec, double medianMsec,
+				double percentile90Msec, double percentile99Msec,
+				double maxMsec) {
+			this.count = count;
+			this.meanMsec = meanMsec;
+			this.medianMsec = medianMsec;
+			this.percentile90Msec = percentile90Msec;
+			this.percentile99Msec = percentile99Msec;
+			this.maxMsec = maxMsec;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanMsec() {
+			return meanMsec;
+		}
+
+		public double getMedianMsec() {
+			return medianMsec;
+		}
+
+		public double getPercentile90Msec() {
+			return percentile90Msec;
+		}
+
+		public double getPercentile99Msec() {
+			return percentile99Msec;
+		}
+
+		public double getMaxMsec() {
+			return maxMsec;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Declared package-private since timers should be created through
+	 * MetricsRegistry.
+	 *
+	 * @param name
+	 */
+	LatencyTimer(String name) {
+		this.name = name;
+		this.count = new Counter(name + ".count");
+		this.sumMicrosecs = new Counter(name + ".sum");
+	}
+
+	/**
+	 * Returns the bucket index for the value.
+	 *
+	 * @param microsecs
+	 * @return
+	 */
+	static int bucketIndex(long microsecs) {
+		if (microsecs < SUB_BUCKETS)
+			return (int) microsecs;
+		if (microsecs > MAX_VALUE_MICROSECS)
+			microsecs = MAX_VALUE_MICROSECS;
+		int exponent = 63 - Long.numberOfLeadingZeros(microsecs);
+		int subBucket = (int) (microsecs >>> (exponent - SUB_BUCKET_BITS))
+				& (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the lowest value that goes into the bucket.
+	 *
+	 * @param index
+	 * @return
+	 */
+	static long bucketLowerBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * Returns the value in the middle of the bucket, which is used as the
+	 * value of all of the samples in the bucket.
+	 *
+	 * @param index
+	 * @return
+	 */
+	static double bucketMidpoint(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		long lower = bucketLowerBound(index);
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return lower + (width - 1) / 2.0;
+	}
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanosecs
+	 */
+	public void record(long nanosecs) {
+		long microsecs = nanosecs < 0 ? 0 : nanosecs / 1000;
+		buckets.getAndIncrement(bucketIndex(microsecs));
+		count.increment();
+		sumMicrosecs.add(microsecs);
+
+		long max = intervalMaxMicrosecs.get();
+		while (microsecs > max
+				&& !intervalMaxMicrosecs.compareAndSet(max, microsecs))
+			max = intervalMaxMicrosecs.get();
+	}
+
+	/**
+	 * Records a duration that was determined in msec, such as the latency
+	 * between the time of an AVL report and when it was processed.
+	 *
+	 * @param msec
+	 */
+	public void recordMsec(long msec) {
+		record(msec * 1000000L);
+	}
+
+	/**
+	 * Records the time elapsed since startNanosecs, which should have been
+	 * obtained from System.nanoTime().
+	 *
+	 * @param startNanosecs
+	 */
+	public void recordSince(long startNanosecs) {
+		record(System.nanoTime() - startNanosecs);
+	}
+
+	/**
+	 * Determines the value at the specified percentile for the interval
+	 * from the bucket counts.
+	 *
+	 * @param intervalBuckets
+	 * @param intervalCount
+	 * @param percentile
+	 *            between 0.0 and 100.0
+	 * @return value in msec
+	 */
+	private static double percentileMsec(long[] intervalBuckets,
+			long intervalCount, double percentile) {
+		long target = (long) Math.ceil(intervalCount * percentile / 100.0);
+		if (target < 1)
+			target = 1;
+		long cumulative = 0;
+		for (int i = 0; i < intervalBuckets.length; ++i) {
+			cumulative += intervalBuckets[i];
+			if (cumulative >= target)
+				return bucketMidpoint(i) / 1000.0;
+		}
+		return bucketMidpoint(intervalBuckets.length - 1) / 1000.0;
+	}
+
+	/**
+	 * Completes the current reporting interval by determining the statistics
+	 * for the samples recorded since the previous call. Should only be
+	 * called by a single thread, the MetricsRegistry interval thread.
+	 * Samples recorded while this is running might have their count
+	 * reported in one interval and their bucket in another, which doesn't
+	 * matter for monitoring.
+	 */
+	synchronized void rollInterval() {
+		long[] intervalBuckets = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			long current = buckets.get(i);
+			intervalBuckets[i] = current - previousBuckets[i];
+			previousBuckets[i] = current;
+		}
+		long currentCount = count.getCount();
+		long currentSum = sumMicrosecs.getCount();
+		long intervalCount = currentCount - previousCount;
+		long intervalSum = currentSum - previousSumMicrosecs;
+		previousCount = currentCount;
+		previousSumMicrosecs = currentSum;
+		long maxMicrosecs = intervalMaxMicrosecs.getAndSet(0);
+
+		if (intervalCount <= 0) {
+			intervalStats = new IntervalStats();
+			return;
+		}
+
+		intervalStats = new IntervalStats(intervalCount,
+				intervalSum / 1000.0 / intervalCount,
+				percentileMsec(intervalBuckets, intervalCount, 50.0),
+				percentileMsec(intervalBuckets, intervalCount, 90.0),
+				percentileMsec(intervalBuckets, intervalCount, 99.0),
+				maxMicrosecs / 1000.0);
+	}
+
+	/**
+	 * @return Statistics for the most recently completed interval
+	 */
+	public IntervalStats getIntervalStats() {
+		return intervalStats;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.monitoring.metrics.LatencyTimerMXBean#getCount()
+	 */
+	@Override
+	public long getCount() {
+		return count.getCount();
+	}
+
+	@Override
+	public long getIntervalCount() {
+		return intervalStats.getCount();
+	}
+
+	@Override
+	public double getIntervalMeanMsec() {
+		return intervalStats.getMeanMsec();
+	}
+
+	@Override
+	public double getIntervalMedianMsec() {
+		return intervalStats.getMedianMsec();
+	}
+
+	@Override
+	public double getInterval90thPercentileMsec() {
+		return intervalStats.getPercentile90Msec();
+	}
+
+	@Override
+	public double getInterval99thPercentileMsec() {
+		return intervalStats.getPercentile99Msec();
+	}
+
+	@Override
+	public double getIntervalMaxMsec() {
+		return intervalStats.getMaxMsec();
+	}
+
+	@Override
+	public String toString() {
+		IntervalStats stats = intervalStats;
+		return "LatencyTimer [name=" + name
+				+ ", count=" + getCount()
+				+ ", intervalCount=" + stats.getCount()
+				+ ", meanMsec=" + stats.getMeanMsec()
+				+ ", medianMsec=" + stats.getMedianMsec()
+				+ ", p90Msec=" + stats.getPercentile90Msec()
+				+ ", p99Msec=" + stats.getPercentile99Msec()
+				+ ", maxMsec=" + stats.getMaxMsec()
+				+ "]";
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+/**
+ * The JMX interface for a LatencyTimer. Other than getCount() the values
+ * are for the most recently completed reporting interval.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public interface LatencyTimerMXBean {
+
+	/**
+	 * @return Total number of samples since the core was started
+	 */
+	public long getCount();
+
+	public long getIntervalCount();
+
+	public double getIntervalMeanMsec();
+
+	public double getIntervalMedianMsec();
+
+	public double getInterval90thPercentileMsec();
+
+	public double getInterval99thPercentileMsec();
+
+	public double getIntervalMaxMsec();
+}
@@ -0,0 +1,37 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+/**
+ * For sending the metrics to an external system. Registered with
+ * MetricsRegistry.addExporter() and called on the metrics thread at the end
+ * of each reporting interval, after the interval statistics of all of the
+ * timers have been updated.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public interface MetricsExporter {
+
+	/**
+	 * Called at the end of each reporting interval.
+	 *
+	 * @param registry
+	 *            For accessing the counters and timers
+	 */
+	public void export(MetricsRegistry registry);
+}
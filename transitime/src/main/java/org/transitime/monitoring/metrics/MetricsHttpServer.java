@@ -0,0 +1,95 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal HTTP server that returns the metrics from MetricsRegistry as
+ * plain text at /metrics. Only listens on the loopback interface since it is
+ * intended for local monitoring tools and not for the public. Uses the HTTP
+ * server that comes with the JDK so that no web container is needed in the
+ * core.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class MetricsHttpServer {
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(MetricsHttpServer.class);
+
+	/********************** Config Params **************************/
+
+	private static IntegerConfigValue httpPort =
+			new IntegerConfigValue("transitime.metrics.httpPort",
+					0,
+					"Port on the loopback interface where the metrics are "
+					+ "available as text at /metrics. Set to 0 to not "
+					+ "start the HTTP server.");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Starts the HTTP server if the transitime.metrics.httpPort parameter is
+	 * set. Problems are logged but do not prevent the core from running.
+	 */
+	public static void start() {
+		int port = httpPort.getValue();
+		if (port <= 0)
+			return;
+
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					byte[] body = MetricsRegistry.getInstance().toText()
+							.getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type",
+							"text/plain; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					try (OutputStream os = exchange.getResponseBody()) {
+						os.write(body);
+					}
+				}
+			});
+			server.setExecutor(Executors.newSingleThreadExecutor(
+					new NamedThreadFactory("MetricsHttpServer")));
+			server.start();
+			logger.info("Started metrics HTTP server on port {}", port);
+		} catch (IOException e) {
+			logger.error("Could not start metrics HTTP server on port {}. {}",
+					port, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.logging.Markers;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * Holds the counters and latency timers for the core. Metrics are created
+ * on first use by name and then kept for the life of the process, so callers
+ * should look them up once and keep them in a static member:
+ * <pre>
+ * private static final LatencyTimer timer =
+ *         MetricsRegistry.getInstance().getTimer("SpatialMatching");
+ * </pre>
+ * Each metric is registered as an MXBean so that it can be viewed using
+ * JConsole or any other JMX client. The metrics can also be read as text
+ * from MetricsHttpServer. Every reporting interval the timers compute their
+ * interval statistics and then the exporters, such as
+ * CloudwatchMetricsExporter, are called.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class MetricsRegistry {
+
+	private final ConcurrentMap<String, Counter> counters =
+			new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, LatencyTimer> timers =
+			new ConcurrentHashMap<String, LatencyTimer>();
+	private final List<MetricsExporter> exporters =
+			new CopyOnWriteArrayList<MetricsExporter>();
+
+	private ScheduledExecutorService executor;
+
+	private static final MetricsRegistry singleton = new MetricsRegistry();
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(MetricsRegistry.class);
+
+	/********************** Config Params **************************/
+
+	private static IntegerConfigValue intervalSecs =
+			new IntegerConfigValue("transitime.metrics.intervalSecs",
+					60,
+					"How frequently the interval statistics of the latency "
+					+ "timers are computed and the metrics are exported.");
+
+	private static BooleanConfigValue registerWithJmx =
+			new BooleanConfigValue("transitime.metrics.registerWithJmx",
+					true,
+					"Whether the metrics should be registered with the "
+					+ "platform MBeanServer so that they can be viewed "
+					+ "via JMX.");
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor declared private since singleton class
+	 */
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * Returns the singleton MetricsRegistry
+	 *
+	 * @return
+	 */
+	public static MetricsRegistry getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Registers the metric with the platform MBeanServer. Problems are only
+	 * logged since metrics are not critical.
+	 *
+	 * @param name
+	 * @param metric
+	 */
+	private void registerMBean(String name, Object metric) {
+		if (!registerWithJmx.getValue())
+			return;
+
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(
+					"org.transitime:type=Metrics,name="
+							+ ObjectName.quote(name));
+			if (!mbs.isRegistered(objectName))
+				mbs.registerMBean(metric, objectName);
+		} catch (Exception e) {
+			logger.error("Could not register metric {} with JMX. {}",
+					name, e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the timer with the specified name, creating it if it doesn't
+	 * yet exist.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public LatencyTimer getTimer(String name) {
+		LatencyTimer timer = timers.get(name);
+		if (timer == null) {
+			LatencyTimer newTimer = new LatencyTimer(name);
+			timer = timers.putIfAbsent(name, newTimer);
+			if (timer == null) {
+				timer = newTimer;
+				registerMBean(name, timer);
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * Returns the counter with the specified name, creating it if it doesn't
+	 * yet exist.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Counter getCounter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter newCounter = new Counter(name);
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+				registerMBean(name, counter);
+			}
+		}
+		return counter;
+	}
+
+	public Collection<LatencyTimer> getTimers() {
+		return timers.values();
+	}
+
+	public Collection<Counter> getCounters() {
+		return counters.values();
+	}
+
+	/**
+	 * Adds an exporter that is called at the end of each reporting interval.
+	 *
+	 * @param exporter
+	 */
+	public void addExporter(MetricsExporter exporter) {
+		exporters.add(exporter);
+	}
+
+	/**
+	 * Completes the reporting interval for all of the timers and then calls
+	 * the exporters.
+	 */
+	private void rollInterval() {
+		for (LatencyTimer timer : timers.values())
+			timer.rollInterval();
+
+		for (MetricsExporter exporter : exporters) {
+			try {
+				exporter.export(this);
+			} catch (Exception e) {
+				logger.error(Markers.email(),
+						"Exception when exporting metrics using {}. {}",
+						exporter.getClass().getSimpleName(), e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Starts the thread that rolls the reporting interval. Should be called
+	 * once when the core starts up. Subsequent calls do nothing.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+
+		// Use daemon thread so that the metrics don't keep the process alive
+		final ThreadFactory namedThreadFactory =
+				new NamedThreadFactory(getClass().getSimpleName());
+		executor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = namedThreadFactory.newThread(r);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		int secs = intervalSecs.getValue();
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				rollInterval();
+			}
+		}, secs, secs, TimeUnit.SECONDS);
+		logger.info("Started metrics registry with interval of {} secs",
+				secs);
+	}
+
+	/**
+	 * Returns the current values of all the metrics as text, one metric per
+	 * line, sorted by name. Used by MetricsHttpServer and for logging.
+	 *
+	 * @return
+	 */
+	public String toText() {
+		List<String> lines = new ArrayList<String>();
+		for (Counter counter : counters.values())
+			lines.add(counter.getName() + " count=" + counter.getCount());
+		for (LatencyTimer timer : timers.values()) {
+			LatencyTimer.IntervalStats stats = timer.getIntervalStats();
+			lines.add(String.format(
+					"%s count=%d intervalCount=%d meanMsec=%.3f "
+					+ "medianMsec=%.3f p90Msec=%.3f p99Msec=%.3f "
+					+ "maxMsec=%.3f",
+					timer.getName(), timer.getCount(), stats.getCount(),
+					stats.getMeanMsec(), stats.getMedianMsec(),
+					stats.getPercentile90Msec(), stats.getPercentile99Msec(),
+					stats.getMaxMsec()));
+		}
+		Collections.sort(lines);
+
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines)
+			sb.append(line).append('\n');
+		return sb.toString();
+	}
+}
@@ -29,14 +29,21 @@ import org.transitime.db.structs.Vector;
  */
 public class Geo {
 
+	// DecimalFormat is not thread safe and these are used by multiple
+	// threads, such as when processing GTFS stop paths in parallel, so each
+	// thread gets its own.
+	
 	// So can output latitudes and longitudes with a consistent number of decimal places
-	private static final DecimalFormat geoFormat = new DecimalFormat("0.00000");
+	private static final ThreadLocal<DecimalFormat> geoFormat = 
+			createThreadLocalFormat("0.00000");
 	
 	// So can output distances and such with a consistent number of decimal places
-	private static final DecimalFormat twoDigitFormat = new DecimalFormat("0.00");
+	private static final ThreadLocal<DecimalFormat> twoDigitFormat = 
+			createThreadLocalFormat("0.00");
 	
 	// So can output headings and such with a consistent number of decimal places
-	private static final DecimalFormat oneDigitFormat = new DecimalFormat("0.0");
+	private static final ThreadLocal<DecimalFormat> oneDigitFormat = 
+			createThreadLocalFormat("0.0");
 	
 	// For converting kilometers per hour to meters per second
 	public static final float KPH_TO_MPS = 0.277778f;
@@ -47,11 +54,27 @@ public class Geo {
 	
 	public static final double RADIUS_OF_EARTH_IN_METERS = 6371000;
 	
+	/**
+	 * Creates a ThreadLocal so that each thread has its own DecimalFormat.
+	 * 
+	 * @param pattern
+	 * @return the ThreadLocal
+	 */
+	private static ThreadLocal<DecimalFormat> createThreadLocalFormat(
+			final String pattern) {
+		return new ThreadLocal<DecimalFormat>() {
+			@Override
+			protected DecimalFormat initialValue() {
+				return new DecimalFormat(pattern);
+			}
+		};
+	}
+	
 	/**
 	 * For formatting latitudes and longitudes to consistent 5 decimal places
 	 */
 	public static String format(double arg) {
-		return geoFormat.format(arg);
+		return geoFormat.get().format(arg);
 	}
 	
 	/**
@@ -70,7 +93,7 @@ public class Geo {
 		
 		// Not a special case so output the value with just two digits
 		// past decimal place and append "m" to indicate meters.
-		return twoDigitFormat.format(arg) + "m";
+		return twoDigitFormat.get().format(arg) + "m";
 	}
 
 	/**
@@ -82,7 +105,7 @@ public class Geo {
 	 * @return
 	 */
 	public static String oneDigitFormat(double value) {
-		return oneDigitFormat.format(value);
+		return oneDigitFormat.get().format(value);
 	}
 	
 	/**
@@ -97,7 +120,7 @@ public class Geo {
 		if (Float.isNaN(arg))
 			return "NaN";
 		
-		return oneDigitFormat.format(arg) + " deg";
+		return oneDigitFormat.get().format(arg) + " deg";
 	}
 	
 	/**
@@ -112,7 +135,7 @@ public class Geo {
 		if (Float.isNaN(arg))
 			return "NaN";
 
-		return oneDigitFormat.format(arg) + "m/s";
+		return oneDigitFormat.get().format(arg) + "m/s";
 	}
 	
 	public static float converKmPerHrToMetersPerSecond(float kmPerHr) {
@@ -0,0 +1,215 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.transitime.db.structs.Location;
+
+/**
+ * A simple spatial index that divides the area into a grid of square cells of
+ * a fixed size. Items are added to each cell that their bounding box overlaps.
+ * Can then quickly find the items that might be within a distance of a
+ * location by only looking at the cells near that location. The cost of a
+ * query is therefore proportional to the amount of data near the location
+ * instead of to the total amount of data.
+ * <p>
+ * Uses an equirectangular projection with the longitude scale determined by a
+ * reference latitude. This is accurate enough for the area covered by an
+ * agency. To make sure that no items are missed the query distance is
+ * increased slightly to account for the small errors in the projection.
+ * <p>
+ * Not thread safe while items are being added. Once all items have been added
+ * the grid can be safely read by multiple threads.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class GeoGrid<T> {
+
+	// Size of each cell in meters
+	private final double cellSizeMeters;
+
+	// For converting degrees to cell indices
+	private final double latCellsPerDegree;
+	private final double lonCellsPerDegree;
+
+	// The cells that have data. Keyed on the combined lat/lon cell index
+	private final Map<Long, List<T>> cells = new HashMap<Long, List<T>>();
+
+	// Number of items added to the grid
+	private int size = 0;
+
+	// Meters per degree of latitude
+	private static final double METERS_PER_DEGREE =
+			Math.toRadians(1.0) * Geo.RADIUS_OF_EARTH_IN_METERS;
+
+	// Extra margin for query distances to make up for the projection not
+	// being perfect for locations far from the reference latitude
+	private static final double DISTANCE_MARGIN = 1.1;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor.
+	 *
+	 * @param referenceLat
+	 *            Latitude, such as center of the agency, used for determining
+	 *            the scale of longitude
+	 * @param cellSizeMeters
+	 *            Size of each square cell. Should be on the order of the
+	 *            distance that is typically used for queries.
+	 */
+	public GeoGrid(double referenceLat, double cellSizeMeters) {
+		this.cellSizeMeters = cellSizeMeters;
+		this.latCellsPerDegree = METERS_PER_DEGREE / cellSizeMeters;
+		this.lonCellsPerDegree = METERS_PER_DEGREE
+				* Math.cos(Math.toRadians(referenceLat)) / cellSizeMeters;
+	}
+
+	private int latCell(double lat) {
+		return (int) Math.floor(lat * latCellsPerDegree);
+	}
+
+	private int lonCell(double lon) {
+		return (int) Math.floor(lon * lonCellsPerDegree);
+	}
+
+	private static Long key(int latCell, int lonCell) {
+		return (((long) latCell) << 32) | (lonCell & 0xffffffffL);
+	}
+
+	/**
+	 * Adds the item to each cell within the bounding box specified.
+	 *
+	 * @param minLatCell
+	 * @param maxLatCell
+	 * @param minLonCell
+	 * @param maxLonCell
+	 * @param item
+	 */
+	private void addToCells(int minLatCell, int maxLatCell, int minLonCell,
+			int maxLonCell, T item) {
+		for (int latCell = minLatCell; latCell <= maxLatCell; ++latCell) {
+			for (int lonCell = minLonCell; lonCell <= maxLonCell; ++lonCell) {
+				Long key = key(latCell, lonCell);
+				List<T> itemsForCell = cells.get(key);
+				if (itemsForCell == null) {
+					itemsForCell = new ArrayList<T>(4);
+					cells.put(key, itemsForCell);
+				}
+				itemsForCell.add(item);
+			}
+		}
+		++size;
+	}
+
+	/**
+	 * Adds an item located at a single location, such as a stop.
+	 *
+	 * @param loc
+	 * @param item
+	 */
+	public void add(Location loc, T item) {
+		int latCell = latCell(loc.getLat());
+		int lonCell = lonCell(loc.getLon());
+		addToCells(latCell, latCell, lonCell, lonCell, item);
+	}
+
+	/**
+	 * Adds an item that spans between two locations, such as a path segment.
+	 * The item is added to all cells overlapped by the bounding box of the
+	 * two locations.
+	 *
+	 * @param l1
+	 * @param l2
+	 * @param item
+	 */
+	public void add(Location l1, Location l2, T item) {
+		int latCell1 = latCell(l1.getLat());
+		int latCell2 = latCell(l2.getLat());
+		int lonCell1 = lonCell(l1.getLon());
+		int lonCell2 = lonCell(l2.getLon());
+		addToCells(Math.min(latCell1, latCell2), Math.max(latCell1, latCell2),
+				Math.min(lonCell1, lonCell2), Math.max(lonCell1, lonCell2),
+				item);
+	}
+
+	/**
+	 * Returns the items in the cells that are within the specified distance of
+	 * the location. The items returned are only candidates since they can be
+	 * further away than the distance. The caller needs to determine the actual
+	 * distance to each item. Since an item can be in multiple cells the list
+	 * can contain duplicates.
+	 *
+	 * @param loc
+	 * @param distance
+	 *            in meters
+	 * @return list of candidate items, possibly empty but not null
+	 */
+	public List<T> getCandidates(Location loc, double distance) {
+		double distanceInCells = distance * DISTANCE_MARGIN / cellSizeMeters;
+		double latCellsDelta = distanceInCells;
+		double lonCellsDelta = distanceInCells;
+		double lat = loc.getLat() * latCellsPerDegree;
+		double lon = loc.getLon() * lonCellsPerDegree;
+		int minLatCell = (int) Math.floor(lat - latCellsDelta);
+		int maxLatCell = (int) Math.floor(lat + latCellsDelta);
+		int minLonCell = (int) Math.floor(lon - lonCellsDelta);
+		int maxLonCell = (int) Math.floor(lon + lonCellsDelta);
+
+		// Usually only a single cell so optimize for that case
+		if (minLatCell == maxLatCell && minLonCell == maxLonCell) {
+			List<T> itemsForCell = cells.get(key(minLatCell, minLonCell));
+			if (itemsForCell == null)
+				return Collections.emptyList();
+			return itemsForCell;
+		}
+
+		List<T> candidates = new ArrayList<T>();
+		for (int latCell = minLatCell; latCell <= maxLatCell; ++latCell) {
+			for (int lonCell = minLonCell; lonCell <= maxLonCell; ++lonCell) {
+				List<T> itemsForCell = cells.get(key(latCell, lonCell));
+				if (itemsForCell != null)
+					candidates.addAll(itemsForCell);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns number of items that have been added.
+	 *
+	 * @return number of items
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns number of cells that contain data. Useful for logging.
+	 *
+	 * @return number of cells
+	 */
+	public int getNumCells() {
+		return cells.size();
+	}
+}
@@ -63,6 +63,25 @@ public abstract class CsvBaseReader<T> {
 	protected static final Logger logger = 
 			LoggerFactory.getLogger(CsvBaseReader.class);
 
+	/**
+	 * For processing the CSV objects one at a time as they are parsed instead
+	 * of first collecting all of them into a list. This way a very large
+	 * file, such as stop_times.txt, can be processed without needing memory
+	 * for both the list and for whatever structure the objects are being put
+	 * into.
+	 *
+	 * @param <T>
+	 */
+	public interface CsvObjectHandler<T> {
+		/**
+		 * Called for each CSV object that is not filtered out, in the order
+		 * that they are in the file.
+		 * 
+		 * @param csvObject
+		 */
+		public void handleObject(T csvObject);
+	}
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -104,10 +123,13 @@ public abstract class CsvBaseReader<T> {
 	
 	/**
 	 * Parse the CSV file. Reads in the header info and then each line. Calls
-	 * the abstract handleRecord() method for each record. Adds each resulting
-	 * CSV object to the gtfsObjecgts array.
+	 * the abstract handleRecord() method for each record. Passes each
+	 * resulting CSV object to the handler.
+	 * 
+	 * @param handler
+	 *            For processing each CSV object
 	 */
-	private void parse() {
+	private void parse(CsvObjectHandler<T> handler) {
 		CSVRecord record = null;
 		try {
 			IntervalTimer timer = new IntervalTimer();
@@ -185,9 +207,9 @@ public abstract class CsvBaseReader<T> {
 					continue;
 				}
 				
-				// Add the newly created CSV object to the object list
+				// Pass the newly created CSV object to the handler
 				if (gtfsObject != null)
-					gtfsObjects.add(gtfsObject);		
+					handler.handleObject(gtfsObject);
 				
 				// Log info if it has been a while. Check only every 20,000
 				// lines to see if the 10 seconds has gone by. If so, then log
@@ -253,11 +275,28 @@ public abstract class CsvBaseReader<T> {
 	public List<T> get(int initialSize) {
 		gtfsObjects = new ArrayList<T>(initialSize);
 		
-		parse();
+		parse(new CsvObjectHandler<T>() {
+			@Override
+			public void handleObject(T csvObject) {
+				gtfsObjects.add(csvObject);
+			}
+		});
 		
 		return gtfsObjects;
 	}
 
+	/**
+	 * For streaming the CSV objects to a handler as the file is parsed
+	 * instead of reading them all into a list. Only one record is in memory
+	 * at a time.
+	 * 
+	 * @param handler
+	 *            Called for each CSV object
+	 */
+	public void stream(CsvObjectHandler<T> handler) {
+		parse(handler);
+	}
+
 	
 	/**
 	 * @return the file name of the file being processed
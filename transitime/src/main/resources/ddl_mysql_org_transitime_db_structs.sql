@@ -273,6 +273,7 @@
         stopPathId varchar(120),
         stopTimeMsec integer,
         travelTimeSegmentLength float,
+        travelTimesEncoded blob,
         travelTimesMsec blob,
         travelTimesRev integer,
         primary key (id)
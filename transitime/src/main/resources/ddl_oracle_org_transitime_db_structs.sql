@@ -273,6 +273,7 @@
         stopPathId varchar2(120 char),
         stopTimeMsec number(10,0),
         travelTimeSegmentLength float,
+        travelTimesEncoded raw(2000),
         travelTimesMsec raw(2000),
         travelTimesRev number(10,0),
         primary key (id)
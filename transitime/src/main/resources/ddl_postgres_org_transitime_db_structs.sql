@@ -273,6 +273,7 @@
         stopPathId varchar(120),
         stopTimeMsec int4,
         travelTimeSegmentLength float4,
+        travelTimesEncoded bytea,
         travelTimesMsec bytea,
         travelTimesRev int4,
         primary key (id)
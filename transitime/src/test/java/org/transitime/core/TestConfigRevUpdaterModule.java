@@ -0,0 +1,132 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.transitime.applications.Core;
+import org.transitime.core.dataCache.VehicleStateManager;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.db.structs.AvlReport.AssignmentType;
+import org.transitime.db.structs.Block;
+import org.transitime.gtfs.DbConfig;
+import org.transitime.gtfs.GtfsTestData;
+
+/**
+ * Confirms that when ConfigRevUpdaterModule swaps in a new configuration a
+ * predictable vehicle is matched to the block of the new configuration, and
+ * that the session of the old configuration is only closed once no vehicle
+ * is assigned to one of its blocks.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestConfigRevUpdaterModule extends TestCase {
+
+	private File directory;
+
+	static {
+		// So that Core can be created for the test agency without writing
+		// the generated data to the db
+		if (System.getProperty("transitime.core.agencyId") == null)
+			System.setProperty("transitime.core.agencyId",
+					GtfsTestData.AGENCY_ID);
+		if (System.getProperty("transitime.db.storeDataInDatabase") == null)
+			System.setProperty("transitime.db.storeDataInDatabase", "false");
+	}
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = GtfsTestData.createFeedDirectory(
+				"TestConfigRevUpdaterModule");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		GtfsTestData.deleteFeedDirectory(directory);
+	}
+
+	/**
+	 * @return Epoch time for 8:04:30 on a weekday, while trip t1 of block b1
+	 *         is between stops s2 and s3
+	 */
+	private static long getAvlTime() {
+		Calendar calendar = Calendar.getInstance(
+				TimeZone.getTimeZone("America/Los_Angeles"));
+		calendar.clear();
+		calendar.set(2026, Calendar.OCTOBER, 14, 8, 4, 30);
+		return calendar.getTimeInMillis();
+	}
+
+	public void testVehicleMatchedToNewConfig() {
+		ConfigRevUpdaterModule module =
+				new ConfigRevUpdaterModule(GtfsTestData.AGENCY_ID);
+
+		// Make configRev 20 the active one. Core might already have been
+		// created with a different rev by another test, in which case it is
+		// switched to rev 20 and the old config is released since no
+		// vehicles are assigned to it.
+		GtfsTestData.processData(directory, 20, false, true);
+		Core core = Core.getInstance();
+		module.initializeRevs();
+		module.updateConfigIfRevsChanged();
+		module.updateConfigIfRevsChanged();
+		assertEquals(20, core.getDbConfig().getConfigRev());
+
+		// Assign a vehicle to block b1
+		long avlTime = getAvlTime();
+		core.setSystemTime(avlTime);
+		AvlReport avlReport = new AvlReport("v1", avlTime, 37.7715,
+				-122.4170, 5.0f, Float.NaN, "Test");
+		avlReport.setAssignment("b1", AssignmentType.BLOCK_ID);
+		AvlProcessor.getInstance().processAvlReport(avlReport);
+
+		VehicleState vehicleState =
+				VehicleStateManager.getInstance().getVehicleState("v1");
+		assertTrue(vehicleState.isPredictable());
+		Block oldBlock = vehicleState.getBlock();
+		DbConfig oldDbConfig = core.getDbConfig();
+		assertSame(oldDbConfig, oldBlock.getDbConfig());
+
+		// Activate configRev 21 and have the module swap it in
+		GtfsTestData.processData(directory, 21, false, true);
+		module.updateConfigIfRevsChanged();
+
+		// Vehicle should now be on block b1 of the new configuration
+		assertNotSame(oldDbConfig, core.getDbConfig());
+		assertEquals(21, core.getDbConfig().getConfigRev());
+		assertTrue(vehicleState.isPredictable());
+		Block newBlock = vehicleState.getBlock();
+		assertNotSame(oldBlock, newBlock);
+		assertEquals("b1", newBlock.getId());
+		assertEquals(21, newBlock.getConfigRev());
+		assertSame(core.getDbConfig(), newBlock.getDbConfig());
+
+		// Old session is still open until a polling cycle finds no
+		// vehicles on the old configuration
+		assertTrue(oldDbConfig.getGlobalSession().isOpen());
+		module.updateConfigIfRevsChanged();
+		assertFalse(oldDbConfig.getGlobalSession().isOpen());
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.transitime.db.structs.Calendar;
+import org.transitime.db.structs.CalendarDate;
+import org.transitime.gtfs.gtfsStructs.GtfsCalendar;
+import org.transitime.gtfs.gtfsStructs.GtfsCalendarDate;
+
+/**
+ * Confirms that the service day table of ServiceUtils handles calendar
+ * dates, the previous day window early in the morning, expired calendars
+ * and daylight savings time transitions. The calendars cover March 2015
+ * which includes the spring forward transition on Sunday March 8th.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestServiceUtils extends TestCase {
+
+	private static final TimeZone TIME_ZONE =
+			TimeZone.getTimeZone("America/Los_Angeles");
+
+	private static final List<String> NONE = Collections.emptyList();
+	private static final List<String> WEEKDAY = Arrays.asList("WKDY");
+	private static final List<String> WEEKEND = Arrays.asList("WKND");
+	private static final List<String> BOTH = Arrays.asList("WKDY", "WKND");
+
+	private ServiceUtils serviceUtils;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() {
+		DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+		dateFormat.setTimeZone(TIME_ZONE);
+
+		List<Calendar> calendars = new ArrayList<Calendar>();
+		calendars.add(new Calendar(0, new GtfsCalendar("WKDY", "1", "1", "1",
+				"1", "1", "0", "0", "20150301", "20150331"), dateFormat));
+		calendars.add(new Calendar(0, new GtfsCalendar("WKND", "0", "0", "0",
+				"0", "0", "1", "1", "20150301", "20150331"), dateFormat));
+
+		List<CalendarDate> calendarDates = new ArrayList<CalendarDate>();
+		// Holiday on Tuesday March 10th runs weekend service
+		calendarDates.add(new CalendarDate(0,
+				new GtfsCalendarDate("WKDY", "20150310", "2"), dateFormat));
+		calendarDates.add(new CalendarDate(0,
+				new GtfsCalendarDate("WKND", "20150310", "1"), dateFormat));
+		// No service on Wednesday April 1st, after the calendars expire.
+		// This is the last day of the table.
+		calendarDates.add(new CalendarDate(0,
+				new GtfsCalendarDate("WKDY", "20150401", "2"), dateFormat));
+
+		serviceUtils = new ServiceUtils(calendars, calendarDates, TIME_ZONE);
+	}
+
+	/**
+	 * Returns epoch time for the local time in the agency timezone.
+	 *
+	 * @param localTime
+	 *            In format "yyyyMMdd HH:mm"
+	 * @return epoch time
+	 */
+	private static long time(String localTime) {
+		DateFormat format = new SimpleDateFormat("yyyyMMdd HH:mm");
+		format.setTimeZone(TIME_ZONE);
+		try {
+			return format.parse(localTime).getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	public void testCalendars() {
+		assertEquals(WEEKDAY, serviceUtils.getServiceIdsForDay(
+				time("20150302 12:00")));
+		assertEquals(WEEKEND, serviceUtils.getServiceIdsForDay(
+				time("20150307 12:00")));
+		assertTrue(serviceUtils.isServiceActiveForDay("WKDY",
+				time("20150302 12:00")));
+		assertTrue(!serviceUtils.isServiceActiveForDay("WKND",
+				time("20150302 12:00")));
+		assertTrue(!serviceUtils.isServiceActiveForDay("UNKNOWN",
+				time("20150302 12:00")));
+	}
+
+	public void testCalendarDates() {
+		assertEquals(WEEKEND, serviceUtils.getServiceIdsForDay(
+				time("20150310 12:00")));
+		assertTrue(!serviceUtils.isServiceActiveForDay("WKDY",
+				time("20150310 12:00")));
+		assertTrue(serviceUtils.isServiceActiveForDay("WKND",
+				time("20150310 12:00")));
+		assertEquals(WEEKDAY, serviceUtils.getServiceIdsForDay(
+				time("20150311 12:00")));
+	}
+
+	public void testPreviousDayWindow() {
+		// Early in the morning the previous day's services are included
+		assertEquals(BOTH, serviceUtils.getServiceIds(time("20150310 02:00")));
+		assertEquals(WEEKEND,
+				serviceUtils.getServiceIds(time("20150310 12:00")));
+		assertEquals(BOTH, serviceUtils.getServiceIds(time("20150302 02:00")));
+		assertEquals(WEEKDAY,
+				serviceUtils.getServiceIds(time("20150302 12:00")));
+	}
+
+	public void testExpiredCalendars() {
+		// After the calendars expire the latest ones are still used. April
+		// 1st is in the table, later days are determined on the fly.
+		assertEquals(NONE, serviceUtils.getServiceIdsForDay(
+				time("20150401 12:00")));
+		assertEquals(WEEKDAY, serviceUtils.getServiceIdsForDay(
+				time("20150402 12:00")));
+		assertEquals(WEEKEND, serviceUtils.getServiceIdsForDay(
+				time("20150404 12:00")));
+		assertTrue(serviceUtils.isServiceActiveForDay("WKND",
+				time("20150405 12:00")));
+
+		// The calendar date removing service on April 1st must not remove
+		// the service for April 2nd when the previous day is included
+		assertEquals(WEEKDAY,
+				serviceUtils.getServiceIds(time("20150402 02:00")));
+		assertEquals(BOTH, serviceUtils.getServiceIds(time("20150406 02:00")));
+	}
+
+	public void testDaylightSavingsTransition() {
+		// Sunday March 8th 2015 clocks spring forward at 2am so the day is
+		// only 23 hours long
+		assertEquals(java.util.Calendar.SUNDAY,
+				serviceUtils.getDayOfWeek(new java.util.Date(
+						time("20150308 23:30"))));
+		assertEquals(WEEKEND, serviceUtils.getServiceIdsForDay(
+				time("20150308 00:30")));
+		assertEquals(WEEKEND, serviceUtils.getServiceIdsForDay(
+				time("20150308 23:30")));
+		assertEquals(java.util.Calendar.MONDAY,
+				serviceUtils.getDayOfWeek(new java.util.Date(
+						time("20150309 00:30"))));
+		assertEquals(WEEKDAY, serviceUtils.getServiceIdsForDay(
+				time("20150309 00:30")));
+		assertEquals(BOTH, serviceUtils.getServiceIds(time("20150309 00:30")));
+		assertEquals(WEEKDAY,
+				serviceUtils.getServiceIds(time("20150309 12:00")));
+	}
+}
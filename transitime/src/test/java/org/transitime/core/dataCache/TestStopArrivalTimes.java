@@ -0,0 +1,74 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that StopArrivalTimes keeps the arrivals ordered, drops the
+ * oldest ones when full, and determines the preceding vehicle properly.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestStopArrivalTimes extends TestCase {
+
+	/********************** Member Functions **************************/
+
+	public void testHeadways() {
+		StopArrivalTimes arrivals = new StopArrivalTimes(3);
+		assertEquals(0, arrivals.add("a", 1000));
+		assertEquals(1000, arrivals.add("b", 4000));
+		assertEquals(4000, arrivals.add("c", 9000));
+		assertEquals("b", arrivals.getPrecedingVehicleId("c"));
+		assertEquals("a", arrivals.getPrecedingVehicleId("b"));
+		assertNull(arrivals.getPrecedingVehicleId("a"));
+	}
+
+	public void testDropsOldest() {
+		StopArrivalTimes arrivals = new StopArrivalTimes(3);
+		arrivals.add("a", 1000);
+		arrivals.add("b", 2000);
+		arrivals.add("c", 3000);
+		arrivals.add("d", 4000);
+		assertEquals(3, arrivals.size());
+		assertEquals(0, arrivals.getArrivalTime("a"));
+		assertEquals(2000, arrivals.getArrivalTime("b"));
+		assertEquals(4000, arrivals.getArrivalTime("d"));
+
+		// Older than everything in a full buffer so is ignored
+		assertEquals(0, arrivals.add("e", 500));
+		assertEquals(0, arrivals.getArrivalTime("e"));
+	}
+
+	public void testOutOfOrder() {
+		StopArrivalTimes arrivals = new StopArrivalTimes(4);
+		arrivals.add("a", 1000);
+		arrivals.add("c", 3000);
+		assertEquals(1000, arrivals.add("b", 2000));
+		assertEquals("b", arrivals.getPrecedingVehicleId("c"));
+		assertEquals("a", arrivals.getPrecedingVehicleId("b"));
+	}
+
+	public void testSkipsSameVehicle() {
+		StopArrivalTimes arrivals = new StopArrivalTimes(4);
+		arrivals.add("a", 1000);
+		arrivals.add("b", 2000);
+		assertEquals(1000, arrivals.add("b", 2500));
+		assertEquals("a", arrivals.getPrecedingVehicleId("b"));
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.trace;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that VehicleTrace keeps the most recent events in order and that
+ * they can be decoded.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestVehicleTrace extends TestCase {
+
+	/********************** Member Functions **************************/
+
+	public void testRingBuffer() {
+		VehicleTrace trace = new VehicleTrace(3);
+		for (int i = 1; i <= 5; ++i)
+			trace.add(TraceEventType.NO_MATCH, i * 1000, i, 0, 0, 0);
+		assertEquals(3, trace.size());
+
+		long[] records = trace.getLastRecords(10);
+		assertEquals(3 * VehicleTrace.RECORD_LONGS, records.length);
+		assertEquals(3000, records[1]);
+		assertEquals(5000, records[2 * VehicleTrace.RECORD_LONGS + 1]);
+
+		records = trace.getLastRecords(1);
+		assertEquals(VehicleTrace.RECORD_LONGS, records.length);
+		assertEquals(5000, records[1]);
+	}
+
+	public void testInvalidCapacity() {
+		for (int capacity : new int[] {0, -5}) {
+			VehicleTrace trace = new VehicleTrace(capacity);
+			trace.add(TraceEventType.NO_MATCH, 1000, 1, 0, 0, 0);
+			trace.add(TraceEventType.NO_MATCH, 2000, 2, 0, 0, 0);
+			assertEquals(1, trace.size());
+
+			long[] records = trace.getLastRecords(10);
+			assertEquals(VehicleTrace.RECORD_LONGS, records.length);
+			assertEquals(2000, records[1]);
+		}
+	}
+
+	public void testDecode() {
+		List<String> strings = Arrays.asList("trip1", "stop1");
+		VehicleTrace trace = new VehicleTrace(2);
+		trace.add(TraceEventType.ARRIVAL, 1000, 1, 0, 4, 0);
+		long[] records = trace.getLastRecords(1);
+
+		TraceEvent event = new TraceEvent("v1", records, 0, strings);
+		assertEquals(TraceEventType.ARRIVAL, event.getType());
+		assertEquals(1000, event.getTime());
+		assertTrue(event.getRecordTime() > 0);
+		assertTrue(event.toString().contains("stopId=stop1"));
+		assertTrue(event.toString().contains("stopPathIndex=4"));
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.travelTimes;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that DataFetcher divides a time range into service days that
+ * match the days used as keys for the data, including for daylight savings
+ * time transitions, so that the data for a vehicle trip is never split
+ * across days when processing one service day at a time.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestDataFetcher extends TestCase {
+
+	private static final TimeZone TIME_ZONE =
+			TimeZone.getTimeZone("America/Los_Angeles");
+
+	private DataFetcher dataFetcher;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() {
+		dataFetcher = new DataFetcher(TIME_ZONE);
+	}
+
+	/**
+	 * Returns the date for the local time in the agency timezone.
+	 *
+	 * @param localTime
+	 *            In format "yyyyMMdd HH:mm"
+	 * @return the date
+	 */
+	private static Date date(String localTime) {
+		DateFormat format = new SimpleDateFormat("yyyyMMdd HH:mm");
+		format.setTimeZone(TIME_ZONE);
+		try {
+			return format.parse(localTime);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Confirms that each range between adjacent boundaries is a single
+	 * service day as determined by dayOfYear() and that adjacent ranges are
+	 * different days.
+	 *
+	 * @param boundaries
+	 */
+	private void assertOneDayPerRange(List<Date> boundaries) {
+		for (int i = 0; i < boundaries.size() - 1; ++i) {
+			Date begin = boundaries.get(i);
+			Date lastMsec = new Date(boundaries.get(i + 1).getTime() - 1);
+			assertEquals(dataFetcher.dayOfYear(begin),
+					dataFetcher.dayOfYear(lastMsec));
+			if (i > 0)
+				assertTrue(dataFetcher.dayOfYear(begin) != dataFetcher
+						.dayOfYear(new Date(begin.getTime() - 1)));
+		}
+	}
+
+	public void testMultipleDays() {
+		List<Date> boundaries = dataFetcher.getServiceDayBoundaries(
+				date("20150302 00:00"), date("20150305 00:00"));
+		assertEquals(5, boundaries.size());
+		assertEquals(date("20150302 00:00"), boundaries.get(0));
+		assertEquals(date("20150302 03:00"), boundaries.get(1));
+		assertEquals(date("20150303 03:00"), boundaries.get(2));
+		assertEquals(date("20150304 03:00"), boundaries.get(3));
+		assertEquals(date("20150305 00:00"), boundaries.get(4));
+		assertOneDayPerRange(boundaries);
+	}
+
+	public void testSingleDay() {
+		// Entirely within one service day so no boundaries in between
+		List<Date> boundaries = dataFetcher.getServiceDayBoundaries(
+				date("20150302 04:00"), date("20150303 02:00"));
+		assertEquals(2, boundaries.size());
+		assertOneDayPerRange(boundaries);
+
+		// Ends exactly at the start of the next service day
+		boundaries = dataFetcher.getServiceDayBoundaries(
+				date("20150302 03:00"), date("20150303 03:00"));
+		assertEquals(2, boundaries.size());
+		assertOneDayPerRange(boundaries);
+	}
+
+	public void testDaylightSavingsTransitions() {
+		// Spring forward on Sunday March 8th 2015 and fall back on Sunday
+		// November 1st 2015. The boundaries are three hours after midnight,
+		// which is not 3am on those days, but they still separate the days
+		// the same way that dayOfYear() does.
+		List<Date> boundaries = dataFetcher.getServiceDayBoundaries(
+				date("20150307 12:00"), date("20150310 12:00"));
+		assertEquals(5, boundaries.size());
+		assertEquals(date("20150308 04:00"), boundaries.get(1));
+		assertOneDayPerRange(boundaries);
+
+		boundaries = dataFetcher.getServiceDayBoundaries(
+				date("20151031 12:00"), date("20151103 12:00"));
+		assertEquals(5, boundaries.size());
+		assertEquals(date("20151101 02:00"), boundaries.get(1));
+		assertOneDayPerRange(boundaries);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.travelTimes;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that RunningTravelTimeStats keeps a correct running mean and
+ * variance, clamps outliers, and weights recent samples once the window
+ * is full.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestRunningTravelTimeStats extends TestCase {
+
+	// Large enough that the window and clamping don't come into play
+	private static final int LARGE = 1000000;
+
+	/********************** Member Functions **************************/
+
+	public void testMeanAndVariance() {
+		RunningTravelTimeStats stats = new RunningTravelTimeStats(1);
+		stats.addTravelTime(0, 1000, LARGE, LARGE, 3.0);
+		stats.addTravelTime(0, 2000, LARGE, LARGE, 3.0);
+		stats.addTravelTime(0, 3000, LARGE, LARGE, 3.0);
+
+		assertEquals(3, stats.getTravelTimeCount(0));
+		assertEquals(2000, stats.getTravelTimeMsec(0, 3));
+		// Population variance of the three samples is 666666.67
+		assertEquals(Math.sqrt(2000000.0 / 3.0),
+				stats.getTravelTimeStdDevMsec(0), 0.001);
+	}
+
+	public void testMinSamples() {
+		RunningTravelTimeStats stats = new RunningTravelTimeStats(1);
+		stats.addTravelTime(0, 1000, LARGE, LARGE, 3.0);
+		stats.addTravelTime(0, 2000, LARGE, LARGE, 3.0);
+
+		assertEquals(-1, stats.getTravelTimeMsec(0, 3));
+		assertEquals(1500, stats.getTravelTimeMsec(0, 2));
+		assertEquals(-1, stats.getStopTimeMsec(0, 1));
+	}
+
+	public void testClamping() {
+		RunningTravelTimeStats stats = new RunningTravelTimeStats(1);
+		for (int i = 0; i < 10; ++i)
+			stats.addTravelTime(0, i % 2 == 0 ? 1000 : 3000, LARGE, 10, 3.0);
+		assertEquals(2000, stats.getTravelTimeMsec(0, 10));
+		assertEquals(1000.0, stats.getTravelTimeStdDevMsec(0), 0.001);
+
+		// The outlier is clamped to the mean plus 3 standard deviations,
+		// which is 5000 msec
+		stats.addTravelTime(0, 1000000, LARGE, 10, 3.0);
+		assertEquals(11, stats.getTravelTimeCount(0));
+		assertEquals(2000 + Math.round(3000.0 / 11),
+				stats.getTravelTimeMsec(0, 10));
+	}
+
+	public void testNoClampingBeforeMinSamples() {
+		RunningTravelTimeStats stats = new RunningTravelTimeStats(1);
+		stats.addTravelTime(0, 1000, LARGE, 10, 3.0);
+		stats.addTravelTime(0, 1000, LARGE, 10, 3.0);
+		stats.addTravelTime(0, 7000, LARGE, 10, 3.0);
+		assertEquals(3000, stats.getTravelTimeMsec(0, 3));
+	}
+
+	public void testWindow() {
+		RunningTravelTimeStats stats = new RunningTravelTimeStats(1);
+		for (int i = 0; i < 4; ++i)
+			stats.addTravelTime(0, 1000, 4, LARGE, 3.0);
+		assertEquals(1000, stats.getTravelTimeMsec(0, 4));
+
+		// Once the window is full each new sample has a weight of 1/4
+		stats.addTravelTime(0, 2000, 4, LARGE, 3.0);
+		assertEquals(1250, stats.getTravelTimeMsec(0, 4));
+		stats.addTravelTime(0, 2000, 4, LARGE, 3.0);
+		assertEquals(Math.round(1250 + 750 / 4.0),
+				stats.getTravelTimeMsec(0, 4));
+	}
+
+	public void testStopTimesAndBandsSeparate() {
+		RunningTravelTimeStats stats = new RunningTravelTimeStats(2);
+		stats.addTravelTime(0, 1000, LARGE, LARGE, 3.0);
+		stats.addStopTime(0, 30000, LARGE, LARGE, 3.0);
+		stats.addTravelTime(1, 5000, LARGE, LARGE, 3.0);
+
+		assertEquals(2, stats.getNumberTimeBands());
+		assertEquals(1000, stats.getTravelTimeMsec(0, 1));
+		assertEquals(30000, stats.getStopTimeMsec(0, 1));
+		assertEquals(5000, stats.getTravelTimeMsec(1, 1));
+		assertEquals(-1, stats.getStopTimeMsec(1, 1));
+		assertEquals(1, stats.getStopTimeCount(0));
+		assertEquals(0, stats.getStopTimeCount(1));
+	}
+}
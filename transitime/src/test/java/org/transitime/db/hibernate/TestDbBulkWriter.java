@@ -0,0 +1,307 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.hibernate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.transitime.db.structs.Arrival;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.db.structs.AvlReport.AssignmentType;
+import org.transitime.db.structs.Match;
+import org.transitime.db.structs.Prediction;
+
+/**
+ * Writes AVL reports with DbBulkWriter to an in-memory HSQL database and
+ * confirms that they are read back unchanged, including nulls and strings
+ * with tabs, newlines and backslashes. Also confirms that the columns of
+ * each BulkInsertTable match the ones that Hibernate maps for the class.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestDbBulkWriter extends TestCase {
+
+	private static final String AGENCY_ID = "test";
+
+	// Needs to be set before the config params are read in. Only sets the
+	// param if it hasn't already been set, such as on the command line.
+	static {
+		if (System.getProperty("transitime.hibernate.configFile") == null)
+			System.setProperty("transitime.hibernate.configFile",
+					"hsql_unit_test_hibernate.cfg.xml");
+	}
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() throws Exception {
+		executeInTransaction("DELETE FROM AvlReports");
+	}
+
+	private static void executeInTransaction(final String sql) {
+		Session session = HibernateUtils.getSession(AGENCY_ID);
+		try {
+			Transaction tx = session.beginTransaction();
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection connection)
+						throws SQLException {
+					PreparedStatement statement =
+							connection.prepareStatement(sql);
+					try {
+						statement.executeUpdate();
+					} finally {
+						statement.close();
+					}
+				}
+			});
+			tx.commit();
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Creates AVL reports. Every fourth one has all of the optional values
+	 * null. The others have strings with characters that need escaping.
+	 *
+	 * @param numReports
+	 * @return the AVL reports, ordered by time
+	 */
+	private static List<AvlReport> createAvlReports(int numReports) {
+		long baseTime = 1420099200000L;
+		List<AvlReport> avlReports = new ArrayList<AvlReport>(numReports);
+		for (int i = 0; i < numReports; ++i) {
+			AvlReport avlReport;
+			if (i % 4 == 0) {
+				avlReport = new AvlReport("v\\1", baseTime + i * 1000L,
+						37.75, -122.25, Float.NaN, Float.NaN, null, null,
+						null, null, null, Float.NaN);
+			} else {
+				avlReport = new AvlReport("v\t1", baseTime + i * 1000L,
+						37.75 + i / 1000.0, -122.25, 4.5f, 90.0f, "a\\b\tc",
+						null, "d\r\n" + i, "p\\" + (i % 100) + "\n", i,
+						0.5f);
+				avlReport.setAssignment("b\n\\" + i,
+						AssignmentType.BLOCK_ID);
+				avlReport.setField1("name\t", "value\\N");
+			}
+			avlReports.add(avlReport);
+		}
+		return avlReports;
+	}
+
+	private static void write(List<AvlReport> avlReports)
+			throws HibernateException {
+		DbBulkWriter<AvlReport> writer =
+				new DbBulkWriter<AvlReport>(AvlReport.BULK_INSERT_TABLE);
+		Session session = HibernateUtils.getSession(AGENCY_ID);
+		Transaction tx = session.beginTransaction();
+		try {
+			writer.write(session, avlReports);
+			tx.commit();
+		} catch (HibernateException e) {
+			tx.rollback();
+			throw e;
+		} finally {
+			session.close();
+		}
+		assertEquals("multi-row insert", writer.getMethod());
+	}
+
+	/**
+	 * Reads back the columns of the AvlReports table, ordered by time.
+	 *
+	 * @return the column values of each row
+	 */
+	private static List<Object[]> readAvlReportRows() {
+		final BulkInsertTable<AvlReport> table = AvlReport.BULK_INSERT_TABLE;
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		Session session = HibernateUtils.getSession(AGENCY_ID);
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection connection)
+						throws SQLException {
+					PreparedStatement statement = connection.prepareStatement(
+							"SELECT " + table.getColumnList() + " FROM "
+									+ table.getTableName()
+									+ " ORDER BY time");
+					try {
+						ResultSet resultSet = statement.executeQuery();
+						int numColumns = table.getColumnNames().length;
+						while (resultSet.next()) {
+							Object[] row = new Object[numColumns];
+							for (int i = 0; i < numColumns; ++i)
+								row[i] = resultSet.getObject(i + 1);
+							rows.add(row);
+						}
+					} finally {
+						statement.close();
+					}
+				}
+			});
+		} finally {
+			session.close();
+		}
+		return rows;
+	}
+
+	private static void assertColumnEquals(String columnName,
+			Object expected, Object actual) {
+		if (expected == null) {
+			assertTrue(columnName + " should be null but was " + actual,
+					actual == null);
+		} else if (expected instanceof Number) {
+			assertEquals(((Number) expected).doubleValue(),
+					((Number) actual).doubleValue(), 0.000001);
+		} else if (expected instanceof Date) {
+			assertEquals(((Date) expected).getTime(),
+					((Date) actual).getTime());
+		} else {
+			assertEquals(expected.toString(), actual.toString());
+		}
+	}
+
+	/**
+	 * Writes more rows than fit into a single insert statement so that
+	 * multiple statements are used.
+	 */
+	public void testRoundTrip() {
+		List<AvlReport> avlReports = createAvlReports(4000);
+		write(avlReports);
+
+		List<Object[]> rows = readAvlReportRows();
+		assertEquals(avlReports.size(), rows.size());
+		String[] columnNames = AvlReport.BULK_INSERT_TABLE.getColumnNames();
+		for (int i = 0; i < avlReports.size(); ++i) {
+			Object[] expected = AvlReport.BULK_INSERT_TABLE
+					.getColumnValues(avlReports.get(i));
+			for (int c = 0; c < columnNames.length; ++c)
+				assertColumnEquals(columnNames[c], expected[c], rows.get(i)[c]);
+		}
+	}
+
+	/**
+	 * A bad row, here a duplicate key, fails the whole batch so that DbQueue
+	 * can roll back and write the objects individually.
+	 */
+	public void testDuplicateFailsWholeBatch() {
+		List<AvlReport> avlReports = createAvlReports(10);
+		avlReports.add(avlReports.get(5));
+		try {
+			write(avlReports);
+			fail("Writing a duplicate row should have failed");
+		} catch (HibernateException e) {
+			// Expected
+		}
+		assertTrue(readAvlReportRows().isEmpty());
+	}
+
+	/**
+	 * Confirms that values are escaped for the PostgreSQL COPY text format.
+	 * Can't write via COPY here since that requires PostgreSQL.
+	 */
+	public void testCopyValueEscaping() {
+		StringBuilder sb = new StringBuilder();
+		DbBulkWriter.appendCopyValue(sb, "a\tb\nc\rd\\e\\N");
+		assertEquals("a\\tb\\nc\\rd\\\\e\\\\N", sb.toString());
+
+		sb.setLength(0);
+		DbBulkWriter.appendCopyValue(sb, null);
+		assertEquals("\\N", sb.toString());
+
+		sb.setLength(0);
+		DbBulkWriter.appendCopyValue(sb, Boolean.TRUE);
+		DbBulkWriter.appendCopyValue(sb, Boolean.FALSE);
+		DbBulkWriter.appendCopyValue(sb, 2.5f);
+		assertEquals("tf2.5", sb.toString());
+
+		sb.setLength(0);
+		Date date = new Date(1420099200123L);
+		DbBulkWriter.appendCopyValue(sb, date);
+		assertEquals(new Timestamp(date.getTime()).toString(), sb.toString());
+	}
+
+	/**
+	 * Confirms that the table and columns of the BulkInsertTable are the
+	 * same as the ones Hibernate maps for the class, including the id and
+	 * any discriminator column.
+	 *
+	 * @param table
+	 * @param mappedClass
+	 */
+	private static void assertMatchesMapping(BulkInsertTable<?> table,
+			Class<?> mappedClass) {
+		SessionFactory sessionFactory =
+				HibernateUtils.getSessionFactory(AGENCY_ID);
+		AbstractEntityPersister persister = (AbstractEntityPersister)
+				sessionFactory.getClassMetadata(mappedClass);
+
+		Set<String> mappedColumns = new HashSet<String>();
+		for (String column : persister.getIdentifierColumnNames())
+			mappedColumns.add(column.toLowerCase());
+		String[] propertyNames = persister.getPropertyNames();
+		for (int i = 0; i < propertyNames.length; ++i)
+			for (String column : persister.getPropertyColumnNames(i))
+				mappedColumns.add(column.toLowerCase());
+		if (persister.getDiscriminatorColumnName() != null)
+			mappedColumns.add(
+					persister.getDiscriminatorColumnName().toLowerCase());
+
+		Set<String> bulkColumns = new HashSet<String>();
+		for (String column : table.getColumnNames())
+			assertTrue("Column " + column + " listed twice for table "
+					+ table.getTableName(),
+					bulkColumns.add(column.toLowerCase()));
+		if (table.getGeneratedIdColumn() != null)
+			bulkColumns.add(table.getGeneratedIdColumn().toLowerCase());
+
+		assertEquals(persister.getTableName().toLowerCase(),
+				table.getTableName().toLowerCase());
+		assertEquals(mappedColumns, bulkColumns);
+	}
+
+	public void testColumnsMatchMapping() {
+		assertMatchesMapping(AvlReport.BULK_INSERT_TABLE, AvlReport.class);
+		assertMatchesMapping(Match.BULK_INSERT_TABLE, Match.class);
+		assertMatchesMapping(Prediction.BULK_INSERT_TABLE, Prediction.class);
+		// ArrivalDeparture is mapped through its subclasses, which share the
+		// table
+		assertMatchesMapping(ArrivalDeparture.BULK_INSERT_TABLE,
+				Arrival.class);
+	}
+}
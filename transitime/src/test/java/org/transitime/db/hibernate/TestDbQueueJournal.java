@@ -0,0 +1,149 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.db.hibernate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that DbQueueJournal returns objects in order and that after being
+ * reopened, such as when the process is restarted, only the objects that
+ * were not committed as read are replayed.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestDbQueueJournal extends TestCase {
+
+	private File directory;
+
+	private static final long MAX_BYTES = 1024L * 1024L * 1024L;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = new File(System.getProperty("java.io.tmpdir"),
+				"TestDbQueueJournal-" + System.nanoTime());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	public void testAppendAndRead() throws IOException {
+		DbQueueJournal<String> journal =
+				new DbQueueJournal<String>(directory, MAX_BYTES);
+		assertTrue(journal.isEmpty());
+
+		for (int i = 0; i < 100; ++i)
+			assertTrue(journal.append("object" + i));
+		assertEquals(100, journal.size());
+
+		List<String> list = new ArrayList<String>();
+		assertEquals(60, journal.read(list, 60));
+		assertEquals(40, journal.size());
+		journal.commitRead();
+
+		assertEquals(40, journal.read(list, 60));
+		assertTrue(journal.isEmpty());
+		journal.commitRead();
+
+		for (int i = 0; i < 100; ++i)
+			assertEquals("object" + i, list.get(i));
+	}
+
+	public void testReplayAfterReopen() throws IOException {
+		DbQueueJournal<String> journal =
+				new DbQueueJournal<String>(directory, MAX_BYTES);
+		for (int i = 0; i < 10; ++i)
+			journal.append("object" + i);
+
+		// Read and commit 4 objects, then read 3 more without committing
+		List<String> list = new ArrayList<String>();
+		journal.read(list, 4);
+		journal.commitRead();
+		journal.read(list, 3);
+
+		// Simulate restart. Need to use a different directory lock so
+		// copy the segments over.
+		File restartDirectory = new File(directory, "restart");
+		restartDirectory.mkdirs();
+		for (File file : directory.listFiles())
+			if (file.getName().endsWith(".journal"))
+				Files.copy(file.toPath(), new File(restartDirectory,
+						file.getName()).toPath());
+
+		DbQueueJournal<String> reopened =
+				new DbQueueJournal<String>(restartDirectory, MAX_BYTES);
+		assertEquals(6, reopened.size());
+
+		List<String> replayed = new ArrayList<String>();
+		reopened.read(replayed, 100);
+		assertEquals(6, replayed.size());
+		assertEquals("object4", replayed.get(0));
+		assertEquals("object9", replayed.get(5));
+
+		// New objects are appended after the replayed ones
+		reopened.append("object10");
+		replayed.clear();
+		reopened.read(replayed, 100);
+		assertEquals("object10", replayed.get(0));
+		reopened.commitRead();
+
+		for (File file : restartDirectory.listFiles())
+			file.delete();
+		restartDirectory.delete();
+	}
+
+	public void testReopenAfterClose() throws IOException {
+		DbQueueJournal<String> journal =
+				new DbQueueJournal<String>(directory, MAX_BYTES);
+		for (int i = 0; i < 10; ++i)
+			journal.append("object" + i);
+		journal.read(new ArrayList<String>(), 4);
+		journal.commitRead();
+
+		// Directory is locked until the journal is closed
+		try {
+			new DbQueueJournal<String>(directory, MAX_BYTES);
+			fail("Journal directory should be locked");
+		} catch (IOException e) {
+			// Expected
+		}
+		journal.close();
+
+		DbQueueJournal<String> reopened =
+				new DbQueueJournal<String>(directory, MAX_BYTES);
+		assertEquals(6, reopened.size());
+		List<String> list = new ArrayList<String>();
+		reopened.read(list, 100);
+		assertEquals("object4", list.get(0));
+		reopened.commitRead();
+		reopened.close();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.db.structs;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Confirms that the compact encoding of the travel times of a
+ * TravelTimesForStopPath round trips and that invalid data is rejected.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestTravelTimesEncoding extends TestCase {
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Encodes and then decodes the travel times and confirms that get back
+	 * the same values.
+	 *
+	 * @param travelTimesMsec
+	 * @return the encoded travel times
+	 */
+	private static byte[] roundTrip(int... travelTimesMsec) {
+		byte[] encoded =
+				TravelTimesForStopPath.encodeTravelTimes(travelTimesMsec);
+		int[] decoded = TravelTimesForStopPath.decodeTravelTimes(encoded);
+		assertTrue(Arrays.toString(travelTimesMsec) + " decoded as "
+				+ Arrays.toString(decoded),
+				Arrays.equals(travelTimesMsec, decoded));
+		return encoded;
+	}
+
+	/**
+	 * Decodes the data and confirms that a HibernateException is thrown.
+	 *
+	 * @param data
+	 */
+	private static void assertInvalid(byte[] data) {
+		try {
+			TravelTimesForStopPath.decodeTravelTimes(data);
+			fail("Expected HibernateException for " + Arrays.toString(data));
+		} catch (HibernateException e) {
+			// Expected
+		}
+	}
+
+	public void testEmpty() {
+		// Just the version and the count
+		assertEquals(2, roundTrip().length);
+	}
+
+	public void testSingle() {
+		roundTrip(0);
+		roundTrip(25000);
+	}
+
+	public void testSimilarValuesAreCompact() {
+		// Version, count, and then two bytes for the first value and one
+		// byte for each small difference
+		assertEquals(7, roundTrip(8000, 8010, 7990, 8000).length);
+	}
+
+	public void testNegativeDeltas() {
+		roundTrip(30000, 20000, 10000, 0);
+		roundTrip(-1, -5000, 5000, -1);
+	}
+
+	public void testLargeValues() {
+		roundTrip(Integer.MAX_VALUE, 0, Integer.MAX_VALUE);
+		roundTrip(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE);
+
+		int[] many = new int[1000];
+		for (int i = 0; i < many.length; ++i)
+			many[i] = i * 997;
+		roundTrip(many);
+	}
+
+	public void testBadVersion() {
+		assertInvalid(new byte[0]);
+
+		byte[] encoded =
+				TravelTimesForStopPath.encodeTravelTimes(new int[] {1000});
+		encoded[0] = 99;
+		assertInvalid(encoded);
+	}
+
+	public void testTruncated() {
+		byte[] encoded = TravelTimesForStopPath.encodeTravelTimes(
+				new int[] {1000, 200000, 3000});
+		for (int length = 1; length < encoded.length; ++length)
+			assertInvalid(Arrays.copyOf(encoded, length));
+	}
+
+	public void testCorruptCount() {
+		// Count is a variable length integer that never terminates
+		byte[] encoded = TravelTimesForStopPath.encodeTravelTimes(new int[0]);
+		byte[] corrupt = Arrays.copyOf(encoded, 7);
+		Arrays.fill(corrupt, 1, corrupt.length, (byte) 0xFF);
+		assertInvalid(corrupt);
+
+		// Count is negative
+		corrupt = Arrays.copyOf(encoded, 6);
+		Arrays.fill(corrupt, 1, 5, (byte) 0xFF);
+		corrupt[5] = 0x0F;
+		assertInvalid(corrupt);
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.gtfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * For tests that need processed GTFS data. Writes a small GTFS feed to a
+ * temporary directory and processes it into an in-memory HSQL database.
+ * The feed has two routes. Route r1 has a shape and two trip patterns, one
+ * shared by two trips. Route r2 has no shape so its stop paths simply
+ * connect the stops.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class GtfsTestData {
+
+	// Also used as the db name
+	public static final String AGENCY_ID = "test";
+
+	// Needs to be set before the config params are read in. Only sets the
+	// params if they haven't already been set, such as on the command line.
+	static {
+		if (System.getProperty("transitime.hibernate.configFile") == null)
+			System.setProperty("transitime.hibernate.configFile",
+					"hsql_unit_test_hibernate.cfg.xml");
+		if (System.getProperty("transitime.core.preloadConfigData") == null)
+			System.setProperty("transitime.core.preloadConfigData", "true");
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Writes the GTFS feed to a new temporary directory.
+	 *
+	 * @param name
+	 *            For naming the directory
+	 * @return the directory
+	 * @throws IOException
+	 */
+	public static File createFeedDirectory(String name) throws IOException {
+		File directory = new File(System.getProperty("java.io.tmpdir"),
+				name + "-" + System.nanoTime());
+		directory.mkdirs();
+
+		writeFile(directory, "agency.txt",
+				"agency_id,agency_name,agency_url,agency_timezone\n"
+				+ "test,Test Transit,http://example.com,America/Los_Angeles\n");
+		writeFile(directory, "routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,"
+				+ "route_type\n"
+				+ "r1,test,1,Shaped Route,3\n"
+				+ "r2,test,2,Unshaped Route,3\n");
+		writeFile(directory, "stops.txt",
+				"stop_id,stop_name,stop_lat,stop_lon\n"
+				+ "s1,Stop 1,37.7700,-122.4200\n"
+				+ "s2,Stop 2,37.7710,-122.4180\n"
+				+ "s3,Stop 3,37.7720,-122.4160\n"
+				+ "s4,Stop 4,37.7730,-122.4140\n"
+				+ "s5,Stop 5,37.7800,-122.4300\n"
+				+ "s6,Stop 6,37.7820,-122.4280\n");
+		writeFile(directory, "calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,"
+				+ "saturday,sunday,start_date,end_date\n"
+				+ "wk,1,1,1,1,1,0,0,20150101,20991231\n");
+		writeFile(directory, "trips.txt",
+				"route_id,service_id,trip_id,trip_headsign,direction_id,"
+				+ "block_id,shape_id\n"
+				+ "r1,wk,t1,Outbound,0,b1,sh1\n"
+				+ "r1,wk,t2,Outbound,0,b1,sh1\n"
+				+ "r1,wk,t3,Short,0,b2,sh1\n"
+				+ "r2,wk,t4,Crosstown,0,b3,\n"
+				+ "r2,wk,t5,Crosstown,0,b3,\n");
+		writeFile(directory, "stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+				+ "t1,08:00:00,08:00:00,s1,1\n"
+				+ "t1,08:03:00,08:03:00,s2,2\n"
+				+ "t1,08:06:00,08:06:00,s3,3\n"
+				+ "t1,08:09:00,08:09:00,s4,4\n"
+				// Out of order to make sure the stop times get sorted
+				+ "t2,09:06:00,09:06:00,s3,3\n"
+				+ "t2,09:00:00,09:00:00,s1,1\n"
+				+ "t2,09:09:00,09:09:00,s4,4\n"
+				+ "t2,09:03:00,09:03:00,s2,2\n"
+				+ "t3,10:00:00,10:00:00,s2,1\n"
+				+ "t3,10:03:00,10:03:00,s3,2\n"
+				+ "t4,08:00:00,08:00:00,s5,1\n"
+				+ "t4,08:05:00,08:05:00,s6,2\n"
+				+ "t5,09:00:00,09:00:00,s5,1\n"
+				+ "t5,09:05:00,09:05:00,s6,2\n");
+		writeFile(directory, "shapes.txt",
+				"shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+				+ "sh1,37.7700,-122.4200,1\n"
+				+ "sh1,37.7705,-122.4190,2\n"
+				+ "sh1,37.7710,-122.4180,3\n"
+				+ "sh1,37.7715,-122.4170,4\n"
+				+ "sh1,37.7720,-122.4160,5\n"
+				+ "sh1,37.7725,-122.4150,6\n"
+				+ "sh1,37.7730,-122.4140,7\n");
+
+		return directory;
+	}
+
+	/**
+	 * Deletes the directory created by createFeedDirectory().
+	 *
+	 * @param directory
+	 */
+	public static void deleteFeedDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	private static void writeFile(File directory, String fileName,
+			String contents) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(
+				directory, fileName)), "UTF-8");
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Processes the GTFS data in the directory and writes it to the db.
+	 *
+	 * @param directory
+	 * @param configRev
+	 *            The rev to write the data to
+	 * @param parallel
+	 *            Whether to do a parallel import
+	 * @return the processed data
+	 */
+	public static GtfsData processData(File directory, int configRev,
+			boolean parallel) {
+		return processData(directory, configRev, parallel, false);
+	}
+
+	/**
+	 * Same as processData(File, int, boolean) but can also make the new
+	 * config rev the active one.
+	 *
+	 * @param directory
+	 * @param configRev
+	 *            The rev to write the data to
+	 * @param parallel
+	 *            Whether to do a parallel import
+	 * @param storeNewRevs
+	 *            If true then the config rev and a new travel times rev are
+	 *            stored in the ActiveRevisions table
+	 * @return the processed data
+	 */
+	public static GtfsData processData(File directory, int configRev,
+			boolean parallel, boolean storeNewRevs) {
+		GtfsData gtfsData = new GtfsData(configRev,
+				"GtfsTestData", // notes
+				new Date(), // zipFileLastModifiedTime
+				storeNewRevs,
+				AGENCY_ID,
+				directory.getPath(),
+				null, // supplementDir
+				false, // shouldCombineShortAndLongNamesForRoutes
+				0.0, // pathOffsetDistance
+				60.0, // maxStopToPathDistance
+				0.0, // maxDistanceForEliminatingVertices
+				10000, // defaultWaitTimeAtStopMsec
+				97.0, // maxSpeedKph
+				200.0, // maxTravelTimeSegmentLength
+				false, // trimPathBeforeFirstStopOfTrip
+				new TitleFormatter(null, false));
+		gtfsData.processData(parallel);
+		return gtfsData;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.gtfs;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.hibernate.Hibernate;
+import org.transitime.configData.CoreConfig;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+import org.transitime.db.structs.TripPattern;
+
+/**
+ * Confirms that when the config data is preloaded everything that would
+ * otherwise be lazy loaded is read in, so that it can still be accessed
+ * once the session used to read the data is closed.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestDbConfig extends TestCase {
+
+	private File directory;
+
+	// Different from the revs used by other tests that use GtfsTestData
+	private static final int CONFIG_REV = 10;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = GtfsTestData.createFeedDirectory("TestDbConfig");
+		GtfsTestData.processData(directory, CONFIG_REV, false);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		GtfsTestData.deleteFeedDirectory(directory);
+	}
+
+	public void testPreloadInitializesLazyCollections() {
+		assertTrue(CoreConfig.preloadConfigData());
+
+		DbConfig dbConfig = new DbConfig(GtfsTestData.AGENCY_ID);
+		dbConfig.read(CONFIG_REV, false);
+
+		// Once the session is closed nothing can be lazy loaded
+		dbConfig.closeGlobalSession();
+
+		int numTrips = 0;
+		for (Block block : dbConfig.getBlocks()) {
+			assertTrue(block.areTripsReadIn());
+			for (Trip trip : block.getTrips()) {
+				assertTrue(Hibernate.isInitialized(trip.getScheduleTimes()));
+				assertFalse(trip.getScheduleTimes().isEmpty());
+				++numTrips;
+			}
+		}
+		assertEquals(5, numTrips);
+
+		for (Trip trip : dbConfig.getTrips().values()) {
+			assertTrue(Hibernate.isInitialized(trip.getScheduleTimes()));
+
+			TripPattern tripPattern = trip.getTripPattern();
+			assertTrue(Hibernate.isInitialized(tripPattern.getStopPaths()));
+			for (StopPath stopPath : tripPattern.getStopPaths()) {
+				assertTrue(Hibernate.isInitialized(stopPath.getLocations()));
+				assertTrue(stopPath.getLocations().size() >= 2);
+			}
+		}
+	}
+
+	public void testTripShortNameUsesPreloadedTrips() {
+		DbConfig dbConfig = new DbConfig(GtfsTestData.AGENCY_ID);
+		dbConfig.read(CONFIG_REV, false);
+
+		// Can't query the db once the session is closed so the trips must
+		// come from the preloaded data. Since the feed doesn't specify
+		// trip_short_name the trip_id is used.
+		dbConfig.closeGlobalSession();
+
+		assertEquals("t3", dbConfig.getTripUsingTripShortName("t3").getId());
+		assertNull(dbConfig.getTripUsingTripShortName("noSuchTrip"));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.gtfs;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+import org.transitime.db.structs.TripPattern;
+
+/**
+ * Processes the same small GTFS feed with a serial import and with a
+ * parallel import and confirms that the resulting trips, trip patterns,
+ * stop paths and blocks are the same.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestGtfsDataParallelImport extends TestCase {
+
+	private File directory;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = GtfsTestData.createFeedDirectory(
+				"TestGtfsDataParallelImport");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		GtfsTestData.deleteFeedDirectory(directory);
+	}
+
+	/**
+	 * Describes the processed trip patterns, stop paths, trips and blocks in
+	 * a way that doesn't depend on the order that they were processed in.
+	 *
+	 * @param gtfsData
+	 * @return map of description keyed on the ID of the object described
+	 */
+	private static Map<String, String> describe(GtfsData gtfsData) {
+		Map<String, String> results = new TreeMap<String, String>();
+		for (TripPattern tripPattern : gtfsData.getTripPatterns()) {
+			results.put("tripPattern " + tripPattern.getId(),
+					tripPattern.getRouteId() + " "
+					+ tripPattern.getShapeId() + " "
+					+ tripPattern.getHeadsign());
+			for (StopPath stopPath : tripPattern.getStopPaths()) {
+				StringBuilder sb = new StringBuilder();
+				for (Location loc : stopPath.getLocations())
+					sb.append(loc.getLat()).append(',')
+							.append(loc.getLon()).append(' ');
+				results.put("stopPath " + tripPattern.getId() + " "
+						+ stopPath.getId(), sb.toString());
+			}
+		}
+		for (Trip trip : gtfsData.getTrips()) {
+			results.put("trip " + trip.getId(), trip.getTripPattern().getId()
+					+ " " + trip.getBlockId() + " " + trip.getScheduleTimes());
+		}
+		for (Block block : gtfsData.getBlocks()) {
+			results.put("block " + block.getId() + " " + block.getServiceId(),
+					block.getStartTime() + "-" + block.getEndTime());
+		}
+		return results;
+	}
+
+	public void testParallelMatchesSerial() {
+		// Separate config revs since both imports are written to the db
+		Map<String, String> serial = describe(
+				GtfsTestData.processData(directory, 0, false));
+		Map<String, String> parallel = describe(
+				GtfsTestData.processData(directory, 1, true));
+
+		// Make sure the feed was actually processed: 3 trip patterns, one
+		// without a shape, 5 trips and 3 blocks
+		int numTripPatterns = 0;
+		for (String key : serial.keySet())
+			if (key.startsWith("tripPattern "))
+				++numTripPatterns;
+		assertEquals(3, numTripPatterns);
+		assertTrue(serial.containsKey("trip t5"));
+		assertTrue(serial.containsKey("block b3 wk"));
+
+		assertEquals(serial, parallel);
+	}
+}
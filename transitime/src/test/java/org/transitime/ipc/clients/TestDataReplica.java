@@ -0,0 +1,148 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.clients;
+
+import java.rmi.RemoteException;
+
+import junit.framework.TestCase;
+
+import org.transitime.core.dataCache.VehicleDataCache;
+import org.transitime.ipc.data.IpcDataChanges;
+import org.transitime.ipc.data.IpcTestData;
+import org.transitime.ipc.interfaces.DataSubscriptionInterface;
+import org.transitime.ipc.servers.LocalDataSubscription;
+
+/**
+ * Confirms that a DataReplica kept up to date via a LocalDataSubscription
+ * gets a full snapshot first and then just the changes, handles removed
+ * vehicles, and gets a new full snapshot when the core is restarted.
+ * <p>
+ * The VehicleDataCache is a singleton so each test uses its own vehicle
+ * IDs and routes.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestDataReplica extends TestCase {
+
+	static {
+		// Must be set before the config values are read
+		System.setProperty("transitime.subscription.enabled", "true");
+		System.setProperty("transitime.gtfsRt.vehiclePositionsCacheEnabled",
+				"false");
+	}
+
+	/**
+	 * A LocalDataSubscription where a restart of the core can be simulated
+	 * by changing the coreInstanceId that the replica sees.
+	 */
+	private static class RestartableSubscription implements
+			DataSubscriptionInterface {
+		private final LocalDataSubscription subscription =
+				new LocalDataSubscription();
+		private long coreInstanceIdOffset = 0;
+
+		@Override
+		public IpcDataChanges getChanges(long coreInstanceId,
+				long sinceSequence, int maxWaitMsec) throws RemoteException {
+			IpcDataChanges changes = subscription.getChanges(coreInstanceId
+					- coreInstanceIdOffset, sinceSequence, maxWaitMsec);
+			return new IpcDataChanges(changes.getCoreInstanceId()
+					+ coreInstanceIdOffset, changes.getSequence(),
+					changes.isFullSnapshot(), changes.getVehicles(),
+					changes.getRemovedVehicleIds(), changes.getPredictions());
+		}
+
+		private void restartCore() {
+			++coreInstanceIdOffset;
+		}
+	}
+
+	private RestartableSubscription subscription;
+	private DataReplica replica;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() {
+		subscription = new RestartableSubscription();
+		replica = new DataReplica("test", subscription);
+	}
+
+	private static void updateVehicle(String vehicleId, String routeShortName,
+			boolean predictable, boolean schedBasedPred) {
+		VehicleDataCache.getInstance().updateVehicle(IpcTestData.createVehicle(
+				vehicleId, routeShortName, predictable, schedBasedPred));
+	}
+
+	public void testSnapshotThenChanges() throws Exception {
+		updateVehicle("snapshot1", "S1", true, false);
+		assertTrue(!replica.isCurrent());
+
+		IpcDataChanges changes = replica.update(0);
+		assertTrue(changes.isFullSnapshot());
+		assertTrue(replica.isCurrent());
+		assertEquals("S1", replica.getVehicle("snapshot1").getRouteShortName());
+
+		// No changes since the snapshot
+		changes = replica.update(0);
+		assertTrue(!changes.isFullSnapshot());
+		assertTrue(changes.getVehicles().isEmpty());
+
+		// Only the changed vehicles are sent
+		updateVehicle("snapshot2", "S2", true, false);
+		updateVehicle("snapshot1", "S3", true, false);
+		changes = replica.update(0);
+		assertTrue(!changes.isFullSnapshot());
+		assertEquals(2, changes.getVehicles().size());
+		assertEquals("S2", replica.getVehicle("snapshot2").getRouteShortName());
+		assertEquals("S3", replica.getVehicle("snapshot1").getRouteShortName());
+		assertEquals(1, replica.getVehiclesForRoute("S3").size());
+		assertTrue(replica.getVehiclesForRoute("S1").isEmpty());
+	}
+
+	public void testRemovedVehicle() throws Exception {
+		updateVehicle("removed1", "A", true, true);
+		replica.update(0);
+		assertTrue(replica.getVehicle("removed1") != null);
+
+		// A schedule based vehicle that is no longer predictable is removed
+		// from the VehicleDataCache
+		updateVehicle("removed1", "A", false, true);
+		IpcDataChanges changes = replica.update(0);
+		assertTrue(!changes.isFullSnapshot());
+		assertTrue(changes.getRemovedVehicleIds().contains("removed1"));
+		assertEquals(null, replica.getVehicle("removed1"));
+	}
+
+	public void testResyncAfterCoreRestart() throws Exception {
+		updateVehicle("restart1", "A", true, false);
+		replica.update(0);
+		assertTrue(!replica.update(0).isFullSnapshot());
+
+		// Sequence numbers from the old core are meaningless so the replica
+		// needs to get a full snapshot again
+		subscription.restartCore();
+		updateVehicle("restart2", "A", true, false);
+		IpcDataChanges changes = replica.update(0);
+		assertTrue(changes.isFullSnapshot());
+		assertTrue(replica.getVehicle("restart1") != null);
+		assertTrue(replica.getVehicle("restart2") != null);
+
+		assertTrue(!replica.update(0).isFullSnapshot());
+	}
+}
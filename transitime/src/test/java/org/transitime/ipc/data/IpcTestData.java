@@ -0,0 +1,61 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import org.transitime.core.BlockAssignmentMethod;
+import org.transitime.core.TemporalDifference;
+import org.transitime.db.structs.AvlReport.AssignmentType;
+import org.transitime.utils.Time;
+
+/**
+ * For tests that need IPC objects without having to create a VehicleState.
+ * In this package since the constructors that take all of the members are
+ * package-private.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcTestData {
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the complete info for a vehicle with a current AVL report.
+	 *
+	 * @param vehicleId
+	 * @param routeShortName
+	 * @param predictable
+	 * @param schedBasedPred
+	 * @return the vehicle
+	 */
+	public static IpcVehicleComplete createVehicle(String vehicleId,
+			String routeShortName, boolean predictable,
+			boolean schedBasedPred) {
+		long now = System.currentTimeMillis();
+		IpcAvl avl = new IpcAvl(vehicleId, now, 37.7f, -122.4f, 8.5f, 270.0f,
+				"test", "block_" + vehicleId, AssignmentType.BLOCK_ID, null,
+				null, -1);
+		return new IpcVehicleComplete("block_" + vehicleId,
+				BlockAssignmentMethod.AVL_FEED_BLOCK_ASSIGNMENT, avl, 265.0f,
+				"route_" + routeShortName, routeShortName, "trip_" + vehicleId,
+				"pattern_" + routeShortName, "0", "Downtown", predictable,
+				schedBasedPred, new TemporalDifference(0), false, false, 0L,
+				"stop1", null, "3", -1L, -1L, now - Time.MS_PER_HOUR, false,
+				"stop1", 1, "Route " + routeShortName, "stop0", "Downtown",
+				120.5, 2500.0, 2379.5);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.ipc.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.transitime.core.BlockAssignmentMethod;
+import org.transitime.core.TemporalDifference;
+import org.transitime.db.structs.AvlReport.AssignmentType;
+import org.transitime.utils.Time;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that IpcDataCodec encodes and decodes predictions and vehicles
+ * without losing any data and that the encoded data is smaller than with
+ * Java serialization, which is what is used for RMI.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestIpcDataCodec extends TestCase {
+
+	private static final int NUM_ROUTES = 50;
+	private static final int STOPS_PER_ROUTE = 60;
+	private static final int PREDS_PER_STOP = 3;
+	private static final int NUM_VEHICLES = 1000;
+
+	/********************** Member Functions **************************/
+
+	private static List<IpcPredictionsForRouteStopDest> createPredictions() {
+		long now = System.currentTimeMillis();
+		List<IpcPredictionsForRouteStopDest> predictions =
+				new ArrayList<IpcPredictionsForRouteStopDest>();
+		for (int r = 0; r < NUM_ROUTES; ++r) {
+			String routeId = "route" + r;
+			for (int s = 0; s < STOPS_PER_ROUTE; ++s) {
+				String stopId = "stop" + (r * 7 + s) % 1500;
+				List<IpcPrediction> preds = new ArrayList<IpcPrediction>();
+				for (int p = 0; p < PREDS_PER_STOP; ++p) {
+					preds.add(new IpcPrediction("vehicle" + (r * 20 + p),
+							routeId, stopId, s + 1, "trip" + r + "_" + p,
+							"pattern" + r, "block" + r + "_" + p, now + s
+									* Time.MS_PER_MIN + p * 10
+									* Time.MS_PER_MIN, 0L, p == 2, now - 15
+									* Time.MS_PER_SEC, now - 10
+									* Time.MS_PER_SEC, now - Time.MS_PER_HOUR,
+							false, null, (short) -1, Float.NaN, false, false,
+							s % 2 == 0));
+				}
+				predictions.add(new IpcPredictionsForRouteStopDest(routeId,
+						"R" + r, "Route " + r, r, stopId, "Stop " + s,
+						"Downtown", "0", Double.NaN, preds));
+			}
+		}
+		return predictions;
+	}
+
+	private static List<IpcVehicleComplete> createVehicles() {
+		long now = System.currentTimeMillis();
+		List<IpcVehicleComplete> vehicles = new ArrayList<IpcVehicleComplete>();
+		for (int v = 0; v < NUM_VEHICLES; ++v) {
+			int r = v % NUM_ROUTES;
+			IpcAvl avl = new IpcAvl("vehicle" + v, now - v * 10,
+					37.7f + v * 0.0001f, -122.4f - v * 0.0001f, 8.5f, 270.0f,
+					"GTFS-rt", "block" + v, AssignmentType.BLOCK_ID, null,
+					null, -1);
+			vehicles.add(new IpcVehicleComplete("block" + v,
+					BlockAssignmentMethod.AVL_FEED_BLOCK_ASSIGNMENT, avl,
+					265.0f, "route" + r, "R" + r, "trip" + v, "pattern" + r,
+					"0", "Downtown", true, false, new TemporalDifference(
+							v * 1000 - 60000), false, false, 0L, "stop" + v
+							% 1500, null, "3", v * 1000L, -1L,
+					now - Time.MS_PER_HOUR,
+					v % 10 == 0, "stop" + v % 1500, v % 60 + 1, "Route " + r,
+					"stop0", "Downtown", 120.5, 2500.0, 2379.5));
+		}
+		return vehicles;
+	}
+
+	private static byte[] javaSerialize(Object object) throws IOException {
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(byteStream);
+		out.writeObject(object);
+		out.close();
+		return byteStream.toByteArray();
+	}
+
+	/**
+	 * Since the ipc.data classes don't implement equals() the decoded objects
+	 * are compared by comparing their Java serialized bytes.
+	 */
+	public void testPredictionsRoundTrip() throws Exception {
+		List<IpcPredictionsForRouteStopDest> predictions = createPredictions();
+		List<IpcPredictionsForRouteStopDest> decoded =
+				IpcDataCodec.decodePredictions(IpcDataCodec
+						.encodePredictions(predictions));
+		assertTrue(Arrays.equals(javaSerialize(predictions),
+				javaSerialize(new ArrayList<IpcPredictionsForRouteStopDest>(
+						decoded))));
+	}
+
+	public void testVehiclesRoundTrip() throws Exception {
+		List<IpcVehicleComplete> vehicles = createVehicles();
+		List<IpcVehicleComplete> decoded =
+				IpcDataCodec.decodeVehicles(IpcDataCodec
+						.encodeVehicles(vehicles));
+		assertTrue(Arrays.equals(javaSerialize(vehicles),
+				javaSerialize(new ArrayList<IpcVehicleComplete>(decoded))));
+	}
+
+	public void testTruncatedDataRejected() {
+		byte[] data = IpcDataCodec.encodeVehicles(createVehicles());
+		try {
+			IpcDataCodec.decodeVehicles(Arrays.copyOf(data, data.length / 2));
+			fail("Truncated data should not be decoded");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testNewerVersionRejected() {
+		// Version is the first byte. Use a version newer than the current one
+		byte[] data = IpcDataCodec.encodeVehicles(createVehicles());
+		data[0] = (byte) (IpcDataEncoder.CODEC_VERSION + 1);
+		try {
+			IpcDataCodec.decodeVehicles(data);
+			fail("Data from newer version of codec should not be decoded");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * The whole point of the codec is to be more compact than Java
+	 * serialization. The speed comparison is done by IpcSerializationBenchmark
+	 * in the benchmarks module.
+	 */
+	public void testSmallerThanJavaSerialization() throws Exception {
+		List<IpcPredictionsForRouteStopDest> predictions = createPredictions();
+		assertTrue(IpcDataCodec.encodePredictions(predictions).length <
+				javaSerialize(predictions).length);
+
+		List<IpcVehicleComplete> vehicles = createVehicles();
+		assertTrue(IpcDataCodec.encodeVehicles(vehicles).length <
+				javaSerialize(vehicles).length);
+	}
+}
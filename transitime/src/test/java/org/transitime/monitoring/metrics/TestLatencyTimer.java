@@ -0,0 +1,73 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.monitoring.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Confirms that the LatencyTimer histogram buckets are contiguous and that
+ * the interval statistics are determined correctly.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestLatencyTimer extends TestCase {
+
+	/********************** Member Functions **************************/
+
+	public void testBuckets() {
+		int previousIndex = -1;
+		for (long v = 0; v < 1000000; ++v) {
+			int index = LatencyTimer.bucketIndex(v);
+			assertTrue(index == previousIndex || index == previousIndex + 1);
+			assertTrue(LatencyTimer.bucketLowerBound(index) <= v);
+			// Accurate to within about 3%
+			assertTrue(Math.abs(LatencyTimer.bucketMidpoint(index) - v)
+					<= v / 32.0 + 0.5);
+			previousIndex = index;
+		}
+
+		// Very large values go into the last bucket instead of overflowing
+		assertEquals(LatencyTimer.bucketIndex(1L << 40),
+				LatencyTimer.bucketIndex(Long.MAX_VALUE));
+	}
+
+	public void testIntervalStats() {
+		LatencyTimer timer = new LatencyTimer("test");
+		for (int msec = 1; msec <= 100; ++msec)
+			timer.recordMsec(msec);
+		timer.rollInterval();
+
+		assertEquals(100, timer.getCount());
+		assertEquals(100, timer.getIntervalCount());
+		assertEquals(50.5, timer.getIntervalMeanMsec(), 0.001);
+		assertEquals(50.0, timer.getIntervalMedianMsec(), 50.0 / 32);
+		assertEquals(99.0, timer.getInterval99thPercentileMsec(), 99.0 / 32);
+		assertEquals(100.0, timer.getIntervalMaxMsec(), 0.001);
+
+		// Next interval only contains new samples
+		timer.record(2000000);
+		timer.rollInterval();
+		assertEquals(101, timer.getCount());
+		assertEquals(1, timer.getIntervalCount());
+		assertEquals(2.0, timer.getIntervalMaxMsec(), 0.001);
+
+		// Empty interval
+		timer.rollInterval();
+		assertEquals(0, timer.getIntervalCount());
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.utils.csv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.csv.CSVRecord;
+import org.transitime.utils.csv.CsvBaseReader.CsvObjectHandler;
+
+/**
+ * Confirms that streaming the objects from a CSV file to a CsvObjectHandler
+ * provides the same objects, in the same order, as reading them into a list
+ * with get().
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TestCsvBaseReader extends TestCase {
+
+	private File directory;
+
+	private static final String FILE_NAME = "values.txt";
+
+	/**
+	 * Reads in the value column. Filters out records whose id starts with
+	 * "skip" and throws NumberFormatException if value is not an integer.
+	 */
+	private static class ValueReader extends CsvBaseReader<Integer> {
+		private ValueReader(String dirName) {
+			super(dirName, FILE_NAME, false, false);
+		}
+
+		@Override
+		protected Integer handleRecord(CSVRecord record, boolean supplemental)
+				throws ParseException, NumberFormatException {
+			if (record.get("id").startsWith("skip"))
+				return null;
+			return Integer.parseInt(record.get("value"));
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = new File(System.getProperty("java.io.tmpdir"),
+				"TestCsvBaseReader-" + System.nanoTime());
+		directory.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+
+	private void writeFile(String contents) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(
+				directory, FILE_NAME)), "UTF-8");
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private List<Integer> stream() {
+		final List<Integer> streamed = new ArrayList<Integer>();
+		new ValueReader(directory.getPath()).stream(
+				new CsvObjectHandler<Integer>() {
+			@Override
+			public void handleObject(Integer csvObject) {
+				streamed.add(csvObject);
+			}
+		});
+		return streamed;
+	}
+
+	public void testStreamMatchesGet() throws IOException {
+		// Includes a BOM, a comment line, a filtered out record and a
+		// record that can't be parsed
+		writeFile("\uFEFFid,value\n"
+				+ "a,3\n"
+				+ "-- commented out,99\n"
+				+ "b,1\n"
+				+ "skip1,7\n"
+				+ "c,notANumber\n"
+				+ "\"d, quoted\",2\n");
+
+		List<Integer> streamed = stream();
+		List<Integer> list = new ValueReader(directory.getPath()).get();
+
+		List<Integer> expected = new ArrayList<Integer>();
+		expected.add(3);
+		expected.add(1);
+		expected.add(2);
+		assertEquals(expected, streamed);
+		assertEquals(expected, list);
+	}
+
+	public void testStreamLargeFile() throws IOException {
+		final int numRecords = 100000;
+		StringBuilder sb = new StringBuilder("id,value\n");
+		for (int i = 0; i < numRecords; ++i)
+			sb.append("id").append(i).append(',').append(i).append('\n');
+		writeFile(sb.toString());
+
+		// Only keep a running total so the objects don't need to be held
+		final long[] sumAndCount = new long[2];
+		new ValueReader(directory.getPath()).stream(
+				new CsvObjectHandler<Integer>() {
+			private int expectedValue = 0;
+
+			@Override
+			public void handleObject(Integer csvObject) {
+				assertEquals(expectedValue++, csvObject.intValue());
+				sumAndCount[0] += csvObject;
+				++sumAndCount[1];
+			}
+		});
+
+		assertEquals(numRecords, sumAndCount[1]);
+		assertEquals((long) numRecords * (numRecords - 1) / 2, sumAndCount[0]);
+	}
+
+	public void testStreamMissingFile() {
+		// File is not required so nothing is streamed
+		assertTrue(stream().isEmpty());
+		assertTrue(new ValueReader(directory.getPath()).get().isEmpty());
+	}
+}
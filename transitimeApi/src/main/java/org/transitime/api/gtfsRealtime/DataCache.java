@@ -17,48 +17,54 @@
 
 package org.transitime.api.gtfsRealtime;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.transitime.utils.Time;
 
-import com.google.transit.realtime.GtfsRealtime.FeedMessage;
-
 /**
  * For caching GTFS-realtime messages. Useful because the messages are huge and
  * take a lot of resources so if get multiple requests not too far apart then it
  * makes sense to return a cached version.
+ * <p>
+ * Generic so that it can be used to cache either FeedMessages or the already
+ * serialized feeds obtained from the server. Uses a ConcurrentHashMap since
+ * it is accessed by multiple request threads simultaneously.
  *
  * @author SkiBu Smith
  *
  */
-public class DataCache {
+public class DataCache<T> {
 
-    private Map<String, CacheEntry> cacheMap = new HashMap<String, CacheEntry>();
+    private final ConcurrentHashMap<String, CacheEntry<T>> cacheMap =
+	    new ConcurrentHashMap<String, CacheEntry<T>>();
 
     /********************** Member Functions **************************/
 
-    private static class CacheEntry {
-	private long timeCreated;
-	private FeedMessage cachedFeedMessage;
+    private static class CacheEntry<T> {
+	private final long timeCreated;
+	private final T cachedData;
+	
+	private CacheEntry(long timeCreated, T cachedData) {
+	    this.timeCreated = timeCreated;
+	    this.cachedData = cachedData;
+	}
     }
 
-    public FeedMessage get(String agencyId, int maxCacheSeconds) {
-	CacheEntry cacheEntry = cacheMap.get(agencyId);
+    public T get(String agencyId, int maxCacheSeconds) {
+	CacheEntry<T> cacheEntry = cacheMap.get(agencyId);
 	if (cacheEntry == null)
 	    return null;
 	if (cacheEntry.timeCreated < System.currentTimeMillis() - maxCacheSeconds * Time.MS_PER_SEC) {
-	    cacheMap.remove(agencyId);
+	    // Only remove if not replaced by another thread in the meantime
+	    cacheMap.remove(agencyId, cacheEntry);
 	    return null;
 	}
-	return cacheEntry.cachedFeedMessage;
+	return cacheEntry.cachedData;
     }
     
-    public void put(String agencyId, FeedMessage feedMessage) {
-	CacheEntry cacheEntry = new CacheEntry();
-	cacheEntry.timeCreated = System.currentTimeMillis();
-	cacheEntry.cachedFeedMessage = feedMessage;
-	cacheMap.put(agencyId, cacheEntry);
+    public void put(String agencyId, T data) {
+	cacheMap.put(agencyId,
+		new CacheEntry<T>(System.currentTimeMillis(), data));
     }
 }
 
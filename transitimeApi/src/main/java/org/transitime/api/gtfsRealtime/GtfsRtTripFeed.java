@@ -17,10 +17,10 @@
 
 package org.transitime.api.gtfsRealtime;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,34 +28,30 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.api.utils.AgencyTimezoneCache;
+import org.transitime.feed.gtfsRt.GtfsRtTripUpdateCreator;
 import org.transitime.ipc.clients.PredictionsInterfaceFactory;
+import org.transitime.ipc.data.IpcDataCodec;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
 import org.transitime.ipc.data.IpcPrediction;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
 import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.Time;
 
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
 import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
-import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
-import com.google.transit.realtime.GtfsRealtime.TripUpdate;
-import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
-import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship;
-import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
 import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
-import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
  
 /**
  * For creating GTFS-realtime trip feed. The data is obtained from the server
  * via RMI.
  * <p>
- * Note: for the trip feed predictions that are schedule based instead of GPS
- * based the StopTimeEvent uncertainty is set to
- * SCHED_BASED_PRED_UNCERTAINTY_VALUE so that the client can treat the
- * prediction differently. If a vehicle is delayed and not moving then
- * uncertainty is set to DELAYED_UNCERTAINTY_VALUE. And if a vehicle is late and
- * the prediction is for a subsequent trip then uncertainty is set to
- * LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE.
+ * Normally the server maintains the TripUpdate for each trip and provides the
+ * feed already serialized, which is much more efficient than obtaining all of
+ * the predictions and converting them for every request. If the server doesn't
+ * provide the feed then the feed is created here from all of the predictions.
+ * <p>
+ * See GtfsRtTripUpdateCreator for how uncertainty is used to indicate
+ * schedule based, delayed, and subsequent trip predictions.
  * 
  * @author SkiBu Smith
  *
@@ -71,21 +67,6 @@ public class GtfsRtTripFeed {
 	// 25 minutes
 	private static final int PREDICTION_MAX_FUTURE_SECS = 25 * 60; 
 	
-	// For when creating StopTimeEvent for schedule based prediction  
-	// 5 minutes (300 seconds)
-	private static final int SCHED_BASED_PRED_UNCERTAINTY_VALUE = 5 * 60; 
-	
-	// For when creating StopTimeEvent and the vehicle is delayed
-	private static final int DELAYED_UNCERTAINTY_VALUE = 
-			SCHED_BASED_PRED_UNCERTAINTY_VALUE + 1;
-	
-	// If vehicle is late and prediction is for a subsequent trip then
-	// the predictions are not as certain because it is reasonably likely
-	// that another vehicle will take over the subsequent trip. Takes
-	// precedence over SCHED_BASED_PRED_UNCERTAINTY_VALUE.
-	private static final int LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE = 
-			DELAYED_UNCERTAINTY_VALUE + 1;
-	
 	private static final Logger logger = 
 			LoggerFactory.getLogger(GtfsRtTripFeed.class);
 
@@ -98,80 +79,6 @@ public class GtfsRtTripFeed {
 				.get(agencyId));
 	}
 
-	/**
-	 * Create TripUpdate for the trip.
-	 * 
-	 * @param predsForTrip
-	 * @return
-	 */
-	private TripUpdate createTripUpdate(List<IpcPrediction> predsForTrip) {
-		// Create the parent TripUpdate object that is returned.
-		TripUpdate.Builder tripUpdate = TripUpdate.newBuilder();
-
-		// Add the trip descriptor information
-		IpcPrediction firstPred = predsForTrip.get(0);
-		TripDescriptor.Builder tripDescriptor = TripDescriptor.newBuilder();
-		if (firstPred.getRouteId() != null)
-			tripDescriptor.setRouteId(firstPred.getRouteId());
-		if (firstPred.getTripId() != null) {
-			tripDescriptor.setTripId(firstPred.getTripId());
-
-			long tripStartEpochTime = firstPred.getTripStartEpochTime();
-			String tripStartDateStr =
-					gtfsRealtimeDateFormatter.format(new Date(
-							tripStartEpochTime));
-			tripDescriptor.setStartDate(tripStartDateStr);
-		}
-		tripUpdate.setTrip(tripDescriptor);
-
-		// Add the VehicleDescriptor information
-		VehicleDescriptor.Builder vehicleDescriptor =
-				VehicleDescriptor.newBuilder().setId(firstPred.getVehicleId());
-		tripUpdate.setVehicle(vehicleDescriptor);
-
-		// Add the StopTimeUpdate information for each prediction
-		for (IpcPrediction pred : predsForTrip) {
-			StopTimeUpdate.Builder stopTimeUpdate =	StopTimeUpdate.newBuilder()
-					.setStopSequence(pred.getGtfsStopSeq())
-					.setStopId(pred.getStopId());
-			
-			StopTimeEvent.Builder stopTimeEvent = StopTimeEvent.newBuilder();
-			stopTimeEvent.setTime(pred.getPredictionTime() / Time.MS_PER_SEC);
-			
-			// If schedule based prediction then set the uncertainty to special
-			// value so that client can tell
-			if (pred.isSchedBasedPred())
-				stopTimeEvent.setUncertainty(SCHED_BASED_PRED_UNCERTAINTY_VALUE);
-			
-			// If vehicle is late and prediction is for a subsequent trip then
-			// the predictions are not as certain because it is reasonably likely
-			// that another vehicle will take over the subsequent trip. Takes
-			// precedence over SCHED_BASED_PRED_UNCERTAINTY_VALUE.
-			if (pred.isLateAndSubsequentTripSoMarkAsUncertain())
-				stopTimeEvent.setUncertainty(LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE);
-			
-			// If vehicle not making forward progress then set uncertainty to
-			// special value so that client can tell. Takes precedence over 
-			// LATE_AND_SUBSEQUENT_TRIP_UNCERTAINTY_VALUE.
-			if (pred.isDelayed())
-				stopTimeEvent.setUncertainty(DELAYED_UNCERTAINTY_VALUE);
-			
-			if (pred.isArrival())
-				stopTimeUpdate.setArrival(stopTimeEvent);
-			else
-				stopTimeUpdate.setDeparture(stopTimeEvent);
-			
-			stopTimeUpdate.setScheduleRelationship(ScheduleRelationship.SCHEDULED);  // TODO does this need to be here?
-			tripUpdate.addStopTimeUpdate(stopTimeUpdate);
-		}
-		
-		// Add timestamp
-		tripUpdate.setTimestamp(firstPred.getAvlTime() / Time.MS_PER_SEC);
-		
-		// Return the results
-		return tripUpdate.build();
-	}
-	
 	/**
 	 * Creates a GTFS-realtime message for the predictions by trip passed in.
 	 * 
@@ -191,12 +98,9 @@ public class GtfsRtTripFeed {
 		// For each trip...
 		for (List<IpcPrediction> predsForTrip : predsByTripMap.values()) {				
 			// Create feed entity for each trip
-			FeedEntity.Builder feedEntity = FeedEntity.newBuilder()
-					.setId(predsForTrip.get(0).getTripId());
 			try {				
-				TripUpdate tripUpdate = createTripUpdate(predsForTrip);
-				feedEntity.setTripUpdate(tripUpdate);		
-	    		message.addEntity(feedEntity);
+	    		message.addEntity(GtfsRtTripUpdateCreator.createFeedEntity(
+	    				predsForTrip, gtfsRealtimeDateFormatter));
 			} catch (Exception e) {
 				logger.error("Error parsing trip update data. {}",
 						predsForTrip, e);
@@ -215,14 +119,20 @@ public class GtfsRtTripFeed {
 	 *         if could not get data from server.
 	 */
 	private Map<String, List<IpcPrediction>> getPredictionsPerTrip() {
-		// Get all the predictions, grouped by vehicle, from the server
+		// Get all the predictions, grouped by vehicle, from the server.
+		// Uses the compact encoding since there are so many predictions.
 		List<IpcPredictionsForRouteStopDest> allPredictionsByStop;
 		try {
-			allPredictionsByStop = PredictionsInterfaceFactory.get(agencyId)
-					.getAllPredictions(PREDICTION_MAX_FUTURE_SECS);
+			allPredictionsByStop = IpcDataCodec.decodePredictions(
+					PredictionsInterfaceFactory.get(agencyId)
+							.getAllPredictionsEncoded(
+									PREDICTION_MAX_FUTURE_SECS));
 		} catch (RemoteException e) {
 			logger.error("Exception when getting vehicles from RMI", e);
 			return null;
+		} catch (IOException e) {
+			logger.error("Exception when decoding predictions from RMI", e);
+			return null;
 		}
 		
 		// Group the predictions by trip instead of by vehicle
@@ -267,10 +177,11 @@ public class GtfsRtTripFeed {
 	}
 
 	// For getPossiblyCachedMessage()
-	private static final DataCache tripFeedDataCache = new DataCache();
+	private static final DataCache<FeedMessage> tripFeedDataCache =
+			new DataCache<FeedMessage>();
 	
 	/**
-	 * For caching Vehicle Positions feed messages.
+	 * For caching Trip Updates feed messages.
 	 * 
 	 * @param agencyId
 	 * @param cacheTime
@@ -287,4 +198,56 @@ public class GtfsRtTripFeed {
 	    return feedMessage;
 	}
 
+	// For getPossiblyCachedFeed()
+	private static final DataCache<SerializedFeed> serializedFeedDataCache =
+			new DataCache<SerializedFeed>();
+	
+	/**
+	 * Returns the Trip Updates feed as already serialized bytes. If sinceVersion
+	 * is not negative then requests a DIFFERENTIAL feed containing just the
+	 * changes since that version. Full dataset feeds are cached for cacheTime
+	 * seconds. If the server doesn't maintain the TripUpdates then the feed is
+	 * created here from all of the predictions and serialized.
+	 * 
+	 * @param agencyId
+	 * @param cacheTime
+	 * @param sinceVersion
+	 *            Version that the client already has, or -1 for full dataset
+	 * @return the serialized feed
+	 */
+	public static SerializedFeed getPossiblyCachedFeed(String agencyId,
+			int cacheTime, long sinceVersion) {
+		if (sinceVersion < 0) {
+			SerializedFeed serializedFeed =
+					serializedFeedDataCache.get(agencyId, cacheTime);
+			if (serializedFeed != null)
+				return serializedFeed;
+		}
+		
+		// Get the serialized feed from the server
+		IpcGtfsRealtimeFeed feed = null;
+		try {
+			IntervalTimer timer = new IntervalTimer();
+			feed = PredictionsInterfaceFactory.get(agencyId)
+					.getGtfsRtTripUpdates(sinceVersion);
+			logger.debug("Getting serialized trip updates via RMI took {} msec",
+					timer.elapsedMsec());
+		} catch (RemoteException e) {
+			logger.error("Exception when getting trip updates from RMI", e);
+		}
+		
+		// If server didn't provide the feed then create it from all of the
+		// predictions
+		if (feed == null) {
+			FeedMessage feedMessage =
+					getPossiblyCachedMessage(agencyId, cacheTime);
+			feed = new IpcGtfsRealtimeFeed(-1, false,
+					System.currentTimeMillis(), feedMessage.toByteArray());
+		}
+		
+		SerializedFeed serializedFeed = new SerializedFeed(feed);
+		if (!feed.isDifferential())
+			serializedFeedDataCache.put(agencyId, serializedFeed);
+		return serializedFeed;
+	}
 }
@@ -18,31 +18,30 @@
 package org.transitime.api.gtfsRealtime;
 
 import java.rmi.RemoteException;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
-import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.api.utils.AgencyTimezoneCache;
+import org.transitime.feed.gtfsRt.GtfsRtVehiclePositionCreator;
 import org.transitime.ipc.clients.VehiclesInterfaceFactory;
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
 import org.transitime.ipc.data.IpcVehicleGtfsRealtime;
 import org.transitime.ipc.interfaces.VehiclesInterface;
+import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.Time;
 
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
 import com.google.transit.realtime.GtfsRealtime.FeedHeader;
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
-import com.google.transit.realtime.GtfsRealtime.Position;
-import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
-import com.google.transit.realtime.GtfsRealtime.VehicleDescriptor;
-import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
 import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
-import com.google.transit.realtime.GtfsRealtime.VehiclePosition.VehicleStopStatus;
 
 /**
  * For creating GTFS-realtime Vehicle feed. The data is obtained via RMI.
+ * <p>
+ * Normally the server maintains the VehiclePosition for each vehicle and
+ * provides the feed already serialized. If the server doesn't provide the
+ * feed then the feed is created here from all of the vehicles.
  *
  * @author SkiBu Smith
  *
@@ -67,82 +66,6 @@ public class GtfsRtVehicleFeed {
 				.get(agencyId));
 	}
 
-	/**
-	 * Takes in IpcGtfsRealtimeVehicle and puts it into a GTFS-realtime
-	 * VehiclePosition object.
-	 * 
-	 * @param vehicleData
-	 * @return the resulting VehiclePosition
-	 * @throws ParseException
-	 */
-	private VehiclePosition createVehiclePosition(
-			IpcVehicleGtfsRealtime vehicleData) throws ParseException {
-		// Create the parent VehiclePosition object that is returned.
-		VehiclePosition.Builder vehiclePosition = VehiclePosition.newBuilder();
-
-		// If there is route information then add it via the TripDescriptor
-		if (vehicleData.getRouteId() != null
-				&& vehicleData.getRouteId().length() > 0) {
-			String tripStartDateStr =
-					gtfsRealtimeDateFormatter.format(new Date(vehicleData
-							.getTripStartEpochTime()));
-			TripDescriptor.Builder tripDescriptor =					
-					TripDescriptor.newBuilder()
-							.setRouteId(vehicleData.getRouteId())
-							.setTripId(vehicleData.getTripId())
-							.setStartDate(tripStartDateStr);
-			vehiclePosition.setTrip(tripDescriptor);
-		}
-
-		// Add the VehicleDescriptor information
-		VehicleDescriptor.Builder vehicleDescriptor =
-				VehicleDescriptor.newBuilder().setId(vehicleData.getId());
-		// License plate information is optional so only add it if not null
-		if (vehicleData.getLicensePlate() != null)
-			vehicleDescriptor.setLicensePlate(vehicleData.getLicensePlate());
-		vehiclePosition.setVehicle(vehicleDescriptor);
-
-		// Add the Position information
-		Position.Builder position =
-				Position.newBuilder().setLatitude(vehicleData.getLatitude())
-						.setLongitude(vehicleData.getLongitude());
-		// Heading and speed are optional so only add them if actually a
-		// valid number.
-		if (!Float.isNaN(vehicleData.getHeading())) {
-			position.setBearing(vehicleData.getHeading());
-		}
-		if (!Float.isNaN(vehicleData.getSpeed())) {
-			position.setSpeed(vehicleData.getSpeed());
-		}
-		vehiclePosition.setPosition(position);
-
-		// Convert the GPS timestamp information to an epoch time as
-		// number of milliseconds since 1970.
-		long gpsTime = vehicleData.getGpsTime();
-		vehiclePosition.setTimestamp(gpsTime / Time.MS_PER_SEC);
-
-		// Set the stop_id if at a stop or going to a stop
-		String stopId = vehicleData.getAtOrNextStopId();
-		if (stopId != null)
-			vehiclePosition.setStopId(stopId);
-
-		// Set current_status part of vehiclePosition if vehicle is actually
-		// predictable. If not predictable then the vehicle stop status will
-		// not be included in feed since it is not stopped nor in transit to.
-		if (vehicleData.isPredictable()) {
-			VehicleStopStatus currentStatus =
-					vehicleData.isAtStop() ? VehicleStopStatus.STOPPED_AT
-							: VehicleStopStatus.IN_TRANSIT_TO;
-			vehiclePosition.setCurrentStatus(currentStatus);
-			
-			if (vehicleData.getAtOrNextGtfsStopSeq() != null)
-				vehiclePosition.setCurrentStopSequence(vehicleData.getAtOrNextGtfsStopSeq());
-		}
-
-		// Return the results
-		return vehiclePosition.build();
-	}
-
 	/**
 	 * Creates a GTFS-realtime message for the list of ApiVehicle passed in.
 	 * 
@@ -164,14 +87,9 @@ public class GtfsRtVehicleFeed {
 		message.setHeader(feedheader);
 
 		for (IpcVehicleGtfsRealtime vehicle : vehicles) {
-			FeedEntity.Builder vehiclePositionEntity =
-					FeedEntity.newBuilder().setId(vehicle.getId());
-
 			try {
-				VehiclePosition vehiclePosition =
-						createVehiclePosition(vehicle);
-				vehiclePositionEntity.setVehicle(vehiclePosition);
-				message.addEntity(vehiclePositionEntity);
+				message.addEntity(GtfsRtVehiclePositionCreator
+						.createFeedEntity(vehicle, gtfsRealtimeDateFormatter));
 			} catch (Exception e) {
 				logger.error("Error parsing vehicle data for vehicle={}",
 						vehicle, e);
@@ -211,7 +129,8 @@ public class GtfsRtVehicleFeed {
 	}
 
 	// For getPossiblyCachedMessage()
-	private static final DataCache vehicleFeedDataCache = new DataCache();
+	private static final DataCache<FeedMessage> vehicleFeedDataCache =
+			new DataCache<FeedMessage>();
 
 	/**
 	 * For caching Vehicle Positions feed messages.
@@ -231,4 +150,52 @@ public class GtfsRtVehicleFeed {
 		vehicleFeedDataCache.put(agencyId, feedMessage);
 		return feedMessage;
 	}
+
+	// For getPossiblyCachedFeed()
+	private static final DataCache<SerializedFeed> serializedFeedDataCache =
+			new DataCache<SerializedFeed>();
+
+	/**
+	 * Returns the Vehicle Positions feed as already serialized bytes. The
+	 * server maintains the feed so normally just the bytes are obtained from
+	 * it. If the server doesn't maintain the feed then it is created here
+	 * from all of the vehicles. Cached for cacheTime seconds.
+	 * 
+	 * @param agencyId
+	 * @param cacheTime
+	 * @return the serialized feed
+	 */
+	public static SerializedFeed getPossiblyCachedFeed(String agencyId,
+			int cacheTime) {
+		SerializedFeed serializedFeed =
+				serializedFeedDataCache.get(agencyId, cacheTime);
+		if (serializedFeed != null)
+			return serializedFeed;
+
+		// Get the serialized feed from the server
+		IpcGtfsRealtimeFeed feed = null;
+		try {
+			IntervalTimer timer = new IntervalTimer();
+			feed = VehiclesInterfaceFactory.get(agencyId)
+					.getGtfsRtVehiclePositions(-1);
+			logger.debug("Getting serialized vehicle positions via RMI took "
+					+ "{} msec", timer.elapsedMsec());
+		} catch (RemoteException e) {
+			logger.error("Exception when getting vehicle positions from RMI",
+					e);
+		}
+
+		// If server didn't provide the feed then create it from all of the
+		// vehicles
+		if (feed == null) {
+			FeedMessage feedMessage =
+					getPossiblyCachedMessage(agencyId, cacheTime);
+			feed = new IpcGtfsRealtimeFeed(-1, false,
+					System.currentTimeMillis(), feedMessage.toByteArray());
+		}
+
+		serializedFeed = new SerializedFeed(feed);
+		serializedFeedDataCache.put(agencyId, serializedFeed);
+		return serializedFeed;
+	}
 }
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.gtfsRealtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import org.transitime.ipc.data.IpcGtfsRealtimeFeed;
+
+/**
+ * A GTFS-realtime feed that has already been serialized, as obtained from the
+ * server, along with what is needed to serve it efficiently: ETags so that
+ * clients that already have the data can be told it hasn't changed, and a
+ * gzipped version of the bytes that is only created once no matter how many
+ * clients request it.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class SerializedFeed {
+
+	private final IpcGtfsRealtimeFeed feed;
+
+	// Separate ETags for the binary and the human readable output since
+	// they are different representations of the feed
+	private final String eTag;
+	private final String humanReadableETag;
+
+	// Created lazily since not all clients accept gzip. Guarded by
+	// synchronizing on this.
+	private byte[] gzippedBytes = null;
+
+	/********************** Member Functions **************************/
+
+	public SerializedFeed(IpcGtfsRealtimeFeed feed) {
+		this.feed = feed;
+
+		// The version alone is not unique since it starts over when the
+		// core is restarted so also use the time the feed was created.
+		this.eTag = (feed.isDifferential() ? "d" : "") + feed.getVersion()
+				+ "-" + Long.toHexString(feed.getTimeCreated());
+		this.humanReadableETag = eTag + "-human";
+	}
+
+	public IpcGtfsRealtimeFeed getFeed() {
+		return feed;
+	}
+
+	/**
+	 * Returns the entity tag, without the quotes, that identifies the
+	 * contents of the feed in the specified output format.
+	 *
+	 * @param humanFormatOutput
+	 *            True for the human readable output, false for the standard
+	 *            binary GTFS-realtime output
+	 * @return the ETag value
+	 */
+	public String getETag(boolean humanFormatOutput) {
+		return humanFormatOutput ? humanReadableETag : eTag;
+	}
+
+	/**
+	 * Returns the serialized FeedMessage. Not copied so the caller must not
+	 * modify the array.
+	 *
+	 * @return the bytes
+	 */
+	public byte[] getBytes() {
+		return feed.getFeedMessageBytes();
+	}
+
+	/**
+	 * Returns the serialized FeedMessage compressed using gzip. Compressed
+	 * the first time it is called and then reused.
+	 *
+	 * @return the gzipped bytes
+	 * @throws IOException
+	 */
+	public synchronized byte[] getGzippedBytes() throws IOException {
+		if (gzippedBytes == null) {
+			byte[] bytes = feed.getFeedMessageBytes();
+			ByteArrayOutputStream byteStream =
+					new ByteArrayOutputStream(bytes.length / 4 + 64);
+			GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream);
+			gzipStream.write(bytes);
+			gzipStream.close();
+			gzippedBytes = byteStream.toByteArray();
+		}
+		return gzippedBytes;
+	}
+}
@@ -17,28 +17,33 @@
 
 package org.transitime.api.rootResources;
 
-import java.io.IOException;
-import java.io.OutputStream;
-
 import javax.ws.rs.BeanParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
 
 import org.transitime.api.utils.StandardParameters;
 import org.transitime.api.gtfsRealtime.GtfsRtTripFeed;
 import org.transitime.api.gtfsRealtime.GtfsRtVehicleFeed;
+import org.transitime.api.gtfsRealtime.SerializedFeed;
 import org.transitime.feed.gtfsRt.OctalDecoder;
 
 import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 
 /**
  * Contains API commands for the GTFS-realtime API.
+ * <p>
+ * The feeds are obtained from the server already serialized so binary output
+ * simply writes out the bytes. An ETag is provided so that a client that
+ * already has the current data gets a 304 Not Modified response, and if the
+ * client accepts gzip then the bytes are provided gzipped.
  *
  * @author SkiBu Smith
  *
@@ -50,6 +55,68 @@ public class GtfsRealtimeApi {
 
 	/********************** Member Functions **************************/
 
+	/**
+	 * Creates the response builder for a serialized feed. If the client already has
+	 * the data, as indicated by the If-None-Match header, then a 304 Not
+	 * Modified response is returned.
+	 * 
+	 * @param feed
+	 *            The feed to return
+	 * @param humanFormatOutput
+	 *            If true then output is in human readable format. Otherwise
+	 *            output is in standard binary GTFS-realtime format.
+	 * @param ifNoneMatch
+	 *            The If-None-Match request header. Can be null.
+	 * @param acceptEncoding
+	 *            The Accept-Encoding request header. Can be null.
+	 * @return the ResponseBuilder, so that additional headers can be added
+	 * @throws WebApplicationException
+	 */
+	private static Response.ResponseBuilder createResponseBuilder(SerializedFeed feed,
+			boolean humanFormatOutput, String ifNoneMatch,
+			String acceptEncoding) throws WebApplicationException {
+		String eTagValue = feed.getETag(humanFormatOutput);
+		EntityTag eTag = new EntityTag(eTagValue);
+		
+		// If client already has the data then don't need to send it again
+		if (ifNoneMatch != null
+				&& (ifNoneMatch.contains("\"" + eTagValue + "\"")
+					|| ifNoneMatch.trim().equals("*")))
+			return Response.notModified(eTag);
+		
+		try {
+			if (humanFormatOutput) {
+				// Output data in human readable format. For plain text best
+				// to use MediaType.TEXT_PLAIN so that output is formatted
+				// properly in web browser instead of newlines being removed.
+				// First, convert the octal escaped message to regular UTF
+				// encoding.
+				FeedMessage message = FeedMessage.parseFrom(feed.getBytes());
+				String decodedMessage =
+						OctalDecoder.convertOctalEscapedString(message
+								.toString());
+				return Response.ok(decodedMessage.getBytes())
+						.type(MediaType.TEXT_PLAIN).tag(eTag);
+			}
+			
+			// Standard binary output. Already serialized so just write out
+			// the bytes, gzipped if the client accepts it.
+			Response.ResponseBuilder responseBuilder;
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				responseBuilder = Response.ok(feed.getGzippedBytes())
+						.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+			} else {
+				responseBuilder = Response.ok(feed.getBytes());
+			}
+			return responseBuilder
+					.type(MediaType.APPLICATION_OCTET_STREAM)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+					.tag(eTag);
+		} catch (Exception e) {
+			throw new WebApplicationException(e);
+		}
+	}
+	
 	/**
 	 * For getting GTFS-realtime Vehicle Positions data for all vehicles.
 	 * 
@@ -57,6 +124,11 @@ public class GtfsRealtimeApi {
 	 * @param format
 	 *            if set to "human" then will output GTFS-rt data in human
 	 *            readable format. Otherwise will output data in binary format.
+	 * @param ifNoneMatch
+	 *            If-None-Match header so can return 304 Not Modified if the
+	 *            client already has the data
+	 * @param acceptEncoding
+	 *            Accept-Encoding header so can return gzipped data
 	 * @return
 	 * @throws WebApplicationException
 	 */
@@ -65,7 +137,9 @@ public class GtfsRealtimeApi {
 	@Produces({ MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM })
 	public Response getGtfsRealtimeVehiclePositionsFeed(
 			final @BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "format") String format)
+			@QueryParam(value = "format") String format,
+			@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+			@HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding)
 			throws WebApplicationException {
 
 		// Make sure request is valid
@@ -73,56 +147,40 @@ public class GtfsRealtimeApi {
 
 		// Determine if output should be in human readable format or in
 		// standard binary GTFS-realtime format.
-		final boolean humanFormatOutput = "human".equals(format);
-
-		// Determine the appropriate output format. For plain text best to use
-		// MediaType.TEXT_PLAIN so that output is formatted properly in web
-		// browser instead of newlines being removed. For binary output should
-		// use MediaType.APPLICATION_OCTET_STREAM.
-		String mediaType =
-				humanFormatOutput ? MediaType.TEXT_PLAIN
-						: MediaType.APPLICATION_OCTET_STREAM;
-
-		// Prepare a StreamingOutput object so can write using it
-		StreamingOutput stream = new StreamingOutput() {
-			public void write(OutputStream outputStream) throws IOException,
-					WebApplicationException {
-				try {
-					FeedMessage message =
-							GtfsRtVehicleFeed.getPossiblyCachedMessage(
-									stdParameters.getAgencyId(),
-									MAX_GTFS_RT_CACHE_SECS);
-
-					// Output in human readable format or in standard binary
-					// format
-					if (humanFormatOutput) {
-						// Output data in human readable format. First, convert
-						// the octal escaped message to regular UTF encoding.
-						String decodedMessage =
-								OctalDecoder.convertOctalEscapedString(message
-										.toString());
-						outputStream.write(decodedMessage.getBytes());
-					} else {
-						// Standard binary output
-						message.writeTo(outputStream);
-					}
-				} catch (Exception e) {
-					throw new WebApplicationException(e);
-				}
-			}
-		};
-
-		// Write out the data using the output stream
-		return Response.ok(stream).type(mediaType).build();
+		boolean humanFormatOutput = "human".equals(format);
+
+		// Get the already serialized feed
+		SerializedFeed feed;
+		try {
+			feed = GtfsRtVehicleFeed.getPossiblyCachedFeed(
+					stdParameters.getAgencyId(), MAX_GTFS_RT_CACHE_SECS);
+		} catch (Exception e) {
+			throw new WebApplicationException(e);
+		}
+
+		return createResponseBuilder(feed, humanFormatOutput, ifNoneMatch,
+				acceptEncoding).build();
 	}
 
 	/**
-	 * For getting GTFS-realtime Vehicle Positions data for all vehicles.
+	 * For getting GTFS-realtime Trip Updates data for all trips. The version
+	 * of the data is returned in the X-Feed-Version header so that a client
+	 * can subsequently specify it as the sinceVersion in order to get a
+	 * DIFFERENTIAL feed.
 	 * 
 	 * @param stdParameters
 	 * @param format
 	 *            if set to "human" then will output GTFS-rt data in human
 	 *            readable format. Otherwise will output data in binary format.
+	 * @param sinceVersion
+	 *            optional. If set to a version previously returned in the
+	 *            X-Feed-Version header then only the trips that changed since
+	 *            then are returned, as a DIFFERENTIAL feed.
+	 * @param ifNoneMatch
+	 *            If-None-Match header so can return 304 Not Modified if the
+	 *            client already has the data
+	 * @param acceptEncoding
+	 *            Accept-Encoding header so can return gzipped data
 	 * @return
 	 * @throws WebApplicationException
 	 */
@@ -131,7 +189,10 @@ public class GtfsRealtimeApi {
 	@Produces({ MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM })
 	public Response getGtfsRealtimeTripFeed(
 			final @BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "format") String format)
+			@QueryParam(value = "format") String format,
+			@QueryParam(value = "sinceVersion") Long sinceVersion,
+			@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+			@HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding)
 			throws WebApplicationException {
 
 		// Make sure request is valid
@@ -139,47 +200,22 @@ public class GtfsRealtimeApi {
 
 		// Determine if output should be in human readable format or in
 		// standard binary GTFS-realtime format.
-		final boolean humanFormatOutput = "human".equals(format);
-
-		// Determine the appropriate output format. For plain text best to use
-		// MediaType.TEXT_PLAIN so that output is formatted properly in web
-		// browser instead of newlines being removed. For binary output should
-		// use MediaType.APPLICATION_OCTET_STREAM.
-		String mediaType =
-				humanFormatOutput ? MediaType.TEXT_PLAIN
-						: MediaType.APPLICATION_OCTET_STREAM;
-
-		// Prepare a StreamingOutput object so can write using it
-		StreamingOutput stream = new StreamingOutput() {
-			public void write(OutputStream outputStream) throws IOException,
-					WebApplicationException {
-				try {
-					FeedMessage message =
-							GtfsRtTripFeed.getPossiblyCachedMessage(
-									stdParameters.getAgencyId(),
-									MAX_GTFS_RT_CACHE_SECS);
-
-					// Output in human readable format or in standard binary
-					// format
-					if (humanFormatOutput) {
-						// Output data in human readable format. First, convert
-						// the octal escaped message to regular UTF encoding.
-						String decodedMessage =
-								OctalDecoder.convertOctalEscapedString(message
-										.toString());
-						outputStream.write(decodedMessage.getBytes());
-					} else {
-						// Standard binary output
-						message.writeTo(outputStream);
-					}
-				} catch (Exception e) {
-					throw new WebApplicationException(e);
-				}
-			}
-		};
-
-		// Write out the data using the output stream
-		return Response.ok(stream).type(mediaType).build();
+		boolean humanFormatOutput = "human".equals(format);
+
+		// Get the already serialized feed
+		SerializedFeed feed;
+		try {
+			feed = GtfsRtTripFeed.getPossiblyCachedFeed(
+					stdParameters.getAgencyId(), MAX_GTFS_RT_CACHE_SECS,
+					sinceVersion != null ? sinceVersion : -1);
+		} catch (Exception e) {
+			throw new WebApplicationException(e);
+		}
+
+		return createResponseBuilder(feed, humanFormatOutput, ifNoneMatch,
+				acceptEncoding)
+				.header("X-Feed-Version", feed.getFeed().getVersion())
+				.build();
 	}
 
 }
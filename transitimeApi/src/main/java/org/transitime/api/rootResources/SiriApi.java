@@ -35,6 +35,7 @@ import org.transitime.api.data.siri.SiriStopMonitoring;
 import org.transitime.api.data.siri.SiriVehiclesMonitoring;
 import org.transitime.api.utils.StandardParameters;
 import org.transitime.api.utils.WebUtils;
+import org.transitime.ipc.data.IpcDataCodec;
 import org.transitime.ipc.data.IpcVehicleComplete;
 import org.transitime.ipc.data.IpcPrediction;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
@@ -85,7 +86,9 @@ public class SiriApi {
 			} else if (!vehicleIds.isEmpty()) {
 				vehicles = inter.getComplete(vehicleIds);
 			} else {
-				vehicles = inter.getComplete();
+				// All vehicles so use the compact encoding
+				vehicles = IpcDataCodec.decodeVehicles(
+						inter.getCompleteEncoded());
 			}
 
 			// Determine and return SiriStopMonitoring response
@@ -67,6 +67,7 @@ import org.transitime.db.structs.Location;
 import org.transitime.ipc.data.IpcActiveBlock;
 import org.transitime.ipc.data.IpcBlock;
 import org.transitime.ipc.data.IpcCalendar;
+import org.transitime.ipc.data.IpcDataCodec;
 import org.transitime.ipc.data.IpcPrediction;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
 import org.transitime.ipc.data.IpcRoute;
@@ -968,7 +969,8 @@ public class TransitimeApi {
 
       VehiclesInterface vehiclesInterface = stdParameters.getVehiclesInterface();
 
-      Collection<IpcVehicleComplete> ipcVehicleCompletes = vehiclesInterface.getComplete();
+      Collection<IpcVehicleComplete> ipcVehicleCompletes =
+          IpcDataCodec.decodeVehicles(vehiclesInterface.getCompleteEncoded());
 
       for (IpcVehicleComplete v : ipcVehicleCompletes) {
         TemporalDifference adh = v.getRealTimeSchedAdh();